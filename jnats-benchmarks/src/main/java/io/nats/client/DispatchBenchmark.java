@@ -0,0 +1,111 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@code processMsg} dispatch of parsed messages into subscriptions, per message: into a
+ * synchronous subscription that is then drained by {@code nextMessage}, into an asynchronous
+ * subscription whose handler runs on the subscription's own thread, and to a subject nobody is
+ * subscribed to. Messages are dispatched in batches, well under the pending limits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+    static final int BATCH = 1000;
+
+    private ConnectionImpl conn;
+    private SyncSubscriptionImpl sync;
+    private final AtomicLong handled = new AtomicLong();
+    private byte[] syncArgs;
+    private byte[] asyncArgs;
+    private byte[] unknownArgs;
+    private final byte[] payload = "test".getBytes();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        conn = OfflineConnection.open(new OfflineConnection.NullOutputStream());
+        sync = (SyncSubscriptionImpl) conn.subscribeSync("sync");
+        AsyncSubscriptionImpl async = (AsyncSubscriptionImpl) conn.subscribe("async",
+                new MessageHandler() {
+                    public void onMessage(Message msg) {
+                        handled.incrementAndGet();
+                    }
+                });
+        syncArgs = String.format("sync %d %d", sync.getSid(), payload.length).getBytes();
+        asyncArgs = String.format("async %d %d", async.getSid(), payload.length).getBytes();
+        unknownArgs = String.format("unknown %d %d", Long.MAX_VALUE, payload.length).getBytes();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        conn.close();
+    }
+
+    // Sets the arguments of the MSG being processed, as the parser does for each message.
+    private void msgArgs(byte[] args) throws ParseException {
+        conn.getParser().processMsgArgs(args, 0, args.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void syncSubscription(Blackhole bh)
+            throws ParseException, IOException, InterruptedException {
+        msgArgs(syncArgs);
+        for (int i = 0; i < BATCH; i++) {
+            conn.processMsg(payload, 0, payload.length);
+        }
+        for (int i = 0; i < BATCH; i++) {
+            bh.consume(sync.nextMessage(0));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void asyncSubscription() throws ParseException {
+        msgArgs(asyncArgs);
+        long target = handled.get() + BATCH;
+        for (int i = 0; i < BATCH; i++) {
+            conn.processMsg(payload, 0, payload.length);
+        }
+        while (handled.get() < target) {
+            Thread.yield();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void noSubscription() throws ParseException {
+        msgArgs(unknownArgs);
+        for (int i = 0; i < BATCH; i++) {
+            conn.processMsg(payload, 0, payload.length);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link NUID} generation: a private instance, the synchronized global instance with one and with
+ * four threads, and the thread-local instance writing into a caller's buffer as new style
+ * request inboxes do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NUIDBenchmark {
+
+    private final NUID nuid = new NUID();
+    private final byte[] buf = new byte[22];
+
+    @Benchmark
+    public String next() {
+        return nuid.next();
+    }
+
+    @Benchmark
+    public String nextGlobal() {
+        return NUID.nextGlobal();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String nextGlobalContended() {
+        return NUID.nextGlobal();
+    }
+
+    @Benchmark
+    public byte[] nextLocalInto() {
+        NUID.local().next(buf, 0);
+        return buf;
+    }
+}
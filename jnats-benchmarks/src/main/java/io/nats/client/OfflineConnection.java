@@ -0,0 +1,51 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Creates connections for the benchmarks that are set up as if connected, but have no socket and
+ * no reader or flusher threads. Protocol written by the connection goes to the given stream, and
+ * protocol from the "server" is fed to the connection's parser by the benchmark itself.
+ */
+final class OfflineConnection {
+
+    static final String INFO = "INFO {\"server_id\":\"a1c9cf0c66c3ea102c600200d441ad8e\","
+            + "\"version\":\"0.9.6\",\"go\":\"go1.7.4\",\"host\":\"0.0.0.0\",\"port\":4222,"
+            + "\"auth_required\":false,\"ssl_required\":false,\"tls_required\":false,"
+            + "\"tls_verify\":false,\"max_payload\":1048576}\r\n";
+
+    private OfflineConnection() {
+    }
+
+    static ConnectionImpl open(OutputStream out) {
+        return open(Nats.defaultOptions(), out);
+    }
+
+    static ConnectionImpl open(Options opts, OutputStream out) {
+        ConnectionImpl conn = new ConnectionImpl(opts);
+        conn.setup();
+        conn.setConnectedServerInfo(ServerInfo.createFromWire(INFO));
+        conn.setOutputStream(out);
+        return conn;
+    }
+
+    /**
+     * Discards everything written to it.
+     */
+    static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+        }
+    }
+}
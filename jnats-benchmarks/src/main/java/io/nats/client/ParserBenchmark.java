@@ -0,0 +1,104 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Parser#parse(byte[], int)} throughput, per message, for buffers of small frames, of
+ * large frames, and for a message split across three reads. Nothing is subscribed, so the
+ * messages are dropped as soon as they are parsed and dispatch is not measured, see
+ * {@link DispatchBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+
+    static final int SMALL_FRAMES = 1024;
+    static final int LARGE_FRAMES = 8;
+    static final int LARGE_PAYLOAD = 32 * 1024;
+    static final int SPLIT_PAYLOAD = 1024;
+
+    private ConnectionImpl conn;
+    private Parser parser;
+    private byte[] small;
+    private byte[] large;
+    private byte[][] split;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        conn = OfflineConnection.open(new OfflineConnection.NullOutputStream());
+        parser = conn.getParser();
+        small = frames(4, SMALL_FRAMES);
+        large = frames(LARGE_PAYLOAD, LARGE_FRAMES);
+
+        byte[] msg = frames(SPLIT_PAYLOAD, 1);
+        int third = msg.length / 3;
+        split = new byte[][] {
+            Arrays.copyOfRange(msg, 0, third),
+            Arrays.copyOfRange(msg, third, 2 * third),
+            Arrays.copyOfRange(msg, 2 * third, msg.length)};
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        conn.close();
+    }
+
+    // count frames of MSG foo 1 <size> with a payload of size bytes
+    static byte[] frames(int size, int count) {
+        byte[] proto = String.format("MSG foo 1 %d\r\n", size).getBytes();
+        int frameLen = proto.length + size + 2;
+        byte[] buf = new byte[frameLen * count];
+        for (int i = 0; i < count; i++) {
+            int off = i * frameLen;
+            System.arraycopy(proto, 0, buf, off, proto.length);
+            Arrays.fill(buf, off + proto.length, off + proto.length + size, (byte) 'a');
+            buf[off + frameLen - 2] = '\r';
+            buf[off + frameLen - 1] = '\n';
+        }
+        return buf;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SMALL_FRAMES)
+    public void smallFrames() throws ParseException, InterruptedException {
+        parser.parse(small, small.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LARGE_FRAMES)
+    public void largeFrames() throws ParseException, InterruptedException {
+        parser.parse(large, large.length);
+    }
+
+    @Benchmark
+    public void splitFrame() throws ParseException, InterruptedException {
+        for (byte[] read : split) {
+            parser.parse(read, read.length);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding of published messages: {@code writePublishProto} alone, which builds the
+ * {@code PUB <subject> [reply] <size>} line, and a whole publish into a stream that discards its
+ * input, which adds the lock, the statistics and the copy of the payload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PublishBenchmark {
+
+    @Param({"0", "128", "4096"})
+    public int size;
+
+    private ConnectionImpl conn;
+    private ByteBuffer proto;
+    private byte[] subject;
+    private byte[] reply;
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        conn = OfflineConnection.open(new OfflineConnection.NullOutputStream());
+        proto = ByteBuffer.allocate(Parser.MAX_CONTROL_LINE_SIZE);
+        proto.put(ConnectionImpl._PUB_P_.getBytes());
+        subject = "benchmark.publish.subject".getBytes();
+        reply = "_INBOX.a1c9cf0c66c3ea102c6002".getBytes();
+        data = new byte[size];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        conn.close();
+    }
+
+    @Benchmark
+    public ByteBuffer writePublishProto() {
+        proto.position(ConnectionImpl._PUB_P_.length());
+        conn.writePublishProto(proto, subject, null, size);
+        return proto;
+    }
+
+    @Benchmark
+    public ByteBuffer writePublishProtoWithReply() {
+        proto.position(ConnectionImpl._PUB_P_.length());
+        conn.writePublishProto(proto, subject, reply, size);
+        return proto;
+    }
+
+    @Benchmark
+    public void publish() throws IOException {
+        conn.publish(subject, null, data, false);
+    }
+}
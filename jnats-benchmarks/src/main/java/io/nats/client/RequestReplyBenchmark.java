@@ -0,0 +1,120 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Correlation of new style requests with their replies, without a network: each operation
+ * publishes a request with {@code requestAsync}, feeds the reply to its inbox back through the
+ * parser, and waits for the response subscription's handler to complete the request. This covers
+ * the inbox generation, the pending request map and the hand-off to the response subscription's
+ * thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestReplyBenchmark {
+
+    private static final byte[] REQUEST_PROTO = "PUB request ".getBytes();
+    private static final byte[] MSG_PROTO = "MSG ".getBytes();
+
+    private final Capture out = new Capture();
+    private ConnectionImpl conn;
+    private Parser parser;
+    private final byte[] request = "ping".getBytes();
+    // " <sid> 4\r\npong\r\n", the reply after its subject
+    private byte[] replySuffix;
+    private byte[] reply;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        conn = OfflineConnection.open(out);
+        parser = conn.getParser();
+        // The first request subscribes to the response inbox, SUB _INBOX.<nuid>.* <sid>\r\n
+        Future<Message> first = conn.requestAsync("request", request, -1, TimeUnit.SECONDS);
+        String written = out.toString();
+        String sub = written.substring(written.indexOf("SUB "), written.indexOf("\r\n"));
+        String sid = sub.substring(sub.lastIndexOf(' ') + 1);
+        replySuffix = String.format(" %s 4\r\npong\r\n", sid).getBytes();
+        reply = new byte[MSG_PROTO.length + 64 + replySuffix.length];
+        respond();
+        first.get();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        conn.close();
+    }
+
+    // Replies to the request last written, PUB request <inbox> 4\r\nping\r\n
+    private void respond() throws ParseException, InterruptedException {
+        byte[] written = out.buf();
+        int start = indexOf(written, out.size(), REQUEST_PROTO) + REQUEST_PROTO.length;
+        int end = start;
+        while (written[end] != ' ') {
+            end++;
+        }
+        int len = 0;
+        System.arraycopy(MSG_PROTO, 0, reply, len, MSG_PROTO.length);
+        len += MSG_PROTO.length;
+        System.arraycopy(written, start, reply, len, end - start);
+        len += end - start;
+        System.arraycopy(replySuffix, 0, reply, len, replySuffix.length);
+        len += replySuffix.length;
+        out.reset();
+        parser.parse(reply, len);
+    }
+
+    private static int indexOf(byte[] buf, int length, byte[] target) {
+        outer:
+        for (int i = 0; i <= length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (buf[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new IllegalStateException("nats: request not published");
+    }
+
+    // Gives access to the bytes written without copying them.
+    static final class Capture extends ByteArrayOutputStream {
+        byte[] buf() {
+            return buf;
+        }
+    }
+
+    @Benchmark
+    public Message requestReply()
+            throws IOException, ParseException, InterruptedException, ExecutionException {
+        Future<Message> future = conn.requestAsync("request", request, -1, TimeUnit.SECONDS);
+        respond();
+        return future.get();
+    }
+}
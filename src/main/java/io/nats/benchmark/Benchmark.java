@@ -6,52 +6,82 @@
 
 package io.nats.benchmark;
 
+import io.nats.client.Histogram;
 import io.nats.client.NUID;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * A utility class for collecting and calculating benchmark metrics.
+ *
+ * <p>Latencies are recorded in nanoseconds into one {@link Histogram} per publisher and per
+ * subscriber, so memory use does not grow with the number of messages, and merged when the
+ * benchmark is closed. The report gives their percentiles, and {@link #exportLatency(Path)}
+ * writes them out for offline comparison.
  */
 public class Benchmark extends Sample {
+    // The percentiles reported for each latency histogram
+    static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9, 99.99};
+    static final String[] PERCENTILE_LABELS = {"p50", "p90", "p99", "p99.9", "p99.99"};
+
     private String name = null;
     private String runId = null;
+    private String pubLabel = "Pub";
+    private String subLabel = "Sub";
     private final SampleGroup pubs = new SampleGroup();
     private final SampleGroup subs = new SampleGroup();
     private BlockingQueue<Sample> pubChannel;
     private BlockingQueue<Sample> subChannel;
-    private int numMsgs;
-    private long[] pubTimeSlots;
-    private long[] subTimeSlots;
-    private int[] pubSlotIndex;
-    private int[] subSlotIndex;
-
-
+    private final Histogram[] pubWorkerLatency;
+    private final Histogram[] subWorkerLatency;
+    private final Histogram pubLatency = new Histogram();
+    private final Histogram subLatency = new Histogram();
 
     /**
      * Initializes a Benchmark. After creating a bench call addSubSample/addPubSample. When done
-     * collecting samples, call endBenchmark.
+     * collecting samples, call close.
      *
      * @param name   a descriptive name for this test run
      * @param subCnt the number of subscribers
      * @param pubCnt the number of publishers
      */
-    public Benchmark(String name, int subCnt, int pubCnt,int num) {
+    public Benchmark(String name, int subCnt, int pubCnt) {
         this.name = name;
+        this.runId = NUID.nextGlobal();
         this.subChannel = new LinkedBlockingQueue<Sample>();
         this.pubChannel = new LinkedBlockingQueue<Sample>();
-        numMsgs=num;
-        subTimeSlots=new long[subCnt*num];
-        pubTimeSlots=new long[pubCnt*num];
-        subSlotIndex=new int[subCnt];
-        pubSlotIndex=new int[pubCnt];
+        this.subWorkerLatency = histograms(subCnt);
+        this.pubWorkerLatency = histograms(pubCnt);
+    }
+
+    /**
+     * Initializes a Benchmark.
+     *
+     * @param name   a descriptive name for this test run
+     * @param subCnt the number of subscribers
+     * @param pubCnt the number of publishers
+     * @param num    the number of messages per client, no longer used
+     * @deprecated latencies no longer take space per message, use
+     *             {@link #Benchmark(String, int, int)}
+     */
+    @Deprecated
+    public Benchmark(String name, int subCnt, int pubCnt, int num) {
+        this(name, subCnt, pubCnt);
+    }
+
+    private static Histogram[] histograms(int count) {
+        Histogram[] histograms = new Histogram[count];
+        for (int i = 0; i < count; i++) {
+            histograms[i] = new Histogram();
+        }
+        return histograms;
     }
 
     public final void addPubSample(Sample sample) {
@@ -62,20 +92,39 @@ public class Benchmark extends Sample {
         subChannel.add(sample);
     }
 
+    /**
+     * Records the latency of a message sent by a publisher.
+     *
+     * @param pubIndex the index of the publisher
+     * @param latency  the latency in nanoseconds
+     */
     public final void addPubLatency(int pubIndex, long latency) {
-        pubTimeSlots[pubSlotIndex[pubIndex]+numMsgs*pubIndex]=latency;
-        pubSlotIndex[pubIndex]+=1;
+        pubWorkerLatency[pubIndex].record(latency);
     }
 
+    /**
+     * Records the latency of a message received by a subscriber.
+     *
+     * @param subIndex the index of the subscriber
+     * @param latency  the latency in nanoseconds
+     */
     public final void addSubLatency(int subIndex, long latency) {
-        subTimeSlots[subSlotIndex[subIndex]+numMsgs*subIndex]=latency;
-        subSlotIndex[subIndex]+=1;
+        subWorkerLatency[subIndex].record(latency);
     }
 
     /**
-     * Closes this benchmark and calculates totals and times.
+     * Closes this benchmark and calculates totals, times and latencies.
      */
     public final void close() {
+        for (Histogram worker : pubWorkerLatency) {
+            pubLatency.add(worker);
+            worker.reset();
+        }
+        for (Histogram worker : subWorkerLatency) {
+            subLatency.add(worker);
+            worker.reset();
+        }
+
         while (subChannel.size() > 0) {
             subs.addSample(subChannel.poll());
         }
@@ -106,11 +155,10 @@ public class Benchmark extends Sample {
      * @return the report as a String.
      */
     public final String report() {
-        reportLatency();
         StringBuilder sb = new StringBuilder();
         String indent = "";
         if (pubs.hasSamples() && subs.hasSamples()) {
-            sb.append(String.format("%s Pub/Sub stats: %s\n", name, this));
+            sb.append(String.format("%s %s/%s stats: %s\n", name, pubLabel, subLabel, this));
             indent += " ";
         }
         if (pubs.hasSamples()) {
@@ -118,7 +166,7 @@ public class Benchmark extends Sample {
             if (!subs.hasSamples()) {
                 maybeTitle = name + " ";
             }
-            sb.append(String.format("%s%sPub stats: %s\n", indent, maybeTitle, pubs));
+            sb.append(String.format("%s%s%s stats: %s\n", indent, maybeTitle, pubLabel, pubs));
             if (pubs.getSamples().size() > 1) {
                 for (Sample stat : pubs.getSamples()) {
                     sb.append(String.format("%s [%d] %s (%d msgs)\n", indent,
@@ -129,7 +177,7 @@ public class Benchmark extends Sample {
         }
         if (subs.hasSamples()) {
             String maybeTitle = "";
-            sb.append(String.format("%s%sSub stats: %s\n", indent, maybeTitle, subs));
+            sb.append(String.format("%s%s%s stats: %s\n", indent, maybeTitle, subLabel, subs));
             if (subs.getSamples().size() > 1) {
                 for (Sample stat : subs.getSamples()) {
                     sb.append(String.format("%s [%d] %s (%d msgs)\n", indent,
@@ -138,9 +186,32 @@ public class Benchmark extends Sample {
                 sb.append(String.format("%s %s\n", indent, subs.statistics()));
             }
         }
+        if (pubLatency.getCount() > 0) {
+            sb.append(String.format("%s%s latency: %s\n", indent, pubLabel, latency(pubLatency)));
+        }
+        if (subLatency.getCount() > 0) {
+            sb.append(String.format("%s%s latency: %s\n", indent, subLabel, latency(subLatency)));
+        }
         return sb.toString();
     }
 
+    // The percentiles of a latency histogram in microseconds, e.g.
+    // p50 12.3 | p90 ... | max 812.0 us (1,000,000 msgs)
+    static String latency(Histogram histogram) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            sb.append(String.format("%s %.1f | ", PERCENTILE_LABELS[i],
+                    micros(histogram.getValueAtPercentile(PERCENTILES[i]))));
+        }
+        sb.append(String.format("max %.1f us (%,d msgs)", micros(histogram.getMax()),
+                histogram.getCount()));
+        return sb.toString();
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
     /**
      * Returns a list of text lines for output to a CSV file.
      *
@@ -177,6 +248,18 @@ public class Benchmark extends Sample {
         this.name = name;
     }
 
+    /**
+     * Sets the names the report gives the two sides of the benchmark, "Pub" and "Sub" by
+     * default, e.g. "Request" and "Reply" for requesters and repliers.
+     *
+     * @param pubLabel the name of the publishing side
+     * @param subLabel the name of the subscribing side
+     */
+    public final void setLabels(String pubLabel, String subLabel) {
+        this.pubLabel = pubLabel;
+        this.subLabel = subLabel;
+    }
+
     public final String getRunId() {
         return runId;
     }
@@ -193,33 +276,97 @@ public class Benchmark extends Sample {
         return subs;
     }
 
-    private void reportLatency(){
-        if(pubSlotIndex.length>0)
-            exportLatencyData(pubTimeSlots,"latency/pubTime.csv");
-        if(subSlotIndex.length>0)
-            exportLatencyData(subTimeSlots,"latency/subTime.csv");
-    }
-
-    private void exportLatencyData(long[] timeSlots, String fileName) {
-        Arrays.sort(timeSlots);
-        int TIME_SLICE = 1000;
-        int numMsgsForEachSlice = timeSlots.length / TIME_SLICE;
-        int indexWithinSlice = 0;
-        int indexOfSlice = 0;
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(fileName))) {
-            bw.write("Index,Latency\n");
-            for (int i = 0; i < timeSlots.length; i += 1) {
-                indexWithinSlice += 1;
-                if (indexWithinSlice == numMsgsForEachSlice) {
-                    indexOfSlice += 1;
-                    bw.write(indexOfSlice + "," + timeSlots[i - numMsgsForEachSlice + 1] + "\n");
-                    indexWithinSlice = 0;
-                }
-            }
-        } catch (IOException e) {
+    /**
+     * Returns the latencies recorded by all publishers, in nanoseconds, once the benchmark is
+     * closed.
+     *
+     * @return the publish latency histogram
+     */
+    public final Histogram getPubLatency() {
+        return pubLatency;
+    }
+
+    /**
+     * Returns the latencies recorded by all subscribers, in nanoseconds, once the benchmark is
+     * closed.
+     *
+     * @return the subscribe latency histogram
+     */
+    public final Histogram getSubLatency() {
+        return subLatency;
+    }
 
-            e.printStackTrace();
+    /**
+     * Writes the latency histograms of a closed benchmark to {@code dir}, named after the run id.
+     * For each of the publish and subscribe latencies that were recorded there are two files:
+     * {@code <runId>-pub.hgrm}, the percentile distribution in microseconds in the format of
+     * HdrHistogram's {@code outputPercentileDistribution}, which its plotter reads, and
+     * {@code <runId>-pub.hist}, the raw bucket counts of {@link Histogram#dump()}. The buckets
+     * are the same for every histogram, so the counts of several runs can be summed.
+     *
+     * @param dir the directory to write to, created if needed
+     * @return the files written
+     * @throws IOException if a file cannot be written
+     */
+    public final List<Path> exportLatency(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<Path>();
+        if (pubLatency.getCount() > 0) {
+            files.addAll(export(dir, "pub", pubLatency));
+        }
+        if (subLatency.getCount() > 0) {
+            files.addAll(export(dir, "sub", subLatency));
+        }
+        return files;
+    }
 
+    private List<Path> export(Path dir, String kind, Histogram histogram) throws IOException {
+        Charset utf8 = Charset.forName("UTF-8");
+        Path hgrm = dir.resolve(String.format("%s-%s.hgrm", runId, kind));
+        Files.write(hgrm, percentileDistribution(histogram).getBytes(utf8));
+        Path hist = dir.resolve(String.format("%s-%s.hist", runId, kind));
+        Files.write(hist, histogram.dump().getBytes(utf8));
+        List<Path> files = new ArrayList<Path>();
+        files.add(hgrm);
+        files.add(hist);
+        return files;
+    }
+
+    // The percentile distribution in microseconds, in HdrHistogram's text format: one row per
+    // non-empty bucket of its upper bound, the fraction of values at or below it, the count of
+    // values at or below it and 1/(1-fraction).
+    static String percentileDistribution(Histogram histogram) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount",
+                "1/(1-Percentile)"));
+        long total = 0L;
+        List<long[]> buckets = new ArrayList<long[]>();
+        for (String row : histogram.dump().split("\n")) {
+            if (row.isEmpty()) {
+                continue;
+            }
+            String[] fields = row.split(" ");
+            long count = Long.parseLong(fields[1]);
+            total += count;
+            buckets.add(new long[] {Math.min(Long.parseLong(fields[0]), histogram.getMax()),
+                    count});
         }
+        long seen = 0L;
+        for (long[] bucket : buckets) {
+            seen += bucket[1];
+            double fraction = (double) seen / total;
+            if (seen < total) {
+                sb.append(String.format("%12.3f %2.12f %10d %14.2f%n", micros(bucket[0]),
+                        fraction, seen, 1.0 / (1.0 - fraction)));
+            } else {
+                sb.append(String.format("%12.3f %2.12f %10d%n", micros(bucket[0]), fraction,
+                        seen));
+            }
+        }
+        sb.append(String.format("#[Mean    = %12.3f, Min            = %12.3f]%n",
+                histogram.getMean() / 1000.0, micros(histogram.getMin())));
+        sb.append(String.format("#[Max     = %12.3f, Total count    = %12d]%n",
+                micros(histogram.getMax()), histogram.getCount()));
+        return sb.toString();
     }
 }
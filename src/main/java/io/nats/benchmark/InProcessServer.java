@@ -0,0 +1,675 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.benchmark;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.nats.client.NUID;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A NATS server stand-in that runs inside the JVM and listens on a loopback port, so that
+ * benchmarks and tests can exercise real connections on a machine without a {@code gnatsd}.
+ *
+ * <p>It speaks the client protocol: {@code INFO}, {@code CONNECT}, {@code PING}, {@code PONG},
+ * {@code PUB}, {@code SUB}, {@code UNSUB} (including auto-unsubscribe), {@code MSG} and
+ * {@code +OK} for verbose clients. Subjects may contain the {@code *} and {@code >} wildcards,
+ * and each message published to a queue group goes to one of its members. There is no
+ * authentication, TLS, clustering or slow consumer handling: a client that does not read stalls
+ * the publishers writing to it.
+ *
+ * <pre>
+ * try (InProcessServer server = new InProcessServer()) {
+ *     Connection nc = Nats.connect(server.getUrl());
+ *     ...
+ * }
+ * </pre>
+ */
+public final class InProcessServer implements AutoCloseable {
+
+    static final int MAX_CONTROL_LINE_SIZE = 4096;
+    static final int MAX_PAYLOAD = 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] MSG_PROTO = "MSG ".getBytes(UTF8);
+    private static final byte[] CRLF = "\r\n".getBytes(UTF8);
+    private static final byte[] PONG_PROTO = "PONG\r\n".getBytes(UTF8);
+    private static final byte[] OK_PROTO = "+OK\r\n".getBytes(UTF8);
+
+    private final ServerSocket listener;
+    private final Thread acceptor;
+    private final String serverId = NUID.nextGlobal();
+    private final Set<Client> clients =
+            Collections.newSetFromMap(new ConcurrentHashMap<Client, Boolean>());
+    private final Sublist sublist = new Sublist();
+    private final AtomicInteger clientIds = new AtomicInteger();
+    private final AtomicLong inMsgs = new AtomicLong();
+    private final AtomicLong outMsgs = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * Starts a server on an ephemeral loopback port.
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public InProcessServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Starts a server on the given loopback port.
+     *
+     * @param port the port to listen on, or 0 for an ephemeral port
+     * @throws IOException if the port cannot be bound
+     */
+    public InProcessServer(int port) throws IOException {
+        listener = new ServerSocket();
+        listener.setReuseAddress(true);
+        listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        acceptor = new Thread(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        }, "jnats-server-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return listener.getLocalPort();
+    }
+
+    /**
+     * Returns the URL to connect to the server with.
+     *
+     * @return the server URL, e.g. {@code nats://127.0.0.1:4222}
+     */
+    public String getUrl() {
+        return String.format("nats://%s:%d", listener.getInetAddress().getHostAddress(),
+                getPort());
+    }
+
+    /**
+     * Returns the number of messages published to the server.
+     *
+     * @return the number of messages published
+     */
+    public long getInMsgs() {
+        return inMsgs.get();
+    }
+
+    /**
+     * Returns the number of messages the server delivered to subscribers.
+     *
+     * @return the number of messages delivered
+     */
+    public long getOutMsgs() {
+        return outMsgs.get();
+    }
+
+    /**
+     * Returns the number of clients currently connected.
+     *
+     * @return the number of clients
+     */
+    public int getNumClients() {
+        return clients.size();
+    }
+
+    /**
+     * Stops listening and disconnects all clients.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            listener.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+        try {
+            acceptor.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = listener.accept();
+            } catch (IOException e) {
+                // closed
+                return;
+            }
+            try {
+                socket.setTcpNoDelay(true);
+                Client client = new Client(clientIds.incrementAndGet(), socket);
+                clients.add(client);
+                Thread thread = new Thread(client, "jnats-server-client-" + client.id);
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private String info() {
+        return String.format("INFO {\"server_id\":\"%s\",\"version\":\"0.9.6\",\"go\":\"java\","
+                        + "\"host\":\"%s\",\"port\":%d,\"auth_required\":false,"
+                        + "\"ssl_required\":false,\"tls_required\":false,\"tls_verify\":false,"
+                        + "\"max_payload\":%d}\r\n", serverId,
+                listener.getInetAddress().getHostAddress(), getPort(), MAX_PAYLOAD);
+    }
+
+    // Returns whether subject, split into tokens, matches the subscription's subject, which may
+    // contain wildcards.
+    static boolean matches(String[] pattern, String[] subject) {
+        for (int i = 0; i < pattern.length; i++) {
+            String token = pattern[i];
+            if (">".equals(token)) {
+                return subject.length > i;
+            }
+            if (i >= subject.length) {
+                return false;
+            }
+            if (!"*".equals(token) && !token.equals(subject[i])) {
+                return false;
+            }
+        }
+        return pattern.length == subject.length;
+    }
+
+    static String[] tokenize(String subject) {
+        return subject.split("\\.", -1);
+    }
+
+    static boolean isValidSubject(String subject, boolean wildcards) {
+        if (subject.isEmpty()) {
+            return false;
+        }
+        String[] tokens = tokenize(subject);
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token.isEmpty()) {
+                return false;
+            }
+            if (token.indexOf('*') >= 0 || token.indexOf('>') >= 0) {
+                if (!wildcards || token.length() > 1
+                        || (">".equals(token) && i != tokens.length - 1)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static final class Subscription {
+        final Client client;
+        final String subject;
+        final String[] tokens;
+        final String queue;
+        final byte[] sid;
+        final AtomicLong delivered = new AtomicLong();
+        volatile long max;
+
+        Subscription(Client client, String subject, String queue, String sid) {
+            this.client = client;
+            this.subject = subject;
+            this.tokens = tokenize(subject);
+            this.queue = queue;
+            this.sid = sid.getBytes(UTF8);
+        }
+    }
+
+    // The subscribers to a subject: the plain subscriptions and the members of each queue group.
+    static final class Match {
+        final Subscription[] plain;
+        final Subscription[][] groups;
+
+        Match(Subscription[] plain, Subscription[][] groups) {
+            this.plain = plain;
+            this.groups = groups;
+        }
+    }
+
+    // All subscriptions, with the matches for recently published subjects cached. Lookups that
+    // hit the cache take no lock.
+    static final class Sublist {
+        private static final int MAX_CACHE = 1024;
+
+        private final List<Subscription> subs = new ArrayList<Subscription>();
+        private final ConcurrentHashMap<String, Match> cache =
+                new ConcurrentHashMap<String, Match>();
+
+        synchronized void add(Subscription sub) {
+            subs.add(sub);
+            cache.clear();
+        }
+
+        synchronized void remove(Subscription sub) {
+            if (subs.remove(sub)) {
+                cache.clear();
+            }
+        }
+
+        Match match(String subject) {
+            Match match = cache.get(subject);
+            if (match != null) {
+                return match;
+            }
+            synchronized (this) {
+                String[] tokens = tokenize(subject);
+                List<Subscription> plain = new ArrayList<Subscription>();
+                Map<String, List<Subscription>> groups =
+                        new LinkedHashMap<String, List<Subscription>>();
+                for (Subscription sub : subs) {
+                    if (!matches(sub.tokens, tokens)) {
+                        continue;
+                    }
+                    if (sub.queue == null) {
+                        plain.add(sub);
+                    } else {
+                        List<Subscription> members = groups.get(sub.queue);
+                        if (members == null) {
+                            members = new ArrayList<Subscription>();
+                            groups.put(sub.queue, members);
+                        }
+                        members.add(sub);
+                    }
+                }
+                Subscription[][] members = new Subscription[groups.size()][];
+                int i = 0;
+                for (List<Subscription> group : groups.values()) {
+                    members[i++] = group.toArray(new Subscription[group.size()]);
+                }
+                match = new Match(plain.toArray(new Subscription[plain.size()]), members);
+                if (cache.size() >= MAX_CACHE) {
+                    cache.clear();
+                }
+                cache.put(subject, match);
+                return match;
+            }
+        }
+    }
+
+    final class Client implements Runnable {
+        final int id;
+        private final Socket socket;
+        private final InputStream in;
+        // Written by the publishing clients' threads, guarded by itself.
+        private final OutputStream out;
+        // Updated by this client's thread only
+        private final Map<String, Subscription> subs =
+                new ConcurrentHashMap<String, Subscription>();
+        private final Set<Client> dirty = new HashSet<Client>();
+        private final byte[] line = new byte[MAX_CONTROL_LINE_SIZE];
+        // Input read from the socket but not processed yet, buf[pos..limit)
+        private final byte[] buf = new byte[65536];
+        private int pos;
+        private int limit;
+        private boolean verbose;
+        private volatile boolean closed;
+
+        Client(int id, Socket socket) throws IOException {
+            this.id = id;
+            this.socket = socket;
+            this.in = socket.getInputStream();
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 65536);
+        }
+
+        @Override
+        public void run() {
+            try {
+                send(info().getBytes(UTF8));
+                flush();
+                while (running && !closed) {
+                    int len = readLine();
+                    if (len < 0) {
+                        break;
+                    }
+                    if (len > 0 && !process(new String(line, 0, len, UTF8))) {
+                        break;
+                    }
+                    // Flush the clients written to once there is no more input to process.
+                    if (pos == limit && in.available() == 0 && !dirty.isEmpty()) {
+                        for (Client client : dirty) {
+                            client.flush();
+                        }
+                        dirty.clear();
+                    }
+                }
+            } catch (IOException e) {
+                // disconnected
+            } finally {
+                close();
+            }
+        }
+
+        // Reads a control line into line, without its CRLF, and returns its length or -1 at the
+        // end of the stream.
+        private int readLine() throws IOException {
+            int len = 0;
+            while (true) {
+                if (pos == limit && !fill()) {
+                    return -1;
+                }
+                int end = pos;
+                while (end < limit && buf[end] != '\n') {
+                    end++;
+                }
+                int n = end - pos;
+                if (len + n > line.length) {
+                    error("Maximum Control Line Exceeded");
+                    return -1;
+                }
+                System.arraycopy(buf, pos, line, len, n);
+                len += n;
+                if (end < limit) {
+                    pos = end + 1;
+                    if (len > 0 && line[len - 1] == '\r') {
+                        len--;
+                    }
+                    return len;
+                }
+                pos = limit;
+            }
+        }
+
+        private void readFully(byte[] dst) throws IOException {
+            int off = Math.min(limit - pos, dst.length);
+            System.arraycopy(buf, pos, dst, 0, off);
+            pos += off;
+            while (off < dst.length) {
+                int n = in.read(dst, off, dst.length - off);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                off += n;
+            }
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(buf, 0, buf.length);
+            if (n < 0) {
+                return false;
+            }
+            pos = 0;
+            limit = n;
+            return true;
+        }
+
+        // Processes one protocol operation, returns false if the client is to be disconnected.
+        private boolean process(String proto) throws IOException {
+            String[] args = proto.trim().split("\\s+");
+            String op = args[0].toUpperCase();
+            switch (op) {
+                case "PUB":
+                    return processPub(args);
+                case "SUB":
+                    return processSub(args);
+                case "UNSUB":
+                    return processUnsub(args);
+                case "PING":
+                    send(PONG_PROTO);
+                    dirty.add(this);
+                    return true;
+                case "PONG":
+                    return true;
+                case "CONNECT":
+                    return processConnect(proto.substring(proto.indexOf("CONNECT") + 7).trim());
+                case "+OK":
+                    return true;
+                case "-ERR":
+                    return false;
+                default:
+                    error("Unknown Protocol Operation");
+                    return false;
+            }
+        }
+
+        private boolean processConnect(String json) throws IOException {
+            try {
+                JsonElement parsed = new JsonParser().parse(json);
+                if (parsed.isJsonObject()) {
+                    JsonObject obj = parsed.getAsJsonObject();
+                    verbose = obj.has("verbose") && obj.get("verbose").getAsBoolean();
+                }
+            } catch (RuntimeException e) {
+                error("Invalid Connect");
+                return false;
+            }
+            ok();
+            return true;
+        }
+
+        private boolean processPub(String[] args) throws IOException {
+            if (args.length != 3 && args.length != 4) {
+                error("Invalid Publish Arguments");
+                return false;
+            }
+            String subject = args[1];
+            String reply = args.length == 4 ? args[2] : null;
+            int size;
+            try {
+                size = Integer.parseInt(args[args.length - 1]);
+            } catch (NumberFormatException e) {
+                error("Invalid Publish Arguments");
+                return false;
+            }
+            if (size < 0 || size > MAX_PAYLOAD) {
+                error("Maximum Payload Violation");
+                return false;
+            }
+            byte[] payload = new byte[size + CRLF.length];
+            readFully(payload);
+            if (payload[size] != '\r' || payload[size + 1] != '\n') {
+                error("Invalid Publish Payload");
+                return false;
+            }
+            if (!isValidSubject(subject, false)) {
+                error("Invalid Subject");
+                return false;
+            }
+            inMsgs.incrementAndGet();
+            ok();
+
+            Match match = sublist.match(subject);
+            if (match.plain.length == 0 && match.groups.length == 0) {
+                return true;
+            }
+            byte[] subjectBytes = subject.getBytes(UTF8);
+            byte[] replyBytes = reply == null ? null : reply.getBytes(UTF8);
+            byte[] sizeBytes = Integer.toString(size).getBytes(UTF8);
+            for (Subscription sub : match.plain) {
+                deliver(sub, subjectBytes, replyBytes, sizeBytes, payload);
+            }
+            for (Subscription[] group : match.groups) {
+                // Pick a member at random, skipping any that have just been unsubscribed.
+                int start = ThreadLocalRandom.current().nextInt(group.length);
+                for (int i = 0; i < group.length; i++) {
+                    if (deliver(group[(start + i) % group.length], subjectBytes, replyBytes,
+                            sizeBytes, payload)) {
+                        break;
+                    }
+                }
+            }
+            return true;
+        }
+
+        // Writes a MSG to the subscriber, returns false if it was no longer subscribed.
+        private boolean deliver(Subscription sub, byte[] subject, byte[] reply, byte[] size,
+                                byte[] payload) {
+            long max = sub.max;
+            if (max > 0) {
+                long delivered = sub.delivered.incrementAndGet();
+                if (delivered > max) {
+                    return false;
+                }
+                if (delivered == max) {
+                    sublist.remove(sub);
+                }
+            }
+            Client client = sub.client;
+            if (client.closed) {
+                return false;
+            }
+            try {
+                synchronized (client.out) {
+                    OutputStream os = client.out;
+                    os.write(MSG_PROTO);
+                    os.write(subject);
+                    os.write(' ');
+                    os.write(sub.sid);
+                    os.write(' ');
+                    if (reply != null) {
+                        os.write(reply);
+                        os.write(' ');
+                    }
+                    os.write(size);
+                    os.write(CRLF);
+                    os.write(payload);
+                }
+            } catch (IOException e) {
+                client.close();
+                return false;
+            }
+            outMsgs.incrementAndGet();
+            dirty.add(client);
+            return true;
+        }
+
+        private boolean processSub(String[] args) throws IOException {
+            if (args.length != 3 && args.length != 4) {
+                error("Invalid Subscription Arguments");
+                return false;
+            }
+            String subject = args[1];
+            String queue = args.length == 4 ? args[2] : null;
+            String sid = args[args.length - 1];
+            if (!isValidSubject(subject, true)) {
+                error("Invalid Subject");
+                return false;
+            }
+            Subscription sub = new Subscription(this, subject, queue, sid);
+            Subscription old = subs.put(sid, sub);
+            if (old != null) {
+                sublist.remove(old);
+            }
+            sublist.add(sub);
+            ok();
+            return true;
+        }
+
+        private boolean processUnsub(String[] args) throws IOException {
+            if (args.length != 2 && args.length != 3) {
+                error("Invalid Unsubscribe Arguments");
+                return false;
+            }
+            long max = 0L;
+            if (args.length == 3) {
+                try {
+                    max = Long.parseLong(args[2]);
+                } catch (NumberFormatException e) {
+                    error("Invalid Unsubscribe Arguments");
+                    return false;
+                }
+            }
+            Subscription sub = subs.get(args[1]);
+            if (sub != null) {
+                if (max > 0 && sub.delivered.get() < max) {
+                    sub.max = max;
+                } else {
+                    subs.remove(args[1]);
+                    sublist.remove(sub);
+                }
+            }
+            ok();
+            return true;
+        }
+
+        private void ok() throws IOException {
+            if (verbose) {
+                send(OK_PROTO);
+                dirty.add(this);
+            }
+        }
+
+        private void error(String message) throws IOException {
+            send(String.format("-ERR '%s'\r\n", message).getBytes(UTF8));
+            flush();
+        }
+
+        private void send(byte[] proto) throws IOException {
+            synchronized (out) {
+                out.write(proto);
+            }
+        }
+
+        void flush() {
+            try {
+                synchronized (out) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            clients.remove(this);
+            for (Subscription sub : subs.values()) {
+                sublist.remove(sub);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.benchmark;
+
+import io.nats.client.Histogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Latency versus throughput: the latency percentiles of a series of fixed-rate runs at increasing
+ * target rates. The rate at which the system saturates is the first one it can no longer keep
+ * up with, and the latencies just below it are the ones to plan capacity with.
+ */
+public class LatencyCurve {
+    /**
+     * The fraction of the target rate a run must achieve, below which the system is saturated.
+     */
+    public static final double SATURATION_RATIO = 0.95;
+
+    private final List<Point> points = new ArrayList<Point>();
+
+    /**
+     * The result of one fixed-rate run.
+     */
+    public static final class Point {
+        private final long targetRate;
+        private final long achievedRate;
+        private final Histogram latency;
+
+        Point(long targetRate, long achievedRate, Histogram latency) {
+            this.targetRate = targetRate;
+            this.achievedRate = achievedRate;
+            this.latency = latency;
+        }
+
+        /**
+         * Returns the rate messages were scheduled at.
+         *
+         * @return the target rate in messages per second
+         */
+        public long getTargetRate() {
+            return targetRate;
+        }
+
+        /**
+         * Returns the rate messages were delivered at.
+         *
+         * @return the achieved rate in messages per second
+         */
+        public long getAchievedRate() {
+            return achievedRate;
+        }
+
+        /**
+         * Returns the latencies of the run, measured from the intended send times, in
+         * nanoseconds.
+         *
+         * @return the latency histogram
+         */
+        public Histogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Returns whether the run fell short of its target rate by more than
+         * {@link #SATURATION_RATIO} allows.
+         *
+         * @return {@code true} if the system could not keep up with the target rate
+         */
+        public boolean isSaturated() {
+            return achievedRate < targetRate * SATURATION_RATIO;
+        }
+    }
+
+    /**
+     * Adds the result of a fixed-rate run.
+     *
+     * @param targetRate   the rate messages were scheduled at, in messages per second
+     * @param achievedRate the rate messages were delivered at, in messages per second
+     * @param latency      the latencies from the intended send times, in nanoseconds; a copy is
+     *                     kept
+     * @return the point added
+     */
+    public Point add(long targetRate, long achievedRate, Histogram latency) {
+        Point point = new Point(targetRate, achievedRate, latency.snapshot());
+        points.add(point);
+        return point;
+    }
+
+    /**
+     * Returns the points of the curve, in the order they were added.
+     *
+     * @return the points
+     */
+    public List<Point> getPoints() {
+        return Collections.unmodifiableList(points);
+    }
+
+    /**
+     * Returns whether the last run saturated the system.
+     *
+     * @return {@code true} if the last point added is saturated
+     */
+    public boolean isSaturated() {
+        return !points.isEmpty() && points.get(points.size() - 1).isSaturated();
+    }
+
+    /**
+     * Creates a table of the curve, one row per run with the target and achieved rates and the
+     * latency percentiles in microseconds.
+     *
+     * @return the table
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%12s %12s", "Target/sec", "Actual/sec"));
+        for (String label : Benchmark.PERCENTILE_LABELS) {
+            sb.append(String.format(" %10s", label));
+        }
+        sb.append(String.format(" %10s (us)\n", "max"));
+        for (Point point : points) {
+            sb.append(String.format("%,12d %,12d", point.targetRate, point.achievedRate));
+            for (double percentile : Benchmark.PERCENTILES) {
+                sb.append(String.format(" %10.1f",
+                        micros(point.latency.getValueAtPercentile(percentile))));
+            }
+            sb.append(String.format(" %10.1f", micros(point.latency.getMax())));
+            if (point.isSaturated()) {
+                sb.append(" saturated");
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the curve as CSV, with a header line followed by one line per run with the target
+     * and achieved rates and the latency percentiles in microseconds.
+     *
+     * @return the lines of the CSV
+     */
+    public List<String> csv() {
+        List<String> lines = new ArrayList<String>();
+        StringBuilder header = new StringBuilder("#TargetRate, AchievedRate");
+        for (String label : Benchmark.PERCENTILE_LABELS) {
+            header.append(", ").append(label);
+        }
+        lines.add(header.append(", max, Saturated").toString());
+        for (Point point : points) {
+            StringBuilder line = new StringBuilder();
+            line.append(point.targetRate).append(',').append(point.achievedRate);
+            for (double percentile : Benchmark.PERCENTILES) {
+                line.append(String.format(",%.3f",
+                        micros(point.latency.getValueAtPercentile(percentile))));
+            }
+            line.append(String.format(",%.3f,%b", micros(point.latency.getMax()),
+                    point.isSaturated()));
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+}
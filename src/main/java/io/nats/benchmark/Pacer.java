@@ -0,0 +1,87 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.benchmark;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fixed-rate schedule of intended send times. The n-th message is due at {@code start + n /
+ * rate}, whenever the previous ones were actually sent, so a sender that stalls catches up by
+ * sending the messages that fell due back to back rather than by quietly sending fewer.
+ *
+ * <p>Measuring latency from the intended send time rather than from the actual one corrects for
+ * coordinated omission: when the system under test stalls, a sender that waits for it does not
+ * send the messages that would have seen the stall, and latencies measured from the actual send
+ * time miss the queueing delay those messages would have seen.
+ */
+public final class Pacer {
+    // Waits longer than this park the thread, shorter ones spin
+    static final long SPIN_NANOS = 50000L;
+
+    private final double intervalNanos;
+    private final long start;
+    private long next;
+
+    /**
+     * Creates a schedule starting now.
+     *
+     * @param rate the number of messages per second
+     */
+    public Pacer(double rate) {
+        this(rate, System.nanoTime());
+    }
+
+    /**
+     * Creates a schedule.
+     *
+     * @param rate  the number of messages per second
+     * @param start the intended send time of the first message, from {@link System#nanoTime()}
+     */
+    public Pacer(double rate, long start) {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("nats: rate must be greater than 0");
+        }
+        this.intervalNanos = Sample.BILLION / rate;
+        this.start = start;
+    }
+
+    /**
+     * Returns the intended send time of the first message.
+     *
+     * @return the start of the schedule, in nanoseconds
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the intended send time of a message.
+     *
+     * @param index the index of the message, from 0
+     * @return its intended send time, in nanoseconds
+     */
+    public long intendedTime(long index) {
+        return start + (long) (index * intervalNanos);
+    }
+
+    /**
+     * Waits until the next message is due and returns its intended send time. Returns at once if
+     * the message is already overdue.
+     *
+     * @return the intended send time of the next message, in nanoseconds
+     */
+    public long awaitNext() {
+        long intended = intendedTime(next++);
+        long remaining;
+        while ((remaining = intended - System.nanoTime()) > 0) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            }
+        }
+        return intended;
+    }
+}
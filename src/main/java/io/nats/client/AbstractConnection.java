@@ -224,6 +224,33 @@ public interface AbstractConnection extends AutoCloseable {
      */
     void flush() throws IOException, InterruptedException;
 
+    /**
+     * Measures the round trip time to the server, waiting up to {@code timeout} for the reply.
+     *
+     * <p>This is a {@link #flush(int) flush}, so the time includes writing out any data buffered
+     * ahead of it. It is measured from when the PING was written, which can be after the call if
+     * it waits to share the PING of the next flush. The round trip times of the periodic pings
+     * are kept in {@link Statistics#getPingRtt()}.
+     *
+     * @param timeout the timeout in milliseconds
+     * @return the round trip time in nanoseconds
+     * @throws IOException if a connection-related error prevents the round trip from completing
+     * @throws InterruptedException if the calling thread is interrupted before the round trip
+     *                              completes
+     */
+    long rtt(int timeout) throws IOException, InterruptedException;
+
+    /**
+     * Measures the round trip time to the server, waiting up to 60 seconds for the reply.
+     *
+     * @return the round trip time in nanoseconds
+     * @throws IOException if a connection-related error prevents the round trip from completing
+     * @throws InterruptedException if the calling thread is interrupted before the round trip
+     *                              completes
+     * @see #rtt(int)
+     */
+    long rtt() throws IOException, InterruptedException;
+
     /**
      * Returns the connection's asynchronous exception callback.
      *
@@ -36,4 +36,10 @@ class AsyncSubscriptionImpl extends SubscriptionImpl implements AsyncSubscriptio
         return msgHandler;
     }
 
+    @Override
+    void trackLatency() {
+        super.trackLatency();
+        handlerTime = new Histogram();
+    }
+
 }
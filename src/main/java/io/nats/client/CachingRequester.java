@@ -0,0 +1,382 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@code CachingRequester} is a near cache in front of {@link Connection#request(String, byte[],
+ * long, TimeUnit)}. Responses are cached by request subject and payload, bounded in size (least
+ * recently used entries are evicted first) and, optionally, in age.
+ *
+ * <p>Entries can be invalidated explicitly, or by publishing to an invalidation subject. A message
+ * on that subject invalidates every entry for the request subject carried in its payload, or
+ * every entry if the payload is empty.
+ *
+ * <pre>
+ *     CachingRequester requester = new CachingRequester.Builder(nc)
+ *             .maxEntries(10000)
+ *             .ttl(30, TimeUnit.SECONDS)
+ *             .invalidationSubject("config.changed")
+ *             .build();
+ *
+ *     Message msg = requester.request("config.get", key, 1, TimeUnit.SECONDS);
+ * </pre>
+ */
+public class CachingRequester implements AutoCloseable {
+
+    /**
+     * Default maximum number of cached responses.
+     *
+     * <p>This property is defined as int {@value #DEFAULT_MAX_ENTRIES}
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Connection conn;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Subscription invalidationSub;
+
+    private final Lock mu = new ReentrantLock();
+    // Access ordered, so that iteration starts at the least recently used entry. Guarded by mu.
+    private final LruMap cache;
+    // The cached keys of each request subject, so that invalidating a subject only visits its
+    // own entries. Guarded by mu.
+    private final Map<String, Set<RequestKey>> keysBySubject = new HashMap<>();
+    // Bumped on every invalidation, so that responses in flight across one are not cached.
+    // Guarded by mu.
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private CachingRequester(Builder builder) {
+        this.conn = builder.conn;
+        this.maxEntries = builder.maxEntries;
+        this.ttlNanos = builder.ttlNanos;
+        this.cache = new LruMap();
+        if (builder.invalidationSubject != null) {
+            this.invalidationSub = conn.subscribe(builder.invalidationSubject,
+                    new MessageHandler() {
+                        public void onMessage(Message msg) {
+                            byte[] data = msg.getData();
+                            if (data == null || data.length == 0) {
+                                invalidateAll();
+                            } else {
+                                invalidate(new String(data, UTF_8));
+                            }
+                        }
+                    });
+        } else {
+            this.invalidationSub = null;
+        }
+    }
+
+    /**
+     * Returns the cached response for this request if there is one, otherwise publishes the
+     * request as {@link Connection#request(String, byte[], long, TimeUnit)} does and caches the
+     * response.
+     *
+     * @param subject the subject to publish the request message to
+     * @param data    the request message payload
+     * @param timeout how long to wait for a response message
+     * @param unit    the time unit of {@code timeout}
+     * @return the response message, or {@code null} if timed out
+     * @throws IOException          if a connection-related error occurs
+     * @throws InterruptedException if {@link Thread#interrupt() interrupted} while waiting to
+     *                              receive a response
+     */
+    public Message request(String subject, byte[] data, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        RequestKey key = new RequestKey(subject, data);
+        long gen;
+        mu.lock();
+        try {
+            Entry entry = cache.get(key);
+            if (entry != null) {
+                if (ttlNanos <= 0 || System.nanoTime() - entry.expiry < 0) {
+                    hits.incrementAndGet();
+                    return entry.msg;
+                }
+                cache.remove(key);
+                unindex(key);
+                evictions.incrementAndGet();
+            }
+            gen = generation;
+        } finally {
+            mu.unlock();
+        }
+
+        misses.incrementAndGet();
+        Message msg = conn.request(subject, data, timeout, unit);
+        if (msg != null) {
+            mu.lock();
+            try {
+                if (gen == generation
+                        && cache.put(key, new Entry(msg, System.nanoTime() + ttlNanos)) == null) {
+                    index(key);
+                }
+            } finally {
+                mu.unlock();
+            }
+        }
+        return msg;
+    }
+
+    /**
+     * Invalidates every cached response for requests published to {@code subject}.
+     *
+     * @param subject the request subject
+     * @return the number of entries removed
+     */
+    public int invalidate(String subject) {
+        int removed = 0;
+        mu.lock();
+        try {
+            generation++;
+            Set<RequestKey> keys = keysBySubject.remove(subject);
+            if (keys != null) {
+                for (RequestKey key : keys) {
+                    cache.remove(key);
+                }
+                removed = keys.size();
+            }
+        } finally {
+            mu.unlock();
+        }
+        invalidations.addAndGet(removed);
+        return removed;
+    }
+
+    /**
+     * Invalidates every cached response.
+     *
+     * @return the number of entries removed
+     */
+    public int invalidateAll() {
+        int removed;
+        mu.lock();
+        try {
+            generation++;
+            removed = cache.size();
+            cache.clear();
+            keysBySubject.clear();
+        } finally {
+            mu.unlock();
+        }
+        invalidations.addAndGet(removed);
+        return removed;
+    }
+
+    /**
+     * Returns the number of cached responses, including any that have expired but have not been
+     * looked up since.
+     *
+     * @return the number of cached responses
+     */
+    public int size() {
+        mu.lock();
+        try {
+            return cache.size();
+        } finally {
+            mu.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests answered from the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests that were published because no usable response was cached.
+     *
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of responses dropped because the cache was full or they had expired.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of responses dropped by invalidation.
+     *
+     * @return the number of invalidated entries
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * Closes the invalidation subscription, if any, and clears the cache. The underlying
+     * {@code Connection} is left open.
+     */
+    @Override
+    public void close() {
+        if (invalidationSub != null) {
+            invalidationSub.close();
+        }
+        mu.lock();
+        try {
+            generation++;
+            cache.clear();
+            keysBySubject.clear();
+        } finally {
+            mu.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{entries=%d, hits=%d, misses=%d, evictions=%d, invalidations=%d}",
+                size(), getHits(), getMisses(), getEvictions(), getInvalidations());
+    }
+
+    // Lock is assumed held.
+    private void index(RequestKey key) {
+        Set<RequestKey> keys = keysBySubject.get(key.getSubject());
+        if (keys == null) {
+            keys = new HashSet<>();
+            keysBySubject.put(key.getSubject(), keys);
+        }
+        keys.add(key);
+    }
+
+    // Lock is assumed held.
+    private void unindex(RequestKey key) {
+        Set<RequestKey> keys = keysBySubject.get(key.getSubject());
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            keysBySubject.remove(key.getSubject());
+        }
+    }
+
+    // An access ordered map that evicts its least recently used entry once it holds more than
+    // maxEntries, counting the evictions and keeping keysBySubject up to date.
+    private final class LruMap extends LinkedHashMap<RequestKey, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        LruMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RequestKey, Entry> eldest) {
+            if (size() > maxEntries) {
+                unindex(eldest.getKey());
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Entry {
+        private final Message msg;
+        private final long expiry;
+
+        Entry(Message msg, long expiry) {
+            this.msg = msg;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * A {@link CachingRequester} builder.
+     */
+    public static final class Builder {
+        private final Connection conn;
+        private int maxEntries = DEFAULT_MAX_ENTRIES;
+        private long ttlNanos;
+        private String invalidationSubject;
+
+        /**
+         * Constructs a {@code Builder} for a requester on the given connection.
+         *
+         * @param conn the connection to publish requests on
+         */
+        public Builder(Connection conn) {
+            if (conn == null) {
+                throw new IllegalArgumentException("Connection cannot be null");
+            }
+            this.conn = conn;
+        }
+
+        /**
+         * Sets the maximum number of cached responses.
+         *
+         * @param maxEntries the maximum number of cached responses
+         * @return the {@code Builder}
+         */
+        public Builder maxEntries(int maxEntries) {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("maxEntries must be greater than 0");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * Sets how long a response may be served from the cache. A value {@code <= 0}, the
+         * default, leaves entries in the cache until they are evicted or invalidated.
+         *
+         * @param ttl  the time-to-live of a cached response
+         * @param unit the time unit of {@code ttl}
+         * @return the {@code Builder}
+         */
+        public Builder ttl(long ttl, TimeUnit unit) {
+            this.ttlNanos = unit.toNanos(ttl);
+            return this;
+        }
+
+        /**
+         * Sets the subject on which invalidation messages are received.
+         *
+         * @param subject the invalidation subject
+         * @return the {@code Builder}
+         */
+        public Builder invalidationSubject(String subject) {
+            this.invalidationSubject = subject;
+            return this;
+        }
+
+        /**
+         * Creates the {@link CachingRequester}, subscribing to the invalidation subject if one
+         * was set.
+         *
+         * @return the created {@link CachingRequester}
+         */
+        public CachingRequester build() {
+            return new CachingRequester(this);
+        }
+    }
+}
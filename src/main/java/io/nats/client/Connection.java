@@ -7,6 +7,10 @@
 package io.nats.client;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -126,4 +130,153 @@ public interface Connection extends AbstractConnection {
      *                              receive a response
      */
     Message request(String subject, byte[] data) throws IOException, InterruptedException;
+
+    /**
+     * Publishes a request message to the specified subject and returns without waiting for the
+     * response. The returned {@code Future} completes with the response message, or with
+     * {@code null} if no response arrives within {@code timeout} or the connection is closed. A
+     * negative {@code timeout} waits for a response until the connection is closed.
+     *
+     * <p>Requests made with this method always use the connection's shared response
+     * subscription, regardless of {@link Options#isUseOldRequestStyle()}.
+     *
+     * @param subject the subject to publish the request message to
+     * @param data    the request message payload
+     * @param timeout how long to wait for a response message
+     * @param unit    the time unit of {@code timeout}
+     * @return a {@code Future} for the response message
+     * @throws IOException if a connection-related error occurs
+     */
+    Future<Message> requestAsync(String subject, byte[] data, long timeout, TimeUnit unit)
+            throws IOException;
+
+    /**
+     * Publishes a request message to the specified subject and gathers responses from every
+     * responder, until {@code maxResponses} responses have arrived or {@code timeout} elapses.
+     *
+     * @param subject      the subject to publish the request message to
+     * @param data         the request message payload
+     * @param maxResponses the number of responses to wait for, or 0 to wait for the full timeout
+     * @param timeout      how long to wait for responses
+     * @param unit         the time unit of {@code timeout}
+     * @return the responses received, in arrival order; empty if there were none
+     * @throws IOException              if a connection-related error occurs
+     * @throws InterruptedException     if {@link Thread#interrupt() interrupted} while waiting to
+     *                                  receive responses
+     * @throws IllegalArgumentException if {@code timeout} is not positive
+     */
+    List<Message> requestMany(String subject, byte[] data, int maxResponses, long timeout,
+                              TimeUnit unit) throws IOException, InterruptedException;
+
+    /**
+     * Publishes a request message to the specified subject and gathers responses from every
+     * responder. Gathering stops when {@code maxResponses} responses have arrived, when no
+     * further response arrives within {@code quietPeriod} of the previous one, or when
+     * {@code timeout} elapses, whichever comes first.
+     *
+     * @param subject      the subject to publish the request message to
+     * @param data         the request message payload
+     * @param maxResponses the number of responses to wait for, or 0 for no limit
+     * @param timeout      how long to wait for responses
+     * @param quietPeriod  how long to wait for each further response, or 0 for no quiet period
+     * @param unit         the time unit of {@code timeout} and {@code quietPeriod}
+     * @return the responses received, in arrival order; empty if there were none
+     * @throws IOException              if a connection-related error occurs
+     * @throws InterruptedException     if {@link Thread#interrupt() interrupted} while waiting to
+     *                                  receive responses
+     * @throws IllegalArgumentException if {@code timeout} is not positive
+     */
+    List<Message> requestMany(String subject, byte[] data, int maxResponses, long timeout,
+                              long quietPeriod, TimeUnit unit)
+            throws IOException, InterruptedException;
+
+    /**
+     * Publishes a request message to the specified subject and streams every response to
+     * {@code handler} as it arrives, without waiting. Gathering stops as described in
+     * {@link #requestMany(String, byte[], int, long, long, TimeUnit)}, or when the connection is
+     * closed. The returned {@code Future} completes with the number of responses delivered.
+     *
+     * <p>The handler is called on the connection's shared response subscription thread, so it
+     * should not block.
+     *
+     * @param subject      the subject to publish the request message to
+     * @param data         the request message payload
+     * @param maxResponses the number of responses to wait for, or 0 for no limit
+     * @param timeout      how long to wait for responses
+     * @param quietPeriod  how long to wait for each further response, or 0 for no quiet period
+     * @param unit         the time unit of {@code timeout} and {@code quietPeriod}
+     * @param handler      the handler for each response
+     * @return a {@code Future} for the number of responses delivered
+     * @throws IOException              if a connection-related error occurs
+     * @throws IllegalArgumentException if {@code timeout} is not positive or {@code handler} is
+     *                                  {@code null}
+     */
+    Future<Integer> requestMany(String subject, byte[] data, int maxResponses, long timeout,
+                                long quietPeriod, TimeUnit unit, MessageHandler handler)
+            throws IOException;
+
+    /**
+     * Returns a snapshot of the response time histogram of new style requests to
+     * {@code subject}, in nanoseconds. Latency is only tracked when enabled with
+     * {@link Options.Builder#trackRequestLatency(boolean)}, {@link
+     * Options.Builder#hedgeRequests(double)} or {@link Options.Builder#adaptiveRequestTimeout(double)}.
+     *
+     * @param subject the request subject
+     * @return the histogram, or {@code null} if no request has been tracked for the subject
+     */
+    Histogram getRequestLatency(String subject);
+
+    /**
+     * Returns snapshots of the response time histograms of every tracked request subject.
+     *
+     * @return the histograms, keyed by request subject
+     * @see #getRequestLatency(String)
+     */
+    Map<String, Histogram> getRequestLatencies();
+
+    /**
+     * Creates an {@link AsyncSubscription} for each subject, all delivering to {@code cb}. The
+     * subscriptions are registered under a single lock acquisition, their SUB protocol lines are
+     * written in one buffer, and they share a single delivery task rather than one each. Messages
+     * for each subscription are delivered in order, one at a time across the whole group.
+     *
+     * @param subjects the subjects of interest
+     * @param cb       the message handler for every subscription
+     * @return the subscriptions, in the order of {@code subjects}
+     * @throws IllegalArgumentException if {@code cb} is {@code null}
+     * @throws IllegalStateException    if the connection is closed
+     */
+    List<AsyncSubscription> subscribeAll(Collection<String> subjects, MessageHandler cb);
+
+    /**
+     * Creates an {@link AsyncSubscription} for each subject, as
+     * {@link #subscribeAll(Collection, MessageHandler)} does, optionally joining a queue group
+     * and waiting for the server to confirm the subscriptions.
+     *
+     * @param subjects     the subjects of interest
+     * @param queue        the queue group, or {@code null}
+     * @param cb           the message handler for every subscription
+     * @param flushTimeout if greater than 0, the time in milliseconds to wait for a single
+     *                     {@link #flush(int) flush} confirming server-side registration
+     * @return the subscriptions, in the order of {@code subjects}
+     * @throws IOException              if the flush times out or fails
+     * @throws InterruptedException     if interrupted while waiting for the flush
+     * @throws IllegalArgumentException if {@code cb} is {@code null}
+     * @throws IllegalStateException    if the connection is closed
+     */
+    List<AsyncSubscription> subscribeAll(Collection<String> subjects, String queue,
+                                         MessageHandler cb, int flushTimeout)
+            throws IOException, InterruptedException;
+
+    /**
+     * Removes interest in every given subscription under a single lock acquisition, writing
+     * their UNSUB protocol lines in one buffer. Subscriptions that are already closed are
+     * skipped.
+     *
+     * @param subscriptions the subscriptions to remove
+     * @throws IOException              if a connection-related error occurs
+     * @throws IllegalArgumentException if a subscription was not created by this client
+     * @throws IllegalStateException    if the connection is closed
+     */
+    void unsubscribeAll(Collection<? extends Subscription> subscriptions) throws IOException;
 }
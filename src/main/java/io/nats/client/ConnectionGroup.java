@@ -0,0 +1,414 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@code ConnectionGroup} is a single logical client made of several connections to the same
+ * cluster. Each connection has its own socket, read loop and parser, so a group can use more than
+ * one core and one TCP window.
+ *
+ * <p>Subscriptions are always placed by a hash of their subject. Publishes and requests are
+ * routed either the same way, which keeps the messages on a subject in order, or round-robin
+ * across the connections, which spreads a hot subject but gives up ordering between messages.
+ *
+ * <p>The group behaves as one unit: if any of its connections is closed, for example because it
+ * ran out of reconnect attempts, the others are closed too and the closed callback runs once.
+ *
+ * <pre>
+ *     ConnectionGroup group = new ConnectionGroup.Builder(opts)
+ *             .size(4)
+ *             .routing(ConnectionGroup.Routing.ROUND_ROBIN)
+ *             .build();
+ *
+ *     group.subscribe("updates.*", handler);
+ *     group.publish("updates.prices", data);
+ * </pre>
+ */
+public class ConnectionGroup implements AutoCloseable {
+
+    /**
+     * How publishes and requests are spread across the connections of a group.
+     */
+    public enum Routing {
+        /**
+         * By a hash of the subject, so that the messages on a subject stay in order.
+         */
+        SUBJECT_HASH,
+        /**
+         * Round-robin, regardless of subject.
+         */
+        ROUND_ROBIN
+    }
+
+    /**
+     * Default number of connections in a group.
+     *
+     * <p>This property is defined as int {@value #DEFAULT_SIZE}
+     */
+    public static final int DEFAULT_SIZE = 2;
+
+    private final List<Connection> conns;
+    private final Routing routing;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    ConnectionGroup(List<Connection> conns, Routing routing) {
+        if (conns == null || conns.isEmpty()) {
+            throw new IllegalArgumentException("nats: a connection group cannot be empty");
+        }
+        this.conns = Collections.unmodifiableList(new ArrayList<Connection>(conns));
+        this.routing = routing;
+    }
+
+    // The connection that owns subject, for subscriptions and subject hash routing.
+    Connection connectionFor(String subject) {
+        if (subject == null) {
+            throw new IllegalArgumentException(Nats.ERR_BAD_SUBJECT);
+        }
+        return conns.get((subject.hashCode() & Integer.MAX_VALUE) % conns.size());
+    }
+
+    // The connection to publish a message on subject with.
+    Connection route(String subject) {
+        if (routing == Routing.ROUND_ROBIN) {
+            return conns.get((next.getAndIncrement() & Integer.MAX_VALUE) % conns.size());
+        }
+        return connectionFor(subject);
+    }
+
+    /**
+     * Publishes a message, as {@link Connection#publish(String, byte[])} does, on the connection
+     * chosen by the group's {@link Routing}.
+     *
+     * @param subject the subject to publish the message to
+     * @param data    the message payload
+     * @throws IOException if an I/O error is encountered
+     */
+    public void publish(String subject, byte[] data) throws IOException {
+        route(subject).publish(subject, data);
+    }
+
+    /**
+     * Publishes a message with a reply subject, as {@link Connection#publish(String, String,
+     * byte[])} does, on the connection chosen by the group's {@link Routing}.
+     *
+     * @param subject the subject to publish the message to
+     * @param reply   the subject to which subscribers should send responses
+     * @param data    the message payload
+     * @throws IOException if an I/O error is encountered
+     */
+    public void publish(String subject, String reply, byte[] data) throws IOException {
+        route(subject).publish(subject, reply, data);
+    }
+
+    /**
+     * Publishes a {@link Message}, as {@link Connection#publish(Message)} does, on the connection
+     * chosen by the group's {@link Routing}.
+     *
+     * @param msg the {@code Message} to publish
+     * @throws IOException if an I/O error is encountered
+     */
+    public void publish(Message msg) throws IOException {
+        route(msg.getSubject()).publish(msg);
+    }
+
+    /**
+     * Publishes a request and waits for the response, as {@link Connection#request(String,
+     * byte[], long, TimeUnit)} does, on the connection chosen by the group's {@link Routing}.
+     *
+     * @param subject the subject to publish the request message to
+     * @param data    the request message payload
+     * @param timeout how long to wait for a response message
+     * @param unit    the time unit of {@code timeout}
+     * @return the response message, or {@code null} if timed out
+     * @throws IOException          if a connection-related error occurs
+     * @throws InterruptedException if {@link Thread#interrupt() interrupted} while waiting to
+     *                              receive a response
+     */
+    public Message request(String subject, byte[] data, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        return route(subject).request(subject, data, timeout, unit);
+    }
+
+    /**
+     * Creates an asynchronous subscription on the connection that owns {@code subject}.
+     *
+     * @param subject the subject of interest
+     * @param cb      the {@code MessageHandler} to invoke when messages arrive
+     * @return the {@code AsyncSubscription}
+     * @see Connection#subscribe(String, MessageHandler)
+     */
+    public AsyncSubscription subscribe(String subject, MessageHandler cb) {
+        return connectionFor(subject).subscribe(subject, cb);
+    }
+
+    /**
+     * Creates an asynchronous queue subscription on the connection that owns {@code subject}.
+     *
+     * @param subject the subject of interest
+     * @param queue   the name of the queue group
+     * @param cb      the {@code MessageHandler} to invoke when messages arrive
+     * @return the {@code AsyncSubscription}
+     * @see Connection#subscribe(String, String, MessageHandler)
+     */
+    public AsyncSubscription subscribe(String subject, String queue, MessageHandler cb) {
+        return connectionFor(subject).subscribe(subject, queue, cb);
+    }
+
+    /**
+     * Creates a synchronous subscription on the connection that owns {@code subject}.
+     *
+     * @param subject the subject of interest
+     * @return the {@code SyncSubscription}
+     * @see Connection#subscribeSync(String)
+     */
+    public SyncSubscription subscribeSync(String subject) {
+        return connectionFor(subject).subscribeSync(subject);
+    }
+
+    /**
+     * Creates a synchronous queue subscription on the connection that owns {@code subject}.
+     *
+     * @param subject the subject of interest
+     * @param queue   the name of the queue group
+     * @return the {@code SyncSubscription}
+     * @see Connection#subscribeSync(String, String)
+     */
+    public SyncSubscription subscribeSync(String subject, String queue) {
+        return connectionFor(subject).subscribeSync(subject, queue);
+    }
+
+    /**
+     * Flushes every connection in the group, waiting up to {@code timeout} for each.
+     *
+     * @param timeout the connection timeout in milliseconds
+     * @throws IOException          if a connection-related error prevents the flush from
+     *                              completing
+     * @throws InterruptedException if the calling thread is interrupted before the flush
+     *                              completes
+     */
+    public void flush(int timeout) throws IOException, InterruptedException {
+        for (Connection conn : conns) {
+            conn.flush(timeout);
+        }
+    }
+
+    /**
+     * Flushes every connection in the group.
+     *
+     * @throws IOException          if a connection-related error prevents the flush from
+     *                              completing
+     * @throws InterruptedException if the calling thread is interrupted before the flush
+     *                              completes
+     */
+    public void flush() throws IOException, InterruptedException {
+        for (Connection conn : conns) {
+            conn.flush();
+        }
+    }
+
+    /**
+     * Returns the sum of the statistics of every connection in the group.
+     *
+     * @return the aggregate statistics
+     */
+    public Statistics getStats() {
+        Statistics stats = new Statistics();
+        for (Connection conn : conns) {
+            stats.add(conn.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Resets the statistics of every connection in the group.
+     */
+    public void resetStats() {
+        for (Connection conn : conns) {
+            conn.resetStats();
+        }
+    }
+
+    /**
+     * Returns the connections in the group.
+     *
+     * @return an unmodifiable list of the connections
+     */
+    public List<Connection> getConnections() {
+        return conns;
+    }
+
+    /**
+     * Returns the number of connections in the group.
+     *
+     * @return the number of connections
+     */
+    public int size() {
+        return conns.size();
+    }
+
+    public Routing getRouting() {
+        return routing;
+    }
+
+    /**
+     * Indicates whether every connection in the group is connected.
+     *
+     * @return {@code true} if every connection is connected
+     */
+    public boolean isConnected() {
+        for (Connection conn : conns) {
+            if (!conn.isConnected()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether any connection in the group is reconnecting.
+     *
+     * @return {@code true} if any connection is reconnecting
+     */
+    public boolean isReconnecting() {
+        for (Connection conn : conns) {
+            if (conn.isReconnecting()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indicates whether the group has been closed.
+     *
+     * @return {@code true} if the group has been closed
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Closes every connection in the group.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        for (Connection conn : conns) {
+            conn.close();
+        }
+    }
+
+    /**
+     * A {@link ConnectionGroup} builder.
+     */
+    public static final class Builder {
+        private final Options opts;
+        private int size = DEFAULT_SIZE;
+        private Routing routing = Routing.SUBJECT_HASH;
+
+        /**
+         * Constructs a {@code Builder} for a group whose connections use {@code opts}.
+         *
+         * @param opts the {@link Options} for every connection in the group
+         */
+        public Builder(Options opts) {
+            if (opts == null) {
+                throw new IllegalArgumentException("nats: options cannot be null");
+            }
+            this.opts = opts;
+        }
+
+        /**
+         * Sets the number of connections in the group.
+         *
+         * @param size the number of connections, at least 1
+         * @return the {@code Builder}
+         */
+        public Builder size(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException("nats: size must be at least 1");
+            }
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * Sets how publishes and requests are spread across the connections. The default is
+         * {@link Routing#SUBJECT_HASH}.
+         *
+         * @param routing the routing
+         * @return the {@code Builder}
+         */
+        public Builder routing(Routing routing) {
+            if (routing == null) {
+                throw new IllegalArgumentException("nats: routing cannot be null");
+            }
+            this.routing = routing;
+            return this;
+        }
+
+        /**
+         * Connects every connection and returns the group. If any connection fails, those
+         * already made are closed.
+         *
+         * @return the connected {@code ConnectionGroup}
+         * @throws IOException if a connection cannot be made
+         */
+        public ConnectionGroup build() throws IOException {
+            final AtomicBoolean closing = new AtomicBoolean();
+            final List<Connection> conns = new ArrayList<Connection>(size);
+            final ConnectionGroup[] group = new ConnectionGroup[1];
+            final ClosedCallback userCb = opts.getClosedCallback();
+            // Closing any member closes the whole group, and the user hears about it once.
+            ClosedCallback groupCb = new ClosedCallback() {
+                public void onClose(ConnectionEvent event) {
+                    if (!closing.compareAndSet(false, true)) {
+                        return;
+                    }
+                    if (group[0] != null) {
+                        group[0].close();
+                    }
+                    if (userCb != null) {
+                        userCb.onClose(event);
+                    }
+                }
+            };
+            try {
+                for (int i = 0; i < size; i++) {
+                    Options.Builder builder = new Options.Builder(opts).closedCb(groupCb);
+                    if (opts.getConnectionName() != null) {
+                        builder.name(opts.getConnectionName() + "-" + i);
+                    }
+                    conns.add(builder.build().connect());
+                }
+            } catch (IOException | RuntimeException e) {
+                closing.set(true);
+                for (Connection conn : conns) {
+                    conn.close();
+                }
+                throw e;
+            }
+            group[0] = new ConnectionGroup(conns, routing);
+            if (closing.get()) {
+                // A member closed while the others were connecting
+                group[0].close();
+            }
+            return group[0];
+        }
+    }
+}
@@ -17,9 +17,11 @@ import static io.nats.client.Nats.ERR_BAD_SUBSCRIPTION;
 import static io.nats.client.Nats.ERR_BAD_TIMEOUT;
 import static io.nats.client.Nats.ERR_CONNECTION_CLOSED;
 import static io.nats.client.Nats.ERR_CONNECTION_READ;
+import static io.nats.client.Nats.ERR_LATENCY_MIGRATION;
 import static io.nats.client.Nats.ERR_MAX_PAYLOAD;
 import static io.nats.client.Nats.ERR_NO_INFO_RECEIVED;
 import static io.nats.client.Nats.ERR_NO_SERVERS;
+import static io.nats.client.Nats.ERR_PROTOCOL;
 import static io.nats.client.Nats.ERR_RECONNECT_BUF_EXCEEDED;
 import static io.nats.client.Nats.ERR_SECURE_CONN_REQUIRED;
 import static io.nats.client.Nats.ERR_SECURE_CONN_WANTED;
@@ -43,31 +45,39 @@ import java.io.OutputStream;
 import java.net.URI;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.TimerTask;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 class ConnectionImpl implements Connection {
@@ -99,8 +109,25 @@ class ConnectionImpl implements Connection {
 
     // New style response handler
     private String respSub;                                            // The wildcard subject
+    private byte[] respPrefix;                                         // respSub without the wildcard
     private Subscription respMux;                                      // A single response subscription
-    private ConcurrentHashMap<String, BlockingQueue<Message>> respMap; // Request map for the response msg queues
+    private ConcurrentHashMap<String, PendingRequest> respMap;         // Request map for the pending responses
+
+    // Single-flight request coalescing, see Options#isCoalesceRequests()
+    private final ConcurrentHashMap<RequestKey, ResponseFuture> inflight =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<RequestKey, CachedResponse> respCache =
+            new ConcurrentHashMap<>();
+
+    // Per-subject request latency, see Options#isTrackRequestLatency()
+    private final ConcurrentHashMap<String, RequestLatency> reqLatency =
+            new ConcurrentHashMap<>();
+    // Request subjects beyond this many are not tracked
+    static final int MAX_LATENCY_SUBJECTS = 1024;
+    // Samples needed before latency drives hedging and adaptive timeouts
+    static final int MIN_LATENCY_SAMPLES = 20;
+    // An adaptive timeout never cuts the caller's timeout below this
+    static final long MIN_ADAPTIVE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
 
 
     protected static final String CRLF = "\r\n";
@@ -123,6 +150,8 @@ class ConnectionImpl implements Connection {
     protected static final String PUB_PROTO = "PUB %s %s %d" + CRLF;
     protected static final String SUB_PROTO = "SUB %s%s %d" + CRLF;
     protected static final String UNSUB_PROTO = "UNSUB %d %s" + CRLF;
+    protected static final String _SUB_P_ = "SUB ";
+    protected static final String _UNSUB_P_ = "UNSUB ";
     protected static final String OK_PROTO = _OK_OP_ + CRLF;
 
 
@@ -143,7 +172,7 @@ class ConnectionImpl implements Connection {
     }
 
     private ConnectionImpl nc = null;
-    final Lock mu = new ReentrantLock();
+    final ConnectionLock mu;
     // protected final Lock mu = new AlternateDeadlockDetectingLock(true, true);
 
     private final AtomicLong sidCounter = new AtomicLong(0L);
@@ -156,6 +185,11 @@ class ConnectionImpl implements Connection {
     // Prepare protocol messages for efficiency
     private ByteBuffer pubProtoBuf = null;
 
+    // SUB and UNSUB lines are encoded here, and written out when full or when done. Large enough
+    // to batch a resend of many subscriptions into few writes. Guarded by mu.
+    static final int SUB_PROTO_BUF_SIZE = 64 * 1024;
+    private ByteBuffer subProtoBuf = ByteBuffer.allocate(SUB_PROTO_BUF_SIZE);
+
     // we have a buffered reader for writing, and reading.
     // This is for both performance, and having to work around
     // interlinked read/writes (supported by the underlying network
@@ -173,6 +207,16 @@ class ConnectionImpl implements Connection {
     private ServerInfo info = null;
     private int pout;
 
+    // A connected session to another server, promoted when this one fails. See
+    // Options#isHotStandby(). Guarded by mu.
+    private Standby standby = null;
+    private boolean standbyPending = false;
+    private boolean probePending = false;
+    // When the client last migrated to a faster server, 0 if never
+    long lastMigrationNanos = 0L;
+    // Set by migrate() for the reconnect it starts, which is then not reported as a disconnect
+    private boolean migrating = false;
+
     private Parser parser = new Parser(this);
 
     private static final byte[] pingProtoBytes = PING_PROTO.getBytes();
@@ -183,9 +227,32 @@ class ConnectionImpl implements Connection {
     private static final int pubPrimBytesLen = pubPrimBytes.length;
     private static final byte[] crlfProtoBytes = CRLF.getBytes();
     private static final int crlfProtoBytesLen = crlfProtoBytes.length;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] subPrimBytes = _SUB_P_.getBytes();
+    private static final byte[] unsubPrimBytes = _UNSUB_P_.getBytes();
 
     private Statistics stats = null;
-    private List<BlockingQueue<Boolean>> pongs;
+    // Where hot path timings go, see Options#getMetricsRecorder(). The clock is only read for
+    // them when metricsEnabled.
+    private final MetricsRecorder metrics;
+    private final boolean metricsEnabled;
+    // Bytes published since the last flush. Guarded by mu.
+    private long unflushedBytes;
+    // The PINGs awaiting a PONG, oldest first, with the flush calls waiting on them. Guarded by
+    // mu.
+    private final ArrayDeque<Ping> pings = new ArrayDeque<Ping>();
+    // Whether a PING carrying flush waiters is outstanding. Guarded by mu.
+    private boolean flushPingOut;
+    // Flush calls that arrived while a flush PING was outstanding. They share the next PING,
+    // sent when the outstanding one is answered. Guarded by mu.
+    private List<FlushWaiter> nextFlush;
+
+    // Don't migrate to a faster server for a gain smaller than this
+    static final long MIN_MIGRATION_GAIN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Migration only trusts round trip times measured within this many ping intervals
+    static final int RTT_MAX_AGE_PINGS = 3;
+    // After migrating, stay on the new server for at least this many ping intervals
+    static final int MIGRATION_COOLDOWN_PINGS = 10;
 
 
     private static final int NUM_CORE_THREADS = 4;
@@ -203,10 +270,25 @@ class ConnectionImpl implements Connection {
     private ExecutorService cbexec;
     static final String CB_EXEC_NAME = "jnats-callbacks";
 
+    // Threads used to dial servers in parallel, see Options#getDialParallelism()
+    static final String DIAL_EXEC_NAME = "jnats-dialer";
+
+    // The shared runtime the executors come from, if any, see Options#getRuntime()
+    private final NatsRuntime runtime;
+    // Whether this connection holds a reference on the runtime. Guarded by mu.
+    private boolean runtimeRetained;
+
     // The ping timer task
     private ScheduledFuture<?> ptmr = null;
     static final String PINGTIMER = "pingtimer";
 
+    // The hashed wheel timer for request deadlines, and the task driving its ticks while any
+    // timeout is pending. ttmr is only set under timerMu, which may be taken while holding mu but
+    // never takes mu itself.
+    private HashedWheelTimer timer;
+    private volatile ScheduledFuture<?> ttmr = null;
+    private final Object timerMu = new Object();
+
     static final String READLOOP = "readloop";
 
     static final String FLUSHER = "flusher";
@@ -228,7 +310,13 @@ class ConnectionImpl implements Connection {
 
         this.nc = this;
         this.opts = opts;
+        this.mu = new ConnectionLock(opts.isTrackLockContention());
         this.stats = new Statistics();
+        this.stats.setLockStats(mu.getSiteStats());
+        this.runtime = opts.getRuntime();
+        MetricsRecorder recorder = opts.getMetricsRecorder();
+        this.metrics = recorder == null ? MetricsRecorder.NOOP : recorder;
+        this.metricsEnabled = this.metrics != MetricsRecorder.NOOP;
         if (opts.getFactory() != null) {
             tcf = opts.getFactory();
         } else {
@@ -237,6 +325,9 @@ class ConnectionImpl implements Connection {
     }
 
     ScheduledExecutorService createScheduler() {
+        if (runtime != null) {
+            return runtime.newExecutor();
+        }
         ScheduledThreadPoolExecutor sexec = (ScheduledThreadPoolExecutor)
                 Executors.newScheduledThreadPool(NUM_CORE_THREADS,
                         new NatsThreadFactory(EXEC_NAME));
@@ -245,19 +336,38 @@ class ConnectionImpl implements Connection {
     }
 
     ExecutorService createSubscriptionScheduler() {
+        if (runtime != null) {
+            return runtime.newExecutor();
+        }
         return Executors.newCachedThreadPool(new NatsThreadFactory(SUB_EXEC_NAME));
     }
 
     ExecutorService createCallbackScheduler() {
+        if (runtime != null) {
+            return runtime.newCallbacks();
+        }
         return Executors.newSingleThreadExecutor(new NatsThreadFactory(CB_EXEC_NAME));
     }
 
+    HashedWheelTimer createTimer() {
+        return new HashedWheelTimer();
+    }
+
     void setup() {
+        if (runtime != null && !runtimeRetained) {
+            runtime.retain();
+            runtimeRetained = true;
+        }
+        if (mu.isTrackingContention()) {
+            String name = opts.getConnectionName();
+            mu.registerMBeans(name == null ? "jnats" : name);
+        }
         exec = createScheduler();
         cbexec = createCallbackScheduler();
         subexec = createSubscriptionScheduler();
+        timer = createTimer();
+        ttmr = null;
         fch = createFlushChannel();
-        pongs = createPongs();
         subs.clear();
 
         // predefine the start of the publish protocol message.
@@ -392,28 +502,140 @@ class ConnectionImpl implements Connection {
             throw new IOException(ERR_NO_SERVERS);
         }
 
+        if (opts.isPreferLowLatency()) {
+            Srv fastest = fastestServer(srv);
+            if (fastest != null) {
+                srvPool.remove(fastest);
+                srvPool.add(0, fastest);
+            }
+        }
+
         return srvPool.get(0);
     }
 
+    /*
+     * Returns the server in the pool with the lowest measured round trip time, other than exclude.
+     * If no other server has a round trip time yet, returns the one that was quickest to dial
+     * instead; the two are never compared with each other. Servers that failed their last
+     * connection attempt are not considered. Returns null if there is no such server.
+     */
+    Srv fastestServer(Srv exclude) {
+        Srv fastest = fastestServer(exclude, Long.MAX_VALUE, false);
+        return (fastest != null) ? fastest : fastestServer(exclude, 0L, true);
+    }
+
+    // Returns the fastest server by round trip times measured within maxAgeNanos, or by dial time.
+    private Srv fastestServer(Srv exclude, long maxAgeNanos, boolean byDialTime) {
+        Srv fastest = null;
+        long best = 0L;
+        for (Srv s : srvPool) {
+            long nanos = byDialTime ? s.getDialTime() : s.getRtt(maxAgeNanos);
+            if (s == exclude || nanos == 0L || s.reconnects > 0) {
+                continue;
+            }
+            if (fastest == null || nanos < best) {
+                fastest = s;
+                best = nanos;
+            }
+        }
+        return fastest;
+    }
+
+    // How long a round trip time is trusted for migration
+    private long rttMaxAgeNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(opts.getPingInterval() * RTT_MAX_AGE_PINGS);
+    }
+
+    // Whether the current server is so much slower than the fastest other server that it is worth
+    // reconnecting, see Options#getLatencyMigrationFactor(). Lock is assumed held.
+    boolean shouldMigrate() {
+        double factor = opts.getLatencyMigrationFactor();
+        if (factor <= 1.0 || srvPool == null) {
+            return false;
+        }
+        long cooldown = TimeUnit.MILLISECONDS.toNanos(opts.getPingInterval())
+                * MIGRATION_COOLDOWN_PINGS;
+        if (lastMigrationNanos != 0L && System.nanoTime() - lastMigrationNanos < cooldown) {
+            return false;
+        }
+        long maxAge = rttMaxAgeNanos();
+        Srv cur = currentServer();
+        if (cur == null || cur.getRtt(maxAge) == 0L) {
+            return false;
+        }
+        Srv fastest = fastestServer(cur, maxAge, false);
+        if (fastest == null) {
+            return false;
+        }
+        long curRtt = cur.getRtt(maxAge);
+        long bestRtt = fastest.getRtt(maxAge);
+        return curRtt > factor * bestRtt && curRtt - bestRtt >= MIN_MIGRATION_GAIN_NANOS;
+    }
+
+    // Measures, in the background, the round trip time of one other server whose measurement is
+    // missing or too old for migration to trust, by running a throwaway handshake with it. Each
+    // ping interval refreshes the next such server. Lock is assumed held.
+    void probeStaleServer() {
+        if (opts.getLatencyMigrationFactor() <= 1.0 || probePending || !connected()) {
+            return;
+        }
+        long maxAge = rttMaxAgeNanos();
+        Srv cur = currentServer();
+        Srv stale = null;
+        for (Srv s : srvPool) {
+            if (s != cur && s.reconnects == 0 && s.getRtt(maxAge) == 0L) {
+                stale = s;
+                break;
+            }
+        }
+        if (stale == null) {
+            return;
+        }
+        final Srv srv = stale;
+        probePending = true;
+        exec.submit(new Runnable() {
+            public void run() {
+                try {
+                    openStandby(srv, false).close();
+                } catch (IOException | RuntimeException e) {
+                    // Try again once it is picked as stale again
+                }
+                mu.lock();
+                try {
+                    probePending = false;
+                } finally {
+                    mu.unlock();
+                }
+            }
+        });
+    }
+
     Connection connect() throws IOException {
         // Create actual socket connection
         // For first connect we walk all servers in the pool and try
         // to connect immediately.
         IOException returnedErr = null;
+        Object event = NatsEvents.beginConnect();
+        boolean success = false;
 
         setupServerPool();
 
         mu.lock();
         try {
             for (Srv srv : srvPool) {
+                // Already handshaken with, having won the dial for an earlier server
+                if (srv.handshakeTried) {
+                    continue;
+                }
                 this.setUrl(srv.url);
 
                 try {
                     createConn();
+                    currentServer().handshakeTried = true;
                     this.setup();
                     try {
                         processConnectInit();
-                        srv.reconnects = 0;
+                        currentServer().reconnects = 0;
                         returnedErr = null;
                         break;
                     } catch (IOException e) {
@@ -448,9 +670,16 @@ class ConnectionImpl implements Connection {
 
             cbexec = createCallbackScheduler();
 
+            maintainStandby();
+
+            success = true;
             return this;
         } finally {
+            for (Srv srv : srvPool) {
+                srv.handshakeTried = false;
+            }
             mu.unlock();
+            NatsEvents.endConnect(event, url, success);
         }
     }
 
@@ -465,15 +694,17 @@ class ConnectionImpl implements Connection {
         Srv srv = currentServer();
         if (srv == null) {
             throw new IOException(ERR_NO_SERVERS);
-        } else {
-            srv.updateLastAttempt();
         }
 
-        try {
+        List<Srv> candidates = dialCandidates(srv);
+        if (candidates.size() > 1) {
+            Dial dial = dialParallel(candidates);
+            conn = dial.conn;
+            this.setUrl(dial.srv.url);
+        } else {
+            srv.updateLastAttempt();
             conn = tcf.createConnection();
             conn.open(srv.url.toString(), opts.getConnectionTimeout());
-        } catch (IOException e) {
-            throw (e);
         }
 
         if ((pending != null) && (bw != null)) {
@@ -488,6 +719,274 @@ class ConnectionImpl implements Connection {
     }
 
 
+    // Returns the servers to dial for an attempt on srv: srv itself, followed by the servers after
+    // it in the pool, up to the dial parallelism. During connect(), servers whose handshake has
+    // already failed are left out.
+    List<Srv> dialCandidates(Srv srv) {
+        int parallelism = Math.min(opts.getDialParallelism(), srvPool.size());
+        if (parallelism <= 1) {
+            return Collections.singletonList(srv);
+        }
+        List<Srv> candidates = new ArrayList<Srv>(parallelism);
+        candidates.add(srv);
+        int start = srvPool.indexOf(srv);
+        for (int i = 1; i < srvPool.size() && candidates.size() < parallelism; i++) {
+            Srv s = srvPool.get((start + i) % srvPool.size());
+            if (!s.handshakeTried) {
+                candidates.add(s);
+            }
+        }
+        return candidates;
+    }
+
+    /*
+     * Dials the candidates concurrently, starting each attempt dialStagger after the previous one,
+     * or as soon as the previous one fails. The first socket to connect wins; sockets connected
+     * later are closed. Throws the last failure if no candidate could be reached.
+     */
+    Dial dialParallel(List<Srv> candidates) throws IOException {
+        final int timeout = opts.getConnectionTimeout();
+        final long staggerNanos = TimeUnit.MILLISECONDS.toNanos(opts.getDialStagger());
+        final Object dialMu = new Object();
+        final List<Dial> opened = new ArrayList<Dial>();
+        final boolean[] done = new boolean[1];
+        ExecutorService pool = runtime != null ? runtime.newExecutor()
+                : Executors.newFixedThreadPool(candidates.size(),
+                        new NatsThreadFactory(DIAL_EXEC_NAME));
+        ExecutorCompletionService<Dial> ecs = new ExecutorCompletionService<Dial>(pool);
+        Dial winner = null;
+        IOException lastErr = null;
+        try {
+            int started = 0;
+            int running = 0;
+            long nextStart = System.nanoTime();
+            while (winner == null && (running > 0 || started < candidates.size())) {
+                if (started < candidates.size() && System.nanoTime() - nextStart >= 0) {
+                    final Srv srv = candidates.get(started++);
+                    srv.updateLastAttempt();
+                    // doReconnect counts the attempt on the first candidate
+                    if (started > 1 && reconnecting()) {
+                        srv.reconnects++;
+                    }
+                    ecs.submit(new Callable<Dial>() {
+                        public Dial call() throws IOException {
+                            Dial dial = new Dial(srv, tcf.createConnection());
+                            long dialStart = System.nanoTime();
+                            dial.conn.open(srv.url.toString(), timeout);
+                            // A TCP connect takes about one round trip
+                            srv.recordDialTime(System.nanoTime() - dialStart);
+                            synchronized (dialMu) {
+                                if (done[0]) {
+                                    dial.conn.close();
+                                } else {
+                                    opened.add(dial);
+                                }
+                            }
+                            return dial;
+                        }
+                    });
+                    running++;
+                    nextStart = System.nanoTime() + staggerNanos;
+                }
+                Future<Dial> result;
+                if (started < candidates.size()) {
+                    result = ecs.poll(Math.max(0L, nextStart - System.nanoTime()),
+                            TimeUnit.NANOSECONDS);
+                } else {
+                    result = ecs.take();
+                }
+                if (result == null) {
+                    continue;
+                }
+                running--;
+                try {
+                    winner = result.get();
+                } catch (ExecutionException e) {
+                    lastErr = (e.getCause() instanceof IOException) ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                    // Don't wait out the stagger once an attempt has failed
+                    nextStart = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lastErr = new IOException(e);
+        } finally {
+            synchronized (dialMu) {
+                done[0] = true;
+                for (Dial dial : opened) {
+                    if (dial != winner) {
+                        dial.conn.close();
+                    }
+                }
+            }
+            pool.shutdownNow();
+        }
+        if (winner == null) {
+            throw (lastErr != null) ? lastErr : new IOException(ERR_NO_SERVERS);
+        }
+        return winner;
+    }
+
+    // The delay before the next reconnect attempt to srv. With a maximum reconnect wait, the wait
+    // doubles with every failed attempt and is jittered so that clients spread out.
+    long reconnectDelay(Srv srv) {
+        long wait = opts.getReconnectWait();
+        long maxWait = opts.getMaxReconnectWait();
+        if (maxWait > wait && wait > 0) {
+            int shift = Math.min(srv.reconnects, 62 - (63 - Long.numberOfLeadingZeros(wait)));
+            long ceiling = Math.min(maxWait, wait << shift);
+            long half = ceiling / 2;
+            wait = ceiling - (long) (ThreadLocalRandom.current().nextDouble() * half);
+        }
+        long timeSinceLastAttempt = srv.timeSinceLastAttempt();
+        return (timeSinceLastAttempt < wait) ? wait - timeSinceLastAttempt : 0L;
+    }
+
+    // Picks the server for a hot standby: the fastest healthy server other than the current one
+    // when preferring low latency, or else the first. Lock is assumed held.
+    Srv standbyServer() {
+        Srv cur = currentServer();
+        Srv srv = opts.isPreferLowLatency() ? fastestServer(cur) : null;
+        if (srv == null) {
+            for (Srv s : srvPool) {
+                if (s != cur && s.reconnects == 0) {
+                    srv = s;
+                    break;
+                }
+            }
+        }
+        return srv;
+    }
+
+    // Opens a hot standby in the background if one is wanted and missing. Failures are retried
+    // on the next ping interval. A standby is only kept alive by reading what has arrived, so
+    // there is none when the connections' streams cannot tell, as with a custom socket factory.
+    // Lock is assumed held.
+    void maintainStandby() {
+        if (!opts.isHotStandby() || standby != null || standbyPending || !connected()
+                || !conn.reportsArrived()) {
+            return;
+        }
+        final Srv srv = standbyServer();
+        if (srv == null) {
+            return;
+        }
+        standbyPending = true;
+        exec.submit(new Runnable() {
+            public void run() {
+                Standby sb = null;
+                try {
+                    sb = openStandby(srv);
+                } catch (IOException e) {
+                    // Try again later
+                }
+                mu.lock();
+                try {
+                    standbyPending = false;
+                    if (sb != null) {
+                        if (standby == null && connected() && !srv.url.equals(getUrl())
+                                && sb.conn.reportsArrived()) {
+                            standby = sb;
+                        } else {
+                            sb.close();
+                        }
+                    }
+                } finally {
+                    mu.unlock();
+                }
+            }
+        });
+    }
+
+    Standby openStandby(Srv srv) throws IOException {
+        return openStandby(srv, true);
+    }
+
+    /*
+     * Dials srv and runs the INFO/CONNECT/PING/PONG handshake on a separate TcpConnection, without
+     * touching the state of the current connection. The TLS handshake is left out of the
+     * connection's statistics for throwaway probes. Does not need the lock.
+     */
+    Standby openStandby(Srv srv, boolean recordStats) throws IOException {
+        TcpConnection sc = tcf.createConnection();
+        try {
+            sc.open(srv.url.toString(), opts.getConnectionTimeout());
+            sc.getInputStream(DEFAULT_STREAM_BUF_SIZE);
+            BufferedReader reader = sc.getBufferedReader();
+
+            Control control = new Control(reader.readLine());
+            if (!_INFO_OP_.equals(control.op)) {
+                throw new IOException(ERR_NO_INFO_RECEIVED);
+            }
+            ServerInfo sinfo = ServerInfo.createFromWire(control.args);
+            if (opts.isSecure() && !sinfo.isTlsRequired()) {
+                throw new IOException(ERR_SECURE_CONN_WANTED);
+            } else if (sinfo.isTlsRequired() && !opts.isSecure()) {
+                throw new IOException(ERR_SECURE_CONN_REQUIRED);
+            }
+            if (opts.isSecure() || TLS_SCHEME.equals(srv.url.getScheme())) {
+                sc.makeTls(opts.getSslContext());
+                if (recordStats) {
+                    stats.recordTlsHandshake(sc.getTlsHandshakeNanos(),
+                            sc.getTlsHandshakeBytes(), sc.isTlsSessionResumed());
+                }
+                sc.getInputStream(DEFAULT_STREAM_BUF_SIZE);
+                reader = sc.getBufferedReader();
+            }
+
+            OutputStream out = sc.getOutputStream(DEFAULT_STREAM_BUF_SIZE);
+            out.write(connectProto(srv.url).getBytes());
+            out.flush();
+            if (opts.isVerbose() && !_OK_OP_.equals(reader.readLine())) {
+                throw new IOException(ERR_PROTOCOL);
+            }
+            long pingStart = System.nanoTime();
+            out.write(pingProtoBytes, 0, pingProtoBytesLen);
+            out.flush();
+            String line = reader.readLine();
+            if (!PONG_PROTO.trim().equals(line)) {
+                throw new IOException(String.format("nats: expected '%s', got '%s'", _PONG_OP_,
+                        line));
+            }
+            srv.recordRtt(System.nanoTime() - pingStart);
+            return new Standby(srv, sc, control.args);
+        } catch (IOException | RuntimeException e) {
+            sc.close();
+            throw e;
+        }
+    }
+
+    // Makes the hot standby the current connection, as processConnectInit() would for a new one.
+    // Returns false, having closed the standby, if its input could not be brought to a protocol
+    // line boundary or the connection was closed meanwhile. Lock is assumed held, and is
+    // released while waiting for the standby's server.
+    boolean promoteStandby() throws InterruptedException {
+        Standby sb = standby;
+        standby = null;
+        boolean synced = false;
+        mu.unlock();
+        try {
+            synced = sb.resync();
+        } finally {
+            mu.lock();
+        }
+        if (!synced || isClosed()) {
+            sb.close();
+            return false;
+        }
+        conn = sb.conn;
+        bw = conn.getOutputStream(DEFAULT_STREAM_BUF_SIZE);
+        br = conn.getInputStream(DEFAULT_STREAM_BUF_SIZE);
+        this.setUrl(sb.srv.url);
+        sb.srv.updateLastAttempt();
+        processInfo(sb.info);
+        status = CONNECTED;
+        this.setActualPingsOutstanding(0);
+        spinUpSocketWatchers();
+        return true;
+    }
+
     BlockingQueue<Message> createMsgChannel() {
         return createMsgChannel(Integer.MAX_VALUE);
     }
@@ -519,20 +1018,36 @@ class ConnectionImpl implements Connection {
 
     // This will clear any pending flush calls and release pending calls.
     // Lock is assumed to be held by the caller.
+    // Whether a flush waits for a PONG. Lock is assumed held.
+    boolean flushPending() {
+        if (nextFlush != null) {
+            return true;
+        }
+        for (Ping ping : pings) {
+            if (ping.waiters != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     void clearPendingFlushCalls() {
-        // Clear any queued pongs, e.g. pending flush calls.
-        if (pongs == null) {
-            return;
+        // Signal the waiting threads that we're done
+        Ping ping;
+        while ((ping = pings.poll()) != null) {
+            if (ping.waiters != null) {
+                for (FlushWaiter waiter : ping.waiters) {
+                    waiter.complete(FlushWaiter.FAILED);
+                }
+            }
         }
-        for (BlockingQueue<Boolean> ch : pongs) {
-            if (ch != null) {
-                ch.clear();
-                // Signal other waiting threads that we're done
-                ch.add(false);
+        if (nextFlush != null) {
+            for (FlushWaiter waiter : nextFlush) {
+                waiter.complete(FlushWaiter.FAILED);
             }
         }
-        pongs.clear();
-        pongs = null;
+        nextFlush = null;
+        flushPingOut = false;
     }
 
     // Clear any pending request calls.
@@ -540,14 +1055,8 @@ class ConnectionImpl implements Connection {
         if (respMap == null) {
             return;
         }
-        Iterator<Map.Entry<String, BlockingQueue<Message>>> iter = respMap.entrySet().iterator();
-        while (iter.hasNext()) {
-            Map.Entry<String, BlockingQueue<Message>> entry = iter.next();
-            try {
-                entry.getValue().put(null);
-            } catch (InterruptedException ignored) {
-            }
-            iter.remove();
+        for (PendingRequest request : respMap.values()) {
+            request.finish(false);
         }
     }
 
@@ -586,6 +1095,16 @@ class ConnectionImpl implements Connection {
             // Clear any queued and blocking requests.
             clearPendingRequestCalls();
 
+            // Drop any request deadlines still on the wheel.
+            stopTimer();
+            respCache.clear();
+            reqLatency.clear();
+
+            if (standby != null) {
+                standby.close();
+                standby = null;
+            }
+
             // Go ahead and make sure we have flushed the outbound
             if (conn != null) {
                 try {
@@ -654,6 +1173,13 @@ class ConnectionImpl implements Connection {
                 shutdownAndAwaitTermination(subexec, SUB_EXEC_NAME);
             }
 
+            if (runtimeRetained) {
+                runtimeRetained = false;
+                runtime.release();
+            }
+
+            mu.unregisterMBeans();
+
         } finally {
             mu.unlock();
         }
@@ -710,6 +1236,8 @@ class ConnectionImpl implements Connection {
     // makeSecureConn will wrap an existing Conn using TLS
     void makeTlsConn() throws IOException {
         conn.makeTls(opts.getSslContext());
+        stats.recordTlsHandshake(conn.getTlsHandshakeNanos(), conn.getTlsHandshakeBytes(),
+                conn.isTlsSessionResumed());
         bw = conn.getOutputStream(DEFAULT_STREAM_BUF_SIZE);
         br = conn.getInputStream(DEFAULT_STREAM_BUF_SIZE);
     }
@@ -750,19 +1278,41 @@ class ConnectionImpl implements Connection {
     // processPong is used to process responses to the client's ping
     // messages. We use pings for the flush mechanism as well.
     void processPong() throws InterruptedException {
-        BlockingQueue<Boolean> ch = null;
-        mu.lockInterruptibly();
+        List<FlushWaiter> waiters = null;
+        long rtt = 0L;
+        mu.lockInterruptibly(ConnectionLock.Site.PING);
         try {
-            if (pongs != null && pongs.size() > 0) {
-                ch = pongs.get(0);
-                pongs.remove(0);
+            Ping ping = pings.poll();
+            if (ping != null) {
+                rtt = System.nanoTime() - ping.sentNanos;
+                Srv srv = currentServer();
+                if (srv != null) {
+                    srv.recordRtt(rtt);
+                }
+                // A flush PONG also waits for the data written ahead of it, so only the pings
+                // from the ping timer measure the network alone.
+                if (ping.waiters == null) {
+                    stats.recordPingRtt(rtt);
+                } else {
+                    waiters = ping.waiters;
+                    flushPingOut = false;
+                    // The flush calls that arrived meanwhile share one PING
+                    if (nextFlush != null) {
+                        List<FlushWaiter> next = nextFlush;
+                        nextFlush = null;
+                        sendPing(next);
+                    }
+                }
             }
             setActualPingsOutstanding(0);
         } finally {
             mu.unlock();
         }
-        if (ch != null) {
-            ch.add(true);
+        if (waiters != null) {
+            for (FlushWaiter waiter : waiters) {
+                waiter.rttNanos = rtt;
+                waiter.complete(FlushWaiter.DONE);
+            }
         }
     }
 
@@ -820,58 +1370,81 @@ class ConnectionImpl implements Connection {
             if (connecting() || closed() || reconnecting()) {
                 return;
             }
+            NatsEvents.disconnect(url, err == null ? null : err.toString());
 
             if (opts.isReconnectAllowed() && status == CONNECTED) {
-                // Set our new status
-                status = RECONNECTING;
+                startReconnect();
+            } else {
+                processDisconnect();
+                setLastError(err);
+                close();
+            }
+        } finally {
+            mu.unlock();
+        }
+    }
 
-                if (ptmr != null) {
-                    ptmr.cancel(true);
-                    tasks.remove(ptmr);
-                }
+    // Moves to a faster server, see Options#getLatencyMigrationFactor(). Unlike processOpError(),
+    // it does not report an error: the disconnected and reconnected callbacks are not called and
+    // the last error is left alone. The lock should not be held entering this function.
+    void migrate() throws InterruptedException {
+        mu.lockInterruptibly();
+        try {
+            if (status != CONNECTED || !opts.isReconnectAllowed()) {
+                return;
+            }
+            NatsEvents.disconnect(url, ERR_LATENCY_MIGRATION);
+            migrating = true;
+            startReconnect();
+        } finally {
+            mu.unlock();
+        }
+    }
 
-                if (this.conn != null) {
-                    try {
-                        bw.flush();
-                    } catch (IOException e1) {
-                        // NOOP
-                    }
-                    conn.close();
-                }
+    // Drops the current connection and reconnects in the background. Lock is assumed held.
+    private void startReconnect() {
+        // Set our new status
+        status = RECONNECTING;
 
-                if (fch != null) {
-                   fch.offer(false);
-                }
+        if (ptmr != null) {
+            ptmr.cancel(true);
+            tasks.remove(ptmr);
+        }
+
+        if (this.conn != null) {
+            try {
+                bw.flush();
+            } catch (IOException e1) {
+                // NOOP
+            }
+            conn.close();
+        }
 
-                // Create a new pending buffer to underpin the buffered output
-                // stream while we are reconnecting.
+        if (fch != null) {
+           fch.offer(false);
+        }
 
-                setPending(new ByteArrayOutputStream(opts.getReconnectBufSize()));
-                setOutputStream(getPending());
+        // Create a new pending buffer to underpin the buffered output
+        // stream while we are reconnecting.
 
-                if (exec.isShutdown()) {
-                    exec = createScheduler();
-                }
-                exec.submit(new Runnable() {
-                    public void run() {
-                        Thread.currentThread().setName("reconnect");
-                        try {
-                            doReconnect();
-                        } catch (InterruptedException e) {
-                            // NOOP
-                        }
-                    }
-                });
-                if (cbexec.isShutdown()) {
-                    cbexec = createCallbackScheduler();
+        setPending(new ByteArrayOutputStream(opts.getReconnectBufSize()));
+        setOutputStream(getPending());
+
+        if (exec.isShutdown()) {
+            exec = createScheduler();
+        }
+        exec.submit(new Runnable() {
+            public void run() {
+                Thread.currentThread().setName("reconnect");
+                try {
+                    doReconnect();
+                } catch (InterruptedException e) {
+                    // NOOP
                 }
-            } else {
-                processDisconnect();
-                setLastError(err);
-                close();
             }
-        } finally {
-            mu.unlock();
+        });
+        if (cbexec.isShutdown()) {
+            cbexec = createCallbackScheduler();
         }
     }
 
@@ -951,8 +1524,13 @@ class ConnectionImpl implements Connection {
         // outstanding flush points (pongs) and they were not
         // sent out, but are still in the pipe.
 
+        Object reconnectEvent = NatsEvents.beginReconnect();
+        int attempts = 0;
+
         // Hold the lock manually and release where needed below.
         mu.lockInterruptibly();
+        final boolean migration = migrating;
+        migrating = false;
         try {
             // Clear any queued pongs, e.g. pending flush calls.
             nc.clearPendingFlushCalls();
@@ -961,7 +1539,7 @@ class ConnectionImpl implements Connection {
             setLastError(null);
 
             // Perform appropriate callback if needed for a disconnect
-            if (opts.getDisconnectedCallback() != null) {
+            if (opts.getDisconnectedCallback() != null && !migration) {
                 cbexec.submit(new Runnable() {
                     public void run() {
                         opts.getDisconnectedCallback().onDisconnect(new ConnectionEvent(nc));
@@ -970,70 +1548,91 @@ class ConnectionImpl implements Connection {
             }
 
             while (!srvPool.isEmpty()) {
-                Srv cur;
-                try {
-                    cur = selectNextServer();
-                    this.setUrl(cur.url);
-                } catch (IOException nse) {
-                    setLastError(nse);
-                    break;
+                long restoreStart;
+                Object phase;
+                boolean promoted = false;
+                if (standby != null) {
+                    // Fail over to the hot standby, which is already connected and handshaken.
+                    phase = NatsEvents.beginReconnectPhase();
+                    promoted = promoteStandby();
+                    NatsEvents.endReconnectPhase(phase, "promote", url);
                 }
+                if (promoted) {
+                    stats.incrementReconnects();
+                    restoreStart = System.nanoTime();
+                } else {
+                    Srv cur;
+                    try {
+                        cur = selectNextServer();
+                        this.setUrl(cur.url);
+                    } catch (IOException nse) {
+                        setLastError(nse);
+                        break;
+                    }
 
-                long sleepTime = 0L;
+                    // Sleep appropriate amount of time before the
+                    // connection attempt if connecting to same server
+                    // we just got disconnected from.
 
-                // Sleep appropriate amount of time before the
-                // connection attempt if connecting to same server
-                // we just got disconnected from.
+                    long sleepTime = reconnectDelay(cur);
 
-                long timeSinceLastAttempt = cur.timeSinceLastAttempt();
-                if (timeSinceLastAttempt < opts.getReconnectWait()) {
-                    sleepTime = opts.getReconnectWait() - timeSinceLastAttempt;
-                }
+                    if (sleepTime > 0) {
+                        mu.unlock();
+                        phase = NatsEvents.beginReconnectPhase();
+                        Thread.sleep(sleepTime);
+                        NatsEvents.endReconnectPhase(phase, "wait", cur.url);
+                        mu.lockInterruptibly();
+                    }
 
-                if (sleepTime > 0) {
-                    mu.unlock();
-                    Thread.sleep(sleepTime);
-                    mu.lockInterruptibly();
-                }
+                    // Check if we have been closed first.
+                    if (isClosed()) {
+                        break;
+                    }
 
-                // Check if we have been closed first.
-                if (isClosed()) {
-                    break;
-                }
+                    // Mark that we tried a reconnect
+                    cur.reconnects++;
+                    attempts++;
 
-                // Mark that we tried a reconnect
-                cur.reconnects++;
+                    // try to create a new connection
+                    phase = NatsEvents.beginReconnectPhase();
+                    try {
+//                        conn.teardown();
+                        createConn();
+                        NatsEvents.endReconnectPhase(phase, "dial", url);
+                    } catch (Exception e) {
+                        NatsEvents.endReconnectPhase(phase, "dial", cur.url);
+//                        conn.teardown();
+                        // not yet connected, retry and hold
+                        // the lock.
+                        setLastError(null);
+                        continue;
+                    }
 
-                // try to create a new connection
-                try {
-//                    conn.teardown();
-                    createConn();
-                } catch (Exception e) {
-//                    conn.teardown();
-                    // not yet connected, retry and hold
-                    // the lock.
-                    setLastError(null);
-                    continue;
-                }
-
-                // We are reconnected.
-                stats.incrementReconnects();
+                    // We are reconnected.
+                    stats.incrementReconnects();
+                    restoreStart = System.nanoTime();
 
-                // Process connect logic
-                try {
-                    processConnectInit();
-                } catch (IOException e) {
-//                    conn.teardown();
-                    setLastError(e);
-                    status = RECONNECTING;
-                    continue;
+                    // Process connect logic
+                    phase = NatsEvents.beginReconnectPhase();
+                    try {
+                        processConnectInit();
+                    } catch (IOException e) {
+//                        conn.teardown();
+                        setLastError(e);
+                        status = RECONNECTING;
+                        continue;
+                    } finally {
+                        NatsEvents.endReconnectPhase(phase, "handshake", url);
+                    }
                 }
 
-                // Clear out server stats for the server we connected to..
+                // Clear out server stats for the server we connected to, which
+                // is not necessarily cur when dialing in parallel.
                 // cur.didConnect = true;
-                cur.reconnects = 0;
+                currentServer().reconnects = 0;
 
                 // Send existing subscription state
+                phase = NatsEvents.beginReconnectPhase();
                 resendSubscriptions();
 
                 // Now send off and clear pending buffer
@@ -1046,6 +1645,8 @@ class ConnectionImpl implements Connection {
                     setLastError(e);
                     status = RECONNECTING;
                     continue;
+                } finally {
+                    NatsEvents.endReconnectPhase(phase, "restore", url);
                 }
 
                 // Done with the pending buffer
@@ -1053,9 +1654,14 @@ class ConnectionImpl implements Connection {
 
                 // This is where we are truly connected.
                 status = CONNECTED;
+                stats.recordReconnectTime(System.nanoTime() - restoreStart);
+                NatsEvents.endReconnect(reconnectEvent, url, attempts, true);
+
+                // Warm up a new standby for the next failure.
+                maintainStandby();
 
                 // Queue up the reconnect callback.
-                if (opts.getReconnectedCallback() != null) {
+                if (opts.getReconnectedCallback() != null && !migration) {
                     cbexec.submit(new Runnable() {
 
                         public void run() {
@@ -1083,6 +1689,7 @@ class ConnectionImpl implements Connection {
             mu.unlock();
         }
 
+        NatsEvents.endReconnect(reconnectEvent, url, attempts, false);
         close();
     }
 
@@ -1153,6 +1760,7 @@ class ConnectionImpl implements Connection {
         }
 
         // Send PING
+        long pingStart = System.nanoTime();
         bw.write(pingProtoBytes, 0, pingProtoBytesLen);
         bw.flush();
 
@@ -1162,6 +1770,7 @@ class ConnectionImpl implements Connection {
         } catch (IOException e) {
             throw new IOException(ERR_CONNECTION_READ, e);
         }
+        long rtt = System.nanoTime() - pingStart;
 
         // We expect a PONG
         if (!PONG_PROTO.trim().equals(line)) {
@@ -1178,6 +1787,11 @@ class ConnectionImpl implements Connection {
             throw new IOException(String.format("nats: expected '%s', got '%s'", _PONG_OP_, line));
         }
 
+        Srv srv = currentServer();
+        if (srv != null) {
+            srv.recordRtt(rtt);
+        }
+
         // This is where we are truly connected.
         status = CONNECTED;
     }
@@ -1209,7 +1823,11 @@ class ConnectionImpl implements Connection {
     // Generate a connect protocol message, issuing user/password if
     // applicable. The lock is assumed to be held upon entering.
     String connectProto() {
-        String userInfo = getUrl().getUserInfo();
+        return connectProto(getUrl());
+    }
+
+    String connectProto(URI url) {
+        String userInfo = url.getUserInfo();
         String user = null;
         String pass = null;
         String token = null;
@@ -1322,7 +1940,7 @@ class ConnectionImpl implements Connection {
         boolean sb;
         TcpConnection conn = null;
 
-        mu.lockInterruptibly();
+        mu.lockInterruptibly(ConnectionLock.Site.READ_LOOP);
         try {
             parser = this.parser;
             if (parser.ps == null) {
@@ -1336,7 +1954,7 @@ class ConnectionImpl implements Connection {
         byte[] buffer = new byte[DEFAULT_BUF_SIZE];
 
         while (!Thread.currentThread().isInterrupted()) {
-            mu.lockInterruptibly();
+            mu.lockInterruptibly(ConnectionLock.Site.READ_LOOP);
             try {
                 sb = (closed() || reconnecting());
                 if (sb) {
@@ -1356,7 +1974,14 @@ class ConnectionImpl implements Connection {
                 if (len == -1) {
                     throw new IOException(ERR_STALE_CONNECTION);
                 }
-                parser.parse(buffer, len);
+                if (metricsEnabled) {
+                    metrics.recordRead(len);
+                    long start = System.nanoTime();
+                    parser.parse(buffer, len);
+                    metrics.recordParse(len, System.nanoTime() - start);
+                } else {
+                    parser.parse(buffer, len);
+                }
             } catch (IOException | ParseException e) {
                 if (status != CLOSED) {
                     processOpError(e);
@@ -1365,7 +1990,7 @@ class ConnectionImpl implements Connection {
             }
         }
 
-        mu.lockInterruptibly();
+        mu.lockInterruptibly(ConnectionLock.Site.READ_LOOP);
         try {
             parser.ps = null;
         } finally {
@@ -1399,6 +2024,7 @@ class ConnectionImpl implements Connection {
                 if (msg != null) {
                     sub.pMsgs--;
                     sub.pBytes -= (msg.getData() == null ? 0 : msg.getData().length);
+                    sub.checkPendingWatermarks();
                 }
 
                 mcb = sub.getMessageHandler();
@@ -1417,11 +2043,11 @@ class ConnectionImpl implements Connection {
             }
             // Deliver the message.
             if (msg != null && (max <= 0 || delivered <= max)) {
-                mcb.onMessage(msg);
+                deliver(sub, mcb, msg);
             }
             // If we have hit the max for delivered msgs, remove sub.
             if (max > 0 && delivered >= max) {
-                mu.lock();
+                mu.lock(ConnectionLock.Site.DELIVER);
                 try {
                     removeSub(sub);
                 } finally {
@@ -1432,6 +2058,132 @@ class ConnectionImpl implements Connection {
         }
     }
 
+    // Hands a message to its handler, timing both when metrics are recorded or the
+    // subscription's latency is tracked.
+    private void deliver(SubscriptionImpl sub, MessageHandler mcb, Message msg) {
+        Histogram delay = sub.dispatchDelay;
+        if (!metricsEnabled && delay == null) {
+            mcb.onMessage(msg);
+            return;
+        }
+        long start = System.nanoTime();
+        if (metricsEnabled) {
+            metrics.recordDispatchDelay(start - msg.arrivalNanos);
+        }
+        if (delay != null) {
+            delay.record(start - msg.arrivalNanos);
+        }
+        try {
+            mcb.onMessage(msg);
+        } finally {
+            long took = System.nanoTime() - start;
+            if (metricsEnabled) {
+                metrics.recordHandler(took);
+            }
+            if (sub.handlerTime != null) {
+                sub.handlerTime.record(took);
+            }
+        }
+    }
+
+    // Delivers the next pending message of a dispatched subscription, if there is one.
+    void deliverNext(AsyncSubscriptionImpl sub) {
+        long delivered;
+        long max;
+        Message msg;
+        MessageHandler mcb;
+
+        sub.lock();
+        try {
+            BlockingQueue<Message> mch = sub.getChannel();
+            if (sub.isClosed() || mch == null) {
+                return;
+            }
+            msg = mch.poll();
+            if (msg == null) {
+                return;
+            }
+            sub.pMsgs--;
+            sub.pBytes -= (msg.getData() == null ? 0 : msg.getData().length);
+            sub.checkPendingWatermarks();
+
+            mcb = sub.getMessageHandler();
+            max = sub.max;
+            sub.delivered++;
+            delivered = sub.delivered;
+        } finally {
+            sub.unlock();
+        }
+
+        // Deliver the message.
+        if (max <= 0 || delivered <= max) {
+            try {
+                deliver(sub, mcb, msg);
+            } catch (RuntimeException e) {
+                // Ignore, a failing handler must not stop delivery to the other subscriptions.
+            }
+        }
+        // If we have hit the max for delivered msgs, remove sub.
+        if (max > 0 && delivered >= max) {
+            mu.lock(ConnectionLock.Site.DELIVER);
+            try {
+                removeSub(sub);
+            } finally {
+                mu.unlock();
+            }
+        }
+    }
+
+    /**
+     * SubscriptionDispatcher delivers messages for a group of subscriptions created together by
+     * {@link #subscribeAll(Collection, String, MessageHandler, int)}, on a single task instead of
+     * one task per subscription. Each queued entry stands for one pending message of that
+     * subscription, so messages are delivered in arrival order. The task ends once every
+     * subscription in the group has been removed, or when the connection is closed.
+     */
+    final class SubscriptionDispatcher implements Runnable {
+        private final BlockingQueue<SubscriptionImpl> ready =
+                new LinkedBlockingQueue<SubscriptionImpl>();
+        // Number of subscriptions not yet removed. Guarded by mu.
+        int live;
+
+        void signal(SubscriptionImpl sub) {
+            ready.offer(sub);
+        }
+
+        // Called from removeSub, with mu held.
+        void release(SubscriptionImpl sub) {
+            live--;
+            if (live == 0) {
+                // Wake the task up so that it can notice.
+                ready.offer(sub);
+            }
+        }
+
+        private boolean done() {
+            mu.lock(ConnectionLock.Site.DELIVER);
+            try {
+                return live == 0;
+            } finally {
+                mu.unlock();
+            }
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    SubscriptionImpl sub = ready.take();
+                    if (sub.isClosed() && done()) {
+                        return;
+                    }
+                    deliverNext((AsyncSubscriptionImpl) sub);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     /**
      * processMsg is called by parse and will place the msg on the appropriate channel/pending queue
      * for processing. If the channel is full, or the pending queue is over the pending limits, the
@@ -1444,7 +2196,7 @@ class ConnectionImpl implements Connection {
     void processMsg(byte[] data, int offset, int length) {
         SubscriptionImpl sub;
 
-        mu.lock();
+        mu.lock(ConnectionLock.Site.PROCESS_MSG);
         try {
             stats.incrementInMsgs();
             stats.incrementInBytes(length);
@@ -1457,6 +2209,9 @@ class ConnectionImpl implements Connection {
             // Doing message create outside of the sub's lock to reduce contention.
             // It's possible that we end up not using the message, but that's ok.
             Message msg = new Message(parser.ps.ma, sub, data, offset, length);
+            if (metricsEnabled || sub.dispatchDelay != null) {
+                msg.arrivalNanos = System.nanoTime();
+            }
 
             sub.lock();
             try {
@@ -1468,6 +2223,7 @@ class ConnectionImpl implements Connection {
                 if (sub.pBytes > sub.pBytesMax) {
                     sub.pBytesMax = sub.pBytes;
                 }
+                sub.checkPendingWatermarks();
 
                 // Check for a Slow Consumer
                 if ((sub.pMsgsLimit > 0 && sub.pMsgs > sub.pMsgsLimit)
@@ -1478,7 +2234,13 @@ class ConnectionImpl implements Connection {
                     if (sub.getChannel() != null) {
                         if (sub.getChannel().add(msg)) {
                             sub.pCond.signal();
+                            if (sub.dispatcher != null) {
+                                sub.dispatcher.signal(sub);
+                            }
                             // Clear Slow Consumer status
+                            if (sub.isSlowConsumer()) {
+                                NatsEvents.slowConsumer(sub, false);
+                            }
                             sub.setSlowConsumer(false);
                         } else {
                             handleSlowConsumer(sub, msg);
@@ -1504,7 +2266,9 @@ class ConnectionImpl implements Connection {
     }
 
     void removeSub(SubscriptionImpl sub) {
-        subs.remove(sub.getSid());
+        if (subs.remove(sub.getSid()) != null && sub.dispatcher != null) {
+            sub.dispatcher.release(sub);
+        }
         sub.lock();
         try {
             if (sub.getChannel() != null) {
@@ -1533,9 +2297,26 @@ class ConnectionImpl implements Connection {
                 }
             });
         }
+        if (!sub.isSlowConsumer()) {
+            NatsEvents.slowConsumer(sub, true);
+        }
         sub.setSlowConsumer(true);
     }
 
+    // Notifies a subscription's watermark callback on the callback thread.
+    void processPendingWatermark(final SubscriptionImpl sub, final PendingWatermarkCallback cb,
+                                 final boolean high) {
+        cbexec.submit(new Runnable() {
+            public void run() {
+                if (high) {
+                    cb.onHighWatermark(sub);
+                } else {
+                    cb.onLowWatermark(sub);
+                }
+            }
+        });
+    }
+
     void processPermissionsViolation(String err) {
         final IOException serverEx = new IOException("nats: " + err);
         final NATSException nex = new NATSException(serverEx);
@@ -1550,53 +2331,22 @@ class ConnectionImpl implements Connection {
         }
     }
 
-    // FIXME: This is a hack
-    // removeFlushEntry is needed when we need to discard queued up responses
-    // for our pings as part of a flush call. This happens when we have a flush
-    // call outstanding and we call close.
-    boolean removeFlushEntry(BlockingQueue<Boolean> ch) throws InterruptedException {
-        mu.lockInterruptibly();
-        try {
-            if (pongs == null) {
-                return false;
-            }
-
-            for (BlockingQueue<Boolean> c : pongs) {
-                if (c.equals(ch)) {
-                    c.clear();
-                    pongs.remove(c);
-                    return true;
-                }
-
-            }
-            return false;
-        } finally {
-            mu.unlock();
-        }
-    }
-
+    // Sends a PING, whose PONG completes waiters, or which is a periodic ping if waiters is null.
     // The lock must be held entering this function.
-    void sendPing(BlockingQueue<Boolean> ch) {
-        if (pongs == null) {
-            pongs = createPongs();
-        }
-
-        if (ch != null) {
-            pongs.add(ch);
+    void sendPing(List<FlushWaiter> waiters) {
+        if (waiters != null) {
+            flushPingOut = true;
         }
+        pings.add(new Ping(System.nanoTime(), waiters));
 
         try {
             bw.write(pingProtoBytes, 0, pingProtoBytesLen);
-            bw.flush();
+            flushOut(bw);
         } catch (IOException e) {
             setLastError(e);
         }
     }
 
-    List<BlockingQueue<Boolean>> createPongs() {
-        return new ArrayList<BlockingQueue<Boolean>>();
-    }
-
     ScheduledFuture<?> createPingTimer() {
         PingTimerTask pinger = new PingTimerTask();
         return exec.scheduleWithFixedDelay(pinger, opts.getPingInterval(),
@@ -1604,7 +2354,7 @@ class ConnectionImpl implements Connection {
     }
 
     void resetPingTimer() {
-        mu.lock();
+        mu.lock(ConnectionLock.Site.PING);
         try {
             if (ptmr != null) {
                 ptmr.cancel(true);
@@ -1621,10 +2371,116 @@ class ConnectionImpl implements Connection {
     }
 
     void writeUnsubProto(SubscriptionImpl sub, long max) throws IOException {
-        String str = String.format(UNSUB_PROTO, sub.getSid(), max > 0 ? Long.toString(max) : "");
-        str = str.replaceAll(" +\r\n", "\r\n");
-        byte[] unsub = str.getBytes();
-        bw.write(unsub);
+        bufferUnsubProto(sub.getSid(), max);
+        writeSubProtoBuf();
+    }
+
+    // Appends "SUB subject [queue] sid\r\n" to buffer.
+    static void encodeSubProto(ByteBuffer buffer, String subject, String queue, long sid) {
+        buffer.put(subPrimBytes);
+        putString(buffer, subject);
+        if (queue != null && !queue.isEmpty()) {
+            buffer.put((byte) ' ');
+            putString(buffer, queue);
+        }
+        buffer.put((byte) ' ');
+        putLong(buffer, sid);
+        buffer.put(crlfProtoBytes, 0, crlfProtoBytesLen);
+    }
+
+    // Appends "UNSUB sid [max]\r\n" to buffer.
+    static void encodeUnsubProto(ByteBuffer buffer, long sid, long max) {
+        buffer.put(unsubPrimBytes);
+        putLong(buffer, sid);
+        if (max > 0) {
+            buffer.put((byte) ' ');
+            putLong(buffer, max);
+        }
+        buffer.put(crlfProtoBytes, 0, crlfProtoBytesLen);
+    }
+
+    // Subjects and queue names are almost always ASCII, which is copied without allocating.
+    private static void putString(ByteBuffer buffer, String str) {
+        int len = str.length();
+        for (int i = 0; i < len; i++) {
+            if (str.charAt(i) >= 0x80) {
+                buffer.put(str.getBytes(UTF_8));
+                return;
+            }
+        }
+        if (buffer.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+        for (int i = 0; i < len; i++) {
+            buffer.put((byte) str.charAt(i));
+        }
+    }
+
+    // Hand-rolled ltoa for non-negative values.
+    private static void putLong(ByteBuffer buffer, long value) {
+        int len = 1;
+        for (long l = value / 10; l > 0; l /= 10) {
+            len++;
+        }
+        if (buffer.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+        int pos = buffer.position();
+        long l = value;
+        for (int i = pos + len - 1; i >= pos; i--) {
+            buffer.put(i, digits[(int) (l % 10)]);
+            l /= 10;
+        }
+        buffer.position(pos + len);
+    }
+
+    // Buffers a SUB line for sub, writing out the buffer first if it is full. Assumes the lock is
+    // held.
+    private void bufferSubProto(SubscriptionImpl sub) throws IOException {
+        while (true) {
+            int pos = subProtoBuf.position();
+            try {
+                encodeSubProto(subProtoBuf, sub.getSubject(), sub.getQueue(), sub.getSid());
+                return;
+            } catch (BufferOverflowException e) {
+                subProtoBuf.position(pos);
+                makeSubProtoRoom();
+            }
+        }
+    }
+
+    // Buffers an UNSUB line, writing out the buffer first if it is full. Assumes the lock is held.
+    private void bufferUnsubProto(long sid, long max) throws IOException {
+        while (true) {
+            int pos = subProtoBuf.position();
+            try {
+                encodeUnsubProto(subProtoBuf, sid, max);
+                return;
+            } catch (BufferOverflowException e) {
+                subProtoBuf.position(pos);
+                makeSubProtoRoom();
+            }
+        }
+    }
+
+    private void makeSubProtoRoom() throws IOException {
+        if (subProtoBuf.position() > 0) {
+            writeSubProtoBuf();
+        } else {
+            // A single line larger than the buffer, e.g. a huge subject.
+            subProtoBuf = ByteBuffer.allocate(subProtoBuf.capacity() * 2);
+        }
+    }
+
+    // Writes out the buffered SUB and UNSUB lines. Assumes the lock is held.
+    private void writeSubProtoBuf() throws IOException {
+        if (subProtoBuf.position() > 0) {
+            try {
+                bw.write(subProtoBuf.array(), 0, subProtoBuf.position());
+            } finally {
+                subProtoBuf.clear();
+            }
+        }
     }
 
     void unsubscribe(SubscriptionImpl sub, int max) throws IOException {
@@ -1634,7 +2490,7 @@ class ConnectionImpl implements Connection {
     // unsubscribe performs the low level unsubscribe to the server.
     // Use SubscriptionImpl.unsubscribe()
     protected void unsubscribe(SubscriptionImpl sub, long max) throws IOException {
-        mu.lock();
+        mu.lock(ConnectionLock.Site.UNSUBSCRIBE);
         try {
             if (isClosed()) {
                 throw new IllegalStateException(ERR_CONNECTION_CLOSED);
@@ -1671,10 +2527,29 @@ class ConnectionImpl implements Connection {
         }
     }
 
+    // Flushes what publish calls have buffered, counting the flush. The lock must be held.
+    private void flushBuffered(OutputStream bw) throws IOException {
+        flushOut(bw);
+        stats.incrementFlushes();
+    }
+
+    // Flushes bw, reporting the flush to the metrics recorder and the Flight Recorder. The lock
+    // must be held.
+    private void flushOut(OutputStream bw) throws IOException {
+        Object event = NatsEvents.beginFlush();
+        long start = metricsEnabled ? System.nanoTime() : 0L;
+        bw.flush();
+        if (metricsEnabled) {
+            metrics.recordFlush(unflushedBytes, System.nanoTime() - start);
+        }
+        NatsEvents.endFlush(event, unflushedBytes);
+        unflushedBytes = 0;
+    }
+
     // This is the loop of the flusher thread
     protected void flusher() throws InterruptedException {
         // snapshot the bw and conn since they can change from underneath of us.
-        mu.lockInterruptibly();
+        mu.lockInterruptibly(ConnectionLock.Site.FLUSHER);
         final OutputStream bw = this.bw;
         final TcpConnection conn = this.conn;
         final BlockingQueue<Boolean> fch = this.fch;
@@ -1685,14 +2560,13 @@ class ConnectionImpl implements Connection {
         }
 
         while (fch.take()) {
-            mu.lockInterruptibly();
+            mu.lockInterruptibly(ConnectionLock.Site.FLUSHER);
             try {
                 // Check to see if we should bail out.
                 if (!connected() || connecting() || bw != this.bw || conn != this.conn) {
                     return;
                 }
-                bw.flush();
-                stats.incrementFlushes();
+                flushBuffered(bw);
             } catch (IOException e) {
                 this.setLastError(e);
             } finally {
@@ -1709,32 +2583,53 @@ class ConnectionImpl implements Connection {
      */
     @Override
     public void flush(int timeout) throws IOException, InterruptedException {
+        awaitFlush(timeout);
+    }
+
+    // Flushes and returns the completed waiter, which holds the round trip time of its PING.
+    private FlushWaiter awaitFlush(int timeout) throws IOException, InterruptedException {
         if (timeout <= 0) {
             throw new IllegalArgumentException(ERR_BAD_TIMEOUT);
         }
 
-        BlockingQueue<Boolean> ch = null;
-        mu.lockInterruptibly();
+        FlushWaiter waiter = new FlushWaiter();
+        mu.lockInterruptibly(ConnectionLock.Site.FLUSH);
         try {
             if (closed()) {
                 throw new IllegalStateException(ERR_CONNECTION_CLOSED);
             }
 
-            ch = createBooleanChannel(1);
-            sendPing(ch);
+            if (flushPingOut) {
+                // The outstanding PING went out before our data, so wait on the next one.
+                if (nextFlush == null) {
+                    nextFlush = new ArrayList<FlushWaiter>();
+                }
+                nextFlush.add(waiter);
+            } else {
+                List<FlushWaiter> waiters = new ArrayList<FlushWaiter>(1);
+                waiters.add(waiter);
+                sendPing(waiters);
+            }
         } finally {
             mu.unlock();
         }
+        // Outside the lock, which the waiter's timeout does not need.
+        waiter.setTimeout(newTimeout(waiter, timeout, TimeUnit.MILLISECONDS));
 
-        Boolean rv = ch.poll(timeout, TimeUnit.MILLISECONDS);
-        if (rv == null) {
-            this.removeFlushEntry(ch);
+        int result;
+        try {
+            result = waiter.await();
+        } catch (InterruptedException e) {
+            // Leave it in its batch, it will be skipped.
+            waiter.complete(FlushWaiter.FAILED);
+            throw e;
+        }
+        if (result == FlushWaiter.TIMED_OUT) {
             throw new IOException(ERR_TIMEOUT);
-        } else if (rv) {
-            ch.clear();
-        } else {
+        } else if (result != FlushWaiter.DONE) {
             throw new IllegalStateException(ERR_CONNECTION_CLOSED);
         }
+        return waiter;
     }
 
 
@@ -1746,12 +2641,25 @@ class ConnectionImpl implements Connection {
         flush(60000);
     }
 
+    @Override
+    public long rtt(int timeout) throws IOException, InterruptedException {
+        // Timed from when the PING went out rather than from the call, which may have waited for
+        // an earlier flush's PONG before its own PING was sent.
+        return awaitFlush(timeout).getRtt();
+    }
+
+    @Override
+    public long rtt() throws IOException, InterruptedException {
+        return rtt(60000);
+    }
+
     // resendSubscriptions will send our subscription state back to the
-    // server. Used in reconnects
+    // server. Used in reconnects. All lines are encoded into one buffer and written out in large
+    // chunks.
     void resendSubscriptions() {
-        long adjustedMax = 0L;
         for (Map.Entry<Long, SubscriptionImpl> entry : subs.entrySet()) {
             SubscriptionImpl sub = entry.getValue();
+            long adjustedMax = 0L;
 
             sub.lock();
             try {
@@ -1775,16 +2683,21 @@ class ConnectionImpl implements Connection {
                 sub.unlock();
             }
 
-            sendSubscriptionMessage(sub);
-            if (adjustedMax > 0) {
-                try {
+            try {
+                bufferSubProto(sub);
+                if (adjustedMax > 0) {
                     // cannot call unsubscribe here. Need to just send proto
-                    writeUnsubProto(sub, adjustedMax);
-                } catch (Exception e) {
-                    // Ignore
+                    bufferUnsubProto(sub.getSid(), adjustedMax);
                 }
+            } catch (IOException e) {
+                // Ignore
             }
         }
+        try {
+            writeSubProtoBuf();
+        } catch (IOException e) {
+            // Ignore
+        }
     }
 
     /**
@@ -1799,7 +2712,7 @@ class ConnectionImpl implements Connection {
     SubscriptionImpl subscribe(String subject, String queue, MessageHandler cb,
                                BlockingQueue<Message> ch) {
         final SubscriptionImpl sub;
-        mu.lock();
+        mu.lock(ConnectionLock.Site.SUBSCRIBE);
         try {
             // Check for some error conditions.
             if (closed()) {
@@ -1844,6 +2757,100 @@ class ConnectionImpl implements Connection {
         }
     }
 
+    @Override
+    public List<AsyncSubscription> subscribeAll(Collection<String> subjects, MessageHandler cb) {
+        try {
+            return subscribeAll(subjects, null, cb, 0);
+        } catch (IOException | InterruptedException e) {
+            // Not reached, there is no flush without a timeout.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public List<AsyncSubscription> subscribeAll(Collection<String> subjects, String queue,
+                                                MessageHandler cb, int flushTimeout)
+            throws IOException, InterruptedException {
+        if (cb == null) {
+            throw new IllegalArgumentException(ERR_BAD_SUBSCRIPTION);
+        }
+        List<AsyncSubscription> result = new ArrayList<AsyncSubscription>(subjects.size());
+        mu.lock(ConnectionLock.Site.SUBSCRIBE);
+        try {
+            if (closed()) {
+                throw new IllegalStateException(ERR_CONNECTION_CLOSED);
+            }
+
+            SubscriptionDispatcher dispatcher = new SubscriptionDispatcher();
+            for (String subject : subjects) {
+                AsyncSubscriptionImpl sub = new AsyncSubscriptionImpl(this, subject, queue, cb);
+                sub.dispatcher = dispatcher;
+                dispatcher.live++;
+                addSubscription(sub);
+                result.add(sub);
+                if (!reconnecting()) {
+                    try {
+                        bufferSubProto(sub);
+                    } catch (IOException e) {
+                        // Ignore, as in sendSubscriptionMessage
+                    }
+                }
+            }
+            if (!reconnecting()) {
+                try {
+                    writeSubProtoBuf();
+                } catch (IOException e) {
+                    // Ignore, as in sendSubscriptionMessage
+                }
+            }
+            if (dispatcher.live > 0) {
+                subexec.submit(dispatcher);
+            }
+
+            kickFlusher();
+        } finally {
+            mu.unlock();
+        }
+
+        if (flushTimeout > 0) {
+            flush(flushTimeout);
+        }
+        return result;
+    }
+
+    @Override
+    public void unsubscribeAll(Collection<? extends Subscription> subscriptions)
+            throws IOException {
+        mu.lock(ConnectionLock.Site.UNSUBSCRIBE);
+        try {
+            if (isClosed()) {
+                throw new IllegalStateException(ERR_CONNECTION_CLOSED);
+            }
+
+            for (Subscription subscription : subscriptions) {
+                if (!(subscription instanceof SubscriptionImpl)) {
+                    throw new IllegalArgumentException(ERR_BAD_SUBSCRIPTION);
+                }
+                SubscriptionImpl sub = subs.get(((SubscriptionImpl) subscription).getSid());
+                // already unsubscribed
+                if (sub == null) {
+                    continue;
+                }
+                removeSub(sub);
+                if (!reconnecting()) {
+                    bufferUnsubProto(sub.getSid(), 0);
+                }
+            }
+            if (!reconnecting()) {
+                writeSubProtoBuf();
+            }
+
+            kickFlusher();
+        } finally {
+            mu.unlock();
+        }
+    }
+
     @Override
     public SyncSubscription subscribe(String subject) {
         return subscribeSync(subject, null);
@@ -1877,6 +2884,9 @@ class ConnectionImpl implements Connection {
     }
 
     private void addSubscription(SubscriptionImpl sub) {
+        if (opts.isTrackSubscriptionLatency()) {
+            sub.trackLatency();
+        }
         sub.setSid(sidCounter.incrementAndGet());
         subs.put(sub.getSid(), sub);
     }
@@ -1894,14 +2904,14 @@ class ConnectionImpl implements Connection {
     }
 
     // Use low level primitives to build the protocol for the publish
-    // message.
+    // message into buffer, after the "PUB " prefix already there.
     void writePublishProto(ByteBuffer buffer, byte[] subject, byte[] reply, int msgSize) {
-        pubProtoBuf.put(subject, 0, subject.length);
+        buffer.put(subject, 0, subject.length);
         if (reply != null) {
-            pubProtoBuf.put((byte) ' ');
-            pubProtoBuf.put(reply, 0, reply.length);
+            buffer.put((byte) ' ');
+            buffer.put(reply, 0, reply.length);
         }
-        pubProtoBuf.put((byte) ' ');
+        buffer.put((byte) ' ');
 
         byte[] bytes = new byte[12];
         int idx = bytes.length;
@@ -1914,8 +2924,8 @@ class ConnectionImpl implements Connection {
             idx -= 1;
             bytes[idx] = digits[0];
         }
-        pubProtoBuf.put(bytes, idx, bytes.length - idx);
-        pubProtoBuf.put(crlfProtoBytes, 0, crlfProtoBytesLen);
+        buffer.put(bytes, idx, bytes.length - idx);
+        buffer.put(crlfProtoBytes, 0, crlfProtoBytesLen);
     }
 
     // Used for handrolled itoa
@@ -1925,7 +2935,8 @@ class ConnectionImpl implements Connection {
     // OutputStream and kicking the flush go routine. These writes should be protected.
     void publish(byte[] subject, byte[] reply, byte[] data, boolean forceFlush) throws IOException {
         int msgSize = (data != null) ? data.length : 0;
-        mu.lock();
+        long start = metricsEnabled ? System.nanoTime() : 0L;
+        mu.lock(ConnectionLock.Site.PUBLISH);
         try {
             // Proactively reject payloads over the threshold set by server.
             if (msgSize > info.getMaxPayload()) {
@@ -1967,7 +2978,8 @@ class ConnectionImpl implements Connection {
             }
 
             try {
-                bw.write(pubProtoBuf.array(), 0, pubProtoBuf.position());
+                int protoLen = pubProtoBuf.position();
+                bw.write(pubProtoBuf.array(), 0, protoLen);
                 pubProtoBuf.position(pubPrimBytesLen);
 
                 if (msgSize > 0) {
@@ -1975,6 +2987,7 @@ class ConnectionImpl implements Connection {
                 }
 
                 bw.write(crlfProtoBytes, 0, crlfProtoBytesLen);
+                unflushedBytes += protoLen + msgSize + crlfProtoBytesLen;
             } catch (IOException e) {
                 setLastError(e);
                 return;
@@ -1985,8 +2998,7 @@ class ConnectionImpl implements Connection {
 
             if (forceFlush) {
                 try {
-                    bw.flush();
-                    stats.incrementFlushes();
+                    flushBuffered(bw);
                 } catch (IOException e) {
                     // Ignore
                 }
@@ -1998,6 +3010,9 @@ class ConnectionImpl implements Connection {
             }
         } finally {
             mu.unlock();
+            if (metricsEnabled) {
+                metrics.recordPublish(System.nanoTime() - start);
+            }
         }
     }
 
@@ -2042,35 +3057,280 @@ class ConnectionImpl implements Connection {
         if (opts.useOldRequestStyle) {
             return oldRequest(subject, data, timeout, unit);
         }
+        if (opts.coalesceRequests) {
+            return coalescedRequest(subject, data, timeout, unit);
+        }
 
-        // Make sure scoped subscription is setup at least once on first call to request().
-        // Will handle duplicates in createRespMux.
-        createRespMux();
-
-        // Create literal Inbox and map to a queue.
-        BlockingQueue<Message> queue = new ArrayBlockingQueue<>(1);
-        String respInbox = newRespInbox();
-        String token = respToken(respInbox);
-        respMap.put(token, queue);
-
-        publish(subject, respInbox, data);
-        Message response;
-        if (timeout < 0) {
-            response = queue.take();
-        } else {
-            response = queue.poll(timeout, unit);
-            if (response == null) {
-                // Timed out, cleanup queue.
-                respMap.remove(token);
-            }
+        ResponseFuture future = newRequest(subject, data, timeout, unit);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
         }
-        return response;
     }
 
-    @Override
-    public Message request(String subject, byte[] data, long timeout)
+    // Publishes a request, unless an identical one is already in flight, in which case this waits
+    // for that request's response instead. Successful responses are cached for the configured TTL.
+    private Message coalescedRequest(String subject, byte[] data, long timeout, TimeUnit unit)
             throws IOException, InterruptedException {
-        return request(subject, data, timeout, TimeUnit.MILLISECONDS);
+        RequestKey key = new RequestKey(subject, data);
+        long ttl = opts.requestCacheTtl;
+        if (ttl > 0) {
+            CachedResponse cached = respCache.get(key);
+            if (cached != null && cached.expiry - System.nanoTime() > 0) {
+                return cached.msg;
+            }
+        }
+
+        long deadline = (timeout < 0) ? 0L : System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            long remaining = (timeout < 0) ? -1L : Math.max(deadline - System.nanoTime(), 0L);
+            ResponseFuture future = inflight.get(key);
+            if (future == null) {
+                // Register the pending response before publishing, so that at most one of several
+                // racing callers sends the request.
+                createRespMux();
+                String respInbox = newRespInbox();
+                ResponseFuture created = new ResponseFuture(respToken(respInbox));
+                future = inflight.putIfAbsent(key, created);
+                if (future == null) {
+                    try {
+                        sendRequest(subject, respInbox, data, created, remaining,
+                                TimeUnit.NANOSECONDS);
+                        // Not cancelled on interrupt, other callers may be waiting on it.
+                        Message msg = created.get();
+                        if (msg != null && ttl > 0) {
+                            cacheResponse(key, msg, ttl);
+                        }
+                        return msg;
+                    } finally {
+                        inflight.remove(key, created);
+                    }
+                }
+            }
+
+            // Join the request in flight, but wait no longer than our own timeout.
+            Message msg;
+            if (timeout < 0) {
+                msg = future.get();
+            } else {
+                try {
+                    msg = future.get(remaining, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    stats.incrementTimeouts();
+                    return null;
+                }
+            }
+            if (msg != null || closed()) {
+                return msg;
+            }
+            // The request we joined expired on a shorter timeout than ours; send it again, or
+            // join whoever did, for the rest of our own. Its caller may not have removed it yet,
+            // so remove it here rather than find it again and spin until it is gone.
+            inflight.remove(key, future);
+            if (timeout >= 0 && deadline - System.nanoTime() <= 0) {
+                stats.incrementTimeouts();
+                return null;
+            }
+        }
+    }
+
+    private void cacheResponse(final RequestKey key, Message msg, long ttl) {
+        final CachedResponse cached = new CachedResponse(msg,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl));
+        respCache.put(key, cached);
+        newTimeout(new Runnable() {
+            public void run() {
+                respCache.remove(key, cached);
+            }
+        }, ttl, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Future<Message> requestAsync(String subject, byte[] data, long timeout, TimeUnit unit)
+            throws IOException {
+        return newRequest(subject, data, timeout, unit);
+    }
+
+    // Publishes a new style request and returns its pending response. If timeout is negative, the
+    // request waits for a response until the connection is closed.
+    private ResponseFuture newRequest(String subject, byte[] data, long timeout, TimeUnit unit)
+            throws IOException {
+        // Make sure scoped subscription is setup at least once on first call to request().
+        // Will handle duplicates in createRespMux.
+        createRespMux();
+
+        // Create literal Inbox and map to a pending response.
+        String respInbox = newRespInbox();
+        ResponseFuture future = new ResponseFuture(respToken(respInbox));
+        sendRequest(subject, respInbox, data, future, timeout, unit);
+        return future;
+    }
+
+    @Override
+    public List<Message> requestMany(String subject, byte[] data, int maxResponses, long timeout,
+                                     TimeUnit unit) throws IOException, InterruptedException {
+        return requestMany(subject, data, maxResponses, timeout, 0L, unit);
+    }
+
+    @Override
+    public List<Message> requestMany(String subject, byte[] data, int maxResponses, long timeout,
+                                     long quietPeriod, TimeUnit unit)
+            throws IOException, InterruptedException {
+        final List<Message> responses = Collections.synchronizedList(new ArrayList<Message>());
+        ResponseGatherer gatherer = (ResponseGatherer) requestMany(subject, data, maxResponses,
+                timeout, quietPeriod, unit, new MessageHandler() {
+                    public void onMessage(Message msg) {
+                        responses.add(msg);
+                    }
+                });
+        try {
+            gatherer.get();
+        } catch (InterruptedException e) {
+            gatherer.cancel(false);
+            throw e;
+        }
+        synchronized (responses) {
+            return new ArrayList<Message>(responses);
+        }
+    }
+
+    @Override
+    public Future<Integer> requestMany(String subject, byte[] data, int maxResponses, long timeout,
+                                       long quietPeriod, TimeUnit unit, MessageHandler handler)
+            throws IOException {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException(ERR_BAD_TIMEOUT);
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("nats: handler cannot be null");
+        }
+
+        // All responses arrive on the shared response subscription, like single requests.
+        createRespMux();
+
+        String respInbox = newRespInbox();
+        ResponseGatherer gatherer = new ResponseGatherer(respToken(respInbox), handler,
+                maxResponses, unit.toNanos(Math.max(quietPeriod, 0L)));
+        sendRequest(subject, respInbox, data, gatherer, timeout, unit);
+        return gatherer;
+    }
+
+    // Registers a pending request under its token, schedules its deadline and publishes it.
+    private void sendRequest(final String subject, final String respInbox, final byte[] data,
+                             final PendingRequest request, long timeout, TimeUnit unit)
+            throws IOException {
+        request.startNanos = System.nanoTime();
+        try {
+            respMap.put(request.token, request);
+
+            long timeoutNanos = (timeout < 0) ? -1L : unit.toNanos(timeout);
+            if (request instanceof ResponseFuture && isTrackRequestLatency()) {
+                RequestLatency latency = requestLatency(subject);
+                ((ResponseFuture) request).latency = latency;
+                if (latency != null) {
+                    long p99 = latency.getP99();
+                    if (opts.adaptiveTimeoutMultiplier > 0 && p99 > 0) {
+                        long adaptive = Math.max((long) (p99 * opts.adaptiveTimeoutMultiplier),
+                                MIN_ADAPTIVE_TIMEOUT_NANOS);
+                        if (timeoutNanos < 0 || adaptive < timeoutNanos) {
+                            timeoutNanos = adaptive;
+                        }
+                    }
+                    long delay = latency.getHedgeDelay();
+                    if (opts.hedgePercentile > 0 && delay > 0) {
+                        if (timeoutNanos < 0 || delay < timeoutNanos) {
+                            // Publish a second copy to the same inbox, the first response wins.
+                            // The publish may block on the connection's lock, so it is handed off
+                            // rather than run on the timer tick.
+                            final Runnable hedge = new Runnable() {
+                                public void run() {
+                                    if (respMap.get(request.token) != request) {
+                                        return;
+                                    }
+                                    try {
+                                        publish(subject, respInbox, data);
+                                    } catch (IOException | RuntimeException e) {
+                                        // Ignore, the original request is still pending.
+                                    }
+                                }
+                            };
+                            request.hedge = newTimeout(new Runnable() {
+                                public void run() {
+                                    try {
+                                        exec.execute(hedge);
+                                    } catch (RejectedExecutionException e) {
+                                        // Closed
+                                    }
+                                }
+                            }, delay, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                }
+            }
+
+            // Schedule the deadline on the wheel rather than leaving it to the waiter, so that
+            // abandoned and asynchronous requests are cleaned up as well.
+            if (timeoutNanos >= 0) {
+                request.timeoutNanos = timeoutNanos;
+                request.timeout = newTimeout(new Runnable() {
+                    public void run() {
+                        request.finish(true);
+                    }
+                }, timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+
+            publish(subject, respInbox, data);
+        } catch (IOException | RuntimeException e) {
+            // Also reached when the connection is closed before the deadline is armed.
+            request.remove();
+            throw e;
+        }
+    }
+
+    private boolean isTrackRequestLatency() {
+        return opts.trackRequestLatency || opts.hedgePercentile > 0
+                || opts.adaptiveTimeoutMultiplier > 0;
+    }
+
+    // Returns the latency of subject, or null if MAX_LATENCY_SUBJECTS other subjects are tracked
+    private RequestLatency requestLatency(String subject) {
+        RequestLatency latency = reqLatency.get(subject);
+        if (latency == null) {
+            if (reqLatency.size() >= MAX_LATENCY_SUBJECTS) {
+                return null;
+            }
+            RequestLatency created = new RequestLatency(
+                    opts.hedgePercentile > 0 || opts.adaptiveTimeoutMultiplier > 0,
+                    opts.hedgePercentile);
+            latency = reqLatency.putIfAbsent(subject, created);
+            if (latency == null) {
+                latency = created;
+            }
+        }
+        return latency;
+    }
+
+    @Override
+    public Histogram getRequestLatency(String subject) {
+        RequestLatency latency = reqLatency.get(subject);
+        return (latency == null) ? null : latency.snapshot();
+    }
+
+    @Override
+    public Map<String, Histogram> getRequestLatencies() {
+        Map<String, Histogram> result = new HashMap<String, Histogram>();
+        for (Map.Entry<String, RequestLatency> entry : reqLatency.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return result;
+    }
+
+    @Override
+    public Message request(String subject, byte[] data, long timeout)
+            throws IOException, InterruptedException {
+        return request(subject, data, timeout, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -2088,17 +3348,16 @@ class ConnectionImpl implements Connection {
 
         // _INBOX wildcard
         respSub = String.format("%s.*", newInbox());
+        respPrefix = Arrays.copyOf(respSub.getBytes(), RESP_INBOX_PREFIX_LEN);
         respMux = subscribe(respSub, new RespHandler());
         respMap = new ConcurrentHashMap<>();
     }
 
     // Creates a new literal response subject that will trigger the global subscription handler.
-    private String newRespInbox() {
+    String newRespInbox() {
         byte[] b = new byte[RESP_INBOX_PREFIX_LEN + NUID_SIZE];
-        byte[] respSubBytes = respSub.getBytes();
-        System.arraycopy(respSubBytes, 0, b, 0, RESP_INBOX_PREFIX_LEN);
-        byte[] nuid = NUID.nextGlobal().getBytes();
-        System.arraycopy(nuid, 0, b, RESP_INBOX_PREFIX_LEN, nuid.length);
+        System.arraycopy(respPrefix, 0, b, 0, RESP_INBOX_PREFIX_LEN);
+        NUID.local().next(b, RESP_INBOX_PREFIX_LEN);
         return new String(b);
     }
 
@@ -2107,8 +3366,8 @@ class ConnectionImpl implements Connection {
     }
 
     /**
-     * RespHandler is the global response handler. It will look up the appropriate queue based on the last token and
-     * place the message on the queue if possible.
+     * RespHandler is the global response handler. It will look up the appropriate pending request
+     * based on the last token and hand it the message, if possible.
      */
     private final class RespHandler implements MessageHandler {
         @Override
@@ -2120,18 +3379,361 @@ class ConnectionImpl implements Connection {
                 return;
             }
 
-            BlockingQueue<Message> queue = respMap.get(token);
-            if (queue == null) {
-                // No response queue, drop the message.
+            PendingRequest request = respMap.get(token);
+            if (request == null) {
+                // No pending request, drop the message.
+                return;
+            }
+            request.onResponse(msg);
+        }
+    }
+
+    // A response served to coalesced requests until it expires.
+    private static final class CachedResponse {
+        private final Message msg;
+        private final long expiry;
+
+        CachedResponse(Message msg, long expiry) {
+            this.msg = msg;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * PendingRequest is an entry in the response map. Responses for its token are passed to
+     * {@link #onResponse(Message)} until the request is finished, either by itself, by its
+     * deadline on the timer, or by the connection closing.
+     */
+    abstract class PendingRequest {
+        final String token;
+        long startNanos;
+        // The deadline armed on the timer, relative to startNanos, or -1 if none
+        long timeoutNanos = -1L;
+        volatile HashedWheelTimer.Timeout timeout;
+        volatile HashedWheelTimer.Timeout hedge;
+
+        PendingRequest(String token) {
+            this.token = token;
+        }
+
+        // Called from the response subscription for each response to this request.
+        abstract void onResponse(Message msg);
+
+        // Called exactly once, when the request is finished without being cancelled.
+        abstract void onFinish(boolean timedOut);
+
+        // Removes the request from the response map and cancels its deadline. Whoever removes the
+        // entry owns its completion, so this returns true for exactly one caller.
+        final boolean remove() {
+            if (respMap == null || !respMap.remove(token, this)) {
+                return false;
+            }
+            HashedWheelTimer.Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            HashedWheelTimer.Timeout hedge = this.hedge;
+            if (hedge != null) {
+                hedge.cancel();
+            }
+            return true;
+        }
+
+        final boolean finish(boolean timedOut) {
+            if (!remove()) {
+                return false;
+            }
+            onFinish(timedOut);
+            return true;
+        }
+    }
+
+    /**
+     * ResponseFuture is a pending new style request. It is completed by the RespHandler with the
+     * response, or with {@code null} when its deadline expires on the timer or the connection is
+     * closed.
+     */
+    final class ResponseFuture extends PendingRequest implements Future<Message> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile RequestLatency latency;
+        private Message response;
+        private boolean cancelled;
+
+        ResponseFuture(String token) {
+            super(token);
+        }
+
+        @Override
+        void onResponse(Message msg) {
+            // One response only.
+            if (remove()) {
+                RequestLatency latency = this.latency;
+                if (latency != null) {
+                    latency.record(System.nanoTime() - startNanos);
+                }
+                complete(msg, false);
+            }
+        }
+
+        @Override
+        void onFinish(boolean timedOut) {
+            if (timedOut) {
+                stats.incrementTimeouts();
+                // A timed out request took at least its deadline. Leaving it out would bias the
+                // histogram low, and adaptive timeouts derived from it would keep shrinking.
+                RequestLatency latency = this.latency;
+                if (latency != null) {
+                    latency.record(timeoutNanos);
+                }
+            }
+            complete(null, false);
+        }
+
+        private synchronized void complete(Message msg, boolean cancel) {
+            if (done.getCount() == 0) {
+                return;
+            }
+            response = msg;
+            cancelled = cancel;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!remove()) {
+                return false;
+            }
+            complete(null, true);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public Message get() throws InterruptedException {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public Message get(long timeout, TimeUnit unit)
+                throws InterruptedException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException(ERR_TIMEOUT);
+            }
+            return result();
+        }
+
+        private synchronized Message result() {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            return response;
+        }
+    }
+
+    /**
+     * ResponseGatherer is a pending scatter-gather request. Every response is passed to the
+     * handler until {@code maxResponses} have arrived, the quiet period passes without another
+     * response, or the deadline expires. The future completes with the number of responses
+     * delivered.
+     */
+    final class ResponseGatherer extends PendingRequest implements Future<Integer> {
+        private final MessageHandler handler;
+        private final int maxResponses;
+        private final long quietNanos;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final Runnable quietTask = new Runnable() {
+            public void run() {
+                finish(false);
+            }
+        };
+        private int count;
+        private boolean cancelled;
+        private HashedWheelTimer.Timeout quiet;
+
+        ResponseGatherer(String token, MessageHandler handler, int maxResponses,
+                         long quietNanos) {
+            super(token);
+            this.handler = handler;
+            this.maxResponses = maxResponses;
+            this.quietNanos = quietNanos;
+        }
+
+        @Override
+        void onResponse(Message msg) {
+            synchronized (this) {
+                if (done.getCount() == 0) {
+                    return;
+                }
+                count++;
+            }
+            try {
+                handler.onMessage(msg);
+            } catch (RuntimeException e) {
+                // Ignore, a failing handler must not take down the shared response subscription.
+            }
+            if (maxResponses > 0 && count >= maxResponses) {
+                finish(false);
+            } else if (quietNanos > 0) {
+                // Restart the quiet period. Both operations are O(1) on the wheel.
+                synchronized (this) {
+                    if (quiet != null) {
+                        quiet.cancel();
+                    }
+                    if (done.getCount() != 0) {
+                        quiet = newTimeout(quietTask, quietNanos, TimeUnit.NANOSECONDS);
+                    }
+                }
+            }
+        }
+
+        @Override
+        void onFinish(boolean timedOut) {
+            complete(false);
+        }
+
+        private synchronized void complete(boolean cancel) {
+            if (quiet != null) {
+                quiet.cancel();
+                quiet = null;
+            }
+            if (done.getCount() == 0) {
+                return;
+            }
+            cancelled = cancel;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!remove()) {
+                return false;
+            }
+            complete(true);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public Integer get() throws InterruptedException {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public Integer get(long timeout, TimeUnit unit)
+                throws InterruptedException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException(ERR_TIMEOUT);
+            }
+            return result();
+        }
+
+        private synchronized Integer result() {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            return count;
+        }
+    }
+
+    // Schedules a task on the connection's timer wheel, starting the tick task if it is idle.
+    // The timeout is added before ttmr is read, and stopIdleTimer() clears ttmr before it reads
+    // the pending count, so one of the two always sees the other and the wheel keeps ticking.
+    HashedWheelTimer.Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (closed()) {
+            throw new IllegalStateException(ERR_CONNECTION_CLOSED);
+        }
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(task, delay, unit);
+        if (ttmr == null) {
+            try {
+                startTimer();
+            } catch (IllegalStateException e) {
+                timeout.cancel();
+                throw e;
+            }
+        }
+        return timeout;
+    }
+
+    // Throws IllegalStateException once the connection is closed, since close() stops the timer
+    // and a timeout armed after that would never fire.
+    private void startTimer() {
+        synchronized (timerMu) {
+            if (closed()) {
+                throw new IllegalStateException(ERR_CONNECTION_CLOSED);
+            }
+            if (ttmr != null) {
+                return;
+            }
+            long tick = timer.getTickNanos();
+            try {
+                ttmr = exec.scheduleAtFixedRate(new Runnable() {
+                    public void run() {
+                        timer.tick();
+                        if (timer.pendingTimeouts() == 0) {
+                            stopIdleTimer();
+                        }
+                    }
+                }, tick, tick, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                throw new IllegalStateException(ERR_CONNECTION_CLOSED, e);
+            }
+        }
+    }
+
+    // Stops the tick task once the wheel is empty, so that an idle connection does not wake up
+    // every tick. newTimeout() starts it again.
+    private void stopIdleTimer() {
+        synchronized (timerMu) {
+            ScheduledFuture<?> tick = ttmr;
+            if (tick == null) {
+                return;
+            }
+            ttmr = null;
+            if (timer.pendingTimeouts() > 0) {
+                ttmr = tick;
                 return;
             }
+            tick.cancel(false);
+        }
+    }
 
-            // Delete the key regardless, one response only.
-            respMap.remove(token);
-            queue.offer(msg);
+    private void stopTimer() {
+        synchronized (timerMu) {
+            if (ttmr != null) {
+                ttmr.cancel(false);
+                ttmr = null;
+            }
+            if (timer != null) {
+                timer.stop();
+            }
         }
     }
 
+    // Whether the timer wheel's tick task is scheduled
+    boolean isTimerRunning() {
+        return ttmr != null;
+    }
+
     private Message oldRequest(String subject, byte[] data, long timeout, TimeUnit unit)
             throws IOException, InterruptedException {
         String inbox = newInbox();
@@ -2146,7 +3748,7 @@ class ConnectionImpl implements Connection {
 
     @Override
     public String newInbox() {
-        return String.format("%s%s", INBOX_PREFIX, NUID.nextGlobal());
+        return INBOX_PREFIX + NUID.local().next();
     }
 
     @Override
@@ -2168,11 +3770,9 @@ class ConnectionImpl implements Connection {
     void sendSubscriptionMessage(SubscriptionImpl sub) {
         // We will send these for all subs when we reconnect
         // so that we can suppress here.
-        String queue = sub.getQueue();
-        String subLine = String.format(SUB_PROTO, sub.getSubject(),
-                (queue != null && !queue.isEmpty()) ? " " + queue : "", sub.getSid());
         try {
-            bw.write(subLine.getBytes());
+            bufferSubProto(sub);
+            writeSubProtoBuf();
         } catch (IOException e) {
             // Ignore - FIXME:  This should be thrown
         }
@@ -2360,18 +3960,26 @@ class ConnectionImpl implements Connection {
     }
 
 
-    List<BlockingQueue<Boolean>> getPongs() {
-        return pongs;
+    List<FlushWaiter> getNextFlush() {
+        return nextFlush;
     }
 
-    void setPongs(List<BlockingQueue<Boolean>> pongs) {
-        this.pongs = pongs;
+    int getPingsOutstanding() {
+        return pings.size();
     }
 
     Map<Long, SubscriptionImpl> getSubs() {
         return subs;
     }
 
+    Map<String, PendingRequest> getRespMap() {
+        return respMap;
+    }
+
+    Map<RequestKey, ResponseFuture> getInflight() {
+        return inflight;
+    }
+
     void setSubs(Map<Long, SubscriptionImpl> subs) {
         this.subs = subs;
     }
@@ -2411,6 +4019,15 @@ class ConnectionImpl implements Connection {
         return this.conn;
     }
 
+    Standby getStandby() {
+        mu.lock();
+        try {
+            return standby;
+        } finally {
+            mu.unlock();
+        }
+    }
+
     void setTcpConnectionFactory(TcpConnectionFactory factory) {
         this.tcf = factory;
     }
@@ -2590,11 +4207,138 @@ class ConnectionImpl implements Connection {
         }
     }
 
+    // A handshaken session kept open to another server, see Options#isHotStandby()
+    final class Standby {
+        final Srv srv;
+        final TcpConnection conn;
+        // The INFO the server sent in the handshake
+        final String info;
+        private final StringBuilder partial = new StringBuilder();
+        private final byte[] readBuf = new byte[512];
+        // PINGs sent and not yet answered
+        private int pingsOut = 0;
+
+        Standby(Srv srv, TcpConnection conn, String info) {
+            this.srv = srv;
+            this.conn = conn;
+            this.info = info;
+        }
+
+        // Answers the server's PINGs and sends one of our own. Returns false once the server
+        // errors out, stops answering, or the socket fails. Lock is assumed held.
+        boolean keepAlive() {
+            try {
+                OutputStream out = conn.getOutputStream(DEFAULT_STREAM_BUF_SIZE);
+                if (!readArrived()) {
+                    return false;
+                }
+                if (pingsOut >= opts.getMaxPingsOut()) {
+                    return false;
+                }
+                pingsOut++;
+                out.write(pingProtoBytes, 0, pingProtoBytesLen);
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        // Reads until the server has answered every PING we sent and no line is half read, so the
+        // connection's parser starts on a protocol line and never takes a PONG meant for the
+        // standby as the answer to a flush. Returns false if that takes longer than the
+        // connection timeout. The standby must have been taken out of the connection, as it
+        // sleeps between reads and so is called without the lock.
+        boolean resync() throws InterruptedException {
+            long deadline =
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(opts.getConnectionTimeout());
+            try {
+                while (readArrived()) {
+                    if (pingsOut == 0 && partial.length() == 0) {
+                        return true;
+                    }
+                    if (System.nanoTime() - deadline > 0) {
+                        return false;
+                    }
+                    Thread.sleep(1);
+                }
+                return false;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        // Handles what the server has sent so far without waiting for more; the streams of a
+        // TcpConnection read what has arrived on the socket from available(). Returns false if
+        // the server errored out or closed the socket.
+        private boolean readArrived() throws IOException {
+            InputStream in = conn.getInputStream(DEFAULT_STREAM_BUF_SIZE);
+            OutputStream out = conn.getOutputStream(DEFAULT_STREAM_BUF_SIZE);
+            boolean pong = false;
+            int avail;
+            while ((avail = in.available()) > 0) {
+                int len = in.read(readBuf, 0, Math.min(readBuf.length, avail));
+                if (len < 0) {
+                    return false;
+                }
+                for (int i = 0; i < len; i++) {
+                    if (readBuf[i] != '\n') {
+                        partial.append((char) readBuf[i]);
+                        continue;
+                    }
+                    String line = partial.toString().trim();
+                    partial.setLength(0);
+                    if (_PING_OP_.equals(line)) {
+                        out.write(pongProtoBytes, 0, pongProtoBytesLen);
+                        pong = true;
+                    } else if (_PONG_OP_.equals(line)) {
+                        if (pingsOut > 0) {
+                            pingsOut--;
+                        }
+                    } else if (line.startsWith(_ERR_OP_)) {
+                        return false;
+                    }
+                }
+            }
+            if (pong) {
+                out.flush();
+            }
+            return true;
+        }
+
+        void close() {
+            conn.close();
+        }
+
+        public String toString() {
+            return String.format("{srv=%s, pingsOut=%d}", srv, pingsOut);
+        }
+    }
+
+    // A socket opened to a server by dialParallel
+    static final class Dial {
+        final Srv srv;
+        final TcpConnection conn;
+
+        Dial(Srv srv, TcpConnection conn) {
+            this.srv = srv;
+            this.conn = conn;
+        }
+    }
+
     static class Srv {
         URI url = null;
         int reconnects = 0;
         long lastAttemptNanos = 0L;
         boolean implicit = false;
+        // Set while connect() walks the pool, once the handshake with this server was attempted
+        boolean handshakeTried = false;
+        // Smoothed PING/PONG round trip time, 0 until measured, and when it was last measured
+        private volatile long rttNanos = 0L;
+        private volatile long rttMeasuredNanos = 0L;
+        // How long the last TCP connect took, 0 until dialed. About one round trip, but without
+        // the server's part in it, so it is kept apart from rttNanos.
+        private volatile long dialNanos = 0L;
 
         Srv(URI url, boolean implicit) {
             this.url = url;
@@ -2615,10 +4359,112 @@ class ConnectionImpl implements Connection {
             return (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastAttemptNanos));
         }
 
+        // Folds a round trip time measurement into the smoothed value, weighting the new sample
+        // by 1/8 as TCP does.
+        synchronized void recordRtt(long nanos) {
+            long sample = Math.max(nanos, 1L);
+            rttNanos = (rttNanos == 0L) ? sample : rttNanos + (sample - rttNanos) / 8;
+            rttMeasuredNanos = System.nanoTime();
+        }
+
+        // Returns the smoothed round trip time in nanoseconds, or 0 if not measured yet
+        long getRtt() {
+            return rttNanos;
+        }
+
+        // Returns the smoothed round trip time, or 0 if not measured within maxAgeNanos
+        long getRtt(long maxAgeNanos) {
+            long rtt = rttNanos;
+            if (rtt == 0L || System.nanoTime() - rttMeasuredNanos > maxAgeNanos) {
+                return 0L;
+            }
+            return rtt;
+        }
+
+        void recordDialTime(long nanos) {
+            dialNanos = Math.max(nanos, 1L);
+        }
+
+        // Returns how long the last TCP connect took in nanoseconds, or 0 if not dialed yet
+        long getDialTime() {
+            return dialNanos;
+        }
+
         public String toString() {
             return String.format(
-                    "{url=%s, reconnects=%d, timeSinceLastAttempt=%dms}",
-                    url.toString(), reconnects, timeSinceLastAttempt());
+                    "{url=%s, reconnects=%d, timeSinceLastAttempt=%dms, rtt=%dus, dial=%dus}",
+                    url.toString(), reconnects, timeSinceLastAttempt(),
+                    TimeUnit.NANOSECONDS.toMicros(rttNanos),
+                    TimeUnit.NANOSECONDS.toMicros(dialNanos));
+        }
+    }
+
+    // A PING awaiting its PONG.
+    static final class Ping {
+        final long sentNanos;
+        // The flush calls to complete on the PONG, or null for a periodic ping
+        final List<FlushWaiter> waiters;
+
+        Ping(long sentNanos, List<FlushWaiter> waiters) {
+            this.sentNanos = sentNanos;
+            this.waiters = waiters;
+        }
+    }
+
+    /*
+     * A flush call waiting for a PONG. It is completed exactly once: by the PONG, by its deadline
+     * on the timer wheel, or by the connection closing or reconnecting. A waiter that timed out
+     * simply stays in its batch and is skipped when the PONG arrives.
+     */
+    static final class FlushWaiter implements Runnable {
+        static final int PENDING = 0;
+        static final int DONE = 1;
+        static final int TIMED_OUT = 2;
+        static final int FAILED = 3;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile HashedWheelTimer.Timeout timeout;
+        // The round trip time of the PING that completed the waiter
+        private volatile long rttNanos = 0L;
+
+        boolean complete(int result) {
+            if (!state.compareAndSet(PENDING, result)) {
+                return false;
+            }
+            HashedWheelTimer.Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            done.countDown();
+            return true;
+        }
+
+        void setTimeout(HashedWheelTimer.Timeout timeout) {
+            this.timeout = timeout;
+            if (state.get() != PENDING) {
+                // Completed before the deadline was set
+                timeout.cancel();
+            }
+        }
+
+        // Expires the waiter, on the timer wheel.
+        @Override
+        public void run() {
+            complete(TIMED_OUT);
+        }
+
+        int await() throws InterruptedException {
+            done.await();
+            return state.get();
+        }
+
+        int getState() {
+            return state.get();
+        }
+
+        long getRtt() {
+            return rttNanos;
         }
     }
 
@@ -2628,7 +4474,8 @@ class ConnectionImpl implements Connection {
     class PingTimerTask extends TimerTask {
         public void run() {
             boolean stale = false;
-            mu.lock();
+            boolean migrate = false;
+            mu.lock(ConnectionLock.Site.PING);
             try {
                 if (!connected()) {
                     return;
@@ -2641,15 +4488,31 @@ class ConnectionImpl implements Connection {
                     return;
                 }
 
+                // Move to a much faster server, if there is one and no flush would fail
+                if (shouldMigrate() && !flushPending()) {
+                    lastMigrationNanos = System.nanoTime();
+                    migrate = true;
+                    return;
+                }
+
                 sendPing(null);
+
+                if (standby != null && !standby.keepAlive()) {
+                    standby.close();
+                    standby = null;
+                }
+                maintainStandby();
+                probeStaleServer();
             } finally {
                 mu.unlock();
-                if (stale) {
-                    try {
+                try {
+                    if (stale) {
                         processOpError(new IOException(ERR_STALE_CONNECTION));
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
+                    } else if (migrate) {
+                        migrate();
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }
         }
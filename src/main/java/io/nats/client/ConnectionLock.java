@@ -0,0 +1,216 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * The connection lock. An uncontended acquire is a plain tryLock(); a thread that has to wait
+ * reports the wait as an io.nats.client.LockWait Flight Recorder event, see NatsEvents.
+ *
+ * When contention is tracked, see Options#isTrackLockContention(), every outermost acquisition
+ * is attributed to a call site: lock(Site) names it, and lock() counts as Site.OTHER. The wait
+ * and the hold time are recorded per site in a LockStats. The holder's site and acquisition time
+ * are only ever touched by the thread holding the lock. The LockStats are also registered as
+ * MXBeans, see LockStatsMXBean.
+ */
+class ConnectionLock extends ReentrantLock {
+
+    private static final long serialVersionUID = 1L;
+
+    // Tells apart the MXBeans of connections with the same name
+    private static final AtomicLong nextId = new AtomicLong();
+    // Connection ids tried before giving up on registering the MXBeans
+    private static final int MAX_REGISTER_ATTEMPTS = 16;
+
+    enum Site {
+        PUBLISH("publish"),
+        FLUSHER("flusher"),
+        FLUSH("flush"),
+        PROCESS_MSG("processMsg"),
+        READ_LOOP("readLoop"),
+        DELIVER("deliver"),
+        SUBSCRIBE("subscribe"),
+        UNSUBSCRIBE("unsubscribe"),
+        PING("ping"),
+        OTHER("other");
+
+        private final String label;
+
+        Site(String label) {
+            this.label = label;
+        }
+
+        String label() {
+            return label;
+        }
+    }
+
+    // One per site, null unless contention is tracked
+    private final transient LockStats[] sites;
+    // Guarded by this lock.
+    private transient Site heldSite;
+    private transient long acquiredNanos;
+    // The names the sites are registered under, see registerMBeans().
+    private transient List<ObjectName> mbeans;
+
+    ConnectionLock() {
+        this(false);
+    }
+
+    ConnectionLock(boolean trackContention) {
+        if (trackContention) {
+            Site[] values = Site.values();
+            sites = new LockStats[values.length];
+            for (Site site : values) {
+                sites[site.ordinal()] = new LockStats(site.label());
+            }
+        } else {
+            sites = null;
+        }
+    }
+
+    boolean isTrackingContention() {
+        return sites != null;
+    }
+
+    // The statistics of each site by label, empty unless contention is tracked
+    Map<String, LockStats> getSiteStats() {
+        if (sites == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, LockStats> result = new LinkedHashMap<String, LockStats>();
+        for (LockStats stats : sites) {
+            result.put(stats.getSite(), stats);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    // Registers the statistics of each site with the platform MBean server, if contention is
+    // tracked, under the next connection id. An id that is already taken, say by a copy of this
+    // class in another class loader, is skipped for the next one. Other registration failures are
+    // ignored, the statistics remain available from Statistics#getLockStats().
+    void registerMBeans(String connection) {
+        if (sites == null || mbeans != null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (int i = 0; i < MAX_REGISTER_ATTEMPTS && mbeans == null; i++) {
+            mbeans = registerMBeans(server, connection, nextId.incrementAndGet());
+        }
+    }
+
+    // Registers every site under id. Returns the names registered, or null, having registered
+    // none, if the id is taken.
+    private List<ObjectName> registerMBeans(MBeanServer server, String connection, long id) {
+        List<ObjectName> names = new ArrayList<ObjectName>();
+        for (LockStats stats : sites) {
+            try {
+                ObjectName name = new ObjectName(String.format(
+                        "io.nats.client:type=ConnectionLock,connection=%s,id=%d,site=%s",
+                        ObjectName.quote(connection), id, stats.getSite()));
+                server.registerMBean(stats, name);
+                names.add(name);
+            } catch (InstanceAlreadyExistsException e) {
+                unregisterMBeans(server, names);
+                return null;
+            } catch (JMException e) {
+                // ignore
+            }
+        }
+        return names;
+    }
+
+    void unregisterMBeans() {
+        if (mbeans == null) {
+            return;
+        }
+        unregisterMBeans(ManagementFactory.getPlatformMBeanServer(), mbeans);
+        mbeans = null;
+    }
+
+    private static void unregisterMBeans(MBeanServer server, List<ObjectName> names) {
+        for (ObjectName name : names) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                // ignore
+            }
+        }
+    }
+
+    @Override
+    public void lock() {
+        lock(Site.OTHER);
+    }
+
+    void lock(Site site) {
+        if (tryLock()) {
+            acquired(site, false, 0L);
+            return;
+        }
+        Object event = NatsEvents.beginLockWait();
+        long start = sites != null ? System.nanoTime() : 0L;
+        super.lock();
+        NatsEvents.endLockWait(event);
+        acquired(site, true, start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        lockInterruptibly(Site.OTHER);
+    }
+
+    void lockInterruptibly(Site site) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (tryLock()) {
+            acquired(site, false, 0L);
+            return;
+        }
+        Object event = NatsEvents.beginLockWait();
+        long start = sites != null ? System.nanoTime() : 0L;
+        try {
+            super.lockInterruptibly();
+        } finally {
+            NatsEvents.endLockWait(event);
+        }
+        acquired(site, true, start);
+    }
+
+    // Records an acquisition, after a wait that began at start if waited.
+    private void acquired(Site site, boolean waited, long start) {
+        if (sites == null || getHoldCount() > 1) {
+            return;
+        }
+        long now = System.nanoTime();
+        sites[site.ordinal()].acquired(waited, waited ? now - start : 0L);
+        heldSite = site;
+        acquiredNanos = now;
+    }
+
+    @Override
+    public void unlock() {
+        if (heldSite != null && getHoldCount() == 1 && isHeldByCurrentThread()) {
+            sites[heldSite.ordinal()].released(System.nanoTime() - acquiredNanos);
+            heldSite = null;
+        }
+        super.unlock();
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A hashed wheel timer used for request and flush deadlines.
+ *
+ * <p>Timeouts are hashed into a fixed ring of buckets by their expiry tick, so scheduling and
+ * cancelling are O(1) no matter how many timeouts are outstanding. The wheel does not own a
+ * thread; the owner is expected to call {@link #tick()} roughly once per tick duration. Expiry
+ * precision is therefore one tick, which is plenty for request timeouts.
+ */
+final class HashedWheelTimer {
+
+    static final long DEFAULT_TICK_MILLIS = 10L;
+    static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final Lock mu = new ReentrantLock();
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final long startNanos;
+
+    // The next tick to be processed. Guarded by mu.
+    private long tick;
+    // Number of scheduled, not yet expired or cancelled timeouts. Guarded by mu.
+    private int pending;
+
+    HashedWheelTimer() {
+        this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("nats: tick duration must be greater than 0");
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("nats: wheel size out of range: " + wheelSize);
+        }
+        // Round up to a power of two so that the bucket index is a simple mask.
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Schedules {@code task} to run once, after at least {@code delay} has elapsed. The task runs
+     * on the thread calling {@link #tick()}, so it must be short and must not block.
+     *
+     * @param task  the task to run on expiry
+     * @param delay the delay
+     * @param unit  the unit of {@code delay}
+     * @return a handle that can be used to cancel the timeout
+     */
+    Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new NullPointerException("nats: timer task cannot be null");
+        }
+        long deadline = System.nanoTime() - startNanos + unit.toNanos(Math.max(delay, 0L));
+        Timeout timeout = new Timeout(task, deadline);
+        mu.lock();
+        try {
+            // Round up so that a timeout never fires before its deadline.
+            long expiryTick = Math.max((deadline + tickNanos - 1) / tickNanos, tick);
+            timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+            timeout.bucket = wheel[(int) (expiryTick & mask)];
+            timeout.bucket.add(timeout);
+            pending++;
+        } finally {
+            mu.unlock();
+        }
+        return timeout;
+    }
+
+    /**
+     * Advances the wheel up to the current time, running every task whose deadline has passed.
+     *
+     * @return the number of timeouts that expired
+     */
+    int tick() {
+        List<Timeout> expired = null;
+        mu.lock();
+        try {
+            long now = System.nanoTime() - startNanos;
+            long target = now / tickNanos;
+            while (tick <= target) {
+                Bucket bucket = wheel[(int) (tick & mask)];
+                Timeout timeout = bucket.head;
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.remainingRounds <= 0) {
+                        bucket.remove(timeout);
+                        timeout.state = EXPIRED;
+                        pending--;
+                        if (expired == null) {
+                            expired = new ArrayList<Timeout>();
+                        }
+                        expired.add(timeout);
+                    } else {
+                        timeout.remainingRounds--;
+                    }
+                    timeout = next;
+                }
+                tick++;
+            }
+        } finally {
+            mu.unlock();
+        }
+
+        if (expired == null) {
+            return 0;
+        }
+        // Run the tasks outside of the lock so they are free to schedule or cancel timeouts.
+        for (Timeout timeout : expired) {
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                // Ignore, a failing task must not stop the wheel.
+            }
+        }
+        return expired.size();
+    }
+
+    /**
+     * Cancels every outstanding timeout without running its task.
+     *
+     * @return the number of timeouts that were cancelled
+     */
+    int stop() {
+        mu.lock();
+        try {
+            int cancelled = pending;
+            for (Bucket bucket : wheel) {
+                Timeout timeout = bucket.head;
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    bucket.remove(timeout);
+                    timeout.state = CANCELLED;
+                    timeout = next;
+                }
+            }
+            pending = 0;
+            return cancelled;
+        } finally {
+            mu.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of scheduled timeouts that have neither expired nor been cancelled.
+     *
+     * @return the number of pending timeouts
+     */
+    int pendingTimeouts() {
+        mu.lock();
+        try {
+            return pending;
+        } finally {
+            mu.unlock();
+        }
+    }
+
+    long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * A handle for a task scheduled on a {@link HashedWheelTimer}.
+     */
+    final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state = PENDING;
+        // The following are guarded by the timer's lock.
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels this timeout if it has not expired yet.
+         *
+         * @return {@code true} if the timeout was cancelled by this call
+         */
+        boolean cancel() {
+            mu.lock();
+            try {
+                if (state != PENDING) {
+                    return false;
+                }
+                bucket.remove(this);
+                state = CANCELLED;
+                pending--;
+                return true;
+            } finally {
+                mu.unlock();
+            }
+        }
+
+        boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        public String toString() {
+            return String.format("{deadline=%dns, state=%d}", deadline, state);
+        }
+    }
+
+    // A doubly-linked list of timeouts, giving O(1) add and remove.
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            if (head == null) {
+                head = timeout;
+                tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent, fixed-size histogram of non-negative {@code long} values, typically latencies in
+ * nanoseconds.
+ *
+ * <p>Values are counted in log-linear buckets: every power of two is split into 16 linear
+ * sub-buckets, so any recorded value is reported within about 6% of its true value, across the
+ * full {@code long} range. Recording is lock-free and does not allocate.
+ *
+ * <p>The count and sum, which every recording updates, are striped across threads. The buckets
+ * are not, so threads recording similar values at the same time still contend on the same bucket
+ * counter, as they do on the minimum and maximum while those move. Where that matters, give each
+ * thread its own histogram and {@link #add(Histogram) add} them up when reading. A histogram
+ * takes about 8KB for its buckets, plus up to 8KB for the stripes on machines with 64 or more
+ * processors.
+ */
+public class Histogram {
+
+    // 16 sub-buckets per power of two.
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts;
+    // Striped, as every recording thread updates these
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter sum = new StripedCounter();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates an empty histogram.
+     */
+    public Histogram() {
+        this.counts = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    // copy constructor
+    Histogram(Histogram other) {
+        this();
+        add(other);
+    }
+
+    static int bucketIndex(long value) {
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = Math.max(0, msb - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    // The highest value counted in the bucket at index.
+    static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long sub = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        long val = Math.max(value, 0L);
+        counts.incrementAndGet(bucketIndex(val));
+        count.increment();
+        sum.add(val);
+        long cur;
+        while (val < (cur = min.get()) && !min.compareAndSet(cur, val)) {
+            // retry
+        }
+        while (val > (cur = max.get()) && !max.compareAndSet(cur, val)) {
+            // retry
+        }
+    }
+
+    /**
+     * Records an elapsed time as nanoseconds.
+     *
+     * @param duration the elapsed time
+     * @param unit     the time unit of {@code duration}
+     */
+    public void record(long duration, TimeUnit unit) {
+        record(unit.toNanos(duration));
+    }
+
+    /**
+     * Adds every value recorded in {@code other} to this histogram.
+     *
+     * @param other the histogram to add
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucket = other.counts.get(i);
+            if (bucket != 0) {
+                counts.addAndGet(i, bucket);
+            }
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        long cur;
+        long val = other.min.get();
+        while (val < (cur = min.get()) && !min.compareAndSet(cur, val)) {
+            // retry
+        }
+        val = other.max.get();
+        while (val > (cur = max.get()) && !max.compareAndSet(cur, val)) {
+            // retry
+        }
+    }
+
+    /**
+     * Returns a copy of this histogram. Values recorded concurrently with the copy may or may not
+     * be included.
+     *
+     * @return a copy of this histogram
+     */
+    public Histogram snapshot() {
+        return new Histogram(this);
+    }
+
+    /**
+     * Discards every recorded value.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0L);
+        }
+        count.reset();
+        sum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(0L);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the smallest value recorded, or 0 if the histogram is empty.
+     *
+     * @return the smallest value recorded
+     */
+    public long getMin() {
+        long val = min.get();
+        return val == Long.MAX_VALUE ? 0L : val;
+    }
+
+    /**
+     * Returns the largest value recorded, or 0 if the histogram is empty.
+     *
+     * @return the largest value recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded, or 0 if the histogram is empty.
+     *
+     * @return the mean of the values recorded
+     */
+    public double getMean() {
+        long cnt = count.sum();
+        return cnt == 0 ? 0.0 : (double) sum.sum() / cnt;
+    }
+
+    /**
+     * Returns the value below which the given percentage of recorded values fall, rounded up to
+     * the top of its bucket and capped at {@link #getMax()}.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the value at the percentile, or 0 if the histogram is empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("percentile out of range: " + percentile);
+        }
+        long total = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the bucket counts as rows of {@code upperBound count}, one non-empty bucket per line,
+     * in ascending order. Suitable for export to plotting tools.
+     *
+     * @return the non-empty buckets
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucket = counts.get(i);
+            if (bucket != 0) {
+                sb.append(bucketUpperBound(i)).append(' ').append(bucket).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * {@inheritDoc}.
+     */
+    public String toString() {
+        return String.format("{count=%d, min=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, p99.9=%d, "
+                        + "max=%d}", getCount(), getMin(), getMean(), getValueAtPercentile(50),
+                getValueAtPercentile(90), getValueAtPercentile(99), getValueAtPercentile(99.9),
+                getMax());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+/**
+ * A {@link MetricsRecorder} that records every value into a {@link Histogram}. Recording does
+ * not allocate, so it can stay enabled in production.
+ *
+ * <pre>
+ *     HistogramMetricsRecorder metrics = new HistogramMetricsRecorder();
+ *     Connection nc = new Options.Builder().metricsRecorder(metrics).build().connect();
+ *     ...
+ *     System.out.println(metrics);
+ * </pre>
+ *
+ * <p>The getters return the live histograms; take a {@link Histogram#snapshot()} for a
+ * consistent view.
+ */
+public class HistogramMetricsRecorder implements MetricsRecorder {
+
+    private final Histogram publishTime = new Histogram();
+    private final Histogram flushSize = new Histogram();
+    private final Histogram flushTime = new Histogram();
+    private final Histogram readSize = new Histogram();
+    private final Histogram parseTime = new Histogram();
+    private final Histogram dispatchDelay = new Histogram();
+    private final Histogram handlerTime = new Histogram();
+
+    @Override
+    public void recordPublish(long nanos) {
+        publishTime.record(nanos);
+    }
+
+    @Override
+    public void recordFlush(long bytes, long nanos) {
+        flushSize.record(bytes);
+        flushTime.record(nanos);
+    }
+
+    @Override
+    public void recordRead(int bytes) {
+        readSize.record(bytes);
+    }
+
+    @Override
+    public void recordParse(int bytes, long nanos) {
+        parseTime.record(nanos);
+    }
+
+    @Override
+    public void recordDispatchDelay(long nanos) {
+        dispatchDelay.record(nanos);
+    }
+
+    @Override
+    public void recordHandler(long nanos) {
+        handlerTime.record(nanos);
+    }
+
+    /**
+     * Returns the time publish calls took, in nanoseconds.
+     *
+     * @return the publish times
+     */
+    public Histogram getPublishTime() {
+        return publishTime;
+    }
+
+    /**
+     * Returns the number of bytes published between flushes.
+     *
+     * @return the flush sizes
+     */
+    public Histogram getFlushSize() {
+        return flushSize;
+    }
+
+    /**
+     * Returns the time flushes took, in nanoseconds.
+     *
+     * @return the flush times
+     */
+    public Histogram getFlushTime() {
+        return flushTime;
+    }
+
+    /**
+     * Returns the number of bytes each socket read returned.
+     *
+     * @return the read sizes
+     */
+    public Histogram getReadSize() {
+        return readSize;
+    }
+
+    /**
+     * Returns the time parsing each buffer read took, in nanoseconds.
+     *
+     * @return the parse times
+     */
+    public Histogram getParseTime() {
+        return parseTime;
+    }
+
+    /**
+     * Returns the time messages waited for delivery to their handler, in nanoseconds.
+     *
+     * @return the dispatch delays
+     */
+    public Histogram getDispatchDelay() {
+        return dispatchDelay;
+    }
+
+    /**
+     * Returns the time message handlers took, in nanoseconds.
+     *
+     * @return the handler times
+     */
+    public Histogram getHandlerTime() {
+        return handlerTime;
+    }
+
+    /**
+     * Discards every recorded value.
+     */
+    public void reset() {
+        publishTime.reset();
+        flushSize.reset();
+        flushTime.reset();
+        readSize.reset();
+        parseTime.reset();
+        dispatchDelay.reset();
+        handlerTime.reset();
+    }
+
+    /**
+     * {@inheritDoc}.
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{publishTime=").append(publishTime);
+        sb.append(", flushSize=").append(flushSize);
+        sb.append(", flushTime=").append(flushTime);
+        sb.append(", readSize=").append(readSize);
+        sb.append(", parseTime=").append(parseTime);
+        sb.append(", dispatchDelay=").append(dispatchDelay);
+        sb.append(", handlerTime=").append(handlerTime);
+        sb.append("}");
+        return sb.toString();
+    }
+}
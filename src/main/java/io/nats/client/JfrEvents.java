@@ -0,0 +1,283 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/*
+ * The Flight Recorder events of the client. Only NatsEvents refers to this class, and only once
+ * it has found jdk.jfr to be present, so the client still runs where it is not.
+ *
+ * Events are begun only while a recording has them enabled. The thresholds below are defaults,
+ * which recording settings override, e.g. io.nats.client.LockWait#threshold=1 ms.
+ */
+final class JfrEvents {
+
+    static final String CATEGORY = "NATS";
+
+    @Name("io.nats.client.Connect")
+    @Label("NATS Connect")
+    @Category(CATEGORY)
+    @Description("Initial connection to a server of the pool")
+    static final class Connect extends Event {
+        @Label("Server")
+        String server;
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("io.nats.client.Disconnect")
+    @Label("NATS Disconnect")
+    @Category(CATEGORY)
+    @Description("Loss of the connection to the server")
+    static final class Disconnect extends Event {
+        @Label("Server")
+        String server;
+        @Label("Reason")
+        String reason;
+    }
+
+    @Name("io.nats.client.Reconnect")
+    @Label("NATS Reconnect")
+    @Category(CATEGORY)
+    @Description("From the loss of the connection until it is restored or given up on")
+    static final class Reconnect extends Event {
+        @Label("Server")
+        String server;
+        @Label("Attempts")
+        int attempts;
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("io.nats.client.ReconnectPhase")
+    @Label("NATS Reconnect Phase")
+    @Category(CATEGORY)
+    @Description("A phase of a reconnect: wait, dial, handshake, promote or restore")
+    @StackTrace(false)
+    static final class ReconnectPhase extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("Server")
+        String server;
+    }
+
+    @Name("io.nats.client.SlowConsumer")
+    @Label("NATS Slow Consumer")
+    @Category(CATEGORY)
+    @Description("A subscription became a slow consumer, or stopped being one")
+    @StackTrace(false)
+    static final class SlowConsumer extends Event {
+        @Label("Subject")
+        String subject;
+        @Label("Subscription Id")
+        long sid;
+        @Label("Slow")
+        boolean slow;
+        @Label("Pending Messages")
+        int pendingMessages;
+        @Label("Pending Bytes")
+        @DataAmount
+        int pendingBytes;
+        @Label("Dropped")
+        long dropped;
+    }
+
+    @Name("io.nats.client.Flush")
+    @Label("NATS Flush")
+    @Category(CATEGORY)
+    @Description("A write of buffered protocol data to the socket")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Flush extends Event {
+        @Label("Bytes Published")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("io.nats.client.MessageReassembly")
+    @Label("NATS Message Reassembly")
+    @Category(CATEGORY)
+    @Description("A message split across socket reads, from its first to its last byte")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static final class MessageReassembly extends Event {
+        @Label("Subject")
+        String subject;
+        @Label("Size")
+        @DataAmount
+        int size;
+        @Label("Reads")
+        int reads;
+    }
+
+    @Name("io.nats.client.LockWait")
+    @Label("NATS Connection Lock Wait")
+    @Category(CATEGORY)
+    @Description("A thread blocked on the connection lock")
+    @Threshold("10 ms")
+    static final class LockWait extends Event {
+    }
+
+    private static final EventType CONNECT = EventType.getEventType(Connect.class);
+    private static final EventType DISCONNECT = EventType.getEventType(Disconnect.class);
+    private static final EventType RECONNECT = EventType.getEventType(Reconnect.class);
+    private static final EventType RECONNECT_PHASE = EventType.getEventType(ReconnectPhase.class);
+    private static final EventType SLOW_CONSUMER = EventType.getEventType(SlowConsumer.class);
+    private static final EventType FLUSH = EventType.getEventType(Flush.class);
+    private static final EventType REASSEMBLY = EventType.getEventType(MessageReassembly.class);
+    private static final EventType LOCK_WAIT = EventType.getEventType(LockWait.class);
+
+    private JfrEvents() {
+    }
+
+    static Object beginConnect() {
+        if (!CONNECT.isEnabled()) {
+            return null;
+        }
+        Connect event = new Connect();
+        event.begin();
+        return event;
+    }
+
+    static void endConnect(Object begun, URI server, boolean success) {
+        Connect event = (Connect) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.server = server == null ? null : server.toString();
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    static void disconnect(URI server, String reason) {
+        if (DISCONNECT.isEnabled()) {
+            Disconnect event = new Disconnect();
+            event.server = server == null ? null : server.toString();
+            event.reason = reason;
+            event.commit();
+        }
+    }
+
+    static Object beginReconnect() {
+        if (!RECONNECT.isEnabled()) {
+            return null;
+        }
+        Reconnect event = new Reconnect();
+        event.begin();
+        return event;
+    }
+
+    static void endReconnect(Object begun, URI server, int attempts, boolean success) {
+        Reconnect event = (Reconnect) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.server = server == null ? null : server.toString();
+            event.attempts = attempts;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    static Object beginReconnectPhase() {
+        if (!RECONNECT_PHASE.isEnabled()) {
+            return null;
+        }
+        ReconnectPhase event = new ReconnectPhase();
+        event.begin();
+        return event;
+    }
+
+    static void endReconnectPhase(Object begun, String phase, URI server) {
+        ReconnectPhase event = (ReconnectPhase) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase;
+            event.server = server == null ? null : server.toString();
+            event.commit();
+        }
+    }
+
+    static void slowConsumer(String subject, long sid, boolean slow, int pendingMessages,
+                             int pendingBytes, long dropped) {
+        if (SLOW_CONSUMER.isEnabled()) {
+            SlowConsumer event = new SlowConsumer();
+            event.subject = subject;
+            event.sid = sid;
+            event.slow = slow;
+            event.pendingMessages = pendingMessages;
+            event.pendingBytes = pendingBytes;
+            event.dropped = dropped;
+            event.commit();
+        }
+    }
+
+    static Object beginFlush() {
+        if (!FLUSH.isEnabled()) {
+            return null;
+        }
+        Flush event = new Flush();
+        event.begin();
+        return event;
+    }
+
+    static void endFlush(Object begun, long bytes) {
+        Flush event = (Flush) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    static Object beginReassembly() {
+        if (!REASSEMBLY.isEnabled()) {
+            return null;
+        }
+        MessageReassembly event = new MessageReassembly();
+        event.begin();
+        return event;
+    }
+
+    static void endReassembly(Object begun, ByteBuffer subject, int size, int reads) {
+        MessageReassembly event = (MessageReassembly) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.subject = Parser.bufToString(subject);
+            event.size = size;
+            event.reads = reads;
+            event.commit();
+        }
+    }
+
+    static Object beginLockWait() {
+        if (!LOCK_WAIT.isEnabled()) {
+            return null;
+        }
+        LockWait event = new LockWait();
+        event.begin();
+        return event;
+    }
+
+    static void endLockWait(Object begun) {
+        LockWait event = (LockWait) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+/**
+ * Contention on a connection's lock at one call site, such as {@code publish} or
+ * {@code processMsg}: how often the lock was taken there, how often the caller had to wait for
+ * it, how long it waited and how long it then held the lock. Available from
+ * {@link Statistics#getLockStats()} when {@link Options.Builder#trackLockContention(boolean)} is
+ * set.
+ *
+ * <p>Only the outermost acquisition by a thread is counted; re-entering the lock is free.
+ */
+public final class LockStats implements LockStatsMXBean {
+
+    private final String site;
+    // Written while holding the lock being tracked
+    private volatile long acquisitions;
+    private volatile long contended;
+    private final Histogram waitTime = new Histogram();
+    private final Histogram holdTime = new Histogram();
+
+    LockStats(String site) {
+        this.site = site;
+    }
+
+    // The caller holds the tracked lock
+    void acquired(boolean waited, long waitNanos) {
+        acquisitions++;
+        if (waited) {
+            contended++;
+        }
+        waitTime.record(waitNanos);
+    }
+
+    void released(long holdNanos) {
+        holdTime.record(holdNanos);
+    }
+
+    // Adds the counts of other to this, e.g. to aggregate the statistics of several connections.
+    synchronized void add(LockStats other) {
+        acquisitions += other.acquisitions;
+        contended += other.contended;
+        waitTime.add(other.waitTime);
+        holdTime.add(other.holdTime);
+    }
+
+    /**
+     * Returns the call site, e.g. {@code publish}.
+     *
+     * @return the call site
+     */
+    @Override
+    public String getSite() {
+        return site;
+    }
+
+    /**
+     * Returns the number of times the lock was taken at this site.
+     *
+     * @return the number of acquisitions
+     */
+    @Override
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /**
+     * Returns the number of times the lock was held by another thread when this site asked for
+     * it.
+     *
+     * @return the number of contended acquisitions
+     */
+    @Override
+    public long getContended() {
+        return contended;
+    }
+
+    /**
+     * Returns the time each acquisition waited for the lock, in nanoseconds. Uncontended
+     * acquisitions are recorded as 0.
+     *
+     * @return the wait times
+     */
+    public Histogram getWaitTime() {
+        return waitTime;
+    }
+
+    /**
+     * Returns the time the lock was held after each acquisition at this site, in nanoseconds.
+     *
+     * @return the hold times
+     */
+    public Histogram getHoldTime() {
+        return holdTime;
+    }
+
+    @Override
+    public double getMeanWaitNanos() {
+        return waitTime.getMean();
+    }
+
+    @Override
+    public long getP99WaitNanos() {
+        return waitTime.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getMaxWaitNanos() {
+        return waitTime.getMax();
+    }
+
+    @Override
+    public double getMeanHoldNanos() {
+        return holdTime.getMean();
+    }
+
+    @Override
+    public long getP99HoldNanos() {
+        return holdTime.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getMaxHoldNanos() {
+        return holdTime.getMax();
+    }
+
+    /**
+     * Discards the counts and times recorded so far.
+     */
+    @Override
+    public void reset() {
+        acquisitions = 0L;
+        contended = 0L;
+        waitTime.reset();
+        holdTime.reset();
+    }
+
+    /**
+     * {@inheritDoc}.
+     */
+    public String toString() {
+        return String.format("{site=%s, acquisitions=%d, contended=%d, wait=%s, hold=%s}", site,
+                acquisitions, contended, waitTime, holdTime);
+    }
+}
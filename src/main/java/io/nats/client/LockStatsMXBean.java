@@ -0,0 +1,38 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+/**
+ * The JMX view of the contention on a connection's lock at one call site, registered as
+ * {@code io.nats.client:type=ConnectionLock,connection=<name>,id=<id>,site=<site>} when
+ * {@link Options.Builder#trackLockContention(boolean)} is set. The name is the connection name,
+ * if any, and the id tells connections of the same name apart. Times are in nanoseconds.
+ *
+ * @see LockStats
+ */
+public interface LockStatsMXBean {
+
+    String getSite();
+
+    long getAcquisitions();
+
+    long getContended();
+
+    double getMeanWaitNanos();
+
+    long getP99WaitNanos();
+
+    long getMaxWaitNanos();
+
+    double getMeanHoldNanos();
+
+    long getP99HoldNanos();
+
+    long getMaxHoldNanos();
+
+    void reset();
+}
@@ -19,6 +19,8 @@ public class Message {
     private byte[] replyToBytes;
     private String replyToString;
     private byte[] data;
+    // When the message was parsed, if metrics are recorded, see MetricsRecorder
+    long arrivalNanos;
 
     /**
      * Message constructor.
@@ -0,0 +1,96 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+/**
+ * Receives the timings and sizes of a connection's hot paths, see
+ * {@link Options.Builder#metricsRecorder(MetricsRecorder)}.
+ *
+ * <p>Methods are called inline from the publishing threads, the read loop and the message
+ * dispatchers, some of them while the connection lock is held. Implementations must be
+ * thread-safe, should not block or allocate, and must not throw. All times are in nanoseconds.
+ *
+ * <p>A connection configured without a recorder, or with {@link #NOOP}, does not read the clock
+ * for metrics at all.
+ */
+public interface MetricsRecorder {
+
+    /**
+     * A recorder that discards everything.
+     */
+    MetricsRecorder NOOP = new MetricsRecorder() {
+        @Override
+        public void recordPublish(long nanos) {
+        }
+
+        @Override
+        public void recordFlush(long bytes, long nanos) {
+        }
+
+        @Override
+        public void recordRead(int bytes) {
+        }
+
+        @Override
+        public void recordParse(int bytes, long nanos) {
+        }
+
+        @Override
+        public void recordDispatchDelay(long nanos) {
+        }
+
+        @Override
+        public void recordHandler(long nanos) {
+        }
+    };
+
+    /**
+     * Records the time a publish call took, including the wait for the connection lock.
+     *
+     * @param nanos the elapsed time
+     */
+    void recordPublish(long nanos);
+
+    /**
+     * Records a flush of the outbound buffer to the socket.
+     *
+     * @param bytes the bytes published since the previous flush
+     * @param nanos the time the flush took
+     */
+    void recordFlush(long bytes, long nanos);
+
+    /**
+     * Records a read from the socket by the read loop.
+     *
+     * @param bytes the number of bytes read
+     */
+    void recordRead(int bytes);
+
+    /**
+     * Records the parsing of one buffer read from the socket, including the processing of the
+     * messages in it.
+     *
+     * @param bytes the size of the buffer
+     * @param nanos the time the parse took
+     */
+    void recordParse(int bytes, long nanos);
+
+    /**
+     * Records how long a message waited in its subscription's queue before being handed to the
+     * {@link MessageHandler}.
+     *
+     * @param nanos the time between the message being parsed and its delivery
+     */
+    void recordDispatchDelay(long nanos);
+
+    /**
+     * Records the time a {@link MessageHandler} took to process a message.
+     *
+     * @param nanos the elapsed time
+     */
+    void recordHandler(long nanos);
+}
@@ -6,6 +6,7 @@
 
 package io.nats.client;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -37,7 +38,9 @@ public final class NUID {
     static final long minInc = 33L;
     static final long maxInc = 333L;
     static final int totalLen = preLen + seqLen;
-    private SecureRandom srand;
+    // A single secure source for every instance's prefix and seed, so that per-thread
+    // instances do not each pay for (and drain entropy seeding) their own SecureRandom.
+    private static final SecureRandom srand = newSecureRandom();
     private final Random prand;
 
     // Instance fields
@@ -49,6 +52,14 @@ public final class NUID {
     // Global NUID
     public static final NUID globalNUID = new NUID();
 
+    // Per-thread NUIDs, see local()
+    private static final ThreadLocal<NUID> localNUID = new ThreadLocal<NUID>() {
+        @Override
+        protected NUID initialValue() {
+            return new NUID();
+        }
+    };
+
     static NUID getInstance() {
         return globalNUID;
     }
@@ -57,20 +68,8 @@ public final class NUID {
      * The default NUID constructor.
      */
     public NUID() {
-        // Generate a cryto random int, 0 <= val < max to seed pseudorandom
-        long seed = 0L;
-        try {
-            srand = SecureRandom.getInstance("SHA1PRNG");
-            seed = bytesToLong(srand.generateSeed(8)); // seed with 8 bytes (64 bits)
-        } catch (NoSuchAlgorithmException e) {
-            // IGNORE - FIXME:  This should error up somehow.
-        }
-
-        if (seed != 0L) {
-            prand = new Random(seed);
-        } else {
-            prand = new Random();
-        }
+        // Seed the pseudorandom sequence from the shared secure source
+        prand = new Random(srand.nextLong());
 
         seq = nextLong(prand, maxSeq);
         inc = minInc + nextLong(prand, maxInc - minInc);
@@ -81,6 +80,15 @@ public final class NUID {
         randomizePrefix();
     }
 
+    private static SecureRandom newSecureRandom() {
+        try {
+            return SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            // Fall back to the platform default
+            return new SecureRandom();
+        }
+    }
+
     /**
      * Generate the next NUID string from the global locked NUID instance.
      *
@@ -90,6 +98,17 @@ public final class NUID {
         return getInstance().next();
     }
 
+    /**
+     * Returns the calling thread's NUID instance. Each thread's instance has its own random
+     * prefix, so NUIDs from different threads are as unique as those from the global instance,
+     * without contending on its lock. The instance must not be shared with other threads.
+     *
+     * @return the calling thread's NUID instance
+     */
+    public static NUID local() {
+        return localNUID.get();
+    }
+
     /**
      * Generate the next NUID string from this instance.
      *
@@ -97,17 +116,13 @@ public final class NUID {
      */
     public final String next() {
         // Increment and capture.
-        seq += inc;
-        if (seq >= maxSeq) {
-            randomizePrefix();
-            resetSequential();
-        }
+        nextSeq();
 
         // Copy prefix
         char[] b = new char[totalLen];
         System.arraycopy(pre, 0, b, 0, preLen);
 
-        // copy in the seq in base36.
+        // copy in the seq in base62.
         int i = b.length;
         for (long l = seq; i > preLen; l /= base) {
             i--;
@@ -116,6 +131,67 @@ public final class NUID {
         return new String(b);
     }
 
+    /**
+     * Writes the next NUID from this instance into {@code dst} as {@value #totalLen} ASCII bytes,
+     * starting at {@code offset}, without allocating.
+     *
+     * @param dst    the destination array
+     * @param offset the index of the first byte to write
+     * @throws IndexOutOfBoundsException if fewer than {@value #totalLen} bytes are available
+     */
+    public final void next(byte[] dst, int offset) {
+        if (offset < 0 || offset > dst.length - totalLen) {
+            throw new IndexOutOfBoundsException("nats: no room for NUID at offset " + offset);
+        }
+        nextSeq();
+
+        for (int i = 0; i < preLen; i++) {
+            dst[offset + i] = (byte) pre[i];
+        }
+        int i = offset + totalLen;
+        for (long l = seq; i > offset + preLen; l /= base) {
+            i--;
+            dst[i] = (byte) digits[(int) (l % base)];
+        }
+    }
+
+    /**
+     * Writes the next NUID from this instance into {@code dst} as {@value #totalLen} ASCII bytes,
+     * at its current position, and advances the position.
+     *
+     * @param dst the destination buffer
+     * @throws java.nio.BufferOverflowException if fewer than {@value #totalLen} bytes remain
+     */
+    public final void next(ByteBuffer dst) {
+        if (dst.remaining() < totalLen) {
+            throw new BufferOverflowException();
+        }
+        int pos = dst.position();
+        if (dst.hasArray()) {
+            next(dst.array(), dst.arrayOffset() + pos);
+        } else {
+            // Direct buffers are written in place with absolute puts.
+            nextSeq();
+            for (int i = 0; i < preLen; i++) {
+                dst.put(pos + i, (byte) pre[i]);
+            }
+            int i = pos + totalLen;
+            for (long l = seq; i > pos + preLen; l /= base) {
+                i--;
+                dst.put(i, (byte) digits[(int) (l % base)]);
+            }
+        }
+        dst.position(pos + totalLen);
+    }
+
+    private void nextSeq() {
+        seq += inc;
+        if (seq >= maxSeq) {
+            randomizePrefix();
+            resetSequential();
+        }
+    }
+
     // Resets the sequntial portion of the NUID
     void resetSequential() {
         seq = nextLong(prand, maxSeq);
@@ -205,6 +205,59 @@ public final class Nats {
      * This property is defined as String {@value #PROP_USE_OLD_REQUEST_STYLE}.
      */
     public static final String PROP_USE_OLD_REQUEST_STYLE = "use.old.request.style";
+    /**
+     * This property is defined as String {@value #PROP_COALESCE_REQUESTS}.
+     */
+    public static final String PROP_COALESCE_REQUESTS = PFX + "coalescerequests";
+    /**
+     * This property is defined as String {@value #PROP_REQUEST_CACHE_TTL}.
+     */
+    public static final String PROP_REQUEST_CACHE_TTL = PFX + "requestcachettl";
+    /**
+     * This property is defined as String {@value #PROP_TRACK_REQUEST_LATENCY}.
+     */
+    public static final String PROP_TRACK_REQUEST_LATENCY = PFX + "trackrequestlatency";
+    /**
+     * This property is defined as String {@value #PROP_TRACK_SUBSCRIPTION_LATENCY}.
+     */
+    public static final String PROP_TRACK_SUBSCRIPTION_LATENCY = PFX
+            + "tracksubscriptionlatency";
+    /**
+     * This property is defined as String {@value #PROP_TRACK_LOCK_CONTENTION}.
+     */
+    public static final String PROP_TRACK_LOCK_CONTENTION = PFX + "tracklockcontention";
+    /**
+     * This property is defined as String {@value #PROP_HEDGE_PERCENTILE}.
+     */
+    public static final String PROP_HEDGE_PERCENTILE = PFX + "hedgepercentile";
+    /**
+     * This property is defined as String {@value #PROP_ADAPTIVE_TIMEOUT_MULTIPLIER}.
+     */
+    public static final String PROP_ADAPTIVE_TIMEOUT_MULTIPLIER = PFX + "adaptivetimeoutmultiplier";
+    /**
+     * This property is defined as String {@value #PROP_DIAL_PARALLELISM}.
+     */
+    public static final String PROP_DIAL_PARALLELISM = PFX + "dial.parallelism";
+    /**
+     * This property is defined as String {@value #PROP_DIAL_STAGGER}.
+     */
+    public static final String PROP_DIAL_STAGGER = PFX + "dial.stagger";
+    /**
+     * This property is defined as String {@value #PROP_MAX_RECONNECT_WAIT}.
+     */
+    public static final String PROP_MAX_RECONNECT_WAIT = PFX + "reconnect.wait.max";
+    /**
+     * This property is defined as String {@value #PROP_PREFER_LOW_LATENCY}.
+     */
+    public static final String PROP_PREFER_LOW_LATENCY = PFX + "preferlowlatency";
+    /**
+     * This property is defined as String {@value #PROP_LATENCY_MIGRATION_FACTOR}.
+     */
+    public static final String PROP_LATENCY_MIGRATION_FACTOR = PFX + "latencymigrationfactor";
+    /**
+     * This property is defined as String {@value #PROP_HOT_STANDBY}.
+     */
+    public static final String PROP_HOT_STANDBY = PFX + "hotstandby";
 
     /*
      * Constants
@@ -249,6 +302,13 @@ public final class Nats {
      */
     public static final int DEFAULT_TIMEOUT = 2 * SECOND;
 
+    /**
+     * Default delay between starting parallel connection attempts.
+     *
+     * <p>This property is defined as String {@value #DEFAULT_DIAL_STAGGER}
+     */
+    public static final int DEFAULT_DIAL_STAGGER = 250;
+
     /**
      * Default server ping interval. {@code <=0} means disabled.
      *
@@ -355,6 +415,10 @@ public final class Nats {
      * This error message is defined as String {@value #ERR_STALE_CONNECTION}.
      */
     public static final String ERR_STALE_CONNECTION = "nats: " + STALE_CONNECTION;
+    /**
+     * This error message is defined as String {@value #ERR_LATENCY_MIGRATION}.
+     */
+    public static final String ERR_LATENCY_MIGRATION = "nats: migrating to a lower latency server";
     /**
      * This error message is defined as String {@value #ERR_PERMISSIONS_VIOLATION}.
      */
@@ -0,0 +1,112 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+/*
+ * Emits the client's Flight Recorder events, see JfrEvents, when the JVM has jdk.jfr (JDK 11 and
+ * later, and 8u262 and later), and does nothing otherwise.
+ *
+ * Duration events are begun by a begin method, which returns null unless a recording has the
+ * event enabled, and completed by passing what it returned to the matching end method. The
+ * event is typed as Object so that this class loads without jdk.jfr. With no recording running,
+ * each call costs a field read and a branch.
+ */
+final class NatsEvents {
+
+    static final boolean AVAILABLE = available();
+
+    private NatsEvents() {
+    }
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            // Registers the event types
+            Class.forName(JfrEvents.class.getName());
+            return true;
+        } catch (Throwable e) {
+            // No Flight Recorder on this JVM
+            return false;
+        }
+    }
+
+    static Object beginConnect() {
+        return AVAILABLE ? JfrEvents.beginConnect() : null;
+    }
+
+    static void endConnect(Object event, URI server, boolean success) {
+        if (event != null) {
+            JfrEvents.endConnect(event, server, success);
+        }
+    }
+
+    static void disconnect(URI server, String reason) {
+        if (AVAILABLE) {
+            JfrEvents.disconnect(server, reason);
+        }
+    }
+
+    static Object beginReconnect() {
+        return AVAILABLE ? JfrEvents.beginReconnect() : null;
+    }
+
+    static void endReconnect(Object event, URI server, int attempts, boolean success) {
+        if (event != null) {
+            JfrEvents.endReconnect(event, server, attempts, success);
+        }
+    }
+
+    static Object beginReconnectPhase() {
+        return AVAILABLE ? JfrEvents.beginReconnectPhase() : null;
+    }
+
+    static void endReconnectPhase(Object event, String phase, URI server) {
+        if (event != null) {
+            JfrEvents.endReconnectPhase(event, phase, server);
+        }
+    }
+
+    static void slowConsumer(SubscriptionImpl sub, boolean slow) {
+        if (AVAILABLE) {
+            JfrEvents.slowConsumer(sub.getSubject(), sub.getSid(), slow, sub.pMsgs, sub.pBytes,
+                    sub.dropped);
+        }
+    }
+
+    static Object beginFlush() {
+        return AVAILABLE ? JfrEvents.beginFlush() : null;
+    }
+
+    static void endFlush(Object event, long bytes) {
+        if (event != null) {
+            JfrEvents.endFlush(event, bytes);
+        }
+    }
+
+    static Object beginReassembly() {
+        return AVAILABLE ? JfrEvents.beginReassembly() : null;
+    }
+
+    static void endReassembly(Object event, ByteBuffer subject, int size, int reads) {
+        if (event != null) {
+            JfrEvents.endReassembly(event, subject, size, reads);
+        }
+    }
+
+    static Object beginLockWait() {
+        return AVAILABLE ? JfrEvents.beginLockWait() : null;
+    }
+
+    static void endLockWait(Object event) {
+        if (event != null) {
+            JfrEvents.endLockWait(event);
+        }
+    }
+}
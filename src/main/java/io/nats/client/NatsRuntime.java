@@ -0,0 +1,163 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@code NatsRuntime} owns the threads that connections run on: a scheduler for timers, a
+ * worker pool for read loops, flushers, reconnects and message dispatch, and a callback executor.
+ * Connections whose {@link Options} name the same runtime share these threads, so opening and
+ * closing a connection neither starts nor stops any, and idle threads do not multiply with the
+ * number of connections.
+ *
+ * <p>The callback executor is a single thread shared by every connection on the runtime, so that
+ * each connection's callbacks run one at a time and in order. Callbacks should return quickly, as
+ * one that blocks holds up the callbacks of all the other connections.
+ *
+ * <p>A runtime is reference counted. Its creator holds the first reference and each open
+ * connection holds one more. The threads are stopped once the runtime has been
+ * {@link #close() closed} and every connection using it has been closed.
+ *
+ * <pre>
+ *     NatsRuntime runtime = new NatsRuntime();
+ *     Options opts = new Options.Builder().runtime(runtime).build();
+ *     Connection first = opts.connect();
+ *     Connection second = opts.connect();
+ *     ...
+ *     runtime.close(); // threads stop when first and second are closed too
+ * </pre>
+ */
+public final class NatsRuntime implements AutoCloseable {
+
+    /**
+     * Default number of scheduler threads.
+     *
+     * <p>This property is defined as int {@value #DEFAULT_SCHEDULER_THREADS}
+     */
+    public static final int DEFAULT_SCHEDULER_THREADS = 2;
+
+    static final String SCHEDULER_NAME = "jnats-runtime-scheduler";
+    static final String WORKER_NAME = "jnats-runtime-worker";
+    static final String CALLBACK_NAME = "jnats-runtime-callbacks";
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final ExecutorService callbacks;
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private volatile boolean closed;
+
+    /**
+     * Creates a runtime with {@link #DEFAULT_SCHEDULER_THREADS} scheduler threads.
+     */
+    public NatsRuntime() {
+        this(DEFAULT_SCHEDULER_THREADS);
+    }
+
+    /**
+     * Creates a runtime.
+     *
+     * @param schedulerThreads the number of threads running timers, at least 1. Timer tasks are
+     *                         short, so a few threads serve many connections.
+     */
+    public NatsRuntime(int schedulerThreads) {
+        if (schedulerThreads < 1) {
+            throw new IllegalArgumentException("nats: scheduler threads must be at least 1");
+        }
+        ScheduledThreadPoolExecutor sexec = new ScheduledThreadPoolExecutor(schedulerThreads,
+                new NatsThreadFactory(SCHEDULER_NAME));
+        sexec.setRemoveOnCancelPolicy(true);
+        this.scheduler = sexec;
+        this.workers = Executors.newCachedThreadPool(new NatsThreadFactory(WORKER_NAME));
+        this.callbacks = Executors.newSingleThreadExecutor(new NatsThreadFactory(CALLBACK_NAME));
+    }
+
+    // Takes a reference for a connection.
+    void retain() {
+        int cur;
+        do {
+            cur = refs.get();
+            if (cur == 0) {
+                throw new IllegalStateException("nats: runtime has been shut down");
+            }
+        } while (!refs.compareAndSet(cur, cur + 1));
+    }
+
+    // Drops a reference, stopping the threads with the last one.
+    void release() {
+        if (refs.decrementAndGet() == 0) {
+            scheduler.shutdownNow();
+            workers.shutdownNow();
+            // Let the final closed callbacks run
+            callbacks.shutdown();
+        }
+    }
+
+    // A connection's view of the scheduler and the worker pool.
+    SharedExecutor newExecutor() {
+        return new SharedExecutor(scheduler, workers);
+    }
+
+    // A connection's view of the callback executor.
+    SharedExecutor newCallbacks() {
+        return new SharedExecutor(scheduler, callbacks);
+    }
+
+    /**
+     * Returns the number of references held: one for the creator until the runtime is closed,
+     * and one for each connection using it.
+     *
+     * @return the number of references
+     */
+    public int getReferences() {
+        return refs.get();
+    }
+
+    /**
+     * Indicates whether the runtime's threads have been stopped.
+     *
+     * @return {@code true} if the threads have been stopped
+     */
+    public boolean isShutdown() {
+        return refs.get() == 0;
+    }
+
+    /**
+     * Waits for the runtime's threads to stop, after it and every connection using it have been
+     * closed.
+     *
+     * @param timeout how long to wait
+     * @param unit    the time unit of {@code timeout}
+     * @return {@code true} if the threads stopped, {@code false} if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return scheduler.awaitTermination(timeout, unit)
+                && workers.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                && callbacks.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Drops the creator's reference. The threads keep running until every connection using the
+     * runtime has been closed as well. Connections can no longer be opened with this runtime once
+     * its threads have stopped.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        release();
+    }
+}
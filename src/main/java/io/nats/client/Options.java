@@ -6,6 +6,7 @@
 
 package io.nats.client;
 
+import static io.nats.client.Nats.DEFAULT_DIAL_STAGGER;
 import static io.nats.client.Nats.DEFAULT_MAX_PINGS_OUT;
 import static io.nats.client.Nats.DEFAULT_MAX_RECONNECT;
 import static io.nats.client.Nats.DEFAULT_PING_INTERVAL;
@@ -13,24 +14,37 @@ import static io.nats.client.Nats.DEFAULT_RECONNECT_BUF_SIZE;
 import static io.nats.client.Nats.DEFAULT_RECONNECT_WAIT;
 import static io.nats.client.Nats.DEFAULT_TIMEOUT;
 import static io.nats.client.Nats.DEFAULT_URL;
+import static io.nats.client.Nats.PROP_ADAPTIVE_TIMEOUT_MULTIPLIER;
 import static io.nats.client.Nats.PROP_CLOSED_CB;
+import static io.nats.client.Nats.PROP_COALESCE_REQUESTS;
 import static io.nats.client.Nats.PROP_CONNECTION_NAME;
 import static io.nats.client.Nats.PROP_CONNECTION_TIMEOUT;
+import static io.nats.client.Nats.PROP_DIAL_PARALLELISM;
+import static io.nats.client.Nats.PROP_DIAL_STAGGER;
 import static io.nats.client.Nats.PROP_DISCONNECTED_CB;
 import static io.nats.client.Nats.PROP_EXCEPTION_HANDLER;
+import static io.nats.client.Nats.PROP_HEDGE_PERCENTILE;
+import static io.nats.client.Nats.PROP_HOT_STANDBY;
+import static io.nats.client.Nats.PROP_LATENCY_MIGRATION_FACTOR;
 import static io.nats.client.Nats.PROP_MAX_PINGS;
 import static io.nats.client.Nats.PROP_MAX_RECONNECT;
+import static io.nats.client.Nats.PROP_MAX_RECONNECT_WAIT;
 import static io.nats.client.Nats.PROP_NORANDOMIZE;
 import static io.nats.client.Nats.PROP_PASSWORD;
 import static io.nats.client.Nats.PROP_PEDANTIC;
 import static io.nats.client.Nats.PROP_PING_INTERVAL;
+import static io.nats.client.Nats.PROP_PREFER_LOW_LATENCY;
 import static io.nats.client.Nats.PROP_RECONNECTED_CB;
 import static io.nats.client.Nats.PROP_RECONNECT_ALLOWED;
 import static io.nats.client.Nats.PROP_RECONNECT_BUF_SIZE;
 import static io.nats.client.Nats.PROP_RECONNECT_WAIT;
+import static io.nats.client.Nats.PROP_REQUEST_CACHE_TTL;
 import static io.nats.client.Nats.PROP_SECURE;
 import static io.nats.client.Nats.PROP_SERVERS;
 import static io.nats.client.Nats.PROP_TLS_DEBUG;
+import static io.nats.client.Nats.PROP_TRACK_REQUEST_LATENCY;
+import static io.nats.client.Nats.PROP_TRACK_LOCK_CONTENTION;
+import static io.nats.client.Nats.PROP_TRACK_SUBSCRIPTION_LATENCY;
 import static io.nats.client.Nats.PROP_URL;
 import static io.nats.client.Nats.PROP_USERNAME;
 import static io.nats.client.Nats.PROP_USE_OLD_REQUEST_STYLE;
@@ -79,10 +93,25 @@ public class Options {
     final boolean allowReconnect;
     final int maxReconnect;
     final long reconnectWait;
+    final long maxReconnectWait;
     final int connectionTimeout;
+    final int dialParallelism;
+    final long dialStagger;
+    final boolean preferLowLatency;
+    final double latencyMigrationFactor;
+    final boolean hotStandby;
+    final NatsRuntime runtime;
+    final MetricsRecorder metricsRecorder;
     final long pingInterval;
     final int maxPingsOut;
     final boolean useOldRequestStyle;
+    final boolean coalesceRequests;
+    final long requestCacheTtl;
+    final boolean trackRequestLatency;
+    final boolean trackSubscriptionLatency;
+    final boolean trackLockContention;
+    final double hedgePercentile;
+    final double adaptiveTimeoutMultiplier;
     // Connection handlers
     public ClosedCallback closedCb;
     public DisconnectedCallback disconnectedCb;
@@ -121,10 +150,25 @@ public class Options {
         this.maxReconnect = builder.maxReconnect;
         this.reconnectBufSize = builder.reconnectBufSize;
         this.reconnectWait = builder.reconnectWait;
+        this.maxReconnectWait = builder.maxReconnectWait;
         this.connectionTimeout = builder.connectionTimeout;
+        this.dialParallelism = builder.dialParallelism;
+        this.dialStagger = builder.dialStagger;
+        this.preferLowLatency = builder.preferLowLatency;
+        this.latencyMigrationFactor = builder.latencyMigrationFactor;
+        this.hotStandby = builder.hotStandby;
+        this.runtime = builder.runtime;
+        this.metricsRecorder = builder.metricsRecorder;
         this.pingInterval = builder.pingInterval;
         this.maxPingsOut = builder.maxPingsOut;
         this.useOldRequestStyle = builder.useOldRequestStyle;
+        this.coalesceRequests = builder.coalesceRequests;
+        this.requestCacheTtl = builder.requestCacheTtl;
+        this.trackRequestLatency = builder.trackRequestLatency;
+        this.trackSubscriptionLatency = builder.trackSubscriptionLatency;
+        this.trackLockContention = builder.trackLockContention;
+        this.hedgePercentile = builder.hedgePercentile;
+        this.adaptiveTimeoutMultiplier = builder.adaptiveTimeoutMultiplier;
         this.sslContext = builder.sslContext;
         this.tlsDebug = builder.tlsDebug;
         this.disconnectedCb = builder.disconnectedCb;
@@ -160,10 +204,25 @@ public class Options {
                 && Integer.compare(maxReconnect, other.maxReconnect) == 0
                 && Integer.compare(reconnectBufSize, other.reconnectBufSize) == 0
                 && Long.compare(reconnectWait, other.reconnectWait) == 0
+                && Long.compare(maxReconnectWait, other.maxReconnectWait) == 0
                 && Integer.compare(connectionTimeout, other.connectionTimeout) == 0
+                && Integer.compare(dialParallelism, other.dialParallelism) == 0
+                && Long.compare(dialStagger, other.dialStagger) == 0
+                && Boolean.compare(preferLowLatency, other.preferLowLatency) == 0
+                && Double.compare(latencyMigrationFactor, other.latencyMigrationFactor) == 0
+                && Boolean.compare(hotStandby, other.hotStandby) == 0
+                && runtime == other.runtime
+                && metricsRecorder == other.metricsRecorder
                 && Long.compare(pingInterval, other.pingInterval) == 0
                 && Integer.compare(maxPingsOut, other.maxPingsOut) == 0
                 && Boolean.compare(useOldRequestStyle, other.useOldRequestStyle) == 0
+                && Boolean.compare(coalesceRequests, other.coalesceRequests) == 0
+                && Long.compare(requestCacheTtl, other.requestCacheTtl) == 0
+                && Boolean.compare(trackRequestLatency, other.trackRequestLatency) == 0
+                && Boolean.compare(trackSubscriptionLatency, other.trackSubscriptionLatency) == 0
+                && Boolean.compare(trackLockContention, other.trackLockContention) == 0
+                && Double.compare(hedgePercentile, other.hedgePercentile) == 0
+                && Double.compare(adaptiveTimeoutMultiplier, other.adaptiveTimeoutMultiplier) == 0
                 && (sslContext == null ? other.sslContext == null : sslContext.equals(other
                 .sslContext))
                 && Boolean.compare(tlsDebug, other.tlsDebug) == 0
@@ -181,7 +240,12 @@ public class Options {
     public int hashCode() {
         return Objects.hash(url, username, password, token, servers, noRandomize, connectionName,
                 verbose, pedantic, secure, allowReconnect, maxReconnect, reconnectBufSize,
-                reconnectWait, connectionTimeout, pingInterval, maxPingsOut, useOldRequestStyle, sslContext, tlsDebug,
+                reconnectWait, maxReconnectWait, connectionTimeout, dialParallelism, dialStagger,
+                preferLowLatency, latencyMigrationFactor, hotStandby, runtime, metricsRecorder,
+                pingInterval, maxPingsOut, useOldRequestStyle, coalesceRequests,
+                requestCacheTtl, trackRequestLatency, trackSubscriptionLatency, hedgePercentile,
+                adaptiveTimeoutMultiplier, trackLockContention,
+                sslContext, tlsDebug,
                 factory, disconnectedCb, closedCb, reconnectedCb, asyncErrorCb);
     }
 
@@ -280,10 +344,42 @@ public class Options {
         return reconnectWait;
     }
 
+    public long getMaxReconnectWait() {
+        return maxReconnectWait;
+    }
+
     public int getConnectionTimeout() {
         return connectionTimeout;
     }
 
+    public int getDialParallelism() {
+        return dialParallelism;
+    }
+
+    public long getDialStagger() {
+        return dialStagger;
+    }
+
+    public boolean isPreferLowLatency() {
+        return preferLowLatency || latencyMigrationFactor > 0.0;
+    }
+
+    public double getLatencyMigrationFactor() {
+        return latencyMigrationFactor;
+    }
+
+    public boolean isHotStandby() {
+        return hotStandby;
+    }
+
+    public NatsRuntime getRuntime() {
+        return runtime;
+    }
+
+    public MetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
     public long getPingInterval() {
         return pingInterval;
     }
@@ -294,6 +390,34 @@ public class Options {
 
     public boolean isUseOldRequestStyle() { return useOldRequestStyle; }
 
+    public boolean isCoalesceRequests() {
+        return coalesceRequests;
+    }
+
+    public long getRequestCacheTtl() {
+        return requestCacheTtl;
+    }
+
+    public boolean isTrackRequestLatency() {
+        return trackRequestLatency;
+    }
+
+    public boolean isTrackSubscriptionLatency() {
+        return trackSubscriptionLatency;
+    }
+
+    public boolean isTrackLockContention() {
+        return trackLockContention;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public double getAdaptiveTimeoutMultiplier() {
+        return adaptiveTimeoutMultiplier;
+    }
+
     public ExceptionHandler getExceptionHandler() {
         return asyncErrorCb;
     }
@@ -351,10 +475,25 @@ public class Options {
         private int maxReconnect = DEFAULT_MAX_RECONNECT;
         private int reconnectBufSize = DEFAULT_RECONNECT_BUF_SIZE;
         private long reconnectWait = DEFAULT_RECONNECT_WAIT;
+        private long maxReconnectWait;
         private int connectionTimeout = DEFAULT_TIMEOUT;
+        private int dialParallelism = 1;
+        private long dialStagger = DEFAULT_DIAL_STAGGER;
+        private boolean preferLowLatency;
+        private double latencyMigrationFactor;
+        private boolean hotStandby;
+        private NatsRuntime runtime;
+        private MetricsRecorder metricsRecorder;
         private long pingInterval = DEFAULT_PING_INTERVAL;
         private int maxPingsOut = DEFAULT_MAX_PINGS_OUT;
         private boolean useOldRequestStyle;
+        private boolean coalesceRequests;
+        private long requestCacheTtl;
+        private boolean trackRequestLatency;
+        private boolean trackSubscriptionLatency;
+        private boolean trackLockContention;
+        private double hedgePercentile;
+        private double adaptiveTimeoutMultiplier;
         private SSLContext sslContext;
         private boolean tlsDebug;
         private TcpConnectionFactory factory;
@@ -385,7 +524,15 @@ public class Options {
             this.maxReconnect = template.maxReconnect;
             this.reconnectBufSize = template.reconnectBufSize;
             this.reconnectWait = template.reconnectWait;
+            this.maxReconnectWait = template.maxReconnectWait;
             this.connectionTimeout = template.connectionTimeout;
+            this.dialParallelism = template.dialParallelism;
+            this.dialStagger = template.dialStagger;
+            this.preferLowLatency = template.preferLowLatency;
+            this.latencyMigrationFactor = template.latencyMigrationFactor;
+            this.hotStandby = template.hotStandby;
+            this.runtime = template.runtime;
+            this.metricsRecorder = template.metricsRecorder;
             this.pingInterval = template.pingInterval;
             this.maxPingsOut = template.maxPingsOut;
             this.sslContext = template.sslContext;
@@ -396,6 +543,13 @@ public class Options {
             this.asyncErrorCb = template.asyncErrorCb;
             this.factory = template.factory;
             this.useOldRequestStyle = template.useOldRequestStyle;
+            this.coalesceRequests = template.coalesceRequests;
+            this.requestCacheTtl = template.requestCacheTtl;
+            this.trackRequestLatency = template.trackRequestLatency;
+            this.trackSubscriptionLatency = template.trackSubscriptionLatency;
+            this.trackLockContention = template.trackLockContention;
+            this.hedgePercentile = template.hedgePercentile;
+            this.adaptiveTimeoutMultiplier = template.adaptiveTimeoutMultiplier;
         }
 
         public Builder() {
@@ -472,6 +626,11 @@ public class Options {
                 this.reconnectWait = Integer.parseInt(props.getProperty(PROP_RECONNECT_WAIT,
                         Integer.toString(DEFAULT_RECONNECT_WAIT)));
             }
+            // PROP_MAX_RECONNECT_WAIT
+            if (props.containsKey(PROP_MAX_RECONNECT_WAIT)) {
+                this.maxReconnectWait = Long.parseLong(props.getProperty(PROP_MAX_RECONNECT_WAIT,
+                        "0"));
+            }
             // PROP_RECONNECT_BUF_SIZE
             if (props.containsKey(PROP_RECONNECT_BUF_SIZE)) {
                 this.reconnectBufSize = Integer.parseInt(props.getProperty(PROP_RECONNECT_BUF_SIZE,
@@ -483,6 +642,30 @@ public class Options {
                         props.getProperty(PROP_CONNECTION_TIMEOUT, Integer.toString(
                                 DEFAULT_TIMEOUT)));
             }
+            // PROP_DIAL_PARALLELISM
+            if (props.containsKey(PROP_DIAL_PARALLELISM)) {
+                this.dialParallelism = Integer.parseInt(props.getProperty(PROP_DIAL_PARALLELISM,
+                        "1"));
+            }
+            // PROP_DIAL_STAGGER
+            if (props.containsKey(PROP_DIAL_STAGGER)) {
+                this.dialStagger = Long.parseLong(props.getProperty(PROP_DIAL_STAGGER,
+                        Integer.toString(DEFAULT_DIAL_STAGGER)));
+            }
+            // PROP_PREFER_LOW_LATENCY
+            if (props.containsKey(PROP_PREFER_LOW_LATENCY)) {
+                this.preferLowLatency = Boolean.parseBoolean(
+                        props.getProperty(PROP_PREFER_LOW_LATENCY));
+            }
+            // PROP_LATENCY_MIGRATION_FACTOR
+            if (props.containsKey(PROP_LATENCY_MIGRATION_FACTOR)) {
+                this.latencyMigrationFactor = Double.parseDouble(
+                        props.getProperty(PROP_LATENCY_MIGRATION_FACTOR, "0"));
+            }
+            // PROP_HOT_STANDBY
+            if (props.containsKey(PROP_HOT_STANDBY)) {
+                this.hotStandby = Boolean.parseBoolean(props.getProperty(PROP_HOT_STANDBY));
+            }
             // PROP_PING_INTERVAL
             if (props.containsKey(PROP_PING_INTERVAL)) {
                 this.pingInterval = Integer.parseInt(props.getProperty(PROP_PING_INTERVAL,
@@ -497,6 +680,41 @@ public class Options {
             if (props.containsKey(PROP_USE_OLD_REQUEST_STYLE)) {
                 this.useOldRequestStyle = Boolean.parseBoolean(props.getProperty(PROP_USE_OLD_REQUEST_STYLE));
             }
+            // PROP_COALESCE_REQUESTS
+            if (props.containsKey(PROP_COALESCE_REQUESTS)) {
+                this.coalesceRequests = Boolean.parseBoolean(
+                        props.getProperty(PROP_COALESCE_REQUESTS));
+            }
+            // PROP_REQUEST_CACHE_TTL
+            if (props.containsKey(PROP_REQUEST_CACHE_TTL)) {
+                this.requestCacheTtl = Long.parseLong(props.getProperty(PROP_REQUEST_CACHE_TTL,
+                        "0"));
+            }
+            // PROP_TRACK_REQUEST_LATENCY
+            if (props.containsKey(PROP_TRACK_REQUEST_LATENCY)) {
+                this.trackRequestLatency = Boolean.parseBoolean(
+                        props.getProperty(PROP_TRACK_REQUEST_LATENCY));
+            }
+            // PROP_TRACK_SUBSCRIPTION_LATENCY
+            if (props.containsKey(PROP_TRACK_SUBSCRIPTION_LATENCY)) {
+                this.trackSubscriptionLatency = Boolean.parseBoolean(
+                        props.getProperty(PROP_TRACK_SUBSCRIPTION_LATENCY));
+            }
+            // PROP_TRACK_LOCK_CONTENTION
+            if (props.containsKey(PROP_TRACK_LOCK_CONTENTION)) {
+                this.trackLockContention = Boolean.parseBoolean(
+                        props.getProperty(PROP_TRACK_LOCK_CONTENTION));
+            }
+            // PROP_HEDGE_PERCENTILE
+            if (props.containsKey(PROP_HEDGE_PERCENTILE)) {
+                this.hedgePercentile = Double.parseDouble(
+                        props.getProperty(PROP_HEDGE_PERCENTILE, "0"));
+            }
+            // PROP_ADAPTIVE_TIMEOUT_MULTIPLIER
+            if (props.containsKey(PROP_ADAPTIVE_TIMEOUT_MULTIPLIER)) {
+                this.adaptiveTimeoutMultiplier = Double.parseDouble(
+                        props.getProperty(PROP_ADAPTIVE_TIMEOUT_MULTIPLIER, "0"));
+            }
             // PROP_EXCEPTION_HANDLER
             if (props.containsKey(PROP_EXCEPTION_HANDLER)) {
                 Object instance;
@@ -571,6 +789,162 @@ public class Options {
             return this;
         }
 
+        /**
+         * Enables single-flight request coalescing. While a request is in flight, further
+         * synchronous requests with the same subject and payload do not publish again; they wait
+         * for the same response and receive the same {@link Message}. Has no effect with the old
+         * request style.
+         *
+         * @param coalesceRequests whether to coalesce identical in-flight requests
+         * @return the {@code Builder}
+         */
+        public Builder coalesceRequests(boolean coalesceRequests) {
+            this.coalesceRequests = coalesceRequests;
+            return this;
+        }
+
+        /**
+         * Sets how long the response to a coalesced request is served from a local cache to later
+         * identical requests. Only used when {@link #coalesceRequests(boolean)} is enabled;
+         * {@code 0}, the default, disables the cache.
+         *
+         * @param millis the cache time-to-live, in milliseconds
+         * @return the {@code Builder}
+         */
+        public Builder requestCacheTtl(long millis) {
+            this.requestCacheTtl = millis;
+            return this;
+        }
+
+        public Builder requestCacheTtl(long duration, TimeUnit unit) {
+            return requestCacheTtl(unit.toMillis(duration));
+        }
+
+        /**
+         * Enables per-subject response time histograms for new style requests, available from
+         * {@link Connection#getRequestLatency(String)}. At most 1024 subjects are tracked, and the
+         * histograms are dropped when the connection is closed. Implied by
+         * {@link #hedgeRequests(double)} and {@link #adaptiveRequestTimeout(double)}.
+         *
+         * @param trackRequestLatency whether to track request latency
+         * @return the {@code Builder}
+         */
+        public Builder trackRequestLatency(boolean trackRequestLatency) {
+            this.trackRequestLatency = trackRequestLatency;
+            return this;
+        }
+
+        /**
+         * Enables per-subscription histograms of the time messages wait to be delivered and of
+         * the time message handlers take, available from {@link Subscription#getDispatchDelay()}
+         * and {@link Subscription#getHandlerTime()}.
+         *
+         * @param trackSubscriptionLatency whether to track subscription latency
+         * @return the {@code Builder}
+         */
+        public Builder trackSubscriptionLatency(boolean trackSubscriptionLatency) {
+            this.trackSubscriptionLatency = trackSubscriptionLatency;
+            return this;
+        }
+
+        /**
+         * Enables per-call-site statistics of the contention on the connection's lock: how often
+         * publish, the flusher, message processing and so on take the lock, how long they wait
+         * for it and how long they hold it. The statistics are available from
+         * {@link Statistics#getLockStats()} and are registered with the platform MBean server.
+         *
+         * @param trackLockContention whether to track contention on the connection's lock
+         * @return the {@code Builder}
+         */
+        public Builder trackLockContention(boolean trackLockContention) {
+            this.trackLockContention = trackLockContention;
+            return this;
+        }
+
+        /**
+         * Enables hedged requests. Once a subject's latency histogram has enough samples, a
+         * request that has not been answered after the given percentile of the latency of the
+         * last thousand or so requests is published a second time; the first response to either
+         * copy completes the request. {@code 0}, the default, disables hedging.
+         *
+         * @param percentile the latency percentile after which to hedge, for example 95
+         * @return the {@code Builder}
+         */
+        public Builder hedgeRequests(double percentile) {
+            if (percentile < 0.0 || percentile > 100.0) {
+                throw new IllegalArgumentException("percentile out of range: " + percentile);
+            }
+            this.hedgePercentile = percentile;
+            return this;
+        }
+
+        /**
+         * Enables adaptive request timeouts. Once a subject's latency histogram has enough
+         * samples, a request's timeout is shortened to {@code multiplier} times the p99 latency of
+         * the last thousand or so requests, but never below 10 milliseconds. The timeout passed to
+         * the request is still the upper bound. Requests that time out are recorded in the
+         * histogram at their timeout. {@code 0}, the default, disables adaptive timeouts.
+         *
+         * @param multiplier the multiple of p99 latency to wait for, at least 1
+         * @return the {@code Builder}
+         */
+        public Builder adaptiveRequestTimeout(double multiplier) {
+            if (multiplier != 0.0 && multiplier < 1.0) {
+                throw new IllegalArgumentException("multiplier must be 0 or at least 1");
+            }
+            this.adaptiveTimeoutMultiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * Enables a hot standby. While connected, the client keeps a second session open and
+         * handshaken to another server in the pool, answering its PINGs. When the current
+         * connection fails, the standby is promoted in place of dialing a new server, so that
+         * subscriptions are replayed and the reconnect buffer is drained without waiting for a
+         * TCP or TLS handshake. A new standby is then opened in the background. Has no effect
+         * unless reconnects are allowed and the pool has more than one server, nor on
+         * connections whose sockets come from a custom socket factory, as the standby is read
+         * without blocking.
+         *
+         * @param hotStandby whether to keep a hot standby session
+         * @return the {@code Builder}
+         */
+        public Builder hotStandby(boolean hotStandby) {
+            this.hotStandby = hotStandby;
+            return this;
+        }
+
+        /**
+         * Runs connections on the threads of a shared {@link NatsRuntime} instead of starting
+         * their own. Opening and closing a connection is then cheaper, and the number of threads
+         * no longer grows with the number of connections.
+         *
+         * <p>The runtime runs the connection callbacks, such as the disconnected, reconnected
+         * and closed handlers, of all its connections on a single thread, which keeps them in
+         * order per connection. A handler that blocks therefore delays the callbacks of every
+         * other connection on the runtime, so slow work should be handed off to another thread.
+         *
+         * @param runtime the runtime, or {@code null} for threads of the connection's own
+         * @return the {@code Builder}
+         */
+        public Builder runtime(NatsRuntime runtime) {
+            this.runtime = runtime;
+            return this;
+        }
+
+        /**
+         * Reports the timings and sizes of the connection's hot paths to a
+         * {@link MetricsRecorder}, such as a {@link HistogramMetricsRecorder}. A recorder can be
+         * shared by several connections.
+         *
+         * @param metricsRecorder the recorder, or {@code null} to record nothing
+         * @return the {@code Builder}
+         */
+        public Builder metricsRecorder(MetricsRecorder metricsRecorder) {
+            this.metricsRecorder = metricsRecorder;
+            return this;
+        }
+
         public Builder maxReconnect(int maxReconnect) {
             this.maxReconnect = maxReconnect;
             return this;
@@ -614,6 +988,99 @@ public class Options {
             return reconnectWait(unit.toMillis(duration));
         }
 
+        /**
+         * Enables exponential reconnect backoff. Each failed attempt to reconnect to a server
+         * doubles the wait before the next attempt to that server, starting from the reconnect
+         * wait and capped at {@code millis}, and a random jitter of up to half the wait is
+         * subtracted so that many clients do not reconnect in lockstep. {@code 0}, the default,
+         * keeps the fixed reconnect wait.
+         *
+         * @param millis the longest wait between reconnect attempts to a server, in milliseconds
+         * @return the {@code Builder}
+         */
+        public Builder maxReconnectWait(long millis) {
+            this.maxReconnectWait = millis;
+            return this;
+        }
+
+        public Builder maxReconnectWait(long duration, TimeUnit unit) {
+            return maxReconnectWait(unit.toMillis(duration));
+        }
+
+        /**
+         * Sets how many servers from the pool are dialed concurrently when connecting or
+         * reconnecting. Attempts start {@link #dialStagger(long) staggered} one after another, or
+         * immediately after an attempt fails; the first socket to connect is kept and the others
+         * are closed. {@code 1}, the default, dials one server at a time.
+         *
+         * @param parallelism the number of servers to dial at once
+         * @return the {@code Builder}
+         */
+        public Builder dialParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1");
+            }
+            this.dialParallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the delay between starting parallel connection attempts. Only used when
+         * {@link #dialParallelism(int)} is greater than 1.
+         *
+         * @param millis the stagger delay, in milliseconds
+         * @return the {@code Builder}
+         */
+        public Builder dialStagger(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("stagger cannot be negative");
+            }
+            this.dialStagger = millis;
+            return this;
+        }
+
+        public Builder dialStagger(long duration, TimeUnit unit) {
+            return dialStagger(unit.toMillis(duration));
+        }
+
+        /**
+         * Enables latency-aware server selection. The client keeps a smoothed round trip time for
+         * each server, measured during the connect handshake and from PING/PONG, and separately
+         * how long the last TCP connect to it took. When reconnecting, it goes to the server with
+         * the lowest measured round trip time that did not fail its last connection attempt, or
+         * the quickest to dial if no other server has a round trip time yet, instead of the next
+         * server in the pool.
+         *
+         * @param preferLowLatency whether to prefer the lowest latency server
+         * @return the {@code Builder}
+         */
+        public Builder preferLowLatency(boolean preferLowLatency) {
+            this.preferLowLatency = preferLowLatency;
+            return this;
+        }
+
+        /**
+         * Enables migration to a faster server. On each ping interval, if the current server's
+         * round trip time is more than {@code factor} times that of the fastest other known
+         * server, the client reconnects to that server. Only round trip times measured within the
+         * last three ping intervals count, and each interval the client refreshes one other
+         * server's by running a short-lived handshake with it. After migrating, the client stays
+         * on the new server for at least ten ping intervals. A migration is not an error: it
+         * waits until no flush is pending, and calls neither the disconnected nor the
+         * reconnected callback, though it counts as a reconnect in the statistics. Implies
+         * {@link #preferLowLatency(boolean)}. {@code 0}, the default, disables migration.
+         *
+         * @param factor how many times slower the current server must be, greater than 1
+         * @return the {@code Builder}
+         */
+        public Builder latencyMigrationFactor(double factor) {
+            if (factor != 0.0 && factor <= 1.0) {
+                throw new IllegalArgumentException("factor must be 0 or greater than 1");
+            }
+            this.latencyMigrationFactor = factor;
+            return this;
+        }
+
         public Builder secure() {
             this.secure = true;
             return this;
@@ -79,6 +79,10 @@ class Parser {
         byte b;
         boolean error = false;
 
+        if (ps.reassembly != null) {
+            ps.reassemblyReads++;
+        }
+
         for (i = 0; i < len; i++) {
             b = buf[i];
 
@@ -197,6 +201,9 @@ class Parser {
                         if (ps.msgBuf.position() >= ps.ma.size) {
                             ps.msgBuf.flip();
                             submitMsg(ps.msgBuf.array(), 0, ps.msgBuf.limit());
+                            NatsEvents.endReassembly(ps.reassembly, ps.ma.subject, ps.ma.size,
+                                    ps.reassemblyReads);
+                            ps.reassembly = null;
                             done = true;
                         } else {
                             // copy as much as we can to the buffer and skip ahead.
@@ -552,6 +559,8 @@ class Parser {
         }
         // Check for split msg
         if (ps.state == MSG_PAYLOAD && ps.msgBuf == null) {
+            ps.reassembly = NatsEvents.beginReassembly();
+            ps.reassemblyReads = 1;
             // We need to clone the msgArg if it is still referencing the
             // read buffer and we are not able to process the msg.
             if (ps.argBuf == null) {
@@ -764,6 +773,10 @@ class Parser {
         ByteBuffer argBuf = null;
         byte[] msgBufStore = new byte[ConnectionImpl.DEFAULT_BUF_SIZE];
         ByteBuffer msgBuf = null;
+        // The Flight Recorder event of the split message being reassembled in msgBuf, if any,
+        // and the number of reads it has taken so far
+        Object reassembly = null;
+        int reassemblyReads;
         // byte[] scratch = new byte[MAX_CONTROL_LINE_SIZE];
         final ByteBuffer[] args = new ByteBuffer[MAX_MSG_ARGS];
 
@@ -0,0 +1,36 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+/**
+ * When the messages pending on a {@code Subscription} rise to its high watermark, or fall back
+ * to its low watermark, the {@code PendingWatermarkCallback} registered for it is notified. The
+ * high watermark is reached before the pending limits, so a consumer that falls behind can be
+ * scaled out before messages are dropped.
+ *
+ * <p>Callbacks run on the connection's callback thread. Each crossing of the high watermark is
+ * followed by a crossing of the low watermark before the high watermark is reported again.
+ *
+ * @see Subscription#setPendingWatermarks(double, double, PendingWatermarkCallback)
+ */
+public interface PendingWatermarkCallback {
+    /**
+     * This callback notification method is invoked when the pending messages or bytes of a
+     * subscription reach its high watermark.
+     *
+     * @param sub the subscription
+     */
+    void onHighWatermark(Subscription sub);
+
+    /**
+     * This callback notification method is invoked when the pending messages and bytes of a
+     * subscription that had reached its high watermark are back at its low watermark.
+     *
+     * @param sub the subscription
+     */
+    void onLowWatermark(Subscription sub);
+}
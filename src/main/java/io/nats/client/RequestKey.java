@@ -0,0 +1,45 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.util.Arrays;
+
+/*
+ * The identity of a request, its subject and payload. Coalesced requests are matched by it, and
+ * the response caches of the connection and of CachingRequester are keyed by it.
+ */
+final class RequestKey {
+    private final String subject;
+    private final byte[] data;
+    private final int hash;
+
+    RequestKey(String subject, byte[] data) {
+        this.subject = subject;
+        // Copied, the caller is free to reuse its buffer.
+        this.data = (data == null) ? new byte[0] : data.clone();
+        this.hash = 31 * subject.hashCode() + Arrays.hashCode(this.data);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof RequestKey)) {
+            return false;
+        }
+        RequestKey other = (RequestKey) obj;
+        return hash == other.hash && subject.equals(other.subject)
+                && Arrays.equals(data, other.data);
+    }
+
+    String getSubject() {
+        return subject;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * The response times of new style requests to one subject, see Options#isTrackRequestLatency().
+ * Besides the all-time histogram returned by Connection#getRequestLatency(String), it keeps the
+ * percentiles that drive hedging and adaptive timeouts. Those come from a window of recent
+ * samples, started afresh every WINDOW_SAMPLES so that they follow the latency as it changes, and
+ * are recomputed every REFRESH_SAMPLES rather than per request, as a percentile reads every
+ * bucket of the histogram.
+ */
+final class RequestLatency {
+    static final int WINDOW_SAMPLES = 1000;
+    static final int REFRESH_SAMPLES = 50;
+
+    private final Histogram total = new Histogram();
+    // Null unless hedging or adaptive timeouts are enabled
+    private volatile Histogram window;
+    private final AtomicLong samples = new AtomicLong();
+    private final double hedgePercentile;
+    // 0 until the window has ConnectionImpl.MIN_LATENCY_SAMPLES samples
+    private volatile long p99;
+    private volatile long hedgeDelay;
+
+    RequestLatency(boolean windowed, double hedgePercentile) {
+        this.window = windowed ? new Histogram() : null;
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    void record(long nanos) {
+        total.record(nanos);
+        Histogram win = window;
+        if (win == null) {
+            return;
+        }
+        win.record(nanos);
+        long count = samples.incrementAndGet();
+        if (count == ConnectionImpl.MIN_LATENCY_SAMPLES || count % REFRESH_SAMPLES == 0) {
+            p99 = win.getValueAtPercentile(99);
+            if (hedgePercentile > 0) {
+                hedgeDelay = win.getValueAtPercentile(hedgePercentile);
+            }
+        }
+        if (count % WINDOW_SAMPLES == 0) {
+            window = new Histogram();
+        }
+    }
+
+    // The p99 of recent samples, or 0 if there are too few yet
+    long getP99() {
+        return p99;
+    }
+
+    // The hedge percentile of recent samples, or 0 if there are too few yet
+    long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    Histogram snapshot() {
+        return total.snapshot();
+    }
+}
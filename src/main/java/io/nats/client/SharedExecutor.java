@@ -0,0 +1,252 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * A connection's view of the executors of a NatsRuntime. Timed tasks go to the shared scheduler
+ * and everything else to the shared worker pool, which, unlike the scheduler, can grow to run
+ * long-lived tasks such as read loops.
+ *
+ * Shutting the view down only affects the tasks submitted through it: shutdown() rejects new
+ * tasks and cancels periodic ones, as a ScheduledThreadPoolExecutor does, and shutdownNow() also
+ * interrupts the running ones. The shared threads are left alone.
+ *
+ * A cancelled future reports itself done while its task may still be running, so the tasks are
+ * wrapped to count the ones actually running, and the view only terminates once that count is
+ * back to zero. Tasks that have not started by then never will.
+ */
+final class SharedExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+    // Done tasks are pruned when the list grows past this
+    private static final int PRUNE_THRESHOLD = 64;
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    // Guarded by this.
+    private final List<Future<?>> tasks = new ArrayList<Future<?>>();
+    private final List<Future<?>> periodic = new ArrayList<Future<?>>();
+    // Tasks between entering and leaving run()
+    private int running;
+    private boolean terminated;
+    private volatile boolean shutdown;
+
+    SharedExecutor(ScheduledExecutorService scheduler, ExecutorService workers) {
+        this.scheduler = scheduler;
+        this.workers = workers;
+    }
+
+    private void checkShutdown() {
+        if (shutdown) {
+            throw new RejectedExecutionException("nats: executor has been shut down");
+        }
+    }
+
+    private <F extends Future<?>> F track(List<Future<?>> list, F future) {
+        if (list.size() >= PRUNE_THRESHOLD) {
+            for (Iterator<Future<?>> it = list.iterator(); it.hasNext(); ) {
+                if (it.next().isDone()) {
+                    it.remove();
+                }
+            }
+        }
+        list.add(future);
+        return future;
+    }
+
+    // Returns false, and the task must not run, once the view has terminated.
+    private synchronized boolean enter() {
+        if (terminated) {
+            return false;
+        }
+        running++;
+        return true;
+    }
+
+    private synchronized void exit() {
+        if (--running == 0) {
+            notifyAll();
+        }
+    }
+
+    private Runnable tracked(final Runnable task) {
+        return new Runnable() {
+            public void run() {
+                if (!enter()) {
+                    return;
+                }
+                try {
+                    task.run();
+                } finally {
+                    exit();
+                }
+            }
+        };
+    }
+
+    private <T> Callable<T> tracked(final Callable<T> task) {
+        return new Callable<T>() {
+            public T call() throws Exception {
+                if (!enter()) {
+                    throw new CancellationException();
+                }
+                try {
+                    return task.call();
+                } finally {
+                    exit();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submit(command);
+    }
+
+    @Override
+    public synchronized Future<?> submit(Runnable task) {
+        checkShutdown();
+        return track(tasks, workers.submit(tracked(task)));
+    }
+
+    @Override
+    public synchronized <T> Future<T> submit(Runnable task, T result) {
+        checkShutdown();
+        return track(tasks, workers.submit(tracked(task), result));
+    }
+
+    @Override
+    public synchronized <T> Future<T> submit(Callable<T> task) {
+        checkShutdown();
+        return track(tasks, workers.submit(tracked(task)));
+    }
+
+    @Override
+    public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        checkShutdown();
+        return track(tasks, scheduler.schedule(tracked(command), delay, unit));
+    }
+
+    @Override
+    public synchronized <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay,
+                                                        TimeUnit unit) {
+        checkShutdown();
+        return track(tasks, scheduler.schedule(tracked(callable), delay, unit));
+    }
+
+    @Override
+    public synchronized ScheduledFuture<?> scheduleAtFixedRate(Runnable command,
+                                                               long initialDelay, long period,
+                                                               TimeUnit unit) {
+        checkShutdown();
+        return track(periodic, scheduler.scheduleAtFixedRate(tracked(command), initialDelay, period, unit));
+    }
+
+    @Override
+    public synchronized ScheduledFuture<?> scheduleWithFixedDelay(Runnable command,
+                                                                  long initialDelay, long delay,
+                                                                  TimeUnit unit) {
+        checkShutdown();
+        return track(periodic,
+                scheduler.scheduleWithFixedDelay(tracked(command), initialDelay, delay, unit));
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+        for (Future<?> future : periodic) {
+            future.cancel(false);
+        }
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown();
+        for (Future<?> future : tasks) {
+            future.cancel(true);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        if (terminated) {
+            return true;
+        }
+        if (!shutdown || running > 0) {
+            return false;
+        }
+        for (Future<?> future : tasks) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        for (Future<?> future : periodic) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        terminated = true;
+        return true;
+    }
+
+    // Waits for the tasks submitted through this view, including cancelled ones that are still
+    // running.
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        List<Future<?>> pending;
+        synchronized (this) {
+            pending = new ArrayList<Future<?>>(tasks);
+            pending.addAll(periodic);
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Future<?> future : pending) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0 && !future.isDone()) {
+                return false;
+            }
+            try {
+                future.get(Math.max(left, 0L), TimeUnit.NANOSECONDS);
+            } catch (CancellationException | ExecutionException e) {
+                // done, though a cancelled task may still be running
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
+        synchronized (this) {
+            while (running > 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+            return isTerminated();
+        }
+    }
+}
@@ -7,7 +7,10 @@
 package io.nats.client;
 
 import java.text.NumberFormat;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -22,6 +25,14 @@ public class Statistics {
     private AtomicLong outBytes = new AtomicLong();
     private AtomicLong reconnects = new AtomicLong();
     private AtomicLong flushes = new AtomicLong();
+    private AtomicLong timeouts = new AtomicLong();
+    private Histogram reconnectTime = new Histogram();
+    private AtomicLong tlsHandshakes = new AtomicLong();
+    private AtomicLong tlsResumptions = new AtomicLong();
+    private AtomicLong tlsHandshakeBytes = new AtomicLong();
+    private Histogram tlsHandshakeTime = new Histogram();
+    private Histogram pingRtt = new Histogram();
+    private Map<String, LockStats> lockStats = Collections.emptyMap();
 
     public Statistics() {
     }
@@ -34,6 +45,14 @@ public class Statistics {
         this.outMsgs = obj.outMsgs;
         this.reconnects = obj.reconnects;
         this.flushes = obj.flushes;
+        this.timeouts = obj.timeouts;
+        this.reconnectTime = obj.reconnectTime;
+        this.tlsHandshakes = obj.tlsHandshakes;
+        this.tlsResumptions = obj.tlsResumptions;
+        this.tlsHandshakeBytes = obj.tlsHandshakeBytes;
+        this.tlsHandshakeTime = obj.tlsHandshakeTime;
+        this.pingRtt = obj.pingRtt;
+        this.lockStats = obj.lockStats;
     }
 
     /**
@@ -45,6 +64,45 @@ public class Statistics {
         this.outBytes.set(0L);
         this.outMsgs.set(0L);
         this.flushes.set(0L);
+        this.timeouts.set(0L);
+        this.reconnectTime.reset();
+        this.tlsHandshakes.set(0L);
+        this.tlsResumptions.set(0L);
+        this.tlsHandshakeBytes.set(0L);
+        this.tlsHandshakeTime.reset();
+        this.pingRtt.reset();
+        for (LockStats site : lockStats.values()) {
+            site.reset();
+        }
+    }
+
+    // Adds the counts of other to this, e.g. to aggregate the statistics of several connections.
+    void add(Statistics other) {
+        this.inBytes.addAndGet(other.inBytes.get());
+        this.inMsgs.addAndGet(other.inMsgs.get());
+        this.outBytes.addAndGet(other.outBytes.get());
+        this.outMsgs.addAndGet(other.outMsgs.get());
+        this.reconnects.addAndGet(other.reconnects.get());
+        this.flushes.addAndGet(other.flushes.get());
+        this.timeouts.addAndGet(other.timeouts.get());
+        this.reconnectTime.add(other.reconnectTime);
+        this.tlsHandshakes.addAndGet(other.tlsHandshakes.get());
+        this.tlsResumptions.addAndGet(other.tlsResumptions.get());
+        this.tlsHandshakeBytes.addAndGet(other.tlsHandshakeBytes.get());
+        this.tlsHandshakeTime.add(other.tlsHandshakeTime);
+        this.pingRtt.add(other.pingRtt);
+        if (!other.lockStats.isEmpty()) {
+            Map<String, LockStats> sites = new LinkedHashMap<String, LockStats>(lockStats);
+            for (LockStats site : other.lockStats.values()) {
+                LockStats sum = sites.get(site.getSite());
+                if (sum == null) {
+                    sum = new LockStats(site.getSite());
+                    sites.put(site.getSite(), sum);
+                }
+                sum.add(site);
+            }
+            this.lockStats = Collections.unmodifiableMap(sites);
+        }
     }
 
     /**
@@ -52,13 +110,15 @@ public class Statistics {
      */
     public String toString() {
         return String.format(
-                "{in: msgs=%s bytes=%s out: msgs=%s bytes=%s, reconnects: %s flushes: %s}",
+                "{in: msgs=%s bytes=%s out: msgs=%s bytes=%s, reconnects: %s flushes: %s "
+                        + "timeouts: %s}",
                 NumberFormat.getNumberInstance(Locale.US).format(inMsgs.get()),
                 NumberFormat.getNumberInstance(Locale.US).format(inBytes.get()),
                 NumberFormat.getNumberInstance(Locale.US).format(outMsgs.get()),
                 NumberFormat.getNumberInstance(Locale.US).format(outBytes.get()),
                 NumberFormat.getNumberInstance(Locale.US).format(reconnects.get()),
-                NumberFormat.getNumberInstance(Locale.US).format(flushes.get()));
+                NumberFormat.getNumberInstance(Locale.US).format(flushes.get()),
+                NumberFormat.getNumberInstance(Locale.US).format(timeouts.get()));
     }
 
     /**
@@ -148,5 +208,111 @@ public class Statistics {
         return flushes.incrementAndGet();
     }
 
-}
+    /**
+     * Returns the number of requests on this Connection that timed out before a response arrived.
+     *
+     * @return the number of request timeouts
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    long incrementTimeouts() {
+        return timeouts.incrementAndGet();
+    }
+
+    /**
+     * Returns a histogram of the time taken, in nanoseconds, to restore this Connection's state
+     * after each reconnect: the CONNECT handshake with the new server, resending every
+     * subscription and flushing the messages buffered while disconnected.
+     *
+     * @return a snapshot of the reconnect time histogram
+     */
+    public Histogram getReconnectTime() {
+        return reconnectTime.snapshot();
+    }
+
+    void recordReconnectTime(long nanos) {
+        reconnectTime.record(nanos);
+    }
+
+    /**
+     * Returns the number of TLS handshakes this Connection has completed, including those that
+     * resumed a cached session.
+     *
+     * @return the number of TLS handshakes
+     */
+    public long getTlsHandshakes() {
+        return tlsHandshakes.get();
+    }
+
+    /**
+     * Returns the number of TLS handshakes that resumed a cached session rather than running a
+     * full handshake.
+     *
+     * @return the number of resumed TLS handshakes
+     */
+    public long getTlsResumptions() {
+        return tlsResumptions.get();
+    }
 
+    /**
+     * Returns the total number of bytes sent and received by TLS handshakes on this Connection.
+     *
+     * @return the number of TLS handshake bytes
+     */
+    public long getTlsHandshakeBytes() {
+        return tlsHandshakeBytes.get();
+    }
+
+    /**
+     * Returns a histogram of the duration, in nanoseconds, of each TLS handshake on this
+     * Connection.
+     *
+     * @return a snapshot of the TLS handshake time histogram
+     */
+    public Histogram getTlsHandshakeTime() {
+        return tlsHandshakeTime.snapshot();
+    }
+
+    void recordTlsHandshake(long nanos, long bytes, boolean resumed) {
+        tlsHandshakes.incrementAndGet();
+        if (resumed) {
+            tlsResumptions.incrementAndGet();
+        }
+        tlsHandshakeBytes.addAndGet(bytes);
+        tlsHandshakeTime.record(nanos);
+    }
+
+    /**
+     * Returns a histogram of the round trip time, in nanoseconds, of the periodic pings sent to
+     * the server since the statistics were last cleared. This tracks network and server latency
+     * apart from the time the application spends handling messages.
+     *
+     * @return a snapshot of the ping round trip time histogram
+     * @see Options.Builder#pingInterval(long)
+     */
+    public Histogram getPingRtt() {
+        return pingRtt.snapshot();
+    }
+
+    void recordPingRtt(long nanos) {
+        pingRtt.record(nanos);
+    }
+
+    /**
+     * Returns the contention on the connection's lock by call site, e.g. {@code publish} or
+     * {@code processMsg}. The map is empty unless
+     * {@link Options.Builder#trackLockContention(boolean)} is set. The statistics are live: they
+     * keep counting after this method returns.
+     *
+     * @return the lock statistics of each call site
+     */
+    public Map<String, LockStats> getLockStats() {
+        return lockStats;
+    }
+
+    void setLockStats(Map<String, LockStats> lockStats) {
+        this.lockStats = lockStats;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A counter spread over several cells, so that threads adding to it concurrently rarely touch the
+ * same cache line. A stand-in for java.util.concurrent.atomic.LongAdder, which is not available
+ * at the language level this library targets.
+ *
+ * A thread always adds to the cell picked by its id. Cells are padded a cache line apart. Reading
+ * the total sums every cell, and is not atomic with respect to concurrent adds.
+ */
+final class StripedCounter {
+
+    // 8 longs to a 64 byte cache line
+    private static final int PAD = 8;
+    static final int MAX_STRIPES = 64;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+        int stripes = 1;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        while (stripes < cpus && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        this.mask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * PAD);
+    }
+
+    private int cell() {
+        long id = Thread.currentThread().getId();
+        // Thread ids are sequential, spread them before masking
+        int hash = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+        return (hash & mask) * PAD;
+    }
+
+    void add(long delta) {
+        cells.addAndGet(cell(), delta);
+    }
+
+    void increment() {
+        add(1L);
+    }
+
+    long sum() {
+        long total = 0;
+        for (int i = 0; i < cells.length(); i += PAD) {
+            total += cells.get(i);
+        }
+        return total;
+    }
+
+    void reset() {
+        for (int i = 0; i < cells.length(); i += PAD) {
+            cells.set(i, 0L);
+        }
+    }
+
+    int stripes() {
+        return mask + 1;
+    }
+}
@@ -135,6 +135,40 @@ public interface Subscription extends AutoCloseable {
      */
     void clearMaxPending();
 
+    /**
+     * Registers a callback notified when the pending messages or bytes reach a fraction of the
+     * pending limits, and again when they have fallen back below a lower fraction. For example,
+     * with a limit of 1000 messages, {@code setPendingWatermarks(0.8, 0.2, cb)} reports 800
+     * pending messages, and then 200 once the handler has caught up. A limit that is not positive
+     * is not watched.
+     *
+     * @param high the high watermark, as a fraction of the pending limits, greater than
+     *             {@code low} and at most 1
+     * @param low  the low watermark, as a fraction of the pending limits, at least 0
+     * @param cb   the callback, or {@code null} to stop watching
+     * @see #setPendingLimits(int, int)
+     */
+    void setPendingWatermarks(double high, double low, PendingWatermarkCallback cb);
+
+    /**
+     * Returns the time messages waited in this subscription's pending queue before being
+     * delivered, in nanoseconds.
+     *
+     * @return the dispatch delays, or {@code null} unless subscription latency is tracked
+     * @see Options.Builder#trackSubscriptionLatency(boolean)
+     */
+    Histogram getDispatchDelay();
+
+    /**
+     * Returns the time this subscription's {@link MessageHandler} took to process each message,
+     * in nanoseconds.
+     *
+     * @return the handler times, or {@code null} unless subscription latency is tracked and
+     *     this is an asynchronous subscription
+     * @see Options.Builder#trackSubscriptionLatency(boolean)
+     */
+    Histogram getHandlerTime();
+
     /**
      * Returns the number of messages that this subscription has dropped due to "slow consumer"
      * condition.
@@ -50,6 +50,8 @@ abstract class SubscriptionImpl implements Subscription {
     private ConnectionImpl conn;
     BlockingQueue<Message> mch;
     Condition pCond;
+    // Set for subscriptions created in bulk, which share one delivery task
+    ConnectionImpl.SubscriptionDispatcher dispatcher;
 
     // Pending stats, async subscriptions, high-speed etc.
     int pMsgs;
@@ -60,6 +62,21 @@ abstract class SubscriptionImpl implements Subscription {
     int pBytesLimit = pMsgsLimit * 1024;
     int dropped;
 
+    // Latency histograms, created when the connection tracks subscription latency
+    Histogram dispatchDelay;
+    Histogram handlerTime;
+
+    // Pending watermarks, see setPendingWatermarks(). Guarded by mu.
+    private PendingWatermarkCallback watermarkCb;
+    private double highWatermark;
+    private double lowWatermark;
+    // The watermarks in messages and bytes, -1 where the limit is not positive
+    private int highMsgs;
+    private int lowMsgs;
+    private int highBytes;
+    private int lowBytes;
+    private boolean aboveHighWatermark;
+
     SubscriptionImpl(ConnectionImpl conn, String subject, String queue) {
         this(conn, subject, queue, DEFAULT_MAX_PENDING_MSGS, DEFAULT_MAX_PENDING_BYTES);
     }
@@ -233,6 +250,7 @@ abstract class SubscriptionImpl implements Subscription {
             if (pendingMsgsLimit == 0) {
                 throw new IllegalArgumentException("nats: pending message limit cannot be zero");
             }
+            updateWatermarks();
         } finally {
             mu.unlock();
         }
@@ -245,11 +263,81 @@ abstract class SubscriptionImpl implements Subscription {
             if (pendingBytesLimit == 0) {
                 throw new IllegalArgumentException("nats: pending message limit cannot be zero");
             }
+            updateWatermarks();
+        } finally {
+            mu.unlock();
+        }
+    }
+
+    @Override
+    public void setPendingWatermarks(double high, double low, PendingWatermarkCallback cb) {
+        if (cb != null && !(low >= 0.0 && low < high && high <= 1.0)) {
+            throw new IllegalArgumentException(String.format(
+                    "nats: invalid pending watermarks high=%f, low=%f", high, low));
+        }
+        mu.lock();
+        try {
+            watermarkCb = cb;
+            highWatermark = high;
+            lowWatermark = low;
+            aboveHighWatermark = false;
+            updateWatermarks();
         } finally {
             mu.unlock();
         }
     }
 
+    // Converts the watermarks to messages and bytes. The lock must be held.
+    private void updateWatermarks() {
+        if (watermarkCb == null) {
+            return;
+        }
+        highMsgs = pMsgsLimit > 0 ? Math.max(1, (int) Math.ceil(highWatermark * pMsgsLimit)) : -1;
+        lowMsgs = pMsgsLimit > 0 ? (int) (lowWatermark * pMsgsLimit) : -1;
+        highBytes = pBytesLimit > 0
+                ? Math.max(1, (int) Math.ceil(highWatermark * pBytesLimit)) : -1;
+        lowBytes = pBytesLimit > 0 ? (int) (lowWatermark * pBytesLimit) : -1;
+    }
+
+    // Reports a crossing of the pending watermarks, after pMsgs or pBytes changed. The lock must
+    // be held.
+    void checkPendingWatermarks() {
+        if (watermarkCb == null) {
+            return;
+        }
+        if (!aboveHighWatermark) {
+            if ((highMsgs > 0 && pMsgs >= highMsgs) || (highBytes > 0 && pBytes >= highBytes)) {
+                aboveHighWatermark = true;
+                fireWatermark(true);
+            }
+        } else if ((lowMsgs < 0 || pMsgs <= lowMsgs) && (lowBytes < 0 || pBytes <= lowBytes)) {
+            aboveHighWatermark = false;
+            fireWatermark(false);
+        }
+    }
+
+    private void fireWatermark(boolean high) {
+        ConnectionImpl nc = conn;
+        if (nc != null) {
+            nc.processPendingWatermark(this, watermarkCb, high);
+        }
+    }
+
+    // Creates the latency histograms
+    void trackLatency() {
+        dispatchDelay = new Histogram();
+    }
+
+    @Override
+    public Histogram getDispatchDelay() {
+        return dispatchDelay;
+    }
+
+    @Override
+    public Histogram getHandlerTime() {
+        return handlerTime;
+    }
+
     void setPendingMsgsMax(int max) {
         mu.lock();
         try {
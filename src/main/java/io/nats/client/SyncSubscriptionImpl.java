@@ -105,9 +105,13 @@ class SyncSubscriptionImpl extends SubscriptionImpl implements SyncSubscription
                 delivered = this.delivered;
                 pMsgs--;
                 pBytes -= (msg.getData() != null ? msg.getData().length : 0);
+                checkPendingWatermarks();
             } finally {
                 unlock();
             }
+            if (dispatchDelay != null) {
+                dispatchDelay.record(System.nanoTime() - msg.arrivalNanos);
+            }
 
             if (localMax > 0) {
                 if (delivered > localMax) {
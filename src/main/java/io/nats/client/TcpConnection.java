@@ -18,11 +18,14 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.security.cert.Certificate;
 import java.util.concurrent.locks.ReentrantLock;
 import javax.net.SocketFactory;
 import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
@@ -39,9 +42,17 @@ class TcpConnection implements TransportConnection, AutoCloseable {
     // more efficient for NATS?
     //
     private final ReentrantLock mu = new ReentrantLock();
-    private SocketFactory factory = SocketFactory.getDefault();
+    // When no factory is set, connections are made through a SocketChannel so that TLS can run
+    // over an SSLEngine.
+    private SocketFactory factory = null;
     private SSLContext sslContext;
     private Socket client = null;
+    private TlsChannel tls = null;
+    private String host;
+    private int port;
+    private long tlsHandshakeNanos;
+    private long tlsHandshakeBytes;
+    private boolean tlsResumed;
     private OutputStream writeStream = null;
     private InputStream readStream = null;
     private BufferedReader bisr = null;
@@ -60,16 +71,30 @@ class TcpConnection implements TransportConnection, AutoCloseable {
         int port = uri.getPort();
         mu.lock();
         try {
-
-            client = factory.createSocket();
+            this.host = host;
+            this.port = port;
+            SocketChannel channel = null;
+            if (factory == null) {
+                channel = SocketChannel.open();
+                client = channel.socket();
+            } else {
+                client = factory.createSocket();
+            }
             client.setTcpNoDelay(true);
             client.setReceiveBufferSize(2 * 1024 * 1024);
             client.setSendBufferSize(2 * 1024 * 1024);
             client.connect(new InetSocketAddress(host, port), timeout);
 
-            writeStream = client.getOutputStream();
-            readStream = client.getInputStream();
-
+            if (channel != null) {
+                // Not the socket's own streams, which on Java 7 and 8 serialize reads and writes
+                // on the channel's blocking lock.
+                ReentrantLock writeLock = new ReentrantLock();
+                writeStream = new ChannelOutputStream(channel, writeLock);
+                readStream = new ChannelInputStream(channel, writeLock);
+            } else {
+                writeStream = client.getOutputStream();
+                readStream = client.getInputStream();
+            }
         } finally {
             mu.unlock();
         }
@@ -88,6 +113,10 @@ class TcpConnection implements TransportConnection, AutoCloseable {
     void teardown() {
         mu.lock();
         try {
+            if (tls != null) {
+                tls.close();
+            }
+            tls = null;
             if (client != null) {
                 client.close();
             }
@@ -117,7 +146,6 @@ class TcpConnection implements TransportConnection, AutoCloseable {
             } else {
                 bis = new BufferedInputStream(readStream);
             }
-            bis = new BufferedInputStream(readStream, size);
         }
         return bis;
     }
@@ -135,6 +163,12 @@ class TcpConnection implements TransportConnection, AutoCloseable {
         return client != null && client.isConnected();
     }
 
+    // Whether available() on the input stream counts the bytes that have arrived. Only the streams
+    // over a SocketChannel do; an SSLSocket's always report 0, and other sockets' need not.
+    boolean reportsArrived() {
+        return client != null && client.getChannel() != null;
+    }
+
     @Override
     public boolean isClosed() {
         return client.isClosed();
@@ -158,10 +192,38 @@ class TcpConnection implements TransportConnection, AutoCloseable {
         }
     }
 
+    /*
+     * Upgrades the connection to TLS. A connection opened through a SocketChannel runs TLS over an
+     * SSLEngine created for the URL's host and port, so that the context's session cache resumes
+     * the session on a reconnect to the same server or cluster hostname. Other sockets fall back
+     * to an SSLSocket layered over the plain one.
+     */
     void makeTls(SSLContext context) throws IOException {
         this.sslContext = context;
-        setSocketFactory(sslContext.getSocketFactory());
-        makeTls();
+        SocketChannel channel = client.getChannel();
+        if (channel == null) {
+            setSocketFactory(sslContext.getSocketFactory());
+            makeTls();
+            return;
+        }
+        SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        TlsChannel tc = new TlsChannel(channel, engine);
+        try {
+            tc.handshake();
+        } catch (IOException e) {
+            tc.close();
+            throw e;
+        }
+        this.tls = tc;
+        this.tlsHandshakeNanos = tc.getHandshakeNanos();
+        this.tlsHandshakeBytes = tc.getHandshakeBytes();
+        this.tlsResumed = tc.isSessionResumed();
+        this.bisr = null;
+        this.readStream = tc.getInputStream();
+        bis = null;
+        this.writeStream = tc.getOutputStream();
+        bos = null;
     }
 
     void makeTls() throws IOException {
@@ -169,7 +231,12 @@ class TcpConnection implements TransportConnection, AutoCloseable {
         SSLSocket sslSocket = (SSLSocket) sslSf.createSocket(client,
                 client.getInetAddress().getHostAddress(), client.getPort(), true);
 
+        long start = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
         sslSocket.startHandshake();
+        this.tlsHandshakeNanos = System.nanoTime() - start;
+        SSLSession session = sslSocket.getSession();
+        this.tlsResumed = session != null && session.getCreationTime() < startMillis;
         this.bisr = null;
         this.readStream = sslSocket.getInputStream();
         bis = null;
@@ -225,4 +292,135 @@ class TcpConnection implements TransportConnection, AutoCloseable {
     protected int getTimeout() {
         return timeout;
     }
+
+    // Duration of the last TLS handshake, in nanoseconds, or 0 if there was none.
+    long getTlsHandshakeNanos() {
+        return tlsHandshakeNanos;
+    }
+
+    // Bytes exchanged by the last TLS handshake, or 0 if unknown.
+    long getTlsHandshakeBytes() {
+        return tlsHandshakeBytes;
+    }
+
+    // Whether the last TLS handshake resumed a cached session.
+    boolean isTlsSessionResumed() {
+        return tlsResumed;
+    }
+
+    /*
+     * Reads straight from a blocking channel. available() reads ahead whatever has already
+     * arrived, by switching the channel to non-blocking mode for one read. It only does so when
+     * neither a read nor a write is in progress, as either would fail or be held up by the switch,
+     * and otherwise counts only the bytes it read ahead before.
+     */
+    private static final class ChannelInputStream extends InputStream {
+        static final int READ_AHEAD_SIZE = 8192;
+
+        private final SocketChannel channel;
+        private final ReentrantLock readLock = new ReentrantLock();
+        // Held by ChannelOutputStream while it writes
+        private final ReentrantLock writeLock;
+        // Bytes read by available() but not yet returned, in read mode. Guarded by readLock.
+        private final ByteBuffer readAhead = ByteBuffer.allocate(READ_AHEAD_SIZE);
+
+        ChannelInputStream(SocketChannel channel, ReentrantLock writeLock) {
+            this.channel = channel;
+            this.writeLock = writeLock;
+            readAhead.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            readLock.lock();
+            try {
+                if (readAhead.hasRemaining()) {
+                    int count = Math.min(len, readAhead.remaining());
+                    readAhead.get(buf, off, count);
+                    return count;
+                }
+                return channel.read(ByteBuffer.wrap(buf, off, len));
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (!readLock.tryLock()) {
+                // Another thread is blocked reading, so nothing has arrived for us yet
+                return 0;
+            }
+            try {
+                if (!readAhead.hasRemaining() && channel.isOpen() && writeLock.tryLock()) {
+                    try {
+                        readAhead.clear();
+                        channel.configureBlocking(false);
+                        try {
+                            // At the end of the stream there is nothing available, the next read
+                            // returns -1.
+                            channel.read(readAhead);
+                        } finally {
+                            readAhead.flip();
+                            channel.configureBlocking(true);
+                        }
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+                return readAhead.remaining();
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Writes straight to a blocking channel.
+    private static final class ChannelOutputStream extends OutputStream {
+        private final SocketChannel channel;
+        private final ReentrantLock writeLock;
+
+        ChannelOutputStream(SocketChannel channel, ReentrantLock writeLock) {
+            this.channel = channel;
+            this.writeLock = writeLock;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            ByteBuffer src = ByteBuffer.wrap(buf, off, len);
+            writeLock.lock();
+            try {
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
 }
@@ -0,0 +1,476 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+/*
+ * TLS over a blocking SocketChannel, driven by an SSLEngine.
+ *
+ * The network buffers are direct and are pooled across connections, so that a reconnect storm
+ * does not allocate fresh native memory for every handshake. Sessions are cached by the
+ * SSLContext under the host and port the engine was created with, so reconnecting to the same
+ * server, or to another server behind the same cluster hostname, resumes the previous session
+ * with an abbreviated handshake.
+ *
+ * The read side and the write side each have their own lock, as SSLEngine allows wrap and unwrap
+ * to run concurrently: the read loop can block on the socket while the flusher writes.
+ */
+final class TlsChannel implements AutoCloseable {
+
+    static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool =
+            new ConcurrentLinkedQueue<ByteBuffer>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final InputStream in = new TlsInputStream();
+    private final OutputStream out = new TlsOutputStream();
+
+    // Network data received but not yet unwrapped, in read mode. Guarded by readLock.
+    private ByteBuffer netIn;
+    // Application data unwrapped but not yet read, in read mode. Guarded by readLock.
+    private ByteBuffer appIn;
+    // Guarded by writeLock.
+    private ByteBuffer netOut;
+
+    private volatile boolean closed;
+    private volatile long bytesRead;
+    private volatile long bytesWritten;
+    private long handshakeNanos;
+    private long handshakeBytes;
+    private boolean resumed;
+
+    TlsChannel(SocketChannel channel, SSLEngine engine) {
+        this.channel = channel;
+        this.engine = engine;
+        SSLSession session = engine.getSession();
+        this.netIn = acquireBuffer(session.getPacketBufferSize());
+        this.netIn.limit(0);
+        this.appIn = acquireBuffer(session.getApplicationBufferSize());
+        this.appIn.limit(0);
+        this.netOut = acquireBuffer(session.getPacketBufferSize());
+    }
+
+    static ByteBuffer acquireBuffer(int size) {
+        ByteBuffer buf;
+        while ((buf = pool.poll()) != null) {
+            pooled.decrementAndGet();
+            if (buf.capacity() >= size) {
+                buf.clear();
+                return buf;
+            }
+            // Too small for this session, let it be collected.
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    static void releaseBuffer(ByteBuffer buf) {
+        if (buf == null || !buf.isDirect()) {
+            return;
+        }
+        if (pooled.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buf.clear();
+        pool.offer(buf);
+    }
+
+    static int pooledBuffers() {
+        return pooled.get();
+    }
+
+    /*
+     * Runs the TLS handshake to completion, recording how long it took, how many bytes went over
+     * the wire and whether a cached session was resumed.
+     */
+    void handshake() throws IOException {
+        long start = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+        engine.beginHandshake();
+        HandshakeStatus hs = engine.getHandshakeStatus();
+        while (hs != HandshakeStatus.FINISHED && hs != HandshakeStatus.NOT_HANDSHAKING) {
+            switch (hs) {
+                case NEED_WRAP:
+                    writeLock.lock();
+                    try {
+                        hs = wrap(EMPTY);
+                    } finally {
+                        writeLock.unlock();
+                    }
+                    break;
+                case NEED_UNWRAP:
+                    readLock.lock();
+                    try {
+                        hs = unwrap();
+                    } finally {
+                        readLock.unlock();
+                    }
+                    break;
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    hs = engine.getHandshakeStatus();
+                    break;
+                default:
+                    throw new SSLException("nats: unexpected TLS handshake status " + hs);
+            }
+        }
+        handshakeNanos = System.nanoTime() - start;
+        handshakeBytes = bytesRead + bytesWritten;
+        // A resumed session was created by an earlier handshake.
+        resumed = engine.getSession().getCreationTime() < startMillis;
+    }
+
+    // Unwraps what is buffered, reading from the socket if a whole record is not there yet.
+    // Caller holds readLock.
+    private HandshakeStatus unwrap() throws IOException {
+        while (true) {
+            checkOpen();
+            appIn.compact();
+            SSLEngineResult res;
+            try {
+                res = engine.unwrap(netIn, appIn);
+            } finally {
+                appIn.flip();
+            }
+            switch (res.getStatus()) {
+                case OK:
+                    return afterOp(res);
+                case BUFFER_UNDERFLOW:
+                    if (readNet() < 0) {
+                        throw new EOFException("nats: connection closed during TLS read");
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    if (appIn.hasRemaining()) {
+                        // Let the reader drain what is already there.
+                        return res.getHandshakeStatus();
+                    }
+                    appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                    appIn.limit(0);
+                    break;
+                case CLOSED:
+                default:
+                    return afterOp(res);
+            }
+        }
+    }
+
+    // Wraps src into a single record and writes it out. Caller holds writeLock.
+    private HandshakeStatus wrap(ByteBuffer src) throws IOException {
+        while (true) {
+            checkOpen();
+            netOut.clear();
+            SSLEngineResult res = engine.wrap(src, netOut);
+            netOut.flip();
+            while (netOut.hasRemaining()) {
+                bytesWritten += channel.write(netOut);
+            }
+            switch (res.getStatus()) {
+                case OK:
+                    return afterOp(res);
+                case BUFFER_OVERFLOW:
+                    netOut = grow(netOut, engine.getSession().getPacketBufferSize());
+                    break;
+                case CLOSED:
+                    if (res.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+                        // Still flushing our close_notify
+                        break;
+                    }
+                    throw new SSLException("nats: TLS connection is closed");
+                default:
+                    throw new SSLException("nats: unexpected TLS wrap status " + res.getStatus());
+            }
+        }
+    }
+
+    private HandshakeStatus afterOp(SSLEngineResult res) {
+        if (res.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+            return engine.getHandshakeStatus();
+        }
+        return res.getHandshakeStatus();
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    // Reads more network data into netIn. Caller holds readLock.
+    private int readNet() throws IOException {
+        netIn.compact();
+        if (!netIn.hasRemaining()) {
+            // A full buffer that still does not hold a record, the packet size must have grown.
+            netIn.flip();
+            netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+            netIn.compact();
+        }
+        int n;
+        try {
+            n = channel.read(netIn);
+        } finally {
+            netIn.flip();
+        }
+        if (n > 0) {
+            bytesRead += n;
+        }
+        return n;
+    }
+
+    // Returns a larger pooled buffer holding the remaining bytes of buf, in read mode.
+    private static ByteBuffer grow(ByteBuffer buf, int size) {
+        ByteBuffer bigger = acquireBuffer(Math.max(size, buf.capacity() * 2));
+        bigger.put(buf);
+        bigger.flip();
+        releaseBuffer(buf);
+        return bigger;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("nats: TLS channel is closed");
+        }
+    }
+
+    // Reads application data, returning -1 at the end of the stream. Takes readLock.
+    int read(byte[] buf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        readLock.lock();
+        try {
+            while (!appIn.hasRemaining()) {
+                checkOpen();
+                if (engine.isInboundDone()) {
+                    return -1;
+                }
+                HandshakeStatus hs;
+                try {
+                    hs = unwrap();
+                } catch (EOFException e) {
+                    return -1;
+                }
+                if (hs == HandshakeStatus.NEED_WRAP) {
+                    // e.g. a TLS 1.3 key update, which the peer expects us to answer
+                    writeLock.lock();
+                    try {
+                        wrap(EMPTY);
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+            }
+            int count = Math.min(len, appIn.remaining());
+            appIn.get(buf, off, count);
+            return count;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Encrypts and writes all of buf. Takes writeLock.
+    void write(byte[] buf, int off, int len) throws IOException {
+        writeLock.lock();
+        try {
+            ByteBuffer src = ByteBuffer.wrap(buf, off, len);
+            while (src.hasRemaining()) {
+                int before = src.remaining();
+                HandshakeStatus hs = wrap(src);
+                if (src.remaining() == before && hs == HandshakeStatus.NEED_UNWRAP) {
+                    // The NATS server never renegotiates, and waiting here on the read loop
+                    // would stall the writer indefinitely.
+                    throw new SSLException("nats: TLS renegotiation is not supported");
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /*
+     * Counts the application data unwrapped but not yet read. If there is none, unwraps whatever
+     * has already arrived, by reading from the channel in non-blocking mode. That is only done
+     * when neither a read nor a write is in progress, as either would fail or be held up by the
+     * switch.
+     */
+    int available() {
+        if (!readLock.tryLock()) {
+            // Another thread is blocked reading, so nothing has arrived for us yet
+            return 0;
+        }
+        try {
+            if (closed) {
+                return 0;
+            }
+            if (!appIn.hasRemaining() && writeLock.tryLock()) {
+                try {
+                    unwrapArrived();
+                } catch (IOException e) {
+                    // The next read reports it
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+            return appIn.remaining();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Unwraps the records that have arrived, without blocking. Caller holds both locks.
+    private void unwrapArrived() throws IOException {
+        channel.configureBlocking(false);
+        try {
+            readNet();
+        } finally {
+            channel.configureBlocking(true);
+        }
+        while (netIn.hasRemaining()) {
+            appIn.compact();
+            SSLEngineResult res;
+            try {
+                res = engine.unwrap(netIn, appIn);
+            } finally {
+                appIn.flip();
+            }
+            if (res.getStatus() != SSLEngineResult.Status.OK || res.bytesConsumed() == 0) {
+                // A partial record, or one the next read has to handle
+                return;
+            }
+            afterOp(res);
+        }
+    }
+
+    InputStream getInputStream() {
+        return in;
+    }
+
+    OutputStream getOutputStream() {
+        return out;
+    }
+
+    long getHandshakeNanos() {
+        return handshakeNanos;
+    }
+
+    long getHandshakeBytes() {
+        return handshakeBytes;
+    }
+
+    boolean isSessionResumed() {
+        return resumed;
+    }
+
+    SSLSession getSession() {
+        return engine.getSession();
+    }
+
+    /*
+     * Sends close_notify if the writer is free, closes the channel and returns the buffers to the
+     * pool. Closing the channel first unblocks a read loop parked on it, so that both locks can
+     * be taken before the buffers are handed to another connection.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        engine.closeOutbound();
+        if (writeLock.tryLock()) {
+            try {
+                wrap(EMPTY);
+            } catch (IOException e) {
+                // ignore, we are closing anyway
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        readLock.lock();
+        writeLock.lock();
+        try {
+            releaseBuffer(netIn);
+            releaseBuffer(appIn);
+            releaseBuffer(netOut);
+            netIn = EMPTY;
+            appIn = EMPTY;
+            netOut = EMPTY;
+        } finally {
+            writeLock.unlock();
+            readLock.unlock();
+        }
+    }
+
+    private final class TlsInputStream extends InputStream {
+        private final byte[] one = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            return TlsChannel.this.read(buf, off, len);
+        }
+
+        @Override
+        public int available() {
+            return TlsChannel.this.available();
+        }
+
+        @Override
+        public void close() {
+            TlsChannel.this.close();
+        }
+    }
+
+    private final class TlsOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            TlsChannel.this.write(buf, off, len);
+        }
+
+        @Override
+        public void close() {
+            TlsChannel.this.close();
+        }
+    }
+}
@@ -25,7 +25,12 @@ import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -35,6 +40,9 @@ public class BenchmarkFunctionalTest {
     @Rule
     public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @BeforeClass
     public static void setUpBeforeClass() throws Exception {
     }
@@ -189,7 +197,7 @@ public class BenchmarkFunctionalTest {
 
     @Test
     public void testBenchSetup() {
-        Benchmark bench = new Benchmark("test", 1, 1, 1000);
+        Benchmark bench = new Benchmark("test", 1, 1);
         bench.addPubSample(millionMessagesSecondSample(1));
         bench.addSubSample(millionMessagesSecondSample(1));
         bench.close();
@@ -210,7 +218,7 @@ public class BenchmarkFunctionalTest {
      * @return the created Benchmark
      */
     private Benchmark makeBench(int subs, int pubs) {
-        Benchmark bench = new Benchmark("test", subs, pubs, 1000);
+        Benchmark bench = new Benchmark("test", subs, pubs);
         for (int i = 0; i < subs; i++) {
             bench.addSubSample(millionMessagesSecondSample(1));
         }
@@ -247,6 +255,76 @@ public class BenchmarkFunctionalTest {
         assertEquals(str, 9, lines.length);
     }
 
+    @Test
+    public void testLatency() {
+        Benchmark bench = new Benchmark("test", 2, 2);
+        for (int i = 1; i <= 1000; i++) {
+            bench.addPubLatency(i % 2, TimeUnit.MICROSECONDS.toNanos(i));
+            bench.addSubLatency(i % 2, TimeUnit.MICROSECONDS.toNanos(2 * i));
+        }
+        bench.addSubSample(millionMessagesSecondSample(1));
+        bench.addPubSample(millionMessagesSecondSample(1));
+        bench.close();
+
+        // The workers' histograms are merged
+        assertEquals(1000, bench.getPubLatency().getCount());
+        assertEquals(1000, bench.getSubLatency().getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), bench.getPubLatency().getMax());
+        long p99 = bench.getSubLatency().getValueAtPercentile(99);
+        assertTrue("p99 was " + p99, Math.abs(p99 - 1980000) < 1980000 * 0.07);
+
+        String[] lines = bench.report().split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[3], lines[3].startsWith(" Pub latency: p50 "));
+        assertTrue(lines[3], lines[3].contains("| p99.99 "));
+        assertTrue(lines[3], lines[3].endsWith("| max 1000.0 us (1,000 msgs)"));
+        assertTrue(lines[4], lines[4].startsWith(" Sub latency: p50 "));
+    }
+
+    @Test
+    public void testLabels() {
+        Benchmark bench = new Benchmark("test", 1, 1);
+        bench.setLabels("Request", "Reply");
+        bench.addPubLatency(0, TimeUnit.MICROSECONDS.toNanos(10));
+        bench.addSubSample(millionMessagesSecondSample(1));
+        bench.addPubSample(millionMessagesSecondSample(1));
+        bench.close();
+        String[] lines = bench.report().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("test Request/Reply stats: "));
+        assertTrue(lines[1], lines[1].startsWith(" Request stats: "));
+        assertTrue(lines[2], lines[2].startsWith(" Reply stats: "));
+        assertTrue(lines[3], lines[3].startsWith(" Request latency: p50 "));
+    }
+
+    @Test
+    public void testExportLatency() throws Exception {
+        Benchmark bench = new Benchmark("test", 1, 1);
+        for (int i = 1; i <= 100; i++) {
+            bench.addSubLatency(0, TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        bench.close();
+
+        Path dir = new File(folder.getRoot(), "latency").toPath();
+        List<Path> files = bench.exportLatency(dir);
+        // Nothing was published, so only the subscriber latencies are written
+        assertEquals(2, files.size());
+        assertEquals(bench.getRunId() + "-sub.hgrm", files.get(0).getFileName().toString());
+        assertEquals(bench.getRunId() + "-sub.hist", files.get(1).getFileName().toString());
+
+        List<String> hgrm = Files.readAllLines(files.get(0), Charset.forName("UTF-8"));
+        assertTrue(hgrm.get(0).trim().startsWith("Value"));
+        String last = hgrm.get(hgrm.size() - 3).trim();
+        assertTrue(last, last.matches("100\\.000 1\\.0+ +100"));
+        assertTrue(hgrm.get(hgrm.size() - 1).contains("Total count    =          100"));
+
+        long total = 0;
+        for (String line : Files.readAllLines(files.get(1), Charset.forName("UTF-8"))) {
+            total += Long.parseLong(line.split(" ")[1]);
+        }
+        assertEquals(100, total);
+    }
+
     @Test
     public void testMsgsPerClient() {
         List<Integer> zero = Utils.msgsPerClient(0, 0);
@@ -0,0 +1,266 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.benchmark;
+
+import static io.nats.benchmark.InProcessServer.matches;
+import static io.nats.benchmark.InProcessServer.tokenize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.nats.client.Connection;
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+import io.nats.client.Nats;
+import io.nats.client.Options;
+import io.nats.client.SyncSubscription;
+import io.nats.client.TestCasePrinterRule;
+import io.nats.client.UnitTest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+
+@Category(UnitTest.class)
+public class InProcessServerTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    private InProcessServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new InProcessServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private Connection connect() throws IOException {
+        return Nats.connect(server.getUrl());
+    }
+
+    @Test
+    public void testPubSub() throws Exception {
+        try (Connection nc = connect()) {
+            SyncSubscription sub = nc.subscribeSync("foo");
+            nc.publish("foo", "hello".getBytes());
+            nc.publish("bar", "ignored".getBytes());
+            Message msg = sub.nextMessage(5000);
+            assertNotNull(msg);
+            assertEquals("foo", msg.getSubject());
+            assertEquals("hello", new String(msg.getData()));
+            assertNull(sub.nextMessage(100));
+            assertEquals(2, server.getInMsgs());
+            assertEquals(1, server.getOutMsgs());
+        }
+    }
+
+    @Test
+    public void testEmptyPayloadAndReplySubject() throws Exception {
+        try (Connection nc = connect()) {
+            SyncSubscription sub = nc.subscribeSync("foo");
+            nc.publish("foo", "bar", null);
+            Message msg = sub.nextMessage(5000);
+            assertEquals("bar", msg.getReplyTo());
+            assertEquals(0, msg.getData() == null ? 0 : msg.getData().length);
+        }
+    }
+
+    @Test
+    public void testMatches() {
+        assertTrue(matches(tokenize("foo.bar"), tokenize("foo.bar")));
+        assertTrue(matches(tokenize("foo.*"), tokenize("foo.bar")));
+        assertTrue(matches(tokenize("*.bar"), tokenize("foo.bar")));
+        assertTrue(matches(tokenize("foo.>"), tokenize("foo.bar.baz")));
+        assertTrue(matches(tokenize(">"), tokenize("foo")));
+        assertFalse(matches(tokenize("foo.*"), tokenize("foo.bar.baz")));
+        assertFalse(matches(tokenize("foo.>"), tokenize("foo")));
+        assertFalse(matches(tokenize("foo.bar"), tokenize("foo")));
+        assertFalse(matches(tokenize("foo"), tokenize("foo.bar")));
+        assertFalse(matches(tokenize("foo.*"), tokenize("bar.baz")));
+
+        assertTrue(InProcessServer.isValidSubject("foo.*.>", true));
+        assertFalse(InProcessServer.isValidSubject("foo.*", false));
+        assertFalse(InProcessServer.isValidSubject("foo.>.bar", true));
+        assertFalse(InProcessServer.isValidSubject("foo..bar", true));
+        assertFalse(InProcessServer.isValidSubject("foo*", true));
+    }
+
+    @Test
+    public void testWildcards() throws Exception {
+        try (Connection nc = connect()) {
+            SyncSubscription star = nc.subscribeSync("foo.*");
+            SyncSubscription tail = nc.subscribeSync("foo.>");
+            SyncSubscription prefix = nc.subscribeSync("*.bar");
+            nc.publish("foo.bar", "1".getBytes());
+            nc.publish("foo.bar.baz", "2".getBytes());
+
+            assertEquals("foo.bar", star.nextMessage(5000).getSubject());
+            assertNull(star.nextMessage(100));
+            assertEquals("foo.bar", tail.nextMessage(5000).getSubject());
+            assertEquals("foo.bar.baz", tail.nextMessage(5000).getSubject());
+            assertEquals("foo.bar", prefix.nextMessage(5000).getSubject());
+            assertNull(prefix.nextMessage(100));
+        }
+    }
+
+    @Test
+    public void testQueueGroups() throws Exception {
+        final int count = 100;
+        final AtomicInteger queued = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(2 * count);
+        MessageHandler member = new MessageHandler() {
+            public void onMessage(Message msg) {
+                queued.incrementAndGet();
+                done.countDown();
+            }
+        };
+        try (Connection nc = connect(); Connection other = connect()) {
+            nc.subscribe("work", "workers", member);
+            nc.subscribe("work", "workers", member);
+            other.subscribe("work", "workers", member);
+            SyncSubscription plain = other.subscribeSync("work");
+            plain.setPendingLimits(count, -1);
+            other.subscribe("work", new MessageHandler() {
+                public void onMessage(Message msg) {
+                    done.countDown();
+                }
+            });
+            nc.flush();
+            other.flush();
+            for (int i = 0; i < count; i++) {
+                nc.publish("work", null);
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            // Each message went to exactly one member of the group
+            assertEquals(count, queued.get());
+            assertEquals(count, plain.getPendingMsgs());
+        }
+    }
+
+    @Test
+    public void testRequestReply() throws Exception {
+        try (final Connection replier = connect()) {
+            replier.subscribe("help", new MessageHandler() {
+                public void onMessage(Message msg) {
+                    try {
+                        replier.publish(msg.getReplyTo(), ("re: " + new String(msg.getData()))
+                                .getBytes());
+                    } catch (IOException e) {
+                        // the request times out
+                    }
+                }
+            });
+            replier.flush();
+
+            try (Connection nc = connect()) {
+                Message reply = nc.request("help", "new".getBytes(), 5000);
+                assertEquals("re: new", new String(reply.getData()));
+            }
+            Options opts = new Options.Builder().useOldRequestStyle(true).build();
+            try (Connection nc = Nats.connect(server.getUrl(), opts)) {
+                Message reply = nc.request("help", "old".getBytes(), 5000);
+                assertEquals("re: old", new String(reply.getData()));
+            }
+        }
+    }
+
+    @Test
+    public void testAutoUnsubscribe() throws Exception {
+        try (Connection nc = connect()) {
+            SyncSubscription sub = nc.subscribeSync("foo");
+            sub.autoUnsubscribe(2);
+            for (int i = 0; i < 5; i++) {
+                nc.publish("foo", null);
+            }
+            nc.flush();
+            assertNotNull(sub.nextMessage(5000));
+            assertNotNull(sub.nextMessage(5000));
+            assertEquals(2, server.getOutMsgs());
+        }
+    }
+
+    @Test
+    public void testVerbose() throws Exception {
+        Options opts = new Options.Builder().verbose().build();
+        try (Connection nc = Nats.connect(server.getUrl(), opts)) {
+            SyncSubscription sub = nc.subscribeSync("foo");
+            nc.publish("foo", "hello".getBytes());
+            assertEquals("hello", new String(sub.nextMessage(5000).getData()));
+            nc.flush();
+        }
+    }
+
+    @Test
+    public void testInvalidUnsubscribeMax() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            BufferedReader in =
+                    new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            assertTrue(in.readLine().startsWith("INFO {"));
+            OutputStream out = socket.getOutputStream();
+            out.write("CONNECT {\"verbose\":false}\r\nSUB foo 1\r\nPING\r\n".getBytes());
+            out.flush();
+            assertEquals("PONG", in.readLine());
+            out.write("UNSUB 1 many\r\n".getBytes());
+            out.flush();
+            assertEquals("-ERR 'Invalid Unsubscribe Arguments'", in.readLine());
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testUnknownProtocol() throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            BufferedReader in =
+                    new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            assertTrue(in.readLine().startsWith("INFO {"));
+            OutputStream out = socket.getOutputStream();
+            out.write("CONNECT {\"verbose\":false}\r\nPING\r\n".getBytes());
+            out.flush();
+            assertEquals("PONG", in.readLine());
+            out.write("FOO\r\n".getBytes());
+            out.flush();
+            assertEquals("-ERR 'Unknown Protocol Operation'", in.readLine());
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        Options opts = new Options.Builder().noReconnect().build();
+        try (Connection nc = Nats.connect(server.getUrl(), opts)) {
+            assertEquals(1, server.getNumClients());
+            server.close();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!nc.isClosed() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(nc.isClosed());
+            assertEquals(0, server.getNumClients());
+        }
+    }
+}
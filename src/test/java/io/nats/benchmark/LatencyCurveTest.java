@@ -0,0 +1,81 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.nats.client.Histogram;
+import io.nats.client.TestCasePrinterRule;
+import io.nats.client.UnitTest;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class LatencyCurveTest {
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    private static Histogram latency(long micros) {
+        Histogram histogram = new Histogram();
+        histogram.record(micros, TimeUnit.MICROSECONDS);
+        return histogram;
+    }
+
+    @Test
+    public void testSaturation() {
+        LatencyCurve curve = new LatencyCurve();
+        assertFalse(curve.isSaturated());
+
+        Histogram histogram = latency(100);
+        LatencyCurve.Point point = curve.add(1000, 999, histogram);
+        assertFalse(point.isSaturated());
+        assertFalse(curve.isSaturated());
+        // The curve keeps a copy
+        histogram.record(1, TimeUnit.SECONDS);
+        assertEquals(1, point.getLatency().getCount());
+
+        assertFalse(curve.add(2000, 1900, latency(200)).isSaturated());
+        point = curve.add(3000, 2849, latency(5000));
+        assertTrue(point.isSaturated());
+        assertTrue(curve.isSaturated());
+        assertEquals(3000, point.getTargetRate());
+        assertEquals(2849, point.getAchievedRate());
+        assertEquals(3, curve.getPoints().size());
+    }
+
+    @Test
+    public void testReport() {
+        LatencyCurve curve = new LatencyCurve();
+        curve.add(1000, 1000, latency(100));
+        curve.add(2000, 1000, latency(800));
+        String[] lines = curve.report().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].contains("p99.99"));
+        assertTrue(lines[1], lines[1].trim().startsWith("1,000        1,000      100.0"));
+        assertFalse(lines[1], lines[1].endsWith("saturated"));
+        assertTrue(lines[2], lines[2].endsWith("800.0 saturated"));
+    }
+
+    @Test
+    public void testCsv() {
+        LatencyCurve curve = new LatencyCurve();
+        curve.add(1000, 1000, latency(100));
+        List<String> lines = curve.csv();
+        assertEquals(2, lines.size());
+        assertEquals("#TargetRate, AchievedRate, p50, p90, p99, p99.9, p99.99, max, Saturated",
+                lines.get(0));
+        assertEquals("1000,1000,100.000,100.000,100.000,100.000,100.000,100.000,false",
+                lines.get(1));
+    }
+}
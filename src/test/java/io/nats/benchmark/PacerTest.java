@@ -0,0 +1,73 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.nats.client.TestCasePrinterRule;
+import io.nats.client.UnitTest;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+
+@Category(UnitTest.class)
+public class PacerTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    @Test
+    public void testIntendedTime() {
+        Pacer pacer = new Pacer(1000, 5000L);
+        assertEquals(5000L, pacer.getStart());
+        assertEquals(5000L, pacer.intendedTime(0));
+        assertEquals(5000L + TimeUnit.MILLISECONDS.toNanos(1), pacer.intendedTime(1));
+        assertEquals(5000L + TimeUnit.SECONDS.toNanos(3), pacer.intendedTime(3000));
+
+        // Fractional intervals do not drift
+        pacer = new Pacer(3, 0L);
+        assertEquals(TimeUnit.SECONDS.toNanos(1000), pacer.intendedTime(3000));
+    }
+
+    @Test
+    public void testAwaitNext() {
+        long start = System.nanoTime();
+        Pacer pacer = new Pacer(1000, start);
+        for (int i = 0; i < 20; i++) {
+            long intended = pacer.awaitNext();
+            assertEquals(pacer.intendedTime(i), intended);
+            assertTrue(System.nanoTime() >= intended);
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(19));
+    }
+
+    @Test
+    public void testOverdueMessagesAreNotDelayed() {
+        // The schedule started a second ago, so the first thousand messages are overdue
+        long start = System.nanoTime() - TimeUnit.SECONDS.toNanos(1);
+        Pacer pacer = new Pacer(1000, start);
+        long before = System.nanoTime();
+        for (int i = 0; i < 500; i++) {
+            assertEquals(pacer.intendedTime(i), pacer.awaitNext());
+        }
+        assertTrue(System.nanoTime() - before < TimeUnit.MILLISECONDS.toNanos(400));
+    }
+
+    @Test
+    public void testInvalidRate() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("nats: rate must be greater than 0");
+        new Pacer(0);
+    }
+}
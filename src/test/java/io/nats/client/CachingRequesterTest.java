@@ -0,0 +1,158 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import static io.nats.client.UnitTestUtilities.sleep;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+
+@Category(UnitTest.class)
+public class CachingRequesterTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    private Connection conn;
+    private final Message answer = new Message("_INBOX.foo", null, "answer".getBytes());
+
+    @Before
+    public void setUp() throws Exception {
+        conn = mock(Connection.class);
+        when(conn.request(any(String.class), any(byte[].class), anyLong(),
+                any(TimeUnit.class))).thenReturn(answer);
+    }
+
+    private Message request(CachingRequester requester, String subject, String data)
+            throws Exception {
+        return requester.request(subject, data.getBytes(), 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        try (CachingRequester requester = new CachingRequester.Builder(conn).build()) {
+            assertSame(answer, request(requester, "foo", "a"));
+            assertSame(answer, request(requester, "foo", "a"));
+            assertSame(answer, request(requester, "foo", "b"));
+            verify(conn, times(2)).request(eq("foo"), any(byte[].class), eq(1L),
+                    eq(TimeUnit.SECONDS));
+            assertEquals(1, requester.getHits());
+            assertEquals(2, requester.getMisses());
+            assertEquals(2, requester.size());
+        }
+    }
+
+    @Test
+    public void testTimedOutRequestNotCached() throws Exception {
+        when(conn.request(eq("bar"), any(byte[].class), anyLong(), any(TimeUnit.class)))
+                .thenReturn(null);
+        try (CachingRequester requester = new CachingRequester.Builder(conn).build()) {
+            assertNull(request(requester, "bar", "a"));
+            assertNull(request(requester, "bar", "a"));
+            assertEquals(2, requester.getMisses());
+            assertEquals(0, requester.size());
+        }
+    }
+
+    @Test
+    public void testLruEviction() throws Exception {
+        try (CachingRequester requester = new CachingRequester.Builder(conn).maxEntries(2)
+                .build()) {
+            request(requester, "foo", "a");
+            request(requester, "foo", "b");
+            // Touch "a" so that "b" is the least recently used.
+            request(requester, "foo", "a");
+            request(requester, "foo", "c");
+            assertEquals(1, requester.getEvictions());
+            assertEquals(2, requester.size());
+
+            request(requester, "foo", "a");
+            assertEquals(2, requester.getHits());
+            request(requester, "foo", "b");
+            assertEquals(4, requester.getMisses());
+        }
+    }
+
+    @Test
+    public void testInvalidateAfterEviction() throws Exception {
+        try (CachingRequester requester = new CachingRequester.Builder(conn).maxEntries(2)
+                .build()) {
+            request(requester, "foo", "a");
+            request(requester, "foo", "b");
+            request(requester, "bar", "a");
+            assertEquals(1, requester.getEvictions());
+
+            // Only the entry still cached is counted
+            assertEquals(1, requester.invalidate("foo"));
+            assertEquals(0, requester.invalidate("foo"));
+            assertEquals(1, requester.size());
+            assertEquals(1, requester.invalidate("bar"));
+            assertEquals(0, requester.size());
+        }
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        try (CachingRequester requester = new CachingRequester.Builder(conn)
+                .ttl(50, TimeUnit.MILLISECONDS).build()) {
+            request(requester, "foo", "a");
+            request(requester, "foo", "a");
+            assertEquals(1, requester.getHits());
+            sleep(100);
+            request(requester, "foo", "a");
+            assertEquals(2, requester.getMisses());
+            assertEquals(1, requester.getEvictions());
+        }
+    }
+
+    @Test
+    public void testInvalidationSubject() throws Exception {
+        AsyncSubscription sub = mock(AsyncSubscription.class);
+        ArgumentCaptor<MessageHandler> handler = ArgumentCaptor.forClass(MessageHandler.class);
+        when(conn.subscribe(eq("invalidate"), handler.capture())).thenReturn(sub);
+
+        try (CachingRequester requester = new CachingRequester.Builder(conn)
+                .invalidationSubject("invalidate").build()) {
+            request(requester, "foo", "a");
+            request(requester, "foo", "b");
+            request(requester, "bar", "a");
+
+            handler.getValue().onMessage(new Message("invalidate", null, "foo".getBytes()));
+            assertEquals(1, requester.size());
+            assertEquals(2, requester.getInvalidations());
+
+            handler.getValue().onMessage(new Message("invalidate", null, null));
+            assertEquals(0, requester.size());
+            assertEquals(3, requester.getInvalidations());
+        }
+        verify(sub).close();
+    }
+
+    @Test
+    public void testBadMaxEntries() {
+        thrown.expect(IllegalArgumentException.class);
+        new CachingRequester.Builder(conn).maxEntries(0);
+    }
+}
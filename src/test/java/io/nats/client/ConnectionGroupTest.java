@@ -0,0 +1,174 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import static io.nats.client.UnitTestUtilities.newMockedTcpConnectionFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+
+@Category(UnitTest.class)
+public class ConnectionGroupTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    private static List<Connection> mockConnections(int count) {
+        List<Connection> conns = new ArrayList<Connection>();
+        for (int i = 0; i < count; i++) {
+            conns.add(mock(Connection.class));
+        }
+        return conns;
+    }
+
+    @Test
+    public void testSubjectHashRouting() throws Exception {
+        List<Connection> conns = mockConnections(4);
+        ConnectionGroup group = new ConnectionGroup(conns, ConnectionGroup.Routing.SUBJECT_HASH);
+        byte[] data = "hello".getBytes();
+        Connection owner = group.connectionFor("foo");
+        for (int i = 0; i < 10; i++) {
+            group.publish("foo", data);
+        }
+        verify(owner, times(10)).publish("foo", data);
+
+        MessageHandler handler = mock(MessageHandler.class);
+        group.subscribe("foo", handler);
+        verify(owner, times(1)).subscribe("foo", handler);
+        group.subscribeSync("foo", "workers");
+        verify(owner, times(1)).subscribeSync("foo", "workers");
+
+        // Subjects are spread across the connections
+        boolean[] used = new boolean[conns.size()];
+        for (int i = 0; i < 100; i++) {
+            used[conns.indexOf(group.connectionFor("subject." + i))] = true;
+        }
+        for (boolean u : used) {
+            assertTrue(u);
+        }
+    }
+
+    @Test
+    public void testRoundRobinRouting() throws Exception {
+        List<Connection> conns = mockConnections(3);
+        ConnectionGroup group = new ConnectionGroup(conns, ConnectionGroup.Routing.ROUND_ROBIN);
+        byte[] data = "hello".getBytes();
+        for (int i = 0; i < 9; i++) {
+            group.publish("foo", "bar", data);
+        }
+        for (Connection conn : conns) {
+            verify(conn, times(3)).publish("foo", "bar", data);
+        }
+
+        // Subscriptions still go by subject
+        MessageHandler handler = mock(MessageHandler.class);
+        group.subscribe("foo", "workers", handler);
+        verify(group.connectionFor("foo"), times(1)).subscribe("foo", "workers", handler);
+    }
+
+    @Test
+    public void testAggregateStats() {
+        List<Connection> conns = mockConnections(2);
+        for (Connection conn : conns) {
+            Statistics stats = new Statistics();
+            stats.incrementOutMsgs();
+            stats.incrementOutBytes(10);
+            doReturn(stats).when(conn).getStats();
+        }
+        ConnectionGroup group = new ConnectionGroup(conns, ConnectionGroup.Routing.SUBJECT_HASH);
+        Statistics stats = group.getStats();
+        assertEquals(2, stats.getOutMsgs());
+        assertEquals(20, stats.getOutBytes());
+
+        group.resetStats();
+        for (Connection conn : conns) {
+            verify(conn, times(1)).resetStats();
+        }
+    }
+
+    @Test
+    public void testFlushAndClose() throws Exception {
+        List<Connection> conns = mockConnections(2);
+        ConnectionGroup group = new ConnectionGroup(conns, ConnectionGroup.Routing.SUBJECT_HASH);
+        group.flush(1000);
+        group.close();
+        group.close();
+        assertTrue(group.isClosed());
+        for (Connection conn : conns) {
+            verify(conn, times(1)).flush(1000);
+            verify(conn, times(1)).close();
+        }
+    }
+
+    @Test
+    public void testIsConnected() {
+        List<Connection> conns = mockConnections(2);
+        doReturn(true).when(conns.get(0)).isConnected();
+        doReturn(true).when(conns.get(1)).isReconnecting();
+        ConnectionGroup group = new ConnectionGroup(conns, ConnectionGroup.Routing.SUBJECT_HASH);
+        assertFalse(group.isConnected());
+        assertTrue(group.isReconnecting());
+    }
+
+    @Test
+    public void testBuildClosesAsOneUnit() throws Exception {
+        final AtomicInteger closedCount = new AtomicInteger();
+        final CountDownLatch closed = new CountDownLatch(1);
+        Options opts = new Options.Builder().factory(newMockedTcpConnectionFactory())
+                .name("grouped")
+                .closedCb(new ClosedCallback() {
+                    public void onClose(ConnectionEvent event) {
+                        closedCount.incrementAndGet();
+                        closed.countDown();
+                    }
+                }).build();
+        ConnectionGroup group = new ConnectionGroup.Builder(opts).size(3).build();
+        assertEquals(3, group.size());
+        assertTrue(group.isConnected());
+        assertEquals("grouped-1", group.getConnections().get(1).getName());
+
+        // Closing one member closes the rest
+        group.getConnections().get(1).close();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertTrue(group.isClosed());
+        for (Connection conn : group.getConnections()) {
+            assertTrue(conn.isClosed());
+        }
+        Thread.sleep(100);
+        assertEquals(1, closedCount.get());
+    }
+
+    @Test
+    public void testEmptyGroup() {
+        thrown.expect(IllegalArgumentException.class);
+        new ConnectionGroup(Arrays.<Connection>asList(), ConnectionGroup.Routing.SUBJECT_HASH);
+    }
+
+    @Test
+    public void testBadSize() {
+        thrown.expect(IllegalArgumentException.class);
+        new ConnectionGroup.Builder(Nats.defaultOptions()).size(0);
+    }
+}
@@ -12,6 +12,7 @@ import static io.nats.client.Nats.ConnState.CONNECTED;
 import static io.nats.client.Nats.ConnState.DISCONNECTED;
 import static io.nats.client.Nats.ConnState.RECONNECTING;
 import static io.nats.client.Nats.ERR_BAD_SUBJECT;
+import static io.nats.client.Nats.ERR_BAD_SUBSCRIPTION;
 import static io.nats.client.Nats.ERR_BAD_TIMEOUT;
 import static io.nats.client.Nats.ERR_CONNECTION_CLOSED;
 import static io.nats.client.Nats.ERR_CONNECTION_READ;
@@ -29,11 +30,14 @@ import static io.nats.client.UnitTestUtilities.defaultInfo;
 import static io.nats.client.UnitTestUtilities.newMockedConnection;
 import static io.nats.client.UnitTestUtilities.newMockedTcpConnection;
 import static io.nats.client.UnitTestUtilities.newMockedTcpConnectionFactory;
+import static io.nats.client.UnitTestUtilities.sleep;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
@@ -41,34 +45,52 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.internal.verification.VerificationModeFactory.atLeast;
 
+import io.nats.benchmark.InProcessServer;
 import io.nats.client.ConnectionImpl.Control;
+import io.nats.client.ConnectionImpl.Dial;
+import io.nats.client.ConnectionImpl.ResponseFuture;
+import io.nats.client.ConnectionImpl.Standby;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.StringReader;
 import java.net.SocketException;
 import java.net.URI;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -86,11 +108,14 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockingDetails;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 @Category(UnitTest.class)
 @RunWith(MockitoJUnitRunner.class)
@@ -123,9 +148,6 @@ public class ConnectionImplTest {
     @Mock
     private Message msgMock;
 
-    @Mock
-    private BlockingQueue<Boolean> pongsMock;
-
     @Mock
     private BufferedOutputStream bwMock;
 
@@ -415,38 +437,99 @@ public class ConnectionImplTest {
         }
     }
 
-    @Test
-    public void testRemoveFlushEntry() throws Exception {
-        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
-            ArrayList<BlockingQueue<Boolean>> pongs = new ArrayList<BlockingQueue<Boolean>>();
-            c.setPongs(pongs);
-            assertEquals(pongs, c.getPongs());
-            // Basic case
-            BlockingQueue<Boolean> testChan = new LinkedBlockingQueue<Boolean>();
-            testChan.add(true);
-            pongs.add(testChan);
-            assertTrue("Failed to find chan", c.removeFlushEntry(testChan));
+    // Calls flush on a new thread, returning the error it ended with, or null.
+    private static Future<Throwable> flushAsync(final ConnectionImpl conn, final int timeout) {
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        Future<Throwable> result = exec.submit(new Callable<Throwable>() {
+            public Throwable call() {
+                try {
+                    conn.flush(timeout);
+                    return null;
+                } catch (Throwable e) {
+                    return e;
+                }
+            }
+        });
+        exec.shutdown();
+        return result;
+    }
 
-            BlockingQueue<Boolean> testChan2 = new LinkedBlockingQueue<Boolean>();
-            testChan2.add(false);
-            pongs.add(testChan);
-            assertFalse("Should not have found chan", c.removeFlushEntry(testChan2));
+    private static void awaitPings(ConnectionImpl conn, int count) {
+        for (int i = 0; i < 500 && conn.getPingsOutstanding() < count; i++) {
+            sleep(5);
+        }
+        assertEquals(count, conn.getPingsOutstanding());
+    }
+
+    @Test
+    public void testFlushCoalescesWaiters() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) spy(newMockedConnection())) {
+            Future<Throwable> first = flushAsync(c, 5000);
+            awaitPings(c, 1);
 
-            pongs.clear();
-            assertFalse("Should have returned false", c.removeFlushEntry(testChan));
+            // Arrive while the first PING is outstanding, so share the next one
+            List<Future<Throwable>> later = new ArrayList<Future<Throwable>>();
+            for (int i = 0; i < 10; i++) {
+                later.add(flushAsync(c, 5000));
+            }
+            for (int i = 0; i < 500 && (c.getNextFlush() == null
+                    || c.getNextFlush().size() < 10); i++) {
+                sleep(5);
+            }
+            assertEquals(10, c.getNextFlush().size());
+            assertEquals(1, c.getPingsOutstanding());
+            verify(c, times(1)).sendPing(any(List.class));
+
+            c.processPong();
+            assertNull(first.get(5, TimeUnit.SECONDS));
+            assertNull(c.getNextFlush());
+            assertEquals(1, c.getPingsOutstanding());
+            verify(c, times(2)).sendPing(any(List.class));
+
+            c.processPong();
+            for (Future<Throwable> f : later) {
+                assertNull(f.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(0, c.getPingsOutstanding());
         }
     }
 
     @Test
-    public void testRemoveFlushEntryReturnsWhenPongsNull() throws Exception {
-        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
-            c.setup();
-            c.setPongs(null);
-            BlockingQueue<Boolean> testChan = new LinkedBlockingQueue<Boolean>();
-            assertFalse("Should return false", c.removeFlushEntry(testChan));
+    public void testClearPendingFlushCalls() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            Future<Throwable> first = flushAsync(c, 5000);
+            awaitPings(c, 1);
+            Future<Throwable> second = flushAsync(c, 5000);
+            for (int i = 0; i < 500 && c.getNextFlush() == null; i++) {
+                sleep(5);
+            }
+            c.clearPendingFlushCalls();
+            assertTrue(first.get(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+            assertTrue(second.get(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+            assertEquals(0, c.getPingsOutstanding());
+            assertNull(c.getNextFlush());
         }
     }
 
+    @Test
+    public void testFlushWaiterCompletesOnce() {
+        ConnectionImpl.FlushWaiter waiter = new ConnectionImpl.FlushWaiter();
+        HashedWheelTimer timer = new HashedWheelTimer();
+        waiter.setTimeout(timer.newTimeout(waiter, 1, TimeUnit.SECONDS));
+        assertTrue(waiter.complete(ConnectionImpl.FlushWaiter.DONE));
+        assertEquals(0, timer.pendingTimeouts());
+        // A late expiry is ignored
+        waiter.run();
+        assertEquals(ConnectionImpl.FlushWaiter.DONE, waiter.getState());
+
+        // A deadline set after completion is cancelled straight away
+        ConnectionImpl.FlushWaiter early = new ConnectionImpl.FlushWaiter();
+        early.complete(ConnectionImpl.FlushWaiter.FAILED);
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(early, 1, TimeUnit.SECONDS);
+        early.setTimeout(timeout);
+        assertTrue(timeout.isCancelled());
+    }
+
     @Test
     public void testDoReconnectSuccess() throws Exception {
         Options opts = new Options.Builder().reconnectWait(100).maxReconnect(1).build();
@@ -798,6 +881,189 @@ public class ConnectionImplTest {
         }
     }
 
+    @Test
+    public void testEncodeSubProto() {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        ConnectionImpl.encodeSubProto(buf, "foo.bar", null, 1);
+        ConnectionImpl.encodeSubProto(buf, "foo", "", 10);
+        ConnectionImpl.encodeSubProto(buf, "foo", "workers", Long.MAX_VALUE);
+        assertEquals("SUB foo.bar 1\r\nSUB foo 10\r\nSUB foo workers 9223372036854775807\r\n",
+                new String(buf.array(), 0, buf.position()));
+
+        buf.clear();
+        ConnectionImpl.encodeSubProto(buf, "caf\u00e9", null, 7);
+        assertArrayEquals("SUB caf\u00e9 7\r\n".getBytes(Charset.forName("UTF-8")),
+                Arrays.copyOf(buf.array(), buf.position()));
+    }
+
+    @Test
+    public void testEncodeUnsubProto() {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        ConnectionImpl.encodeUnsubProto(buf, 42, 0);
+        ConnectionImpl.encodeUnsubProto(buf, 0, 100);
+        assertEquals("UNSUB 42\r\nUNSUB 0 100\r\n", new String(buf.array(), 0, buf.position()));
+    }
+
+    @Test
+    public void testEncodeSubProtoOverflow() {
+        thrown.expect(BufferOverflowException.class);
+        ConnectionImpl.encodeSubProto(ByteBuffer.allocate(10), "foo.bar.baz", null, 1);
+    }
+
+    @Test
+    public void testResendSubscriptionsBatched() throws Exception {
+        final int count = 10000;
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            for (int i = 0; i < count; i++) {
+                c.subscribeSync("foo.bar.baz." + i, "workers");
+            }
+            final AtomicInteger writes = new AtomicInteger();
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public synchronized void write(byte[] b, int off, int len) {
+                    writes.incrementAndGet();
+                    super.write(b, off, len);
+                }
+            };
+            c.setOutputStream(out);
+            c.resendSubscriptions();
+
+            String[] lines = out.toString().split("\r\n");
+            assertEquals(count, lines.length);
+            // Streamed in buffer-sized chunks rather than one write per subscription.
+            assertTrue(writes.get() <= out.size() / (ConnectionImpl.SUB_PROTO_BUF_SIZE / 2) + 1);
+        }
+    }
+
+    @Test
+    public void testSubscribeAll() throws Exception {
+        final List<String> received = new CopyOnWriteArrayList<String>();
+        final CountDownLatch latch = new CountDownLatch(3);
+        MessageHandler handler = new MessageHandler() {
+            public void onMessage(Message msg) {
+                received.add(msg.getSubject() + ":" + new String(msg.getData()));
+                latch.countDown();
+            }
+        };
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            c.setOutputStream(out);
+
+            List<AsyncSubscription> subs = c.subscribeAll(Arrays.asList("foo", "bar"), handler);
+            assertEquals(2, subs.size());
+            assertEquals("foo", subs.get(0).getSubject());
+            long foo = ((SubscriptionImpl) subs.get(0)).getSid();
+            long bar = ((SubscriptionImpl) subs.get(1)).getSid();
+            assertEquals(String.format("SUB foo %d\r\nSUB bar %d\r\n", foo, bar),
+                    out.toString());
+
+            deliverMsg(c, foo, "foo", "1".getBytes());
+            deliverMsg(c, bar, "bar", "2".getBytes());
+            deliverMsg(c, foo, "foo", "3".getBytes());
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("foo:1", "bar:2", "foo:3"), received);
+            assertEquals(2, subs.get(0).getDelivered());
+        }
+    }
+
+    @Test
+    public void testMetricsRecorder() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        MessageHandler handler = new MessageHandler() {
+            public void onMessage(Message msg) {
+                latch.countDown();
+            }
+        };
+        HistogramMetricsRecorder metrics = new HistogramMetricsRecorder();
+        Options opts = new Options.Builder(defaultOptions()).metricsRecorder(metrics).build();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setup();
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            c.setOutputStream(out);
+            long sid = ((SubscriptionImpl) c.subscribe("foo", handler)).getSid();
+            out.reset();
+
+            c.publish("foo", null, "hello".getBytes(), true);
+            assertEquals(1, metrics.getPublishTime().getCount());
+            assertEquals(1, metrics.getFlushTime().getCount());
+            // PUB foo 5\r\nhello\r\n
+            assertEquals(out.size(), metrics.getFlushSize().getMax());
+
+            deliverMsg(c, sid, "foo", "hello".getBytes());
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            // The handler time is recorded once the handler returns
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (metrics.getHandlerTime().getCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(1, metrics.getDispatchDelay().getCount());
+            assertEquals(1, metrics.getHandlerTime().getCount());
+        }
+    }
+
+    @Test
+    public void testNoMetricsRecorder() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            c.setOutputStream(new ByteArrayOutputStream());
+            c.publish("foo", null, "hello".getBytes(), true);
+            assertEquals(1, c.getStats().getFlushes());
+        }
+    }
+
+    @Test
+    public void testSubscribeAllWithFlush() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) spy(newMockedConnection())) {
+            doNothing().when(c).flush(anyInt());
+            List<AsyncSubscription> subs = c.subscribeAll(Arrays.asList("foo", "bar"), "workers",
+                    mcbMock, 5000);
+            verify(c, times(1)).flush(5000);
+            assertEquals(2, subs.size());
+            assertEquals("workers", subs.get(1).getQueue());
+            assertEquals(2, c.getSubs().size());
+        }
+    }
+
+    @Test
+    public void testUnsubscribeAll() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            c.setOutputStream(new ByteArrayOutputStream());
+            List<AsyncSubscription> subs = c.subscribeAll(Arrays.asList("foo", "bar"), mcbMock);
+            SyncSubscription sync = c.subscribeSync("baz");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            c.setOutputStream(out);
+            List<Subscription> all = new ArrayList<Subscription>(subs);
+            all.add(sync);
+            c.unsubscribeAll(all);
+            assertEquals(String.format("UNSUB %d\r\nUNSUB %d\r\nUNSUB %d\r\n",
+                    ((SubscriptionImpl) subs.get(0)).getSid(),
+                    ((SubscriptionImpl) subs.get(1)).getSid(),
+                    ((SubscriptionImpl) sync).getSid()), out.toString());
+            assertTrue(c.getSubs().isEmpty());
+            assertFalse(subs.get(0).isValid());
+
+            // Already removed, nothing more is written.
+            c.unsubscribeAll(all);
+            assertEquals(3, out.toString().split("\r\n").length);
+        }
+    }
+
+    @Test
+    public void testSubscribeAllNullHandler() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage(ERR_BAD_SUBSCRIPTION);
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.subscribeAll(Arrays.asList("foo"), null);
+        }
+    }
+
     @Test
     public void testResendSubscriptions() throws Exception {
         try (ConnectionImpl c = (ConnectionImpl) spy(newMockedConnection())) {
@@ -820,8 +1086,12 @@ public class ConnectionImplTest {
             syncSub.delivered = 8;
             long adjustedMax = (syncSub.getMax() - syncSub.getDelivered());
             assertEquals(2, adjustedMax);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            c.setOutputStream(out);
             c.resendSubscriptions();
-            verify(c).writeUnsubProto(syncSub, adjustedMax);
+            long sid = syncSub.getSid();
+            assertEquals(String.format("SUB foo %d\r\nUNSUB %d %d\r\n", sid, sid, adjustedMax),
+                    out.toString());
 
         }
     }
@@ -1023,6 +1293,551 @@ public class ConnectionImplTest {
         }
     }
 
+    // A factory whose connections take delayMillis to open to slowUrl, then fail; all other
+    // servers connect at once. Opened connections are recorded by URL.
+    private static TcpConnectionFactory dialFactory(final String slowUrl, final int delayMillis,
+                                                    final Map<String, TcpConnection> opened) {
+        TcpConnectionFactory tcf = mock(TcpConnectionFactory.class);
+        doAnswer(new Answer<TcpConnection>() {
+            public TcpConnection answer(InvocationOnMock invocation) throws Throwable {
+                final TcpConnection conn = newMockedTcpConnection();
+                doAnswer(new Answer<Void>() {
+                    public Void answer(InvocationOnMock invocation) throws Throwable {
+                        String url = invocation.getArgument(0);
+                        if (url.equals(slowUrl)) {
+                            sleep(delayMillis);
+                            throw new SocketException("Connection refused");
+                        }
+                        opened.put(url, conn);
+                        return null;
+                    }
+                }).when(conn).open(anyString(), anyInt());
+                return conn;
+            }
+        }).when(tcf).createConnection();
+        return tcf;
+    }
+
+    @Test
+    public void testDialParallelSkipsSlowServer() throws Exception {
+        Map<String, TcpConnection> opened = new ConcurrentHashMap<String, TcpConnection>();
+        Options opts = new Options.Builder().dontRandomize().dialParallelism(2).dialStagger(50)
+                .factory(dialFactory("nats://localhost:5222", 2000, opened)).build();
+        opts.servers = Nats.processUrlString("nats://localhost:5222, nats://localhost:6222");
+        long start = System.nanoTime();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.connect();
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("Waited for the slow server: " + elapsed + "ms", elapsed < 1000);
+            assertTrue(c.isConnected());
+            assertEquals("nats://localhost:6222", c.getConnectedUrl());
+        }
+    }
+
+    @Test
+    public void testConnectAfterDialWinnerFailsHandshake() throws Exception {
+        final String silentUrl = "nats://localhost:5222";
+        TcpConnectionFactory tcf = mock(TcpConnectionFactory.class);
+        doAnswer(new Answer<TcpConnection>() {
+            public TcpConnection answer(InvocationOnMock invocation) throws Throwable {
+                final TcpConnection conn = newMockedTcpConnection();
+                final BufferedReader reader = conn.getBufferedReader();
+                final AtomicBoolean silent = new AtomicBoolean();
+                doAnswer(new Answer<Void>() {
+                    public Void answer(InvocationOnMock invocation) throws Throwable {
+                        silent.set(silentUrl.equals(invocation.getArgument(0)));
+                        if (!silent.get()) {
+                            // Lose the race to the silent server
+                            sleep(100);
+                        }
+                        return null;
+                    }
+                }).when(conn).open(anyString(), anyInt());
+                // The silent server accepts the connection but never sends INFO
+                doAnswer(new Answer<BufferedReader>() {
+                    public BufferedReader answer(InvocationOnMock invocation) {
+                        return silent.get() ? new BufferedReader(new StringReader("")) : reader;
+                    }
+                }).when(conn).getBufferedReader();
+                return conn;
+            }
+        }).when(tcf).createConnection();
+        Options opts = new Options.Builder().dontRandomize().dialParallelism(2).dialStagger(0)
+                .factory(tcf).build();
+        opts.servers = Nats.processUrlString(silentUrl + ", nats://localhost:6222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.connect();
+            assertTrue(c.isConnected());
+            assertEquals("nats://localhost:6222", c.getConnectedUrl());
+        }
+    }
+
+    @Test
+    public void testDialParallelClosesLosers() throws Exception {
+        Map<String, TcpConnection> opened = new ConcurrentHashMap<String, TcpConnection>();
+        Options opts = new Options.Builder().dontRandomize().dialParallelism(2).dialStagger(0)
+                .factory(dialFactory("nats://localhost:7222", 0, opened)).build();
+        opts.servers = Nats.processUrlString("nats://localhost:5222, nats://localhost:6222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setupServerPool();
+            Dial dial = c.dialParallel(c.dialCandidates(c.currentServer()));
+            for (Map.Entry<String, TcpConnection> entry : opened.entrySet()) {
+                if (!entry.getKey().equals(dial.srv.url.toString())) {
+                    verify(entry.getValue(), timeout(1000)).close();
+                }
+            }
+            verify(dial.conn, times(0)).close();
+            dial.conn.close();
+        }
+    }
+
+    @Test
+    public void testDialParallelAllFail() throws Exception {
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Connection refused");
+
+        TcpConnectionFactory tcf = newMockedTcpConnectionFactory();
+        TcpConnection conn = tcf.createConnection();
+        doThrow(new SocketException("Connection refused")).when(conn).open(anyString(), anyInt());
+        doReturn(conn).when(tcf).createConnection();
+        Options opts = new Options.Builder().dialParallelism(3).factory(tcf).build();
+        opts.servers = Nats.processUrlString(
+                "nats://localhost:5222, nats://localhost:6222, nats://localhost:7222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setupServerPool();
+            List<Srv> candidates = c.dialCandidates(c.currentServer());
+            assertEquals(3, candidates.size());
+            c.dialParallel(candidates);
+        }
+    }
+
+    @Test
+    public void testReconnectDelay() throws Exception {
+        Options opts = new Options.Builder().reconnectWait(100).build();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            Srv srv = new Srv(URI.create("nats://localhost:4222"), false);
+            assertEquals(0L, c.reconnectDelay(srv));
+            srv.updateLastAttempt();
+            srv.reconnects = 5;
+            long delay = c.reconnectDelay(srv);
+            assertTrue(delay > 50 && delay <= 100);
+        }
+    }
+
+    @Test
+    public void testReconnectDelayBackoff() throws Exception {
+        Options opts = new Options.Builder().reconnectWait(100).maxReconnectWait(1000).build();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            Srv srv = new Srv(URI.create("nats://localhost:4222"), false);
+            srv.updateLastAttempt();
+            long delay = c.reconnectDelay(srv);
+            assertTrue("Bad delay: " + delay, delay > 0 && delay <= 100);
+
+            srv.reconnects = 3;
+            for (int i = 0; i < 100; i++) {
+                delay = c.reconnectDelay(srv);
+                assertTrue("Bad delay: " + delay, delay > 350 && delay <= 800);
+            }
+
+            srv.reconnects = 100;
+            for (int i = 0; i < 100; i++) {
+                delay = c.reconnectDelay(srv);
+                assertTrue("Bad delay: " + delay, delay > 450 && delay <= 1000);
+            }
+        }
+    }
+
+    @Test
+    public void testSrvRecordRtt() {
+        Srv srv = new Srv(URI.create("nats://localhost:4222"), false);
+        assertEquals(0L, srv.getRtt());
+        srv.recordRtt(8000);
+        assertEquals(8000, srv.getRtt());
+        srv.recordRtt(16000);
+        assertEquals(9000, srv.getRtt());
+        srv.recordRtt(0);
+        assertTrue(srv.getRtt() > 0);
+
+        // Dial times are kept apart
+        srv.recordDialTime(TimeUnit.SECONDS.toNanos(1));
+        assertTrue(srv.getRtt() < TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), srv.getDialTime());
+
+        // Measurements age out
+        assertTrue(srv.getRtt(TimeUnit.SECONDS.toNanos(10)) > 0);
+        sleep(20);
+        assertEquals(0L, srv.getRtt(TimeUnit.MILLISECONDS.toNanos(10)));
+    }
+
+    @Test
+    public void testHandshakeRecordsRtt() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            Srv srv = c.currentServer();
+            assertTrue(srv.getRtt() > 0);
+
+            for (int i = 0; i < 50; i++) {
+                srv.recordRtt(TimeUnit.SECONDS.toNanos(10));
+            }
+            long before = srv.getRtt();
+            c.mu.lock();
+            try {
+                c.sendPing(null);
+            } finally {
+                c.mu.unlock();
+            }
+            c.processPong();
+            assertTrue(srv.getRtt() < before);
+        }
+    }
+
+    @Test
+    public void testSelectNextServerPrefersLowLatency() throws Exception {
+        Options opts = new Options.Builder().dontRandomize().preferLowLatency(true).build();
+        opts.servers = Nats.processUrlString(
+                "nats://localhost:5222, nats://localhost:6222, nats://localhost:7222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setupServerPool();
+            List<Srv> pool = c.getServerPool();
+            pool.get(0).recordRtt(TimeUnit.MILLISECONDS.toNanos(1));
+            pool.get(1).recordRtt(TimeUnit.MILLISECONDS.toNanos(5));
+            pool.get(2).recordRtt(TimeUnit.MILLISECONDS.toNanos(2));
+
+            // The current server is never preferred
+            Srv srv = c.selectNextServer();
+            assertEquals("nats://localhost:7222", srv.url.toString());
+            assertEquals(srv, pool.get(0));
+
+            // Nor is one that failed its last attempt
+            c.setUrl(srv.url);
+            c.getServerPool().get(2).reconnects = 1;
+            srv = c.selectNextServer();
+            assertEquals("nats://localhost:6222", srv.url.toString());
+            c.setOutputStream(mock(OutputStream.class));
+        }
+    }
+
+    @Test
+    public void testShouldMigrate() throws Exception {
+        Options opts = new Options.Builder().dontRandomize().latencyMigrationFactor(2.0).build();
+        opts.servers = Nats.processUrlString("nats://localhost:5222, nats://localhost:6222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setupServerPool();
+            List<Srv> pool = c.getServerPool();
+            assertFalse("No measurements", c.shouldMigrate());
+
+            pool.get(0).recordRtt(TimeUnit.MILLISECONDS.toNanos(10));
+            pool.get(1).recordRtt(TimeUnit.MILLISECONDS.toNanos(8));
+            assertFalse("Not fast enough", c.shouldMigrate());
+
+            for (int i = 0; i < 50; i++) {
+                pool.get(1).recordRtt(TimeUnit.MILLISECONDS.toNanos(2));
+            }
+            assertTrue(c.shouldMigrate());
+
+            pool.get(1).reconnects = 1;
+            assertFalse("Unhealthy", c.shouldMigrate());
+
+            pool.get(1).reconnects = 0;
+            c.lastMigrationNanos = System.nanoTime();
+            assertFalse("Just migrated", c.shouldMigrate());
+        }
+    }
+
+    @Test
+    public void testShouldMigrateIgnoresStaleRtt() throws Exception {
+        Options opts = new Options.Builder().dontRandomize().latencyMigrationFactor(2.0)
+                .pingInterval(10, TimeUnit.MILLISECONDS).build();
+        opts.servers = Nats.processUrlString("nats://localhost:5222, nats://localhost:6222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setupServerPool();
+            List<Srv> pool = c.getServerPool();
+            pool.get(1).recordRtt(TimeUnit.MILLISECONDS.toNanos(2));
+            sleep(100);
+            pool.get(0).recordRtt(TimeUnit.MILLISECONDS.toNanos(10));
+            assertFalse("Stale", c.shouldMigrate());
+
+            // Dial times are no substitute
+            pool.get(1).recordDialTime(TimeUnit.MILLISECONDS.toNanos(2));
+            assertFalse(c.shouldMigrate());
+
+            pool.get(1).recordRtt(TimeUnit.MILLISECONDS.toNanos(2));
+            assertTrue(c.shouldMigrate());
+        }
+    }
+
+    @Test
+    public void testFastestServerFallsBackToDialTime() throws Exception {
+        Options opts = new Options.Builder().dontRandomize().build();
+        opts.servers = Nats.processUrlString(
+                "nats://localhost:5222, nats://localhost:6222, nats://localhost:7222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setupServerPool();
+            List<Srv> pool = c.getServerPool();
+            assertNull(c.fastestServer(pool.get(0)));
+
+            pool.get(1).recordDialTime(TimeUnit.MILLISECONDS.toNanos(5));
+            pool.get(2).recordDialTime(TimeUnit.MILLISECONDS.toNanos(2));
+            assertEquals(pool.get(2), c.fastestServer(pool.get(0)));
+
+            // A round trip time wins over any dial time
+            pool.get(1).recordRtt(TimeUnit.MILLISECONDS.toNanos(10));
+            assertEquals(pool.get(1), c.fastestServer(pool.get(0)));
+        }
+    }
+
+    @Test
+    public void testProbeStaleServer() throws Exception {
+        Options opts = new Options.Builder().dontRandomize().latencyMigrationFactor(2.0)
+                .factory(newMockedTcpConnectionFactory()).build();
+        opts.servers = Nats.processUrlString("nats://localhost:5222, nats://localhost:6222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.connect();
+            Srv other = c.getServerPool().get(1);
+            assertEquals("nats://localhost:6222", other.url.toString());
+            assertEquals(0L, other.getRtt());
+
+            c.mu.lock();
+            try {
+                c.probeStaleServer();
+            } finally {
+                c.mu.unlock();
+            }
+            for (int i = 0; i < 100 && other.getRtt() == 0L; i++) {
+                sleep(10);
+            }
+            assertTrue("Not probed", other.getRtt() > 0);
+        }
+    }
+
+    @Test
+    public void testProbeSkipsTlsStats() throws Exception {
+        Options opts = new Options.Builder().dontRandomize()
+                .factory(newMockedTcpConnectionFactory()).build();
+        opts.servers = Nats.processUrlString("nats://localhost:5222, tls://localhost:6222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setupServerPool();
+            Srv srv = c.getServerPool().get(1);
+            c.openStandby(srv, false).close();
+            assertEquals(0L, c.getStats().getTlsHandshakes());
+            c.openStandby(srv).close();
+            assertEquals(1L, c.getStats().getTlsHandshakes());
+        }
+    }
+
+    @Test
+    public void testMigrateNotReportedAsDisconnect() throws Exception {
+        final AtomicInteger dcbCount = new AtomicInteger();
+        final AtomicInteger rcbCount = new AtomicInteger();
+        try (InProcessServer s1 = new InProcessServer(); InProcessServer s2 = new InProcessServer()) {
+            Options opts = new Options.Builder().dontRandomize()
+                    .disconnectedCb(new DisconnectedCallback() {
+                        public void onDisconnect(ConnectionEvent event) {
+                            dcbCount.incrementAndGet();
+                        }
+                    })
+                    .reconnectedCb(new ReconnectedCallback() {
+                        public void onReconnect(ConnectionEvent event) {
+                            rcbCount.incrementAndGet();
+                        }
+                    }).build();
+            opts.servers = Nats.processUrlString(s1.getUrl() + ", " + s2.getUrl());
+            try (ConnectionImpl c = new ConnectionImpl(opts)) {
+                c.connect();
+                assertEquals(s1.getUrl(), c.getConnectedUrl());
+
+                c.migrate();
+                for (int i = 0; i < 500 && !s2.getUrl().equals(c.getConnectedUrl()); i++) {
+                    sleep(10);
+                }
+                assertEquals(s2.getUrl(), c.getConnectedUrl());
+                c.flush();
+                assertEquals(1, c.getStats().getReconnects());
+                assertEquals(0, dcbCount.get());
+                assertEquals(0, rcbCount.get());
+                assertNull(c.getLastException());
+            }
+        }
+    }
+
+    @Test
+    public void testOpenStandby() throws Exception {
+        Options opts = new Options.Builder().factory(newMockedTcpConnectionFactory()).build();
+        opts.servers = Nats.processUrlString("nats://localhost:5222, nats://localhost:6222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setupServerPool();
+            Srv srv = c.getServerPool().get(1);
+            Standby sb = c.openStandby(srv);
+            assertEquals(srv, sb.srv);
+            assertNotNull(sb.info);
+            assertTrue(srv.getRtt() > 0);
+            verify(sb.conn, times(1)).open(srv.url.toString(), opts.getConnectionTimeout());
+            sb.close();
+        }
+    }
+
+    @Test
+    public void testOpenStandbyNoInfo() throws Exception {
+        thrown.expect(IOException.class);
+        thrown.expectMessage(ERR_NO_INFO_RECEIVED);
+
+        TcpConnectionFactory tcf = newMockedTcpConnectionFactory();
+        TcpConnection conn = tcf.createConnection();
+        BufferedReader reader = mock(BufferedReader.class);
+        doReturn("PONG").when(reader).readLine();
+        doReturn(reader).when(conn).getBufferedReader();
+        doReturn(conn).when(tcf).createConnection();
+        Options opts = new Options.Builder().factory(tcf).build();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.setupServerPool();
+            try {
+                c.openStandby(c.currentServer());
+            } finally {
+                verify(conn, times(1)).close();
+            }
+        }
+    }
+
+    @Test
+    public void testStandbyKeepAlive() throws Exception {
+        Options opts = new Options.Builder().maxPingsOut(2).build();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            TcpConnection conn = mock(TcpConnection.class);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            doReturn(new ByteArrayInputStream("PING\r\nPONG\r\n".getBytes())).when(conn)
+                    .getInputStream(anyInt());
+            doReturn(out).when(conn).getOutputStream(anyInt());
+            Standby sb = c.new Standby(new Srv(URI.create("nats://localhost:6222"), false), conn,
+                    "{}");
+
+            // Answers the server's PING and sends its own
+            assertTrue(sb.keepAlive());
+            assertEquals(ConnectionImpl.PONG_PROTO + ConnectionImpl.PING_PROTO,
+                    new String(out.toByteArray()));
+
+            // Gives up once the server stops answering
+            assertTrue(sb.keepAlive());
+            assertFalse(sb.keepAlive());
+
+            doReturn(new ByteArrayInputStream("-ERR 'Authorization Violation'\r\n".getBytes()))
+                    .when(conn).getInputStream(anyInt());
+            sb = c.new Standby(sb.srv, conn, "{}");
+            assertFalse(sb.keepAlive());
+        }
+    }
+
+    @Test
+    public void testStandbyKeepAliveOverManyIntervals() throws Exception {
+        try (InProcessServer s1 = new InProcessServer(); InProcessServer s2 = new InProcessServer()) {
+            Options opts = new Options.Builder().dontRandomize().hotStandby(true)
+                    .pingInterval(20, TimeUnit.MILLISECONDS).maxPingsOut(2).build();
+            opts.servers = Nats.processUrlString(s1.getUrl() + ", " + s2.getUrl());
+            try (ConnectionImpl c = new ConnectionImpl(opts)) {
+                c.connect();
+                Standby sb = null;
+                for (int i = 0; i < 100 && sb == null; i++) {
+                    sleep(10);
+                    sb = c.getStandby();
+                }
+                assertNotNull("Standby not opened", sb);
+
+                // The server answers every PING, so the standby is never dropped and re-dialed
+                sleep(1000);
+                assertSame(sb, c.getStandby());
+                assertEquals(1, s2.getNumClients());
+            }
+        }
+    }
+
+    @Test
+    public void testNoStandbyWhenArrivedBytesUnknown() throws Exception {
+        TcpConnectionFactory tcf = mock(TcpConnectionFactory.class);
+        doAnswer(new Answer<TcpConnection>() {
+            public TcpConnection answer(InvocationOnMock invocation) throws Throwable {
+                // As over an SSLSocket, whose available() is always 0
+                TcpConnection conn = newMockedTcpConnection();
+                doReturn(false).when(conn).reportsArrived();
+                return conn;
+            }
+        }).when(tcf).createConnection();
+        Options opts = new Options.Builder().dontRandomize().hotStandby(true).factory(tcf)
+                .pingInterval(20, TimeUnit.MILLISECONDS).build();
+        opts.servers = Nats.processUrlString("nats://localhost:5222, nats://localhost:6222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.connect();
+            sleep(200);
+            assertNull(c.getStandby());
+            verify(tcf, times(1)).createConnection();
+        }
+    }
+
+    @Test
+    public void testStandbyResync() throws Exception {
+        Options opts = new Options.Builder().timeout(500).build();
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            TcpConnection conn = mock(TcpConnection.class);
+            final PipedOutputStream server = new PipedOutputStream();
+            final PipedInputStream in = new PipedInputStream(server);
+            doReturn(in).when(conn).getInputStream(anyInt());
+            doReturn(new ByteArrayOutputStream()).when(conn).getOutputStream(anyInt());
+            Standby sb = c.new Standby(new Srv(URI.create("nats://localhost:6222"), false), conn,
+                    "{}");
+
+            // One PING outstanding, its PONG half read when the standby is promoted
+            assertTrue(sb.keepAlive());
+            server.write("PO".getBytes());
+            assertTrue(sb.keepAlive());
+            ExecutorService exec = Executors.newSingleThreadExecutor();
+            try {
+                exec.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        sleep(50);
+                        server.write("NG\r\nPONG\r\n".getBytes());
+                        return null;
+                    }
+                });
+
+                // Reads up to the PONGs, leaving nothing for the connection's parser
+                assertTrue(sb.resync());
+                assertEquals(0, in.available());
+
+                // Gives up if the server never answers
+                assertTrue(sb.keepAlive());
+                assertFalse(sb.resync());
+            } finally {
+                exec.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void testHotStandbyFailover() throws Exception {
+        final CountDownLatch rcbLatch = new CountDownLatch(1);
+        Options opts = new Options.Builder().dontRandomize().hotStandby(true).maxReconnect(1)
+                .factory(newMockedTcpConnectionFactory())
+                .reconnectedCb(new ReconnectedCallback() {
+                    public void onReconnect(ConnectionEvent event) {
+                        rcbLatch.countDown();
+                    }
+                }).build();
+        opts.servers = Nats.processUrlString("nats://localhost:5222, nats://localhost:6222");
+        try (ConnectionImpl c = new ConnectionImpl(opts)) {
+            c.connect();
+            assertEquals("nats://localhost:5222", c.getConnectedUrl());
+            Standby sb = null;
+            for (int i = 0; i < 100 && sb == null; i++) {
+                sleep(10);
+                sb = c.getStandby();
+            }
+            assertNotNull("Standby not opened", sb);
+            assertEquals("nats://localhost:6222", sb.srv.url.toString());
+
+            c.getTcpConnection().close();
+            assertTrue("Not reconnected", rcbLatch.await(5, TimeUnit.SECONDS));
+            assertSame(sb.conn, c.getTcpConnection());
+            assertEquals("nats://localhost:6222", c.getConnectedUrl());
+        }
+    }
+
     @Test
     public void testClosedCallback() throws Exception {
         final CountDownLatch ccbLatch = new CountDownLatch(1);
@@ -1241,12 +2056,9 @@ public class ConnectionImplTest {
         thrown.expect(IOException.class);
         thrown.expectMessage(ERR_TIMEOUT);
 
-        int timeout = 500;
-        TimeUnit unit = TimeUnit.MILLISECONDS;
-        try (ConnectionImpl connection = (ConnectionImpl) spy(newMockedConnection())) {
-            doReturn(fch).when(connection).createBooleanChannel(1);
-            Boolean result = doReturn(null).when(fch).poll(timeout, unit);
-            connection.flush((int) unit.toMillis(timeout));
+        // The mocked server never answers, so the deadline on the timer wheel expires
+        try (ConnectionImpl connection = (ConnectionImpl) newMockedConnection()) {
+            connection.flush(50);
         }
     }
 
@@ -1264,28 +2076,30 @@ public class ConnectionImplTest {
     public void testFlushFalsePongFailure() throws Exception {
         thrown.expect(IllegalStateException.class);
         thrown.expectMessage(ERR_CONNECTION_CLOSED);
-        @SuppressWarnings("unchecked")
-        BlockingQueue<Boolean> ch = (BlockingQueue<Boolean>) mock(BlockingQueue.class);
         try (ConnectionImpl conn = spy(new ConnectionImpl(defaultOptions()))) {
             conn.setup();
             conn.setOutputStream(bwMock);
-            doReturn(ch).when(conn).createBooleanChannel(1);
-            doReturn(false).when(ch).poll(100, TimeUnit.MILLISECONDS);
-            conn.flush(100);
+            Future<Throwable> result = flushAsync(conn, 5000);
+            awaitPings(conn, 1);
+            conn.clearPendingFlushCalls();
+            throw (IllegalStateException) result.get(5, TimeUnit.SECONDS);
         }
     }
 
     @Test
     public void testFlushPollInterrupted() throws Exception {
         thrown.expect(InterruptedException.class);
-        thrown.expectMessage("FOO");
-        @SuppressWarnings("unchecked")
-        BlockingQueue<Boolean> ch = (BlockingQueue<Boolean>) mock(BlockingQueue.class);
         try (ConnectionImpl c = Mockito.spy(new ConnectionImpl(defaultOptions()))) {
+            c.setup();
             c.setOutputStream(bwMock);
-            doReturn(ch).when(c).createBooleanChannel(1);
-            doThrow(new InterruptedException("FOO")).when(ch).poll(500, TimeUnit.MILLISECONDS);
-            c.flush(500);
+            final Thread flusher = Thread.currentThread();
+            new Thread(new Runnable() {
+                public void run() {
+                    sleep(50);
+                    flusher.interrupt();
+                }
+            }).start();
+            c.flush(5000);
         }
     }
 
@@ -1758,6 +2572,468 @@ public class ConnectionImplTest {
         }
     }
 
+    @Test
+    public void testRequestAsyncResponse() throws Exception {
+        final String respInbox = "_INBOX.AAAAAAAAAAAAAAAAAAAAAA.BBBBBBBBBBBBBBBBBBBBBB";
+        final byte[] answer = "answer".getBytes();
+        try (ConnectionImpl c = spy(new ConnectionImpl(defaultOptions()))) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            doReturn(respInbox).when(c).newRespInbox();
+
+            Future<Message> future = c.requestAsync("foo", null, 5, TimeUnit.SECONDS);
+            assertFalse(future.isDone());
+
+            long sid = c.getSubs().keySet().iterator().next();
+            deliverMsg(c, sid, respInbox, answer);
+            Message msg = future.get(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertArrayEquals(answer, msg.getData());
+            assertEquals(0, c.getStats().getTimeouts());
+        }
+    }
+
+    @Test
+    public void testRequestAsyncTimesOut() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+
+            Future<Message> future = c.requestAsync("foo", null, 50, TimeUnit.MILLISECONDS);
+            assertNull(future.get(5, TimeUnit.SECONDS));
+            assertEquals(1, c.getStats().getTimeouts());
+
+            // The synchronous variant is expired by the same timer.
+            assertNull(c.request("foo", null, 50));
+            assertEquals(2, c.getStats().getTimeouts());
+        }
+    }
+
+    @Test
+    public void testRequestAsyncCompletedOnClose() throws Exception {
+        ConnectionImpl c = new ConnectionImpl(defaultOptions());
+        c.setup();
+        c.setOutputStream(bwMock);
+        c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+
+        Future<Message> future = c.requestAsync("foo", null, -1, TimeUnit.MILLISECONDS);
+        assertFalse(future.isDone());
+        c.close();
+        assertNull(future.get(5, TimeUnit.SECONDS));
+        assertEquals(0, c.getStats().getTimeouts());
+    }
+
+    @Test
+    public void testRequestAfterClose() throws Exception {
+        ConnectionImpl c = new ConnectionImpl(defaultOptions());
+        c.setup();
+        c.setOutputStream(bwMock);
+        c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+
+        // Sets up the response subscription and starts the timer
+        assertNull(c.requestAsync("foo", null, 10, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS));
+        c.close();
+
+        try {
+            c.requestAsync("foo", null, 5, TimeUnit.SECONDS);
+            fail("Should have thrown");
+        } catch (IllegalStateException e) {
+            assertEquals(ERR_CONNECTION_CLOSED, e.getMessage());
+        }
+        assertTrue(c.getRespMap().isEmpty());
+    }
+
+    @Test
+    public void testTimerIdlesWhenWheelEmpty() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            assertFalse(c.isTimerRunning());
+
+            final CountDownLatch fired = new CountDownLatch(2);
+            Runnable task = new Runnable() {
+                public void run() {
+                    fired.countDown();
+                }
+            };
+            c.newTimeout(task, 20, TimeUnit.MILLISECONDS);
+            assertTrue(c.isTimerRunning());
+            for (int i = 0; i < 100 && c.isTimerRunning(); i++) {
+                sleep(10);
+            }
+            assertFalse("Timer still ticking", c.isTimerRunning());
+            assertEquals(1, fired.getCount());
+
+            // Starts again for the next timeout
+            c.newTimeout(task, 20, TimeUnit.MILLISECONDS);
+            assertTrue(fired.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testRequestManyStopsAtMaxResponses() throws Exception {
+        final String respInbox = "_INBOX.AAAAAAAAAAAAAAAAAAAAAA.BBBBBBBBBBBBBBBBBBBBBB";
+        final List<Message> received = new CopyOnWriteArrayList<Message>();
+        try (ConnectionImpl c = spy(new ConnectionImpl(defaultOptions()))) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            doReturn(respInbox).when(c).newRespInbox();
+
+            Future<Integer> future = c.requestMany("foo", null, 2, 5, 0, TimeUnit.SECONDS,
+                    new MessageHandler() {
+                        public void onMessage(Message msg) {
+                            received.add(msg);
+                        }
+                    });
+            long sid = c.getSubs().keySet().iterator().next();
+            deliverMsg(c, sid, respInbox, "one".getBytes());
+            deliverMsg(c, sid, respInbox, "two".getBytes());
+            assertEquals(2, (int) future.get(5, TimeUnit.SECONDS));
+            assertEquals(2, received.size());
+
+            // Late responses are dropped.
+            deliverMsg(c, sid, respInbox, "three".getBytes());
+            sleep(100);
+            assertEquals(2, received.size());
+            assertEquals(0, c.getStats().getTimeouts());
+        }
+    }
+
+    @Test
+    public void testRequestManyQuietPeriod() throws Exception {
+        final String respInbox = "_INBOX.AAAAAAAAAAAAAAAAAAAAAA.BBBBBBBBBBBBBBBBBBBBBB";
+        try (ConnectionImpl c = spy(new ConnectionImpl(defaultOptions()))) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            doReturn(respInbox).when(c).newRespInbox();
+
+            Future<Integer> future = c.requestMany("foo", null, 0, 10000, 50,
+                    TimeUnit.MILLISECONDS, mcbMock);
+            long sid = c.getSubs().keySet().iterator().next();
+            deliverMsg(c, sid, respInbox, "one".getBytes());
+            // Completed by the quiet period long before the timeout.
+            assertEquals(1, (int) future.get(5, TimeUnit.SECONDS));
+            verify(mcbMock, times(1)).onMessage(any(Message.class));
+            assertFalse(future.cancel(false));
+        }
+    }
+
+    @Test
+    public void testRequestManyTimesOut() throws Exception {
+        try (ConnectionImpl c = new ConnectionImpl(defaultOptions())) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+
+            List<Message> responses = c.requestMany("foo", null, 3, 50, TimeUnit.MILLISECONDS);
+            assertTrue(responses.isEmpty());
+        }
+    }
+
+    @Test
+    public void testRequestManyBadTimeout() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage(ERR_BAD_TIMEOUT);
+        try (Connection c = newMockedConnection()) {
+            c.requestMany("foo", null, 1, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void testRequestManyNullHandler() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("handler");
+        try (Connection c = newMockedConnection()) {
+            c.requestMany("foo", null, 1, 100, 0, TimeUnit.MILLISECONDS, null);
+        }
+    }
+
+    @Test
+    public void testCoalescedRequestsShareResponse() throws Exception {
+        final String respInbox = "_INBOX.AAAAAAAAAAAAAAAAAAAAAA.BBBBBBBBBBBBBBBBBBBBBB";
+        final byte[] question = "config".getBytes();
+        Options opts = new Options.Builder().coalesceRequests(true).build();
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try (final ConnectionImpl c = spy(new ConnectionImpl(opts))) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            doReturn(respInbox).when(c).newRespInbox();
+
+            Callable<Message> request = new Callable<Message>() {
+                public Message call() throws Exception {
+                    return c.request("config.get", question.clone(), 5, TimeUnit.SECONDS);
+                }
+            };
+            Future<Message> first = exec.submit(request);
+            verify(c, timeout(5000)).publish("config.get", respInbox, question);
+            Future<Message> second = exec.submit(request);
+            sleep(100);
+
+            long sid = c.getSubs().keySet().iterator().next();
+            deliverMsg(c, sid, respInbox, "answer".getBytes());
+            Message msg = first.get(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertSame(msg, second.get(5, TimeUnit.SECONDS));
+            verify(c, times(1)).publish(eq("config.get"), anyString(), any(byte[].class));
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCoalescedFollowerOutlivesLeader() throws Exception {
+        final String respInbox = "_INBOX.AAAAAAAAAAAAAAAAAAAAAA.BBBBBBBBBBBBBBBBBBBBBB";
+        final byte[] question = "config".getBytes();
+        Options opts = new Options.Builder().coalesceRequests(true).build();
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try (final ConnectionImpl c = spy(new ConnectionImpl(opts))) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            doReturn(respInbox).when(c).newRespInbox();
+
+            Future<Message> leader = exec.submit(new Callable<Message>() {
+                public Message call() throws Exception {
+                    return c.request("config.get", question.clone(), 200, TimeUnit.MILLISECONDS);
+                }
+            });
+            verify(c, timeout(5000)).publish("config.get", respInbox, question);
+            Future<Message> follower = exec.submit(new Callable<Message>() {
+                public Message call() throws Exception {
+                    return c.request("config.get", question.clone(), 5, TimeUnit.SECONDS);
+                }
+            });
+
+            // The leader gives up, the follower sends the request again for its own timeout.
+            assertNull(leader.get(5, TimeUnit.SECONDS));
+            verify(c, timeout(5000).times(2)).publish("config.get", respInbox, question);
+            assertFalse(follower.isDone());
+
+            long sid = c.getSubs().keySet().iterator().next();
+            deliverMsg(c, sid, respInbox, "answer".getBytes());
+            Message msg = follower.get(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertArrayEquals("answer".getBytes(), msg.getData());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCoalescedFollowerRemovesExpiredRequest() throws Exception {
+        final String respInbox = "_INBOX.AAAAAAAAAAAAAAAAAAAAAA.BBBBBBBBBBBBBBBBBBBBBB";
+        final byte[] question = "config".getBytes();
+        Options opts = new Options.Builder().coalesceRequests(true).build();
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try (final ConnectionImpl c = spy(new ConnectionImpl(opts))) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            doReturn(respInbox).when(c).newRespInbox();
+
+            // A request that has expired, but whose caller has not removed it yet
+            ResponseFuture expired = c.new ResponseFuture("stale");
+            expired.onFinish(false);
+            RequestKey key = new RequestKey("config.get", question);
+            c.getInflight().put(key, expired);
+
+            Future<Message> follower = exec.submit(new Callable<Message>() {
+                public Message call() throws Exception {
+                    return c.request("config.get", question.clone(), 5, TimeUnit.SECONDS);
+                }
+            });
+            verify(c, timeout(1000)).publish("config.get", respInbox, question);
+            assertNotSame(expired, c.getInflight().get(key));
+
+            long sid = c.getSubs().keySet().iterator().next();
+            deliverMsg(c, sid, respInbox, "answer".getBytes());
+            Message msg = follower.get(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            assertArrayEquals("answer".getBytes(), msg.getData());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCoalescedRequestCache() throws Exception {
+        final String respInbox = "_INBOX.AAAAAAAAAAAAAAAAAAAAAA.BBBBBBBBBBBBBBBBBBBBBB";
+        final byte[] question = "config".getBytes();
+        Options opts = new Options.Builder().coalesceRequests(true).requestCacheTtl(100).build();
+        try (final ConnectionImpl c = spy(new ConnectionImpl(opts))) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            doReturn(respInbox).when(c).newRespInbox();
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) throws Throwable {
+                    long sid = c.getSubs().keySet().iterator().next();
+                    deliverMsg(c, sid, respInbox, "answer".getBytes());
+                    return null;
+                }
+            }).when(c).publish(eq("config.get"), eq(respInbox), any(byte[].class));
+
+            Message msg = c.request("config.get", question, 5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            // Served from the cache.
+            assertSame(msg, c.request("config.get", question, 5, TimeUnit.SECONDS));
+            verify(c, times(1)).publish(eq("config.get"), anyString(), any(byte[].class));
+
+            // A different payload is a different request.
+            assertNotNull(c.request("config.get", "other".getBytes(), 5, TimeUnit.SECONDS));
+            verify(c, times(2)).publish(eq("config.get"), anyString(), any(byte[].class));
+
+            // Expired.
+            sleep(200);
+            assertNotSame(msg, c.request("config.get", question, 5, TimeUnit.SECONDS));
+            verify(c, times(3)).publish(eq("config.get"), anyString(), any(byte[].class));
+        }
+    }
+
+    // Answers every request published to subject while respond is set.
+    private static void autoRespond(final ConnectionImpl c, String subject,
+                                    final AtomicBoolean respond) throws IOException {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (respond.get()) {
+                    long sid = c.getSubs().keySet().iterator().next();
+                    deliverMsg(c, sid, (String) invocation.getArgument(1), "answer".getBytes());
+                }
+                return null;
+            }
+        }).when(c).publish(eq(subject), anyString(), any(byte[].class));
+    }
+
+    @Test
+    public void testRequestLatencyTracked() throws Exception {
+        final byte[] question = "question".getBytes();
+        Options opts = new Options.Builder().trackRequestLatency(true).build();
+        try (ConnectionImpl c = spy(new ConnectionImpl(opts))) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            autoRespond(c, "foo", new AtomicBoolean(true));
+
+            assertNull(c.getRequestLatency("foo"));
+            assertNotNull(c.request("foo", question, 5, TimeUnit.SECONDS));
+            assertNotNull(c.request("foo", question, 5, TimeUnit.SECONDS));
+            Histogram latency = c.getRequestLatency("foo");
+            assertEquals(2, latency.getCount());
+            assertTrue(latency.getMax() > 0);
+            assertEquals(1, c.getRequestLatencies().size());
+            assertNull(c.getRequestLatency("bar"));
+        }
+    }
+
+    @Test
+    public void testRequestLatencySubjectsBounded() throws Exception {
+        final byte[] question = "question".getBytes();
+        Options opts = new Options.Builder().trackRequestLatency(true).build();
+        final ConnectionImpl c = spy(new ConnectionImpl(opts));
+        c.setup();
+        c.setOutputStream(bwMock);
+        c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                long sid = c.getSubs().keySet().iterator().next();
+                deliverMsg(c, sid, (String) invocation.getArgument(1), "answer".getBytes());
+                return null;
+            }
+        }).when(c).publish(anyString(), anyString(), any(byte[].class));
+
+        for (int i = 0; i <= ConnectionImpl.MAX_LATENCY_SUBJECTS; i++) {
+            assertNotNull(c.request("foo." + i, question, 5, TimeUnit.SECONDS));
+        }
+        assertEquals(ConnectionImpl.MAX_LATENCY_SUBJECTS, c.getRequestLatencies().size());
+        assertNull(c.getRequestLatency("foo." + ConnectionImpl.MAX_LATENCY_SUBJECTS));
+
+        c.close();
+        assertTrue(c.getRequestLatencies().isEmpty());
+    }
+
+    @Test
+    public void testHedgedRequest() throws Exception {
+        final byte[] question = "question".getBytes();
+        Options opts = new Options.Builder().hedgeRequests(95).build();
+        AtomicBoolean respond = new AtomicBoolean(true);
+        try (ConnectionImpl c = spy(new ConnectionImpl(opts))) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            autoRespond(c, "foo", respond);
+
+            // Too few samples to hedge.
+            respond.set(false);
+            assertNull(c.request("foo", question, 100, TimeUnit.MILLISECONDS));
+            verify(c, times(1)).publish(eq("foo"), anyString(), any(byte[].class));
+
+            respond.set(true);
+            for (int i = 0; i < ConnectionImpl.MIN_LATENCY_SAMPLES; i++) {
+                assertNotNull(c.request("foo", question, 5, TimeUnit.SECONDS));
+            }
+            int published = 1 + ConnectionImpl.MIN_LATENCY_SAMPLES;
+            verify(c, times(published)).publish(eq("foo"), anyString(), any(byte[].class));
+
+            // The responder stops answering, so the request is hedged after roughly p95.
+            respond.set(false);
+            assertNull(c.request("foo", question, 500, TimeUnit.MILLISECONDS));
+            verify(c, times(published + 2)).publish(eq("foo"), anyString(),
+                    any(byte[].class));
+        }
+    }
+
+    @Test
+    public void testAdaptiveRequestTimeout() throws Exception {
+        final byte[] question = "question".getBytes();
+        Options opts = new Options.Builder().adaptiveRequestTimeout(2.0).build();
+        AtomicBoolean respond = new AtomicBoolean(true);
+        try (ConnectionImpl c = spy(new ConnectionImpl(opts))) {
+            c.setup();
+            c.setOutputStream(bwMock);
+            c.setConnectedServerInfo(ServerInfo.createFromWire(defaultInfo));
+            autoRespond(c, "foo", respond);
+
+            for (int i = 0; i < ConnectionImpl.MIN_LATENCY_SAMPLES; i++) {
+                assertNotNull(c.request("foo", question, 5, TimeUnit.SECONDS));
+            }
+
+            // Expired after about twice the observed p99, long before the 10s given, but not
+            // before the floor.
+            respond.set(false);
+            long start = System.nanoTime();
+            assertNull(c.request("foo", question, 10, TimeUnit.SECONDS));
+            long elapsed = System.nanoTime() - start;
+            assertTrue(elapsed < TimeUnit.SECONDS.toNanos(5));
+            assertTrue(elapsed >= ConnectionImpl.MIN_ADAPTIVE_TIMEOUT_NANOS);
+            assertEquals(1, c.getStats().getTimeouts());
+
+            // Recorded at its deadline
+            Histogram latency = c.getRequestLatency("foo");
+            assertEquals(ConnectionImpl.MIN_LATENCY_SAMPLES + 1, latency.getCount());
+            assertTrue(latency.getMax() >= ConnectionImpl.MIN_ADAPTIVE_TIMEOUT_NANOS / 2);
+        }
+    }
+
+    // Feeds a message through processMsg as if the parser had just read it.
+    static void deliverMsg(ConnectionImpl c, long sid, String subject, byte[] data) {
+        Parser.MsgArg ma = c.getParser().ps.ma;
+        ma.subject.clear();
+        ma.subject.put(subject.getBytes());
+        ma.subject.flip();
+        ma.reply.clear();
+        ma.reply.flip();
+        ma.sid = sid;
+        ma.size = data.length;
+        c.processMsg(data, 0, data.length);
+    }
+
     @Test
     public void testOldRequestErrors() throws Exception {
         final String errMsg = "testRequestErrors()";
@@ -1813,15 +3089,12 @@ public class ConnectionImplTest {
 
     @Test
     public void testProcessPong() throws Exception {
-        List<BlockingQueue<Boolean>> pongs = new ArrayList<>();
-        BlockingQueue<Boolean> ch = new LinkedBlockingQueue<>();
-        pongs.add(ch);
-        try (ConnectionImpl conn = spy(new ConnectionImpl(defaultOptions()))) {
-            conn.setPongs(pongs);
-            doReturn(ch).when(conn).createBooleanChannel(1);
+        ConnectionImpl.FlushWaiter waiter = new ConnectionImpl.FlushWaiter();
+        try (ConnectionImpl conn = (ConnectionImpl) newMockedConnection()) {
+            conn.sendPing(Collections.singletonList(waiter));
             conn.processPong();
-            assertTrue(ch.take());
-
+            assertEquals(ConnectionImpl.FlushWaiter.DONE, waiter.await());
+            assertEquals(0, conn.getPingsOutstanding());
         }
     }
 
@@ -1864,7 +3137,7 @@ public class ConnectionImplTest {
         try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
             doThrow(new IOException("Mock OutputStream write exception")).when(bwMock).flush();
             c.setOutputStream(bwMock);
-            c.sendPing(new LinkedBlockingQueue<Boolean>());
+            c.sendPing(Collections.singletonList(new ConnectionImpl.FlushWaiter()));
             assertTrue(c.getLastException() instanceof IOException);
             assertEquals("Mock OutputStream write exception", c.getLastException().getMessage());
         }
@@ -1891,10 +3164,13 @@ public class ConnectionImplTest {
             c.setOutputStream(bwMock);
             // Ensure bw write error is logged
             ConnectionAccessor.setState(c, CONNECTED);
-            byte[] data = String.format(ConnectionImpl.SUB_PROTO, subject, queue, sid).getBytes();
-            doThrow(new IOException("test")).when(bwMock).write(any(byte[].class));
+            byte[] data = "SUB foo bar 55\r\n".getBytes();
+            doThrow(new IOException("test")).when(bwMock).write(any(byte[].class), anyInt(),
+                    anyInt());
             c.sendSubscriptionMessage(mockSub);
-            verify(bwMock).write(any(byte[].class));
+            ArgumentCaptor<byte[]> buf = ArgumentCaptor.forClass(byte[].class);
+            verify(bwMock).write(buf.capture(), eq(0), eq(data.length));
+            assertArrayEquals(data, Arrays.copyOf(buf.getValue(), data.length));
         }
     }
 
@@ -1954,6 +3230,55 @@ public class ConnectionImplTest {
         }
     }
 
+    @Test
+    public void testPingRttRecordedForPeriodicPings() throws Exception {
+        try (ConnectionImpl nc = (ConnectionImpl) newMockedConnection()) {
+            nc.resetStats();
+            nc.new PingTimerTask().run();
+            nc.processPong();
+            assertEquals(1, nc.getStats().getPingRtt().getCount());
+
+            // A flush PONG is not a network sample
+            ConnectionImpl.FlushWaiter waiter = new ConnectionImpl.FlushWaiter();
+            nc.sendPing(Collections.singletonList(waiter));
+            nc.processPong();
+            assertEquals(ConnectionImpl.FlushWaiter.DONE, waiter.await());
+            assertEquals(1, nc.getStats().getPingRtt().getCount());
+
+            nc.resetStats();
+            assertEquals(0, nc.getStats().getPingRtt().getCount());
+        }
+    }
+
+    @Test
+    public void testRtt() throws Exception {
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try (final ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            Future<Throwable> first = flushAsync(c, 5000);
+            awaitPings(c, 1);
+            Future<Long> rtt = exec.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return c.rtt(5000);
+                }
+            });
+            for (int i = 0; i < 500 && c.getNextFlush() == null; i++) {
+                sleep(5);
+            }
+            assertEquals(1, c.getNextFlush().size());
+
+            // Waiting for the earlier flush's PONG does not count towards the round trip
+            sleep(200);
+            c.processPong();
+            assertNull(first.get(5, TimeUnit.SECONDS));
+            c.processPong();
+            long nanos = rtt.get(5, TimeUnit.SECONDS);
+            assertTrue(nanos > 0);
+            assertTrue("Too long: " + nanos, nanos < TimeUnit.MILLISECONDS.toNanos(200));
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
     @Test
     public void testPingTimerTaskFailsFastIfNotConnected() throws Exception {
         try (ConnectionImpl c = (ConnectionImpl) spy(newMockedConnection())) {
@@ -1999,7 +3324,7 @@ public class ConnectionImplTest {
             SynchronousExecutorService sexec = new SynchronousExecutorService();
             sexec.execute(nc.new PingTimerTask());
             verify(nc, times(1)).processOpError(any(IOException.class));
-            verify(nc, times(0)).sendPing(any(BlockingQueue.class));
+            verify(nc, times(0)).sendPing(Mockito.<List<ConnectionImpl.FlushWaiter>>any());
             assertTrue(nc.getLastException() instanceof IOException);
             assertEquals(ERR_STALE_CONNECTION, nc.getLastException().getMessage());
             assertTrue(nc.isClosed());
@@ -0,0 +1,199 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import static io.nats.client.UnitTestUtilities.newMockedConnection;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+
+@Category(UnitTest.class)
+public class ConnectionLockTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    @Test
+    public void testContentionBySite() throws Exception {
+        final ConnectionLock lock = new ConnectionLock(true);
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(new Runnable() {
+            public void run() {
+                lock.lock(ConnectionLock.Site.FLUSHER);
+                try {
+                    locked.countDown();
+                    release.await();
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    // done
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        holder.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        lock.lock(ConnectionLock.Site.PUBLISH);
+        lock.unlock();
+        holder.join();
+
+        Map<String, LockStats> sites = lock.getSiteStats();
+        LockStats flusher = sites.get("flusher");
+        assertEquals(1, flusher.getAcquisitions());
+        assertEquals(0, flusher.getContended());
+        assertEquals(1, flusher.getHoldTime().getCount());
+        assertTrue(flusher.getMaxHoldNanos() >= TimeUnit.MILLISECONDS.toNanos(10));
+
+        LockStats publish = sites.get("publish");
+        assertEquals(1, publish.getAcquisitions());
+        assertEquals(1, publish.getContended());
+        assertEquals(1, publish.getWaitTime().getCount());
+        assertTrue(publish.getMaxWaitNanos() > 0);
+        assertEquals(1, publish.getHoldTime().getCount());
+
+        assertEquals(0, sites.get("other").getAcquisitions());
+    }
+
+    @Test
+    public void testReentrantAcquisitionCountedOnce() throws Exception {
+        ConnectionLock lock = new ConnectionLock(true);
+        lock.lockInterruptibly(ConnectionLock.Site.PROCESS_MSG);
+        lock.lock();
+        lock.unlock();
+        assertEquals(0, lock.getSiteStats().get("processMsg").getHoldTime().getCount());
+        lock.unlock();
+
+        Map<String, LockStats> sites = lock.getSiteStats();
+        assertEquals(1, sites.get("processMsg").getAcquisitions());
+        assertEquals(1, sites.get("processMsg").getHoldTime().getCount());
+        assertEquals(0, sites.get("other").getAcquisitions());
+
+        sites.get("processMsg").reset();
+        assertEquals(0, sites.get("processMsg").getAcquisitions());
+        assertEquals(0, sites.get("processMsg").getHoldTime().getCount());
+    }
+
+    @Test
+    public void testUntrackedByDefault() throws Exception {
+        ConnectionLock lock = new ConnectionLock();
+        assertFalse(lock.isTrackingContention());
+        lock.lock(ConnectionLock.Site.PUBLISH);
+        lock.unlock();
+        assertTrue(lock.getSiteStats().isEmpty());
+
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            assertTrue(c.getStats().getLockStats().isEmpty());
+        }
+    }
+
+    @Test
+    public void testStatisticsAndMBeans() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName query = new ObjectName(
+                "io.nats.client:type=ConnectionLock,connection=\"locktest\",*");
+        Options opts = new Options.Builder(Nats.defaultOptions()).name("locktest")
+                .trackLockContention(true).build();
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection(opts)) {
+            c.setOutputStream(new ByteArrayOutputStream());
+            c.publish("foo", null, "hello".getBytes(), false);
+
+            LockStats publish = c.getStats().getLockStats().get("publish");
+            assertEquals(1, publish.getAcquisitions());
+            assertEquals(1, publish.getHoldTime().getCount());
+
+            Set<ObjectName> names = server.queryNames(query, null);
+            assertEquals(ConnectionLock.Site.values().length, names.size());
+            ObjectName name = null;
+            for (ObjectName n : names) {
+                if ("publish".equals(n.getKeyProperty("site"))) {
+                    name = n;
+                }
+            }
+            assertEquals(1L, server.getAttribute(name, "Acquisitions"));
+            assertEquals("publish", server.getAttribute(name, "Site"));
+
+            c.getStats().clear();
+            assertEquals(0, publish.getAcquisitions());
+        }
+        assertTrue(server.queryNames(query, null).isEmpty());
+    }
+
+    @Test
+    public void testMBeansOfSameNamedConnections() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName query = new ObjectName(
+                "io.nats.client:type=ConnectionLock,connection=\"dup\",*");
+        int numSites = ConnectionLock.Site.values().length;
+        ConnectionLock first = new ConnectionLock(true);
+        ConnectionLock second = new ConnectionLock(true);
+        ObjectName squatter = null;
+        try {
+            first.registerMBeans("dup");
+            Set<ObjectName> names = server.queryNames(query, null);
+            assertEquals(numSites, names.size());
+            long id = Long.parseLong(names.iterator().next().getKeyProperty("id"));
+
+            // An id taken by someone else is skipped, and no site is lost
+            squatter = new ObjectName(String.format(
+                    "io.nats.client:type=ConnectionLock,connection=\"dup\",id=%d,site=publish",
+                    id + 1));
+            server.registerMBean(new LockStats("publish"), squatter);
+            second.registerMBeans("dup");
+            assertEquals(2 * numSites + 1, server.queryNames(query, null).size());
+
+            first.unregisterMBeans();
+            second.unregisterMBeans();
+            assertEquals(1, server.queryNames(query, null).size());
+        } finally {
+            first.unregisterMBeans();
+            second.unregisterMBeans();
+            if (squatter != null) {
+                server.unregisterMBean(squatter);
+            }
+        }
+    }
+
+    @Test
+    public void testAggregatedStatistics() {
+        ConnectionLock first = new ConnectionLock(true);
+        ConnectionLock second = new ConnectionLock(true);
+        first.lock(ConnectionLock.Site.PUBLISH);
+        first.unlock();
+        second.lock(ConnectionLock.Site.PUBLISH);
+        second.unlock();
+        Statistics one = new Statistics();
+        one.setLockStats(first.getSiteStats());
+        Statistics two = new Statistics();
+        two.setLockStats(second.getSiteStats());
+
+        Statistics sum = new Statistics();
+        sum.add(one);
+        sum.add(two);
+        assertEquals(2, sum.getLockStats().get("publish").getAcquisitions());
+        assertEquals(2, sum.getLockStats().get("publish").getHoldTime().getCount());
+        // The connections' own statistics are left alone
+        assertEquals(1, first.getSiteStats().get("publish").getAcquisitions());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import static io.nats.client.UnitTestUtilities.sleep;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+
+@Category(UnitTest.class)
+public class HashedWheelTimerTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    private static Runnable counter(final AtomicInteger count) {
+        return new Runnable() {
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void testExpiresAfterDeadline() {
+        HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 8);
+        AtomicInteger fired = new AtomicInteger();
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(counter(fired), 20,
+                TimeUnit.MILLISECONDS);
+        assertEquals(0, timer.tick());
+        assertEquals(0, fired.get());
+        assertEquals(1, timer.pendingTimeouts());
+
+        sleep(30);
+        assertEquals(1, timer.tick());
+        assertEquals(1, fired.get());
+        assertTrue(timeout.isExpired());
+        assertEquals(0, timer.pendingTimeouts());
+    }
+
+    @Test
+    public void testDeadlineSpanningSeveralRounds() {
+        // 4 buckets of 1ms each, so a 15ms deadline needs several trips around the wheel.
+        HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 4);
+        AtomicInteger fired = new AtomicInteger();
+        timer.newTimeout(counter(fired), 15, TimeUnit.MILLISECONDS);
+        sleep(5);
+        timer.tick();
+        assertEquals(0, fired.get());
+        sleep(20);
+        timer.tick();
+        assertEquals(1, fired.get());
+    }
+
+    @Test
+    public void testCancel() {
+        HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 8);
+        AtomicInteger fired = new AtomicInteger();
+        HashedWheelTimer.Timeout first = timer.newTimeout(counter(fired), 5,
+                TimeUnit.MILLISECONDS);
+        HashedWheelTimer.Timeout second = timer.newTimeout(counter(fired), 5,
+                TimeUnit.MILLISECONDS);
+        assertTrue(first.cancel());
+        assertFalse("Should not cancel twice", first.cancel());
+        assertTrue(first.isCancelled());
+        assertEquals(1, timer.pendingTimeouts());
+
+        sleep(10);
+        assertEquals(1, timer.tick());
+        assertEquals(1, fired.get());
+        assertFalse("Should not cancel an expired timeout", second.cancel());
+    }
+
+    @Test
+    public void testStop() {
+        HashedWheelTimer timer = new HashedWheelTimer();
+        AtomicInteger fired = new AtomicInteger();
+        HashedWheelTimer.Timeout timeout = null;
+        for (int i = 0; i < 100; i++) {
+            timeout = timer.newTimeout(counter(fired), i, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(100, timer.stop());
+        assertEquals(0, timer.pendingTimeouts());
+        assertTrue(timeout.isCancelled());
+        sleep(150);
+        assertEquals(0, timer.tick());
+        assertEquals(0, fired.get());
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopWheel() {
+        HashedWheelTimer timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS, 8);
+        AtomicInteger fired = new AtomicInteger();
+        timer.newTimeout(new Runnable() {
+            public void run() {
+                throw new IllegalStateException("boom");
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+        timer.newTimeout(counter(fired), 0, TimeUnit.MILLISECONDS);
+        sleep(2);
+        assertEquals(2, timer.tick());
+        assertEquals(1, fired.get());
+    }
+
+    @Test
+    public void testBadTickDuration() {
+        thrown.expect(IllegalArgumentException.class);
+        new HashedWheelTimer(0, TimeUnit.MILLISECONDS, 8);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+
+@Category(UnitTest.class)
+public class HistogramTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    @Test
+    public void testEmpty() {
+        Histogram hist = new Histogram();
+        assertEquals(0, hist.getCount());
+        assertEquals(0, hist.getMin());
+        assertEquals(0, hist.getMax());
+        assertEquals(0.0, hist.getMean(), 0.0);
+        assertEquals(0, hist.getValueAtPercentile(99));
+        assertEquals("", hist.dump());
+    }
+
+    @Test
+    public void testBucketBounds() {
+        // Every value must land in a bucket whose upper bound is within 1/16 above it.
+        long[] values = {0, 1, 15, 16, 31, 32, 33, 1000, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = Histogram.bucketIndex(value);
+            long upper = Histogram.bucketUpperBound(index);
+            assertTrue(value + " above " + upper, value <= upper);
+            assertTrue(value + " too far below " + upper, upper - value <= value / 16);
+            if (index > 0) {
+                assertTrue(Histogram.bucketUpperBound(index - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram hist = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            hist.record(i, TimeUnit.MICROSECONDS);
+        }
+        assertEquals(1000, hist.getCount());
+        assertEquals(1000L, hist.getMin());
+        assertEquals(1000000L, hist.getMax());
+        assertEquals(500500.0, hist.getMean(), 0.001);
+        assertEquals(500000.0, hist.getValueAtPercentile(50), 500000.0 / 16);
+        assertEquals(990000.0, hist.getValueAtPercentile(99), 990000.0 / 16);
+        assertEquals(1000000L, hist.getValueAtPercentile(100));
+        assertTrue(hist.getValueAtPercentile(0) <= 1000L + 1000L / 16);
+    }
+
+    @Test
+    public void testNegativeRecordedAsZero() {
+        Histogram hist = new Histogram();
+        hist.record(-5);
+        assertEquals(1, hist.getCount());
+        assertEquals(0, hist.getMax());
+        assertEquals("0 1\n", hist.dump());
+    }
+
+    @Test
+    public void testSnapshotAndAdd() {
+        Histogram hist = new Histogram();
+        hist.record(10);
+        hist.record(20);
+        Histogram snapshot = hist.snapshot();
+        hist.record(30);
+        assertEquals(2, snapshot.getCount());
+        assertEquals(20, snapshot.getMax());
+
+        snapshot.add(hist);
+        assertEquals(5, snapshot.getCount());
+        assertEquals(10, snapshot.getMin());
+        assertEquals(30, snapshot.getMax());
+
+        hist.reset();
+        assertEquals(0, hist.getCount());
+        assertEquals(0, hist.getMax());
+        assertEquals(0, hist.getMin());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final Histogram hist = new Histogram();
+        final int threads = 8;
+        final int perThread = 10000;
+        Thread[] recorders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            recorders[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 1; j <= perThread; j++) {
+                        hist.record(j);
+                    }
+                }
+            });
+            recorders[i].start();
+        }
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+        assertEquals(threads * perThread, hist.getCount());
+        assertEquals((perThread + 1) / 2.0, hist.getMean(), 0.0);
+        assertEquals(perThread, hist.getMax());
+    }
+
+    @Test
+    public void testStripedCounter() {
+        StripedCounter counter = new StripedCounter();
+        assertTrue(counter.stripes() >= 1 && counter.stripes() <= StripedCounter.MAX_STRIPES);
+        assertEquals(0, Integer.bitCount(counter.stripes()) - 1);
+        counter.increment();
+        counter.add(41);
+        assertEquals(42, counter.sum());
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+
+    @Test
+    public void testBadPercentile() {
+        thrown.expect(IllegalArgumentException.class);
+        new Histogram().getValueAtPercentile(100.1);
+    }
+}
@@ -10,9 +10,13 @@
 
 package io.nats.client;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import org.junit.After;
@@ -23,9 +27,18 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.nio.ByteBuffer;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class NUIDTest {
 
@@ -85,6 +98,75 @@ public class NUIDTest {
                 NUID.totalLen, nuid.length());
     }
 
+    @Test
+    @Category(UnitTest.class)
+    public void testNextBytes() {
+        NUID nuid = new NUID();
+        byte[] buf = new byte[NUID.totalLen + 2];
+        nuid.next(buf, 1);
+        assertEquals(0, buf[0]);
+        assertEquals(0, buf[buf.length - 1]);
+        String str = new String(buf, 1, NUID.totalLen);
+        assertEquals(new String(nuid.getPre()), str.substring(0, NUID.preLen));
+        for (char ch : str.toCharArray()) {
+            assertTrue("Not a base 62 digit: " + ch, Arrays.binarySearch(NUID.digits, ch) >= 0);
+        }
+
+        // Same sequence as the String form.
+        NUID copy = new NUID();
+        copy.setPre(nuid.getPre());
+        copy.setSeq(nuid.getSeq());
+        copy.setInc(nuid.getInc());
+        nuid.next(buf, 1);
+        assertEquals(copy.next(), new String(buf, 1, NUID.totalLen));
+    }
+
+    @Test
+    @Category(UnitTest.class)
+    public void testNextByteBuffer() {
+        NUID nuid = new NUID();
+        NUID copy = new NUID();
+        copy.setPre(nuid.getPre());
+        copy.setSeq(nuid.getSeq());
+        copy.setInc(nuid.getInc());
+
+        for (ByteBuffer buf : Arrays.asList(ByteBuffer.allocate(30),
+                ByteBuffer.allocateDirect(30))) {
+            buf.put((byte) '.');
+            nuid.next(buf);
+            assertEquals(1 + NUID.totalLen, buf.position());
+            buf.flip();
+            buf.get();
+            byte[] out = new byte[NUID.totalLen];
+            buf.get(out);
+            assertArrayEquals(copy.next().getBytes(), out);
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    @Category(UnitTest.class)
+    public void testNextBytesNoRoom() {
+        new NUID().next(new byte[NUID.totalLen], 1);
+    }
+
+    @Test
+    @Category(UnitTest.class)
+    public void testLocalPerThread() throws Exception {
+        final NUID mine = NUID.local();
+        assertSame(mine, NUID.local());
+        final AtomicReference<NUID> other = new AtomicReference<NUID>();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                other.set(NUID.local());
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotNull(other.get());
+        assertNotSame(mine, other.get());
+        assertNotEquals(new String(mine.getPre()), new String(other.get().getPre()));
+    }
+
     @Test(timeout = 5000)
     @Category(PerfTest.class)
     public void testProperPrefix() {
@@ -147,4 +229,63 @@ public class NUIDTest {
                 NumberFormat.getNumberInstance(Locale.US).format(count),
                 (double) elapsedNsec / count);
     }
+
+    @Test
+    @Category(PerfTest.class)
+    public void benchmarkGlobalVersusLocalNUID() throws Exception {
+        final int count = 1000000;
+        for (int threads : new int[] {1, 8, 32}) {
+            long global = runNUIDThreads(threads, count, new Runnable() {
+                public void run() {
+                    NUID.nextGlobal();
+                }
+            });
+            long local = runNUIDThreads(threads, count, new Runnable() {
+                public void run() {
+                    NUID.local().next();
+                }
+            });
+            final ThreadLocal<byte[]> buf = new ThreadLocal<byte[]>() {
+                @Override
+                protected byte[] initialValue() {
+                    return new byte[NUID.totalLen];
+                }
+            };
+            long bytes = runNUIDThreads(threads, count, new Runnable() {
+                public void run() {
+                    NUID.local().next(buf.get(), 0);
+                }
+            });
+            System.out.printf("%2d threads: nextGlobal() %,d ns/op, local().next() %,d ns/op, "
+                            + "local().next(byte[]) %,d ns/op\n", threads, global / count,
+                    local / count, bytes / count);
+        }
+    }
+
+    // Runs task count times on each of threads threads, returning the elapsed nanoseconds.
+    private static long runNUIDThreads(int threads, final int count, final Runnable task)
+            throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(exec.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    for (int j = 0; j < count; j++) {
+                        task.run();
+                    }
+                    return null;
+                }
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        exec.shutdown();
+        return elapsed;
+    }
 }
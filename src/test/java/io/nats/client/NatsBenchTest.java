@@ -351,6 +351,38 @@ public class NatsBenchTest {
         }
     }
 
+    private static Properties embeddedBench(String mode) {
+        Properties props = new Properties();
+        props.setProperty("bench.nats.embedded", "true");
+        props.setProperty("bench.nats.mode", mode);
+        props.setProperty("bench.nats.msg.count", "100000");
+        props.setProperty("bench.nats.msg.size", "128");
+        props.setProperty("bench.nats.pubs", "2");
+        props.setProperty("bench.nats.subs", "3");
+        props.setProperty("bench.nats.subject", "foo");
+        return props;
+    }
+
+    @Test
+    public void testNatsBenchRequestReply() throws Exception {
+        // Each synchronous request waits for its reply, so these take fewer messages
+        Properties props = embeddedBench("request");
+        props.setProperty("bench.nats.msg.count", "10000");
+        new NatsBench(props).run();
+
+        props.setProperty("bench.nats.request.old", "true");
+        new NatsBench(props).run();
+
+        props = embeddedBench("request");
+        props.setProperty("bench.nats.request.depth", "64");
+        new NatsBench(props).run();
+    }
+
+    @Test
+    public void testNatsBenchQueueGroup() throws Exception {
+        new NatsBench(embeddedBench("queue")).run();
+    }
+
     @Test
     public void testPubSpeed() throws Exception {
         int count = 100 * 1000 * 1000;
@@ -0,0 +1,207 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import static io.nats.client.ConnectionImplTest.deliverMsg;
+import static io.nats.client.UnitTestUtilities.newMockedConnection;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+
+@Category(UnitTest.class)
+public class NatsEventsTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    private Recording recording;
+
+    @Before
+    public void setUp() {
+        assumeTrue(NatsEvents.AVAILABLE);
+        recording = new Recording();
+        for (String name : new String[] {"Connect", "Disconnect", "Reconnect", "ReconnectPhase",
+                "SlowConsumer", "Flush", "MessageReassembly", "LockWait"}) {
+            recording.enable("io.nats.client." + name).withThreshold(java.time.Duration.ZERO);
+        }
+        recording.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (recording != null) {
+            recording.close();
+        }
+    }
+
+    private List<RecordedEvent> stop() throws Exception {
+        recording.stop();
+        File file = File.createTempFile("jnats", ".jfr");
+        try {
+            recording.dump(file.toPath());
+            return RecordingFile.readAllEvents(file.toPath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> found = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("io.nats.client." + name)) {
+                found.add(event);
+            }
+        }
+        return found;
+    }
+
+    @Test
+    public void testLockWait() throws Exception {
+        final ConnectionLock lock = new ConnectionLock();
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(new Runnable() {
+            public void run() {
+                lock.lock();
+                try {
+                    locked.countDown();
+                    release.await();
+                } catch (InterruptedException e) {
+                    // done
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        holder.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    // done
+                }
+                release.countDown();
+            }
+        }).start();
+        lock.lock();
+        lock.unlock();
+        holder.join();
+
+        // An uncontended lock does not wait
+        lock.lockInterruptibly();
+        lock.unlock();
+
+        List<RecordedEvent> events = named(stop(), "LockWait");
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).getDuration().toMillis() >= 10);
+    }
+
+    @Test
+    public void testConnectAndFlush() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            c.setOutputStream(new ByteArrayOutputStream());
+            c.publish("foo", null, "hello".getBytes(), true);
+        }
+        List<RecordedEvent> recorded = stop();
+        List<RecordedEvent> connects = named(recorded, "Connect");
+        assertEquals(1, connects.size());
+        assertTrue(connects.get(0).getBoolean("success"));
+        assertNotNull(connects.get(0).getString("server"));
+
+        boolean published = false;
+        for (RecordedEvent event : named(recorded, "Flush")) {
+            // PUB foo 5\r\nhello\r\n
+            published |= event.getLong("bytes") == 18;
+        }
+        assertTrue(published);
+    }
+
+    @Test
+    public void testSlowConsumerTransitions() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch handled = new CountDownLatch(3);
+        MessageHandler handler = new MessageHandler() {
+            public void onMessage(Message msg) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // done
+                }
+                handled.countDown();
+            }
+        };
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            AsyncSubscriptionImpl sub = (AsyncSubscriptionImpl) c.subscribe("foo", handler);
+            sub.setPendingLimits(1, -1);
+            // The handler holds on to the first message, the second is pending and the third
+            // is dropped.
+            deliverMsg(c, sub.getSid(), "foo", "1".getBytes());
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            deliverMsg(c, sub.getSid(), "foo", "2".getBytes());
+            deliverMsg(c, sub.getSid(), "foo", "3".getBytes());
+            assertEquals(1, sub.getDropped());
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (sub.getPendingMsgs() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            // Keeping up again
+            deliverMsg(c, sub.getSid(), "foo", "4".getBytes());
+            assertTrue(handled.await(5, TimeUnit.SECONDS));
+        }
+        List<RecordedEvent> events = named(stop(), "SlowConsumer");
+        // Only the transitions are recorded
+        assertEquals(2, events.size());
+        assertTrue(events.get(0).getBoolean("slow"));
+        assertEquals("foo", events.get(0).getString("subject"));
+        assertFalse(events.get(1).getBoolean("slow"));
+    }
+
+    @Test
+    public void testMessageReassembly() throws Exception {
+        try (ConnectionImpl c = (ConnectionImpl) newMockedConnection()) {
+            SyncSubscriptionImpl sub = (SyncSubscriptionImpl) c.subscribeSync("foo");
+            Parser parser = c.getParser();
+            String[] reads = {"MSG foo " + sub.getSid() + " 11\r\nhel", "lo wo", "rld\r\n"};
+            for (String read : reads) {
+                byte[] buf = read.getBytes();
+                parser.parse(buf, buf.length);
+            }
+            assertEquals("hello world", new String(sub.nextMessage(1000).getData()));
+        }
+        List<RecordedEvent> events = named(stop(), "MessageReassembly");
+        assertEquals(1, events.size());
+        assertEquals("foo", events.get(0).getString("subject"));
+        assertEquals(11, events.get(0).getInt("size"));
+        assertEquals(3, events.get(0).getInt("reads"));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import static io.nats.client.UnitTestUtilities.newMockedConnection;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+
+@Category(UnitTest.class)
+public class NatsRuntimeTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    private static int countThreads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testConnectionsShareRuntime() throws Exception {
+        NatsRuntime runtime = new NatsRuntime();
+        Options opts = new Options.Builder().runtime(runtime).build();
+        int before = countThreads(ConnectionImpl.EXEC_NAME);
+
+        List<Connection> conns = new ArrayList<Connection>();
+        for (int i = 0; i < 5; i++) {
+            conns.add(newMockedConnection(opts));
+        }
+        assertEquals(6, runtime.getReferences());
+        assertTrue(conns.get(0).isConnected());
+        // No connection started threads of its own
+        assertEquals(before, countThreads(ConnectionImpl.EXEC_NAME));
+
+        for (Connection conn : conns) {
+            conn.close();
+        }
+        assertEquals(1, runtime.getReferences());
+        assertFalse(runtime.isShutdown());
+
+        // Still usable
+        Connection again = newMockedConnection(opts);
+        assertTrue(again.isConnected());
+        again.close();
+
+        runtime.close();
+        assertTrue(runtime.isShutdown());
+        assertTrue(runtime.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRuntimeOutlivesItsCreator() throws Exception {
+        NatsRuntime runtime = new NatsRuntime();
+        Connection conn = newMockedConnection(new Options.Builder().runtime(runtime).build());
+        runtime.close();
+        runtime.close();
+        assertEquals(1, runtime.getReferences());
+        assertFalse(runtime.isShutdown());
+        conn.close();
+        assertTrue(runtime.isShutdown());
+    }
+
+    @Test
+    public void testConnectAfterShutdown() throws Exception {
+        thrown.expect(IllegalStateException.class);
+        NatsRuntime runtime = new NatsRuntime();
+        runtime.close();
+        newMockedConnection(new Options.Builder().runtime(runtime).build());
+    }
+
+    @Test
+    public void testBadSchedulerThreads() {
+        thrown.expect(IllegalArgumentException.class);
+        new NatsRuntime(0);
+    }
+}
@@ -7,12 +7,16 @@
 package io.nats.client;
 
 import static io.nats.client.Nats.PROP_CLOSED_CB;
+import static io.nats.client.Nats.PROP_COALESCE_REQUESTS;
 import static io.nats.client.Nats.PROP_CONNECTION_NAME;
 import static io.nats.client.Nats.PROP_CONNECTION_TIMEOUT;
+import static io.nats.client.Nats.PROP_DIAL_PARALLELISM;
+import static io.nats.client.Nats.PROP_DIAL_STAGGER;
 import static io.nats.client.Nats.PROP_DISCONNECTED_CB;
 import static io.nats.client.Nats.PROP_EXCEPTION_HANDLER;
 import static io.nats.client.Nats.PROP_MAX_PINGS;
 import static io.nats.client.Nats.PROP_MAX_RECONNECT;
+import static io.nats.client.Nats.PROP_MAX_RECONNECT_WAIT;
 import static io.nats.client.Nats.PROP_NORANDOMIZE;
 import static io.nats.client.Nats.PROP_PASSWORD;
 import static io.nats.client.Nats.PROP_PEDANTIC;
@@ -21,6 +25,7 @@ import static io.nats.client.Nats.PROP_RECONNECTED_CB;
 import static io.nats.client.Nats.PROP_RECONNECT_ALLOWED;
 import static io.nats.client.Nats.PROP_RECONNECT_BUF_SIZE;
 import static io.nats.client.Nats.PROP_RECONNECT_WAIT;
+import static io.nats.client.Nats.PROP_REQUEST_CACHE_TTL;
 import static io.nats.client.Nats.PROP_SECURE;
 import static io.nats.client.Nats.PROP_SERVERS;
 import static io.nats.client.Nats.PROP_TLS_DEBUG;
@@ -28,6 +33,7 @@ import static io.nats.client.Nats.PROP_URL;
 import static io.nats.client.Nats.PROP_USERNAME;
 import static io.nats.client.Nats.PROP_VERBOSE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
@@ -39,6 +45,7 @@ import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
 
 import java.net.URI;
 import java.util.Arrays;
@@ -49,6 +56,9 @@ import javax.net.ssl.SSLContext;
 
 @Category(UnitTest.class)
 public class OptionsTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
     @Rule
     public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
 
@@ -118,6 +128,11 @@ public class OptionsTest {
         props.setProperty(PROP_CONNECTION_TIMEOUT, Integer.toString(timeout));
         props.setProperty(PROP_PING_INTERVAL, Integer.toString(pingInterval));
         props.setProperty(PROP_MAX_PINGS, Integer.toString(maxPings));
+        props.setProperty(PROP_COALESCE_REQUESTS, Boolean.toString(true));
+        props.setProperty(PROP_REQUEST_CACHE_TTL, Long.toString(250L));
+        props.setProperty(PROP_MAX_RECONNECT_WAIT, Long.toString(30000L));
+        props.setProperty(PROP_DIAL_PARALLELISM, Integer.toString(3));
+        props.setProperty(PROP_DIAL_STAGGER, Long.toString(100L));
         props.setProperty(PROP_EXCEPTION_HANDLER, eh.getClass().getName());
         props.setProperty(PROP_CLOSED_CB, ccb.getClass().getName());
         props.setProperty(PROP_DISCONNECTED_CB, dcb.getClass().getName());
@@ -145,6 +160,11 @@ public class OptionsTest {
         assertEquals(timeout, opts.getConnectionTimeout());
         assertEquals(pingInterval, opts.getPingInterval());
         assertEquals(maxPings, opts.getMaxPingsOut());
+        assertTrue(opts.isCoalesceRequests());
+        assertEquals(250L, opts.getRequestCacheTtl());
+        assertEquals(30000L, opts.getMaxReconnectWait());
+        assertEquals(3, opts.getDialParallelism());
+        assertEquals(100L, opts.getDialStagger());
         assertEquals(eh.getClass().getName(), opts.getExceptionHandler().getClass().getName());
         assertEquals(ccb.getClass().getName(), opts.getClosedCallback().getClass().getName());
         assertEquals(dcb.getClass().getName(), opts.getDisconnectedCallback().getClass().getName());
@@ -179,6 +199,9 @@ public class OptionsTest {
         ReconnectedCallback reconnectedCb = mock(ReconnectedCallback.class);
         ExceptionHandler asyncErrorCb = mock(ExceptionHandler.class);
 
+        NatsRuntime runtime = new NatsRuntime();
+        MetricsRecorder metrics = new HistogramMetricsRecorder();
+
         String host = "myhost";
         int port = 2122;
 
@@ -194,9 +217,24 @@ public class OptionsTest {
                 .maxReconnect(maxReconnect)
                 .reconnectBufSize(reconnectBufSize)
                 .reconnectWait(reconnectWait, TimeUnit.MILLISECONDS)
+                .maxReconnectWait(10, TimeUnit.SECONDS)
+                .dialParallelism(2)
+                .dialStagger(50, TimeUnit.MILLISECONDS)
+                .preferLowLatency(true)
+                .latencyMigrationFactor(3.0)
+                .hotStandby(true)
+                .runtime(runtime)
+                .metricsRecorder(metrics)
                 .timeout(connectionTimeout, TimeUnit.MILLISECONDS)
                 .pingInterval(pingInterval, TimeUnit.MILLISECONDS)
                 .maxPingsOut(maxPingsOut)
+                .coalesceRequests(true)
+                .requestCacheTtl(1, TimeUnit.SECONDS)
+                .trackRequestLatency(true)
+                .trackSubscriptionLatency(true)
+                .trackLockContention(true)
+                .hedgeRequests(95)
+                .adaptiveRequestTimeout(3.0)
                 .sslContext(sslContext)
                 .tlsDebug()
                 .factory(factory)
@@ -212,7 +250,12 @@ public class OptionsTest {
         Options actual = new Options.Builder(expected).build();
 
         assertTrue(expected.equals(actual));
+        assertEquals(runtime, actual.getRuntime());
+        assertEquals(metrics, actual.getMetricsRecorder());
+        runtime.close();
 
+        assertFalse(expected.equals(new Options.Builder(expected).runtime(null).build()));
+        assertFalse(expected.equals(new Options.Builder(expected).metricsRecorder(null).build()));
     }
 
     @Test
@@ -239,6 +282,30 @@ public class OptionsTest {
         assertTrue(opts.isTlsDebug());
     }
 
+    @Test
+    public void testBadHedgePercentile() {
+        thrown.expect(IllegalArgumentException.class);
+        new Options.Builder().hedgeRequests(101);
+    }
+
+    @Test
+    public void testBadDialParallelism() {
+        thrown.expect(IllegalArgumentException.class);
+        new Options.Builder().dialParallelism(0);
+    }
+
+    @Test
+    public void testLatencyMigrationImpliesPreferLowLatency() {
+        assertFalse(new Options.Builder().build().isPreferLowLatency());
+        assertTrue(new Options.Builder().latencyMigrationFactor(2).build().isPreferLowLatency());
+    }
+
+    @Test
+    public void testBadLatencyMigrationFactor() {
+        thrown.expect(IllegalArgumentException.class);
+        new Options.Builder().latencyMigrationFactor(0.5);
+    }
+
     @Test
     public void testHashcode() {
         int hash = new Options.Builder().build().hashCode();
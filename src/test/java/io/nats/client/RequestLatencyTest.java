@@ -0,0 +1,83 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class RequestLatencyTest {
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    @Test
+    public void testPercentilesNeedSamples() {
+        RequestLatency latency = new RequestLatency(true, 90);
+        for (int i = 1; i < ConnectionImpl.MIN_LATENCY_SAMPLES; i++) {
+            latency.record(1000);
+        }
+        assertEquals(0L, latency.getP99());
+        assertEquals(0L, latency.getHedgeDelay());
+
+        latency.record(1000);
+        assertTrue(latency.getP99() >= 1000);
+        assertTrue(latency.getHedgeDelay() >= 1000);
+        assertEquals(ConnectionImpl.MIN_LATENCY_SAMPLES, latency.snapshot().getCount());
+    }
+
+    @Test
+    public void testPercentilesRefreshedPeriodically() {
+        RequestLatency latency = new RequestLatency(true, 90);
+        for (int i = 0; i < RequestLatency.REFRESH_SAMPLES; i++) {
+            latency.record(1000);
+        }
+        long p99 = latency.getP99();
+
+        // Not recomputed on every sample
+        for (int i = 1; i < RequestLatency.REFRESH_SAMPLES; i++) {
+            latency.record(1000000);
+        }
+        assertEquals(p99, latency.getP99());
+        latency.record(1000000);
+        assertTrue(latency.getP99() >= 1000000 * 0.9);
+    }
+
+    @Test
+    public void testPercentilesFollowRecentSamples() {
+        RequestLatency latency = new RequestLatency(true, 0);
+        for (int i = 0; i < RequestLatency.WINDOW_SAMPLES; i++) {
+            latency.record(1000000);
+        }
+        assertTrue(latency.getP99() >= 1000000 * 0.9);
+
+        // Once the slow samples have left the window, they no longer count
+        for (int i = 0; i < RequestLatency.REFRESH_SAMPLES; i++) {
+            latency.record(1000);
+        }
+        assertTrue(latency.getP99() < 1100);
+        assertEquals(0L, latency.getHedgeDelay());
+
+        // The all-time histogram keeps everything
+        assertEquals(RequestLatency.WINDOW_SAMPLES + RequestLatency.REFRESH_SAMPLES,
+                latency.snapshot().getCount());
+    }
+
+    @Test
+    public void testNotWindowed() {
+        RequestLatency latency = new RequestLatency(false, 0);
+        for (int i = 0; i < RequestLatency.REFRESH_SAMPLES; i++) {
+            latency.record(1000);
+        }
+        assertEquals(0L, latency.getP99());
+        assertEquals(RequestLatency.REFRESH_SAMPLES, latency.snapshot().getCount());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright (c) 2015-2016 Apcera Inc. All rights reserved. This program and the accompanying
+ *  materials are made available under the terms of the MIT License (MIT) which accompanies this
+ *  distribution, and is available at http://opensource.org/licenses/MIT
+ */
+
+package io.nats.client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.ExpectedException;
+
+@Category(UnitTest.class)
+public class SharedExecutorTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TestCasePrinterRule pr = new TestCasePrinterRule(System.out);
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService workers;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newScheduledThreadPool(1);
+        workers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private static Runnable blocker(final CountDownLatch started) {
+        return new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    // interrupted by shutdownNow
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testShutdownNowOnlyCancelsOwnTasks() throws Exception {
+        SharedExecutor first = new SharedExecutor(scheduler, workers);
+        SharedExecutor second = new SharedExecutor(scheduler, workers);
+        CountDownLatch started = new CountDownLatch(2);
+        Future<?> mine = first.submit(blocker(started));
+        Future<?> theirs = second.submit(blocker(started));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        first.shutdownNow();
+        assertTrue(first.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(first.isTerminated());
+        assertTrue(mine.isCancelled());
+        assertFalse(theirs.isDone());
+        assertFalse(second.isShutdown());
+        assertFalse(workers.isShutdown());
+
+        second.shutdownNow();
+        assertTrue(second.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShutdownCancelsPeriodicTasks() throws Exception {
+        SharedExecutor exec = new SharedExecutor(scheduler, workers);
+        ScheduledFuture<?> periodic = exec.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+            }
+        }, 1, 1, TimeUnit.MILLISECONDS);
+        final CountDownLatch ran = new CountDownLatch(1);
+        exec.submit(new Runnable() {
+            public void run() {
+                ran.countDown();
+            }
+        });
+        exec.shutdown();
+        assertTrue(periodic.isCancelled());
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(exec.awaitTermination(5, TimeUnit.SECONDS));
+        assertFalse(scheduler.isShutdown());
+    }
+
+    @Test
+    public void testAwaitTerminationWaitsForCancelledRunningTask() throws Exception {
+        SharedExecutor exec = new SharedExecutor(scheduler, workers);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ScheduledFuture<?> periodic = exec.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // not interrupted by shutdown
+                }
+            }
+        }, 0, 1, TimeUnit.MILLISECONDS);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        exec.shutdown();
+        assertTrue(periodic.isCancelled());
+        assertFalse(exec.awaitTermination(100, TimeUnit.MILLISECONDS));
+        assertFalse(exec.isTerminated());
+
+        release.countDown();
+        assertTrue(exec.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(exec.isTerminated());
+    }
+
+    @Test
+    public void testRejectsAfterShutdown() {
+        thrown.expect(RejectedExecutionException.class);
+        SharedExecutor exec = new SharedExecutor(scheduler, workers);
+        exec.shutdown();
+        exec.execute(new Runnable() {
+            public void run() {
+            }
+        });
+    }
+}
@@ -53,6 +53,7 @@ public class StatisticsTest {
         stats.incrementInMsgs();
         stats.incrementOutBytes(199L);
         stats.incrementOutMsgs();
+        stats.incrementTimeouts();
         return stats;
     }
 
@@ -66,6 +67,7 @@ public class StatisticsTest {
         assertEquals(0, stats.getOutBytes());
         assertEquals(0, stats.getOutMsgs());
         assertEquals(0, stats.getReconnects());
+        assertEquals(0, stats.getTimeouts());
     }
 
     @Test
@@ -177,4 +179,63 @@ public class StatisticsTest {
         stats.incrementFlushes();
         assertEquals(n1 + 1, stats.getFlushes());
     }
+
+    @Test
+    public void testIncrementTimeouts() {
+        Statistics stats = createDummyStats();
+        long n1 = stats.getTimeouts();
+        stats.incrementTimeouts();
+        assertEquals(n1 + 1, stats.getTimeouts());
+    }
+
+    @Test
+    public void testRecordReconnectTime() {
+        Statistics stats = createDummyStats();
+        stats.recordReconnectTime(1000L);
+        stats.recordReconnectTime(3000L);
+        assertEquals(2, stats.getReconnectTime().getCount());
+        assertEquals(3000L, stats.getReconnectTime().getMax());
+        stats.clear();
+        assertEquals(0, stats.getReconnectTime().getCount());
+    }
+
+    @Test
+    public void testAdd() {
+        Statistics total = createDummyStats();
+        Statistics other = createDummyStats();
+        other.incrementReconnects();
+        other.recordReconnectTime(5000L);
+        total.add(other);
+        assertEquals(2, total.getFlushes());
+        assertEquals(88, total.getInBytes());
+        assertEquals(2, total.getInMsgs());
+        assertEquals(398, total.getOutBytes());
+        assertEquals(2, total.getOutMsgs());
+        assertEquals(1, total.getReconnects());
+        assertEquals(2, total.getTimeouts());
+        assertEquals(1, total.getReconnectTime().getCount());
+        assertEquals(1, other.getReconnects());
+    }
+
+    @Test
+    public void testRecordTlsHandshake() {
+        Statistics stats = new Statistics();
+        stats.recordTlsHandshake(2000000L, 4000L, false);
+        stats.recordTlsHandshake(500000L, 600L, true);
+        assertEquals(2, stats.getTlsHandshakes());
+        assertEquals(1, stats.getTlsResumptions());
+        assertEquals(4600, stats.getTlsHandshakeBytes());
+        assertEquals(2, stats.getTlsHandshakeTime().getCount());
+        assertEquals(500000L, stats.getTlsHandshakeTime().getMin());
+
+        Statistics total = new Statistics();
+        total.add(stats);
+        assertEquals(2, total.getTlsHandshakes());
+        assertEquals(1, total.getTlsResumptions());
+
+        stats.clear();
+        assertEquals(0, stats.getTlsHandshakes());
+        assertEquals(0, stats.getTlsHandshakeBytes());
+        assertEquals(0, stats.getTlsHandshakeTime().getCount());
+    }
 }
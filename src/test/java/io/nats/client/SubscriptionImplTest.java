@@ -6,7 +6,9 @@
 
 package io.nats.client;
 
+import static io.nats.client.ConnectionImplTest.deliverMsg;
 import static io.nats.client.Nats.ERR_BAD_SUBSCRIPTION;
+import static io.nats.client.UnitTestUtilities.newMockedConnection;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -14,8 +16,10 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -33,6 +37,8 @@ import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 @Category(UnitTest.class)
 public class SubscriptionImplTest {
@@ -545,4 +551,91 @@ public class SubscriptionImplTest {
         }
     }
 
+    @Test
+    public void testPendingWatermarks() throws Exception {
+        PendingWatermarkCallback cb = mock(PendingWatermarkCallback.class);
+        try (ConnectionImpl nc = (ConnectionImpl) newMockedConnection()) {
+            SyncSubscriptionImpl sub = (SyncSubscriptionImpl) nc.subscribeSync("foo");
+            sub.setPendingLimits(10, -1);
+            sub.setPendingWatermarks(0.5, 0.2, cb);
+
+            for (int i = 0; i < 4; i++) {
+                deliverMsg(nc, sub.getSid(), "foo", "x".getBytes());
+            }
+            verify(cb, after(100).never()).onHighWatermark(sub);
+            deliverMsg(nc, sub.getSid(), "foo", "x".getBytes());
+            verify(cb, timeout(5000).times(1)).onHighWatermark(sub);
+
+            // Still above the low watermark, and the high one is only reported once
+            deliverMsg(nc, sub.getSid(), "foo", "x".getBytes());
+            for (int i = 0; i < 3; i++) {
+                assertNotNull(sub.nextMessage(1000));
+            }
+            verify(cb, after(100).never()).onLowWatermark(sub);
+            assertNotNull(sub.nextMessage(1000));
+            verify(cb, timeout(5000).times(1)).onLowWatermark(sub);
+            verify(cb, times(1)).onHighWatermark(sub);
+        }
+    }
+
+    @Test
+    public void testPendingWatermarksOnBytes() throws Exception {
+        PendingWatermarkCallback cb = mock(PendingWatermarkCallback.class);
+        try (ConnectionImpl nc = (ConnectionImpl) newMockedConnection()) {
+            SyncSubscriptionImpl sub = (SyncSubscriptionImpl) nc.subscribeSync("foo");
+            sub.setPendingLimits(-1, 100);
+            sub.setPendingWatermarks(0.8, 0.0, cb);
+            deliverMsg(nc, sub.getSid(), "foo", new byte[80]);
+            verify(cb, timeout(5000).times(1)).onHighWatermark(sub);
+            assertNotNull(sub.nextMessage(1000));
+            verify(cb, timeout(5000).times(1)).onLowWatermark(sub);
+        }
+    }
+
+    @Test
+    public void testBadPendingWatermarks() {
+        thrown.expect(IllegalArgumentException.class);
+        try (SyncSubscriptionImpl sub = new SyncSubscriptionImpl(connMock, "foo", null)) {
+            sub.setPendingWatermarks(0.2, 0.5, mock(PendingWatermarkCallback.class));
+        }
+    }
+
+    @Test
+    public void testSubscriptionLatency() throws Exception {
+        final CountDownLatch handled = new CountDownLatch(2);
+        MessageHandler handler = new MessageHandler() {
+            public void onMessage(Message msg) {
+                handled.countDown();
+            }
+        };
+        Options opts = new Options.Builder().trackSubscriptionLatency(true).build();
+        try (ConnectionImpl nc = (ConnectionImpl) newMockedConnection(opts)) {
+            AsyncSubscriptionImpl async = (AsyncSubscriptionImpl) nc.subscribe("foo", handler);
+            SyncSubscriptionImpl sync = (SyncSubscriptionImpl) nc.subscribeSync("bar");
+
+            deliverMsg(nc, async.getSid(), "foo", "x".getBytes());
+            deliverMsg(nc, async.getSid(), "foo", "x".getBytes());
+            deliverMsg(nc, sync.getSid(), "bar", "x".getBytes());
+            assertTrue(handled.await(5, TimeUnit.SECONDS));
+            assertNotNull(sync.nextMessage(1000));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (async.getHandlerTime().getCount() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(2, async.getDispatchDelay().getCount());
+            assertEquals(2, async.getHandlerTime().getCount());
+            assertEquals(1, sync.getDispatchDelay().getCount());
+            assertNull(sync.getHandlerTime());
+        }
+    }
+
+    @Test
+    public void testSubscriptionLatencyOffByDefault() throws Exception {
+        try (ConnectionImpl nc = (ConnectionImpl) newMockedConnection()) {
+            Subscription sub = nc.subscribe("foo", mcbMock);
+            assertNull(sub.getDispatchDelay());
+            assertNull(sub.getHandlerTime());
+        }
+    }
 }
@@ -29,16 +29,28 @@ import org.junit.rules.ExpectedException;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.SocketFactory;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
 
 @Category(UnitTest.class)
 public class TcpConnectionTest {
@@ -183,4 +195,161 @@ public class TcpConnectionTest {
             fail(e.getMessage());
         }
     }
+
+    private static SSLContext serverContext() throws Exception {
+        KeyStore ks = KeyStore.getInstance("JKS");
+        try (InputStream in = TcpConnectionTest.class.getResourceAsStream("/keystore.jks")) {
+            ks.load(in, "password".toCharArray());
+        }
+        KeyManagerFactory kmf =
+                KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(ks, "password".toCharArray());
+        SSLContext ctx = SSLContext.getInstance("TLSv1.2");
+        ctx.init(kmf.getKeyManagers(), null, null);
+        return ctx;
+    }
+
+    private static SSLContext trustAllContext() throws Exception {
+        TrustManager trustAll = new X509TrustManager() {
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        SSLContext ctx = SSLContext.getInstance("TLSv1.2");
+        ctx.init(null, new TrustManager[] {trustAll}, null);
+        return ctx;
+    }
+
+    // Accepts count TLS connections, answering each line with PONG.
+    private static Thread startPongServer(final SSLServerSocket server, final int count) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    try (Socket sock = server.accept()) {
+                        BufferedReader reader =
+                                new BufferedReader(new InputStreamReader(sock.getInputStream()));
+                        OutputStream out = sock.getOutputStream();
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            out.write("PONG\r\n".getBytes());
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        // next
+                    }
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testMakeTlsEngineResumesSession() throws Exception {
+        SSLContext clientCtx = trustAllContext();
+        try (SSLServerSocket server = (SSLServerSocket) serverContext().getServerSocketFactory()
+                .createServerSocket(0)) {
+            Thread thread = startPongServer(server, 2);
+            String url = "nats://localhost:" + server.getLocalPort();
+            for (int i = 0; i < 2; i++) {
+                TcpConnection conn = new TcpConnection();
+                conn.open(url, 2000);
+                conn.makeTls(clientCtx);
+                assertTrue(conn.getTlsHandshakeNanos() > 0);
+                assertTrue(conn.getTlsHandshakeBytes() > 0);
+                assertEquals("Only the second handshake should resume", i == 1,
+                        conn.isTlsSessionResumed());
+
+                OutputStream out = conn.getOutputStream(1024);
+                out.write("PING\r\n".getBytes());
+                out.flush();
+                conn.getInputStream(1024);
+                assertEquals("PONG", conn.getBufferedReader().readLine());
+                conn.close();
+            }
+            thread.join(5000);
+        }
+        assertTrue(TlsChannel.pooledBuffers() >= 3);
+    }
+
+    // Waits for available() to report data, as a caller polling the socket would
+    private static int awaitAvailable(InputStream in) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        int available;
+        while ((available = in.available()) == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return available;
+    }
+
+    @Test
+    public void testAvailable() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            TcpConnection conn = new TcpConnection();
+            conn.open("nats://localhost:" + server.getLocalPort(), 2000);
+            try (Socket peer = server.accept()) {
+                InputStream in = conn.getInputStream(1024);
+                assertEquals(0, in.available());
+
+                peer.getOutputStream().write("PING\r\n".getBytes());
+                peer.getOutputStream().flush();
+                assertEquals(6, awaitAvailable(in));
+                // Writing still works after the channel was polled
+                OutputStream out = conn.getOutputStream(1024);
+                out.write("PONG\r\n".getBytes());
+                out.flush();
+                assertEquals("PONG", new BufferedReader(
+                        new InputStreamReader(peer.getInputStream())).readLine());
+                // The bytes read ahead are returned by the next read
+                assertEquals("PING", conn.getBufferedReader().readLine());
+                assertEquals(0, in.available());
+            } finally {
+                conn.close();
+            }
+        }
+    }
+
+    @Test
+    public void testAvailableTls() throws Exception {
+        try (SSLServerSocket server = (SSLServerSocket) serverContext().getServerSocketFactory()
+                .createServerSocket(0)) {
+            Thread thread = startPongServer(server, 1);
+            TcpConnection conn = new TcpConnection();
+            conn.open("nats://localhost:" + server.getLocalPort(), 2000);
+            conn.makeTls(trustAllContext());
+            InputStream in = conn.getInputStream(1024);
+            assertEquals(0, in.available());
+
+            OutputStream out = conn.getOutputStream(1024);
+            out.write("PING\r\n".getBytes());
+            out.flush();
+            assertEquals(6, awaitAvailable(in));
+            assertEquals("PONG", conn.getBufferedReader().readLine());
+            conn.close();
+            thread.join(5000);
+        }
+    }
+
+    @Test
+    public void testTlsChannelBufferPool() {
+        ByteBuffer buf = TlsChannel.acquireBuffer(1024);
+        assertTrue(buf.isDirect());
+        assertTrue(buf.capacity() >= 1024);
+        TlsChannel.releaseBuffer(buf);
+        ByteBuffer again = TlsChannel.acquireBuffer(16);
+        assertTrue(again.isDirect());
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+        TlsChannel.releaseBuffer(again);
+        // Heap buffers are never pooled
+        int before = TlsChannel.pooledBuffers();
+        TlsChannel.releaseBuffer(ByteBuffer.allocate(16));
+        assertEquals(before, TlsChannel.pooledBuffers());
+    }
 }
@@ -107,6 +107,9 @@ class UnitTestUtilities {
         // Setup bufferedReaderMock
         doReturn(bufferedReaderMock).when(tcpConnMock).getBufferedReader();
 
+        // The mocked streams count what has arrived, as a SocketChannel's do
+        doReturn(true).when(tcpConnMock).reportsArrived();
+
         // Setup br
         doReturn(brMock).when(tcpConnMock).getInputStream(anyInt());
 
@@ -7,6 +7,9 @@
 package io.nats.examples;
 
 import io.nats.benchmark.Benchmark;
+import io.nats.benchmark.InProcessServer;
+import io.nats.benchmark.LatencyCurve;
+import io.nats.benchmark.Pacer;
 import io.nats.benchmark.Sample;
 import io.nats.client.*;
 
@@ -23,12 +26,16 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -38,6 +45,21 @@ public class NatsBench {
 
     final BlockingQueue<Throwable> errorQueue = new LinkedBlockingQueue<Throwable>();
 
+    /**
+     * The traffic a benchmark run generates.
+     */
+    enum Mode {
+        // Each publisher to its own subscriber
+        PUBSUB,
+        // Requesters to a queue group of repliers
+        REQUEST,
+        // Publishers to a queue group of subscribers
+        QUEUE
+    }
+
+    static final String QUEUE_GROUP = "bench";
+    static final long REQUEST_TIMEOUT_SECONDS = 10;
+
     // Default test values
     private int numMsgs = 100000;
     private int numPubs = 0;
@@ -49,24 +71,54 @@ public class NatsBench {
     private final AtomicInteger sent = new AtomicInteger();
     private final AtomicInteger received = new AtomicInteger();
     private String csvFileName;
+    private String latencyDir;
+    // Fixed-rate mode: the total target rate in msgs/sec, or 0 to publish as fast as possible
+    private long rate;
+    // Rate sweep: from sweepStart in steps of sweepStep until saturated or above sweepMax
+    private long sweepStart;
+    private long sweepStep;
+    private long sweepMax;
+    // The earliest intended send time and the time of the last delivery of a run
+    private final AtomicLong scheduleStart = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastDelivery = new AtomicLong(Long.MIN_VALUE);
+    private Mode mode = Mode.PUBSUB;
+    private boolean oldRequest;
+    // The number of requests each requester keeps in flight, 1 waits for each reply in turn
+    private int depth = 1;
+    // Released when a queue group has received every message of a run
+    private CountDownLatch delivered;
 
     Options opts = null;
     private Thread shutdownHook;
     private final AtomicBoolean shutdown = new AtomicBoolean(false);
 
     private boolean secure;
+    private boolean embedded;
     private Benchmark bench;
 
     static final String usageString =
-            "\nUsage: java NatsBench [-s server] [-tls] [-np num] [-ns num] [-n num] [-ms size] "
-                    + "[-csv file] <subject>\n\nOptions:\n"
+            "\nUsage: java NatsBench [-s server] [-embedded] [-tls] [-np num] [-ns num] [-n num] "
+                    + "[-ms size] [-csv file] [-latency dir] [-rate msgs/sec | -sweep "
+                    + "start:step[:max]] [-mode pubsub|request|queue] [-oldrequest] [-depth num] "
+                    + "<subject>\n\nOptions:\n"
                     + "    -s   <urls>                    The nats server URLs (comma-separated)\n"
+                    + "    -embedded                       Run against an in-process server\n"
                     + "    -tls                            Use TLS secure connection\n"
                     + "    -np                             Number of concurrent publishers\n"
                     + "    -ns                             Number of concurrent subscribers\n"
                     + "    -n                              Number of messages to publish\n"
                     + "    -ms                             Size of the message\n"
-                    + "    -csv                            Save bench data to csv file\n";
+                    + "    -csv                            Save bench data to csv file\n"
+                    + "    -latency <dir>                  Save latency histograms to dir\n"
+                    + "    -rate <msgs/sec>                Publish at a fixed total rate\n"
+                    + "    -sweep <start:step[:max]>       Run at increasing fixed rates until\n"
+                    + "                                    saturated, -csv saves the curve\n"
+                    + "    -mode <pubsub|request|queue>    Each publisher to its own subscriber,\n"
+                    + "                                    -np requesters to a queue group of -ns\n"
+                    + "                                    repliers, or -np publishers to a queue\n"
+                    + "                                    group of -ns subscribers\n"
+                    + "    -oldrequest                     Use the old request style\n"
+                    + "    -depth <num>                    Requests each requester keeps in flight\n";
 
     /**
      * Main constructor for NatsBench.
@@ -79,12 +131,7 @@ public class NatsBench {
             return;
         }
         parseArgs(args);
-
-        if (secure) {
-            opts = new Options.Builder(Nats.defaultOptions()).secure().noReconnect().build();
-        } else {
-            opts = new Options.Builder(Nats.defaultOptions()).noReconnect().build();
-        }
+        buildOptions();
     }
 
 
@@ -97,6 +144,8 @@ public class NatsBench {
         urls = properties.getProperty("bench.nats.servers", urls);
         secure = Boolean.parseBoolean(
                 properties.getProperty("bench.nats.secure", Boolean.toString(secure)));
+        embedded = Boolean.parseBoolean(
+                properties.getProperty("bench.nats.embedded", Boolean.toString(embedded)));
         numMsgs = Integer.parseInt(
                 properties.getProperty("bench.nats.msg.count", Integer.toString(numMsgs)));
         size = Integer
@@ -106,7 +155,36 @@ public class NatsBench {
         numSubs = Integer
                 .parseInt(properties.getProperty("bench.nats.subs", Integer.toString(numSubs)));
         csvFileName = properties.getProperty("bench.nats.csv.filename", null);
+        latencyDir = properties.getProperty("bench.nats.latency.dir", null);
+        rate = Long.parseLong(properties.getProperty("bench.nats.rate", Long.toString(rate)));
+        String sweep = properties.getProperty("bench.nats.sweep", null);
+        if (sweep != null) {
+            parseSweep(sweep);
+        }
+        mode = Mode.valueOf(properties.getProperty("bench.nats.mode", mode.name()).toUpperCase());
+        oldRequest = Boolean.parseBoolean(
+                properties.getProperty("bench.nats.request.old", Boolean.toString(oldRequest)));
+        depth = Integer.parseInt(
+                properties.getProperty("bench.nats.request.depth", Integer.toString(depth)));
         subject = properties.getProperty("bench.nats.subject", NUID.nextGlobal());
+        buildOptions();
+    }
+
+    private void buildOptions() {
+        if (depth < 1) {
+            usage();
+        }
+        if (oldRequest && depth > 1) {
+            // Pipelined requests use requestAsync, which always uses the new style
+            System.err.println("-oldrequest waits for each reply, it cannot be used with -depth");
+            usage();
+        }
+        Options.Builder builder = new Options.Builder(Nats.defaultOptions()).noReconnect()
+                .useOldRequestStyle(oldRequest);
+        if (secure) {
+            builder.secure();
+        }
+        opts = builder.build();
     }
 
     class Worker implements Runnable {
@@ -174,17 +252,16 @@ public class NatsBench {
                 private long i=0;
                 @Override
                 public void onMessage(Message msg)  {
-                    currTime=System.currentTimeMillis();
+                    // Publishers and subscribers share this JVM, so nanoTime is comparable
+                    currTime=System.nanoTime();
                     received.incrementAndGet();
                     bench.addSubLatency(workerIndex,currTime - payload.extractTime(msg.getData()));
                     i=payload.extractMsgIndex(msg.getData());
                     if(i%(numMsgs/100)==0&&workerIndex==numSubs-1) {
                         System.out.println("sub"+workerIndex + ":" + i / (numMsgs / 100));
-                        System.out.println(payload.extractTime(msg.getData()));
-                        System.out.println(currTime);
-
                     }
                     if (payload.extractMsgIndex(msg.getData())+1 >= numMsgs) {
+                        updateMax(lastDelivery, currTime);
                         bench.addSubSample(new Sample(numMsgs, size, start, System.nanoTime(), nc));
                         phaser.arrive();
                         nc.setDisconnectedCallback(null);
@@ -221,23 +298,27 @@ public class NatsBench {
             try (Connection nc = Nats.connect(urls, opts)) {
                 Payload payload=new Payload(size);
                 final long start = System.nanoTime();
-                long previousTime=System.nanoTime();
+                // At a fixed rate, latency is measured from when each message was due
+                Pacer pacer = rate > 0 ? new Pacer((double) rate / numPubs, start) : null;
+                updateMin(scheduleStart, start);
+                long intendedTime;
                 long currTime;
-                long currMillis;
 
                 for (int i = 0; i < numMsgs; i++) {
                     sent.incrementAndGet();
-                    previousTime=System.nanoTime();
-                    currMillis=System.currentTimeMillis();
-                    nc.publish(subject+workerIndex, payload.preparePayload(i,currMillis));
+                    intendedTime = pacer == null ? System.nanoTime() : pacer.awaitNext();
+                    nc.publish(mode == Mode.QUEUE ? subject : subject + workerIndex,
+                            payload.preparePayload(i, intendedTime));
                     currTime=System.nanoTime();
-                    bench.addPubLatency(workerIndex,currTime-previousTime);
+                    bench.addPubLatency(workerIndex,currTime-intendedTime);
                     if(i%(numMsgs/100)==0&&workerIndex==numPubs-1) {
                         System.out.println("pub"+workerIndex + ":" + i / (numMsgs / 100));
-                        System.out.println(currMillis);
                     }
                 }
                 nc.flush();
+                if (numSubs == 0) {
+                    updateMax(lastDelivery, System.nanoTime());
+                }
                 bench.addPubSample(new Sample(numMsgs, size, start, System.nanoTime(), nc));
                 Statistics s = nc.getStats();
                 System.out.println("NATS publish connection statistics:");
@@ -247,6 +328,146 @@ public class NatsBench {
         }
     }
 
+    class QueueSubWorker extends Worker {
+        QueueSubWorker(Phaser phaser, int numMsgs, int size, int subIndex) {
+            super(phaser, numMsgs, size, subIndex);
+        }
+
+        @Override
+        public void run() {
+            try {
+                runQueueSubscriber();
+                phaser.arrive();
+            } catch (Exception e) {
+                errorQueue.add(e);
+                phaser.arrive();
+            }
+        }
+
+        // A member of the queue group, which replies to each message in REQUEST mode
+        public void runQueueSubscriber() throws Exception {
+            final int total = numMsgs * numPubs;
+            final AtomicInteger count = new AtomicInteger();
+            try (final Connection nc = Nats.connect(urls, opts)) {
+                final long start = System.nanoTime();
+                Subscription sub = nc.subscribe(subject, QUEUE_GROUP, new MessageHandler() {
+                    private Payload payload = new Payload(size);
+
+                    @Override
+                    public void onMessage(Message msg) {
+                        long currTime = System.nanoTime();
+                        count.incrementAndGet();
+                        if (mode == Mode.REQUEST) {
+                            try {
+                                nc.publish(msg.getReplyTo(), msg.getData());
+                            } catch (IOException e) {
+                                errorQueue.add(e);
+                            }
+                        } else {
+                            bench.addSubLatency(workerIndex,
+                                    currTime - payload.extractTime(msg.getData()));
+                        }
+                        if (received.incrementAndGet() == total) {
+                            if (mode == Mode.QUEUE) {
+                                updateMax(lastDelivery, currTime);
+                            }
+                            delivered.countDown();
+                        }
+                    }
+                });
+                sub.setPendingLimits(10000000, 1000000000);
+                nc.flush();
+                phaser.arrive();
+                delivered.await();
+                nc.flush();
+                bench.addSubSample(new Sample(count.get(), size, start, System.nanoTime(), nc));
+            }
+        }
+    }
+
+    class RequestWorker extends Worker {
+        RequestWorker(Phaser phaser, int numMsgs, int size, int pubIndex) {
+            super(phaser, numMsgs, size, pubIndex);
+        }
+
+        @Override
+        public void run() {
+            try {
+                runRequester();
+                phaser.arrive();
+            } catch (Exception e) {
+                errorQueue.add(e);
+                phaser.arrive();
+            }
+        }
+
+        public void runRequester() throws Exception {
+            try (Connection nc = Nats.connect(urls, opts)) {
+                Payload payload = new Payload(size);
+                final long start = System.nanoTime();
+                Pacer pacer = rate > 0 ? new Pacer((double) rate / numPubs, start) : null;
+                updateMin(scheduleStart, start);
+                // The requests in flight, request i in slot i % depth. Each reply is timed by
+                // its handler as it arrives, so one that overtakes an older reply is not held
+                // up by it; the slots only bound how many requests are outstanding.
+                @SuppressWarnings("unchecked")
+                Future<Integer>[] futures = new Future[depth];
+
+                for (int i = 0; i < numMsgs; i++) {
+                    long intendedTime = pacer == null ? System.nanoTime() : pacer.awaitNext();
+                    byte[] data = payload.preparePayload(i, intendedTime);
+                    sent.incrementAndGet();
+                    if (depth == 1) {
+                        checkReply(nc.request(subject, data, REQUEST_TIMEOUT_SECONDS,
+                                TimeUnit.SECONDS));
+                        bench.addPubLatency(workerIndex, System.nanoTime() - intendedTime);
+                        continue;
+                    }
+                    int slot = i % depth;
+                    if (i >= depth) {
+                        collect(futures[slot]);
+                    }
+                    futures[slot] = nc.requestMany(subject, data, 1, REQUEST_TIMEOUT_SECONDS, 0,
+                            TimeUnit.SECONDS, new ReplyTimer(intendedTime));
+                }
+                if (depth > 1) {
+                    for (int i = Math.max(0, numMsgs - depth); i < numMsgs; i++) {
+                        collect(futures[i % depth]);
+                    }
+                }
+                updateMax(lastDelivery, System.nanoTime());
+                bench.addPubSample(new Sample(numMsgs, size, start, System.nanoTime(), nc));
+            }
+        }
+
+        // Waits for a request's reply, already timed by its ReplyTimer.
+        private void collect(Future<Integer> future) throws Exception {
+            if (future.get() == 0) {
+                checkReply(null);
+            }
+        }
+
+        // Records the latency of a reply on receipt, from the request's intended send time.
+        private final class ReplyTimer implements MessageHandler {
+            private final long intendedTime;
+
+            ReplyTimer(long intendedTime) {
+                this.intendedTime = intendedTime;
+            }
+
+            @Override
+            public void onMessage(Message msg) {
+                bench.addPubLatency(workerIndex, System.nanoTime() - intendedTime);
+            }
+        }
+
+        private void checkReply(Message reply) throws IOException {
+            if (reply == null) {
+                throw new IOException(String.format("nats: no reply within %d seconds",
+                        REQUEST_TIMEOUT_SECONDS));
+            }
+        }
+    }
 
     /**
      * Runs the benchmark.
@@ -254,6 +475,66 @@ public class NatsBench {
      * @throws Exception if an exception occurs
      */
     public void run() throws Exception {
+        if (embedded) {
+            try (InProcessServer server = new InProcessServer()) {
+                urls = server.getUrl();
+                runBenchmarks();
+            }
+        } else {
+            runBenchmarks();
+        }
+    }
+
+    private void runBenchmarks() throws Exception {
+        if (sweepStart <= 0) {
+            runBenchmark();
+            writeResults(bench.csv());
+            return;
+        }
+        LatencyCurve curve = new LatencyCurve();
+        for (rate = sweepStart; sweepMax <= 0 || rate <= sweepMax; rate += sweepStep) {
+            runBenchmark();
+            // Subscribers measure from the intended send time to receipt, publishers only to
+            // the return from publish
+            Histogram latency =
+                    bench.getSubLatency().getCount() > 0 ? bench.getSubLatency() :
+                            bench.getPubLatency();
+            long delivered = numSubs > 0 ? received.get() : sent.get();
+            long achieved = (long) (delivered
+                    / ((lastDelivery.get() - scheduleStart.get()) / 1000000000.0));
+            if (curve.add(rate, achieved, latency).isSaturated()) {
+                break;
+            }
+        }
+        System.out.println(curve.report());
+        writeResults(curve.csv());
+    }
+
+    private void writeResults(List<String> csv) throws IOException {
+        if (csvFileName != null) {
+            Path csvFile = Paths.get(csvFileName);
+            Files.write(csvFile, csv, Charset.forName("UTF-8"));
+        }
+    }
+
+    private static void updateMin(AtomicLong value, long update) {
+        long current;
+        while (update < (current = value.get()) && !value.compareAndSet(current, update)) {
+        }
+    }
+
+    private static void updateMax(AtomicLong value, long update) {
+        long current;
+        while (update > (current = value.get()) && !value.compareAndSet(current, update)) {
+        }
+    }
+
+    private void runBenchmark() throws Exception {
+        sent.set(0);
+        received.set(0);
+        scheduleStart.set(Long.MAX_VALUE);
+        lastDelivery.set(Long.MIN_VALUE);
+
         ExecutorService exec = Executors.newCachedThreadPool();
         final Phaser phaser = new Phaser();
 
@@ -261,12 +542,22 @@ public class NatsBench {
 
         phaser.register();
 
-        bench = new Benchmark("NATS", numSubs, numPubs,numMsgs);
+        bench = new Benchmark("NATS", numSubs, numPubs);
+        if (mode == Mode.REQUEST) {
+            bench.setLabels("Request", "Reply");
+        } else if (mode == Mode.QUEUE) {
+            bench.setLabels("Pub", "Queue");
+        }
+        delivered = new CountDownLatch(1);
 
         // Run Subscribers first
         for (int i = 0; i < numSubs; i++) {
             phaser.register();
-            exec.execute(new SubWorker(phaser, numMsgs, size,i));
+            if (mode == Mode.PUBSUB) {
+                exec.execute(new SubWorker(phaser, numMsgs, size,i));
+            } else {
+                exec.execute(new QueueSubWorker(phaser, numMsgs, size, i));
+            }
         }
 
         // Wait for subscribers threads to initialize
@@ -276,11 +567,16 @@ public class NatsBench {
         for (int i = 0; i < numPubs; i++) {
             System.out.println(i);
             phaser.register();
-            exec.execute(new PubWorker(phaser, numMsgs, size,i));
+            if (mode == Mode.REQUEST) {
+                exec.execute(new RequestWorker(phaser, numMsgs, size, i));
+            } else {
+                exec.execute(new PubWorker(phaser, numMsgs, size,i));
+            }
         }
 
-        System.out.printf("Starting benchmark [msgs=%d, msgsize=%d, pubs=%d, subs=%d]\n", numMsgs,
-                size, numPubs, numSubs);
+        System.out.printf("Starting benchmark [mode=%s, msgs=%d, msgsize=%d, pubs=%d, subs=%d, "
+                        + "rate=%s]\n", mode.name().toLowerCase(), numMsgs, size, numPubs, numSubs,
+                rate > 0 ? rate + "/sec" : "max");
 
         // Wait for subscribers and publishers to finish
         phaser.arriveAndAwaitAdvance();
@@ -297,10 +593,10 @@ public class NatsBench {
         bench.close();
         System.out.println(bench.report());
 
-        if (csvFileName != null) {
-            List<String> csv = bench.csv();
-            Path csvFile = Paths.get(csvFileName);
-            Files.write(csvFile, csv, Charset.forName("UTF-8"));
+        if (latencyDir != null) {
+            for (Path file : bench.exportLatency(Paths.get(latencyDir))) {
+                System.out.printf("Latency histogram written to %s\n", file);
+            }
         }
     }
 
@@ -351,6 +647,10 @@ public class NatsBench {
                     it.remove();
                     secure = true;
                     continue;
+                case "-embedded":
+                    it.remove();
+                    embedded = true;
+                    continue;
                 case "-np":
                     if (!it.hasNext()) {
                         usage();
@@ -393,6 +693,50 @@ public class NatsBench {
                     csvFileName = it.next();
                     it.remove();
                     continue;
+                case "-latency":
+                    if (!it.hasNext()) {
+                        usage();
+                    }
+                    it.remove();
+                    latencyDir = it.next();
+                    it.remove();
+                    continue;
+                case "-rate":
+                    if (!it.hasNext()) {
+                        usage();
+                    }
+                    it.remove();
+                    rate = Long.parseLong(it.next());
+                    it.remove();
+                    continue;
+                case "-mode":
+                    if (!it.hasNext()) {
+                        usage();
+                    }
+                    it.remove();
+                    mode = Mode.valueOf(it.next().toUpperCase());
+                    it.remove();
+                    continue;
+                case "-oldrequest":
+                    it.remove();
+                    oldRequest = true;
+                    continue;
+                case "-depth":
+                    if (!it.hasNext()) {
+                        usage();
+                    }
+                    it.remove();
+                    depth = Integer.parseInt(it.next());
+                    it.remove();
+                    continue;
+                case "-sweep":
+                    if (!it.hasNext()) {
+                        usage();
+                    }
+                    it.remove();
+                    parseSweep(it.next());
+                    it.remove();
+                    continue;
 
                 default:
                     System.err.printf("Unexpected token: '%s'\n", arg);
@@ -402,6 +746,20 @@ public class NatsBench {
         }
     }
 
+    // start:step[:max], in msgs/sec
+    private void parseSweep(String sweep) {
+        String[] rates = sweep.split(":");
+        if (rates.length < 2 || rates.length > 3) {
+            usage();
+        }
+        sweepStart = Long.parseLong(rates[0]);
+        sweepStep = Long.parseLong(rates[1]);
+        sweepMax = rates.length == 3 ? Long.parseLong(rates[2]) : 0;
+        if (sweepStart <= 0 || sweepStep <= 0) {
+            usage();
+        }
+    }
+
     private static Properties loadProperties(String configPath) {
         try {
             InputStream is = new FileInputStream(configPath);